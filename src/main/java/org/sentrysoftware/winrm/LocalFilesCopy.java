@@ -0,0 +1,74 @@
+package org.sentrysoftware.winrm;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The local files copied to the remote system before a command, and the command updated with their remote paths.
+ */
+public class LocalFilesCopy {
+
+	private final String command;
+	private final Map<String, String> remotePaths;
+	private final Map<String, Long> copyTimes;
+
+	/**
+	 * @param command The command, updated with the remote paths of the files
+	 * @param remotePaths The remote path of each local file, in the order of the local files
+	 * @param copyTimes The time spent copying each local file in milliseconds, in the order of the local files
+	 */
+	public LocalFilesCopy(
+			final String command,
+			final Map<String, String> remotePaths,
+			final Map<String, Long> copyTimes) {
+		this.command = command;
+		this.remotePaths = Collections.unmodifiableMap(remotePaths);
+		this.copyTimes = Collections.unmodifiableMap(copyTimes);
+	}
+
+	/**
+	 * @return The command, updated with the remote paths of the files
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	/**
+	 * @return The remote path of each local file, in the order of the local files
+	 */
+	public Map<String, String> getRemotePaths() {
+		return remotePaths;
+	}
+
+	/**
+	 * @return The time spent copying each local file in milliseconds, in the order of the local files
+	 */
+	public Map<String, Long> getCopyTimes() {
+		return copyTimes;
+	}
+
+	@Override
+	public String toString() {
+		return "LocalFilesCopy(command=" + command + ", copyTimes=" + copyTimes + ")";
+	}
+}
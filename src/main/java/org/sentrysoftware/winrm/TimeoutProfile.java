@@ -0,0 +1,120 @@
+package org.sentrysoftware.winrm;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.Objects;
+
+/**
+ * The timeouts of the connections to a host, in milliseconds:
+ * <ul>
+ * <li>connect: establishing a TCP connection, short so that a dead host is detected quickly</li>
+ * <li>connection request: waiting for a connection of the pool</li>
+ * <li>operation: waiting for the response to one request, also sent as the WS-Management OperationTimeout</li>
+ * <li>timeout: a whole call, including its retries</li>
+ * </ul>
+ * The timeout of the call is a deadline: the connection request, connect and operation timeouts of each
+ * attempt (and of its authentication handshake) are shortened to the time left before it, and a call is only
+ * retried if the pause and a useful attempt still fit. A call may therefore end before its operation timeout.
+ */
+public class TimeoutProfile {
+
+	private final long connectTimeout;
+	private final long connectionRequestTimeout;
+	private final long operationTimeout;
+	private final long timeout;
+
+	/**
+	 * @param connectTimeout Timeout of a TCP connection in milliseconds
+	 * @param connectionRequestTimeout Timeout of the wait for a connection of the pool in milliseconds
+	 * @param operationTimeout Timeout of the response to one request in milliseconds
+	 * @param timeout Timeout of a whole call, including its retries and their pauses, in milliseconds
+	 * (all throw an IllegalArgumentException if negative or zero)
+	 */
+	public TimeoutProfile(
+			final long connectTimeout,
+			final long connectionRequestTimeout,
+			final long operationTimeout,
+			final long timeout) {
+		Utils.checkArgumentNotZeroOrNegative(connectTimeout, "connectTimeout");
+		Utils.checkArgumentNotZeroOrNegative(connectionRequestTimeout, "connectionRequestTimeout");
+		Utils.checkArgumentNotZeroOrNegative(operationTimeout, "operationTimeout");
+		Utils.checkArgumentNotZeroOrNegative(timeout, "timeout");
+
+		this.connectTimeout = connectTimeout;
+		this.connectionRequestTimeout = connectionRequestTimeout;
+		this.operationTimeout = operationTimeout;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param timeout Timeout in milliseconds (throws an IllegalArgumentException if negative or zero)
+	 * @return A profile using the same timeout for everything
+	 */
+	public static TimeoutProfile of(final long timeout) {
+		return new TimeoutProfile(timeout, timeout, timeout, timeout);
+	}
+
+	public long getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public long getConnectionRequestTimeout() {
+		return connectionRequestTimeout;
+	}
+
+	public long getOperationTimeout() {
+		return operationTimeout;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(connectTimeout, connectionRequestTimeout, operationTimeout, timeout);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TimeoutProfile)) {
+			return false;
+		}
+		final TimeoutProfile other = (TimeoutProfile) obj;
+		return connectTimeout == other.connectTimeout
+				&& connectionRequestTimeout == other.connectionRequestTimeout
+				&& operationTimeout == other.operationTimeout
+				&& timeout == other.timeout;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"TimeoutProfile [connectTimeout=%d, connectionRequestTimeout=%d, operationTimeout=%d, timeout=%d]",
+				connectTimeout,
+				connectionRequestTimeout,
+				operationTimeout,
+				timeout);
+	}
+}
@@ -67,6 +67,30 @@ public interface WindowsRemoteExecutor extends AutoCloseable {
 			final long timeout
 			) throws WindowsRemoteException, TimeoutException;
 
+	/**
+	 * Execute the command on the remote, in a shell using the specified code page
+	 * 
+	 * @param command The command to execute
+	 * @param workingDirectory Path of the directory for the spawned process on the remote system (can be null)
+	 * @param charset The charset
+	 * @param timeout Timeout in milliseconds
+	 * @param codePage The code page of the remote shell (437 by default, 65001 for UTF-8)
+	 * @param skipCmdShell Whether the command is run directly instead of through CMD.EXE
+	 * 
+	 * @return The command result
+	 * 
+	 * @throws WindowsRemoteException For any problem encountered
+	 * @throws TimeoutException To notify userName of timeout.
+	 */
+	public WindowsRemoteCommandResult executeCommand(
+			final String command,
+			final String workingDirectory,
+			final Charset charset,
+			final long timeout,
+			final int codePage,
+			final boolean skipCmdShell
+			) throws WindowsRemoteException, TimeoutException;
+
 	/**
 	 * Get the hostname.
 	 * @return
@@ -21,6 +21,7 @@ package org.sentrysoftware.winrm;
  */
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -28,14 +29,25 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.sentrysoftware.winrm.exceptions.WindowsRemoteException;
 import org.sentrysoftware.winrm.exceptions.WqlQuerySyntaxException;
@@ -44,6 +56,18 @@ public class WindowsRemoteProcessUtils {
 
 	private WindowsRemoteProcessUtils() { }
 
+	/**
+	 * System property with the maximum number of local files copied at the same time before the commands
+	 * (4 by default), read when local files are first copied in parallel.
+	 */
+	public static final String COPY_CONCURRENCY_PROPERTY = "org.sentrysoftware.winrm.copyConcurrency";
+
+	static final int DEFAULT_COPY_CONCURRENCY = 4;
+
+	private static final long COPY_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	private static ExecutorService copyExecutor;
+
 	private static final String DEFAULT_CODESET = "1252";
 	private static final Charset DEFAULT_CHARSET = Charset.forName("windows-1252");
 
@@ -67,6 +91,8 @@ public class WindowsRemoteProcessUtils {
 		map.put("1256", Charset.forName("windows-1256"));
 		map.put("1257", Charset.forName("windows-1257"));
 		map.put("1258", Charset.forName("windows-1258"));
+		map.put("437", Charset.forName("IBM437"));
+		map.put("850", Charset.forName("IBM850"));
 		map.put("874", Charset.forName("x-windows-874"));
 		map.put("932", Charset.forName("Shift_JIS"));
 		map.put("936", Charset.forName("GBK"));
@@ -119,6 +145,17 @@ public class WindowsRemoteProcessUtils {
 		return CODESET_MAP.getOrDefault(codeSet, DEFAULT_CHARSET);
 	}
 
+	/**
+	 * Get the CharSet matching the specified Windows code page. (if not found by default Latin-1 windows-1252)
+	 *
+	 * @param codePage The Windows code page (e.g. 437 or 65001)
+	 *
+	 * @return the encoding charset of the code page
+	 */
+	public static Charset getCodePageCharset(final int codePage) {
+		return CODESET_MAP.getOrDefault(String.valueOf(codePage), DEFAULT_CHARSET);
+	}
+
 
 	/**
 	 * Builds a new output file name, with 99.9999999% chances of being unique
@@ -160,29 +197,148 @@ public class WindowsRemoteProcessUtils {
 		Utils.checkNonNull(uncSharePath, "uncSharePath");
 		Utils.checkNonNull(remotePath, "remotePath");
 
+		return copyLocalFiles(
+				command,
+				localFiles,
+				localFile -> copyToShare(localFile, uncSharePath, remotePath).toString())
+				.getCommand();
+	}
+
+	/**
+	 * Copy the local files to the remote system, several at a time (see {@link #COPY_CONCURRENCY_PROPERTY}),
+	 * and update the command with their path as seen in the remote system.
+	 * 
+	 * The command is updated in the order of the local files, whatever the order in which the copies complete.
+	 * Files with the same name are copied to the same remote path, so they are copied one after another,
+	 * in the order of the list.
+	 *
+	 * @param command The command (mandatory)
+	 * @param localFiles The local files to copy list
+	 * @param copier Copies one local file and returns its remote path (mandatory)
+	 * 
+	 * @return The updated command, with the remote path and the copy time of each file.
+	 * 
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static LocalFilesCopy copyLocalFiles(
+			final String command,
+			final List<String> localFiles,
+			final LocalFileCopier copier) throws IOException {
+
+		Utils.checkNonNull(command, "command");
+		Utils.checkNonNull(copier, "copier");
+
+		final Map<String, String> remotePaths = new LinkedHashMap<>();
+		final Map<String, Long> copyTimes = new LinkedHashMap<>();
+
+		if (localFiles == null || localFiles.isEmpty()) {
+			return new LocalFilesCopy(command, remotePaths, copyTimes);
+		}
+
+		final Map<String, List<String>> filesByName = localFiles.stream()
+				.distinct()
+				.collect(Collectors.groupingBy(
+						localFile -> Paths.get(localFile).getFileName().toString().toLowerCase(),
+						LinkedHashMap::new,
+						Collectors.toList()));
+
+		final Map<String, String> copiedRemotePaths = new ConcurrentHashMap<>();
+		final Map<String, Long> copiedTimes = new ConcurrentHashMap<>();
+		final int threads = Math.min(getCopyConcurrency(), filesByName.size());
+
+		if (threads <= 1) {
+			for (final List<String> sameNameFiles : filesByName.values()) {
+				copy(sameNameFiles, copier, copiedRemotePaths, copiedTimes);
+			}
+		} else {
+			final ExecutorService executor = getCopyExecutor();
+			final List<Future<Void>> copies = new ArrayList<>(filesByName.size());
+			try {
+				for (final List<String> sameNameFiles : filesByName.values()) {
+					copies.add(executor.submit(() -> {
+						copy(sameNameFiles, copier, copiedRemotePaths, copiedTimes);
+						return null;
+					}));
+				}
+				for (final Future<Void> copy : copies) {
+					waitFor(copy);
+				}
+			} finally {
+				// interrupts the remaining copies if one failed
+				copies.forEach(copy -> copy.cancel(true));
+			}
+		}
+
+		String updatedCommand = command;
+		for (final String localFile : localFiles) {
+			if (!remotePaths.containsKey(localFile)) {
+				remotePaths.put(localFile, copiedRemotePaths.get(localFile));
+				copyTimes.put(localFile, copiedTimes.get(localFile));
+				updatedCommand = caseInsensitiveReplace(updatedCommand, localFile, copiedRemotePaths.get(localFile));
+			}
+		}
+
+		return new LocalFilesCopy(updatedCommand, remotePaths, copyTimes);
+	}
+
+	private static void copy(
+			final List<String> localFiles,
+			final LocalFileCopier copier,
+			final Map<String, String> remotePaths,
+			final Map<String, Long> copyTimes) throws IOException {
+
+		for (final String localFile : localFiles) {
+			final long start = System.nanoTime();
+			remotePaths.put(localFile, copier.copy(Paths.get(localFile)));
+			copyTimes.put(localFile, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+	}
+
+	private static void waitFor(final Future<Void> copy) throws IOException {
 		try {
-			return localFiles.stream()
-					.reduce(
-							command,
-							(cmd, localFile) -> {
-								try {
-									final Path localFilePath = Paths.get(localFile);
-									final Path remoteFilePath = copyToShare(localFilePath, uncSharePath, remotePath);
-
-									return caseInsensitiveReplace(cmd, localFile, remoteFilePath.toString());
-
-								} catch (final IOException e) {
-									throw new RuntimeException(e);
-								}
-							});
-		} catch (final Exception e) {
+			copy.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while copying the local files");
+		} catch (final ExecutionException e) {
 			if (e.getCause() instanceof IOException) {
 				throw (IOException) e.getCause();
 			}
-			throw e;
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
 		}
 	}
 
+	/**
+	 * @return The pool shared by the copies of all the commands, bounded by the copy concurrency,
+	 * whose threads stop when idle
+	 */
+	private static synchronized ExecutorService getCopyExecutor() {
+		if (copyExecutor == null) {
+			final int threads = getCopyConcurrency();
+			final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+					threads,
+					threads,
+					COPY_THREAD_KEEP_ALIVE_SECONDS,
+					TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(),
+					runnable -> {
+						final Thread thread = new Thread(runnable, "WinRM file copy");
+						thread.setDaemon(true);
+						return thread;
+					});
+			executor.allowCoreThreadTimeOut(true);
+			copyExecutor = executor;
+		}
+		return copyExecutor;
+	}
+
+	static int getCopyConcurrency() {
+		return Math.max(Integer.getInteger(COPY_CONCURRENCY_PROPERTY, DEFAULT_COPY_CONCURRENCY), 1);
+	}
+
 	/**
 	 * Copy a file to the share.
 	 * 
@@ -238,10 +394,33 @@ public class WindowsRemoteProcessUtils {
 	 * 
 	 * @return updated string
 	 */
-	static String caseInsensitiveReplace(final String string, final String target, final String replacement) {
+	public static String caseInsensitiveReplace(final String string, final String target, final String replacement) {
 		return string == null || target == null ? string :
 			Pattern.compile(target, Pattern.LITERAL | Pattern.CASE_INSENSITIVE)
 			.matcher(string)
 			.replaceAll(Matcher.quoteReplacement(replacement == null ? Utils.EMPTY : replacement));
 	}
+
+	/**
+	 * Build the command running the PowerShell script, passed encoded so that it needs no escaping.
+	 *
+	 * @param script The PowerShell script (mandatory)
+	 * @return The command
+	 */
+	public static String buildPowerShellCommand(final String script) {
+		Utils.checkNonNull(script, "script");
+
+		return "powershell.exe -NoProfile -NonInteractive -EncodedCommand "
+				+ Base64.getEncoder().encodeToString(script.getBytes(StandardCharsets.UTF_16LE));
+	}
+
+	/**
+	 * @param value The value (mandatory)
+	 * @return The PowerShell single-quoted string of the value
+	 */
+	public static String quotePowerShellString(final String value) {
+		Utils.checkNonNull(value, "value");
+
+		return "'" + value.replace("'", "''") + "'";
+	}
 }
@@ -21,9 +21,18 @@ package org.sentrysoftware.winrm.command;
  */
 
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
@@ -33,14 +42,43 @@ import org.sentrysoftware.winrm.Utils;
 import org.sentrysoftware.winrm.exceptions.WindowsRemoteException;
 import org.sentrysoftware.winrm.exceptions.WqlQuerySyntaxException;
 import org.sentrysoftware.winrm.WindowsRemoteCommandResult;
+import org.sentrysoftware.winrm.WindowsRemoteExecutor;
 import org.sentrysoftware.winrm.WindowsRemoteProcessUtils;
 import org.sentrysoftware.winrm.service.WinRMEndpoint;
+import org.sentrysoftware.winrm.service.WinRMFileUploader;
 import org.sentrysoftware.winrm.service.WinRMService;
 import org.sentrysoftware.winrm.service.client.auth.AuthenticationEnum;
+import org.sentrysoftware.winrm.shares.LocalFilesBundler;
 import org.sentrysoftware.winrm.shares.SmbTempShare;
 
 public class WinRMCommandExecutor {
 
+	/**
+	 * System property enabling the copy of the local files as a single compressed archive,
+	 * expanded on the remote system (false by default).
+	 */
+	public static final String BUNDLE_PROPERTY = "org.sentrysoftware.winrm.bundleLocalFiles";
+
+	/**
+	 * Time during which the SMB port of a host which could not be reached is not tried again, in milliseconds.
+	 */
+	static final long SMB_RETRY_TIME = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * Exit code of CMD.EXE when the command cannot be found.
+	 */
+	static final int COMMAND_NOT_FOUND_STATUS = 9009;
+
+	/**
+	 * Messages of CMD.EXE when the command, or a file it uses, cannot be found.
+	 */
+	private static final List<String> MISSING_FILE_MESSAGES = Arrays.asList(
+			"is not recognized",
+			"cannot find the file",
+			"cannot find the path");
+
+	private static final Map<String, Long> SMB_UNAVAILABLE_HOSTS = new ConcurrentHashMap<>();
+
 	private WinRMCommandExecutor() { }
 
 	/**
@@ -96,6 +134,133 @@ public class WinRMCommandExecutor {
 			final List<AuthenticationEnum> authentications)
 					throws IOException, TimeoutException, WindowsRemoteException {
 
+		return execute(
+				command,
+				protocol,
+				hostname,
+				port,
+				username,
+				password,
+				workingDirectory,
+				timeout,
+				localFileToCopyList,
+				ticketCache,
+				authentications,
+				null,
+				false);
+	}
+
+	/**
+	 * Execute a command on a remote Windows system, in a shell using the specified code page,
+	 * and return an object with the output of the command.
+	 * 
+	 * When the code page is specified (e.g. 65001 for UTF-8), the output is decoded with the matching
+	 * charset and the Win32_OperatingSystem CodeSet is not queried.
+	 * 
+	 * @param command The command to execute. (Mandatory)
+	 * @param protocol The HTTP protocol (HTTP by default)
+	 * @param hostname Host to connect to. (Mandatory)
+	 * @param port The port (5985 for HTPP or 5986 for HTTPS by default)
+	 * @param username The username name. (Mandatory)
+	 * @param password The password.
+	 * @param workingDirectory Path of the directory for the spawned process on the remote system (can be null)
+	 * @param timeout The timeout in milliseconds (throws an IllegalArgumentException if negative or zero)
+	 * @param localFileToCopyList List of local files to copy to the remote before the execution
+	 * @param ticketCache The Ticket Cache path
+	 * @param authentications List of authentications. only NTLM if absent
+	 * @param codePage The code page of the remote shell. If null, 437 and the remote CodeSet are used
+	 * @param skipCmdShell Whether the command is run directly instead of through CMD.EXE
+	 * 
+	 * @return an instance of WindowsRemoteCommandResult with the result of the command
+	 * 
+	 * @throws IOException If an I/O error occurs.
+	 * @throws TimeoutException To notify userName of timeout
+	 * @throws WindowsRemoteException For any problem encountered on remote
+	 */
+	public static WindowsRemoteCommandResult execute(
+			final String command,
+			final WinRMHttpProtocolEnum protocol,
+			final String hostname,
+			final Integer port,
+			final String username,
+			final char[] password,
+			final String workingDirectory,
+			final long timeout,
+			final List<String> localFileToCopyList,
+			final Path ticketCache,
+			final List<AuthenticationEnum> authentications,
+			final Integer codePage,
+			final boolean skipCmdShell)
+					throws IOException, TimeoutException, WindowsRemoteException {
+
+		return execute(
+				command,
+				protocol,
+				hostname,
+				port,
+				username,
+				password,
+				workingDirectory,
+				timeout,
+				localFileToCopyList,
+				ticketCache,
+				authentications,
+				codePage,
+				skipCmdShell,
+				false);
+	}
+
+	/**
+	 * Execute a command on a remote Windows system, optionally with its output redirected to files of the
+	 * temporary share and read back through the SMB session, and return an object with the output of the command.
+	 * 
+	 * Redirecting the output is faster for large outputs, which otherwise come back base64-encoded in
+	 * SOAP Receive responses. The command is then always run through CMD.EXE.
+	 * 
+	 * When the SMB port of the host cannot be reached, the local files are uploaded through WinRM only
+	 * (see {@link WinRMFileUploader}), and the output is not redirected.
+	 * 
+	 * When {@link #BUNDLE_PROPERTY} is set, the local files are copied as a single compressed archive,
+	 * expanded on the remote system.
+	 * 
+	 * @param command The command to execute. (Mandatory)
+	 * @param protocol The HTTP protocol (HTTP by default)
+	 * @param hostname Host to connect to. (Mandatory)
+	 * @param port The port (5985 for HTPP or 5986 for HTTPS by default)
+	 * @param username The username name. (Mandatory)
+	 * @param password The password.
+	 * @param workingDirectory Path of the directory for the spawned process on the remote system (can be null)
+	 * @param timeout The timeout in milliseconds (throws an IllegalArgumentException if negative or zero)
+	 * @param localFileToCopyList List of local files to copy to the remote before the execution
+	 * @param ticketCache The Ticket Cache path
+	 * @param authentications List of authentications. only NTLM if absent
+	 * @param codePage The code page of the remote shell. If null, 437 and the remote CodeSet are used
+	 * @param skipCmdShell Whether the command is run directly instead of through CMD.EXE
+	 * @param outputOnShare Whether the output is redirected to files of the temporary share
+	 * 
+	 * @return an instance of WindowsRemoteCommandResult with the result of the command
+	 * 
+	 * @throws IOException If an I/O error occurs.
+	 * @throws TimeoutException To notify userName of timeout
+	 * @throws WindowsRemoteException For any problem encountered on remote
+	 */
+	public static WindowsRemoteCommandResult execute(
+			final String command,
+			final WinRMHttpProtocolEnum protocol,
+			final String hostname,
+			final Integer port,
+			final String username,
+			final char[] password,
+			final String workingDirectory,
+			final long timeout,
+			final List<String> localFileToCopyList,
+			final Path ticketCache,
+			final List<AuthenticationEnum> authentications,
+			final Integer codePage,
+			final boolean skipCmdShell,
+			final boolean outputOnShare)
+					throws IOException, TimeoutException, WindowsRemoteException {
+
 		Utils.checkNonNull(command, "command");
 		Utils.checkArgumentNotZeroOrNegative(timeout, "timeout");
 
@@ -104,51 +269,249 @@ public class WinRMCommandExecutor {
 		final WinRMEndpoint winRMEndpoint =
 				new WinRMEndpoint(protocol, hostname, port, username, password, null);
 
-		if (localFileToCopyList == null || localFileToCopyList.isEmpty()) {
+		final boolean noLocalFiles = localFileToCopyList == null || localFileToCopyList.isEmpty();
+		if (noLocalFiles && !outputOnShare) {
 			try (final WinRMService winRMService =
 					WinRMService.createInstance(winRMEndpoint, timeout, ticketCache, authentications)) {
 
-				final Charset charset = WindowsRemoteProcessUtils.getWindowsEncodingCharset(
-						winRMService,
-						TimeoutHelper.getRemainingTime(timeout, start, "No time left to retrieve the code set"));
+				final Charset charset = getCharset(winRMService, codePage, timeout, start);
 
-				return winRMService.executeCommand(
+				return executeCommand(
+						winRMService,
 						command,
 						workingDirectory,
 						charset,
-						timeout);
+						timeout,
+						codePage,
+						skipCmdShell);
 			} catch (final WqlQuerySyntaxException e) {
 				throw new IOException(e);
 			}
 		}
 
-		try (final SmbTempShare smbTempShare =
-				SmbTempShare.createInstance(winRMEndpoint, timeout, ticketCache, authentications)) {
+		final List<String> localFiles = noLocalFiles ? Collections.emptyList() : localFileToCopyList.stream()
+				.filter(Utils::isNotBlank)
+				.collect(Collectors.toList());
+
+		final SmbTempShare smbTempShare =
+				createSmbTempShare(winRMEndpoint, timeout, ticketCache, authentications);
+		if (smbTempShare == null) {
+			return executeWithWinRMUpload(
+					winRMEndpoint,
+					command,
+					workingDirectory,
+					timeout,
+					localFiles,
+					ticketCache,
+					authentications,
+					codePage,
+					skipCmdShell,
+					start);
+		}
+
+		try (smbTempShare) {
 
 			smbTempShare.checkConnectedFirst();
 
-			final List<String> localFiles = localFileToCopyList.stream()
-					.filter(Utils::isNotBlank)
-					.collect(Collectors.toList());
+			// Upload the specified list of files through the SMB session, and update the command accordingly
+			final String localFilesUpdatedCommand = (Boolean.getBoolean(BUNDLE_PROPERTY) ?
+					smbTempShare.copyLocalFilesBundle(
+							command,
+							localFiles,
+							TimeoutHelper.getRemainingTime(timeout, start, "No time left to copy the local files")) :
+					smbTempShare.copyLocalFiles(command, localFiles))
+					.getCommand();
 
-			// Copy the list specified list of files, and update the command accordingly
-			final String localFilesUpdatedCommand = WindowsRemoteProcessUtils.copyLocalFilesToShare(
-					command,
-					localFiles,
-					smbTempShare.getUncSharePath(),
-					smbTempShare.getRemotePath());
-
-			final Charset charset = WindowsRemoteProcessUtils.getWindowsEncodingCharset(
-					smbTempShare.getWindowsRemoteExecutor(),
-					TimeoutHelper.getRemainingTime(timeout, start, "No time left to retrieve the code set"));
-
-			return smbTempShare.getWindowsRemoteExecutor().executeCommand(
-					String.format("CMD.EXE /C (%s)", localFilesUpdatedCommand),
-					null,
-					charset,
-					TimeoutHelper.getRemainingTime(timeout, start, "No time left to execute command"));
+			final Charset charset = getCharset(smbTempShare.getWindowsRemoteExecutor(), codePage, timeout, start);
+
+			final WindowsRemoteCommandResult result;
+			try {
+				result = outputOnShare ?
+						smbTempShare.executeCommandWithOutputOnShare(
+								localFilesUpdatedCommand,
+								workingDirectory,
+								charset,
+								TimeoutHelper.getRemainingTime(timeout, start, "No time left to execute command"),
+								codePage) :
+						executeCommand(
+								smbTempShare.getWindowsRemoteExecutor(),
+								String.format("CMD.EXE /C (%s)", localFilesUpdatedCommand),
+								null,
+								charset,
+								TimeoutHelper.getRemainingTime(timeout, start, "No time left to execute command"),
+								codePage,
+								skipCmdShell);
+			} catch (final IOException e) {
+				// The files assumed to be present on the share may have been removed: check them next time
+				if (!localFiles.isEmpty()) {
+					smbTempShare.forgetUploads();
+				}
+				throw e;
+			}
+
+			if (!localFiles.isEmpty() && isMissingFile(result)) {
+				smbTempShare.forgetUploads();
+			}
+			return result;
 		} catch (final WqlQuerySyntaxException e) {
 			throw new IOException(e);
 		}
 	}
+
+	/**
+	 * Get or create the temporary share of the host.
+	 *
+	 * @return The temporary share, or null if the SMB port of the host cannot be reached
+	 */
+	private static SmbTempShare createSmbTempShare(
+			final WinRMEndpoint winRMEndpoint,
+			final long timeout,
+			final Path ticketCache,
+			final List<AuthenticationEnum> authentications)
+					throws IOException, TimeoutException, WindowsRemoteException {
+
+		final String host = winRMEndpoint.getHostname().toLowerCase(Locale.ROOT);
+		final Long unavailableTime = SMB_UNAVAILABLE_HOSTS.get(host);
+		if (unavailableTime != null) {
+			if (Utils.getCurrentTimeMillis() - unavailableTime < SMB_RETRY_TIME) {
+				return null;
+			}
+			SMB_UNAVAILABLE_HOSTS.remove(host);
+		}
+
+		try {
+			return SmbTempShare.createInstance(winRMEndpoint, timeout, ticketCache, authentications);
+		} catch (final IOException e) {
+			if (!isConnectionFailure(e)) {
+				throw e;
+			}
+			SMB_UNAVAILABLE_HOSTS.put(host, Utils.getCurrentTimeMillis());
+			return null;
+		}
+	}
+
+	/**
+	 * Upload the local files through WinRM only, then execute the command.
+	 */
+	private static WindowsRemoteCommandResult executeWithWinRMUpload(
+			final WinRMEndpoint winRMEndpoint,
+			final String command,
+			final String workingDirectory,
+			final long timeout,
+			final List<String> localFiles,
+			final Path ticketCache,
+			final List<AuthenticationEnum> authentications,
+			final Integer codePage,
+			final boolean skipCmdShell,
+			final long start) throws IOException, TimeoutException, WindowsRemoteException {
+
+		try (final WinRMService winRMService =
+				WinRMService.createInstance(winRMEndpoint, timeout, ticketCache, authentications)) {
+
+			final WinRMFileUploader uploader = new WinRMFileUploader(
+					winRMService,
+					TimeoutHelper.getRemainingTime(timeout, start, "No time left to upload the local files"));
+			final String localFilesUpdatedCommand = (Boolean.getBoolean(BUNDLE_PROPERTY) ?
+					uploader.copyLocalFilesBundle(command, localFiles) :
+					uploader.copyLocalFiles(command, localFiles))
+					.getCommand();
+
+			final Charset charset = getCharset(winRMService, codePage, timeout, start);
+
+			final WindowsRemoteCommandResult result;
+			try {
+				result = executeCommand(
+						winRMService,
+						String.format("CMD.EXE /C (%s)", localFilesUpdatedCommand),
+						workingDirectory,
+						charset,
+						TimeoutHelper.getRemainingTime(timeout, start, "No time left to execute command"),
+						codePage,
+						skipCmdShell);
+			} catch (final WindowsRemoteException e) {
+				// The bundles assumed to be expanded may have been removed: expand them next time
+				if (!localFiles.isEmpty()) {
+					LocalFilesBundler.getInstance().forget(winRMEndpoint.getHostname());
+				}
+				throw e;
+			}
+
+			if (!localFiles.isEmpty() && isMissingFile(result)) {
+				LocalFilesBundler.getInstance().forget(winRMEndpoint.getHostname());
+			}
+			return result;
+		} catch (final WqlQuerySyntaxException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Many commands exit with a non-zero code in normal conditions (e.g. FINDSTR without match):
+	 * only the failures which may mean that a copied file is missing make the copies checked again.
+	 *
+	 * @return Whether the command, or a file it uses, could not be found
+	 */
+	static boolean isMissingFile(final WindowsRemoteCommandResult result) {
+		if (result.getStatusCode() == COMMAND_NOT_FOUND_STATUS) {
+			return true;
+		}
+		final String stderr = result.getStderr();
+		return result.getStatusCode() != 0
+				&& stderr != null
+				&& MISSING_FILE_MESSAGES.stream().anyMatch(stderr.toLowerCase(Locale.ROOT)::contains);
+	}
+
+	/**
+	 * @return Whether the exception, or one of its causes, is a failure to connect to the host
+	 */
+	static boolean isConnectionFailure(final Throwable throwable) {
+		for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+			if (cause instanceof ConnectException ||
+					cause instanceof NoRouteToHostException ||
+					cause instanceof SocketTimeoutException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the charset of the code page if specified, otherwise query the remote CodeSet.
+	 */
+	private static Charset getCharset(
+			final WindowsRemoteExecutor windowsRemoteExecutor,
+			final Integer codePage,
+			final long timeout,
+			final long start) throws TimeoutException, WqlQuerySyntaxException, WindowsRemoteException {
+
+		if (codePage != null) {
+			return WindowsRemoteProcessUtils.getCodePageCharset(codePage);
+		}
+
+		return WindowsRemoteProcessUtils.getWindowsEncodingCharset(
+				windowsRemoteExecutor,
+				TimeoutHelper.getRemainingTime(timeout, start, "No time left to retrieve the code set"));
+	}
+
+	private static WindowsRemoteCommandResult executeCommand(
+			final WindowsRemoteExecutor windowsRemoteExecutor,
+			final String command,
+			final String workingDirectory,
+			final Charset charset,
+			final long timeout,
+			final Integer codePage,
+			final boolean skipCmdShell) throws TimeoutException, WindowsRemoteException {
+
+		if (codePage == null && !skipCmdShell) {
+			return windowsRemoteExecutor.executeCommand(command, workingDirectory, charset, timeout);
+		}
+
+		return windowsRemoteExecutor.executeCommand(
+				command,
+				workingDirectory,
+				charset,
+				timeout,
+				codePage != null ? codePage : WinRMService.DEFAULT_CODE_PAGE,
+				skipCmdShell);
+	}
 }
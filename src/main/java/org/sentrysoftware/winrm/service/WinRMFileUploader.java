@@ -0,0 +1,356 @@
+package org.sentrysoftware.winrm.service;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+
+import org.sentrysoftware.winrm.LocalFileCopier;
+import org.sentrysoftware.winrm.LocalFilesCopy;
+import org.sentrysoftware.winrm.Utils;
+import org.sentrysoftware.winrm.WindowsRemoteCommandResult;
+import org.sentrysoftware.winrm.WindowsRemoteProcessUtils;
+import org.sentrysoftware.winrm.exceptions.WinRMException;
+import org.sentrysoftware.winrm.exceptions.WindowsRemoteException;
+import org.sentrysoftware.winrm.shares.LocalFilesBundler;
+import org.sentrysoftware.winrm.shares.UploadCache;
+
+/**
+ * Upload of local files through WinRM only, for the hosts whose SMB port cannot be reached.
+ * 
+ * Each file is uploaded to <code>%SystemRoot%\Temp\SEN_Upload\&lt;name&gt;</code>, side by side with the other
+ * files of the command, unless a file with the same SHA-256 hash is already there. Its content is sent to the
+ * standard input of PowerShell commands, in chunks as large as the envelope allows, which write it to a temporary
+ * file. Large files are split in parts, each one sent in its own shell at the same time
+ * (see {@link #SHELLS_PROPERTY}). The temporary file is renamed once its hash is checked.
+ */
+public class WinRMFileUploader implements LocalFileCopier {
+
+	/**
+	 * System property with the maximum number of shells used at the same time to upload files (4 by default).
+	 */
+	public static final String SHELLS_PROPERTY = "org.sentrysoftware.winrm.uploadShells";
+
+	static final int DEFAULT_SHELLS = 4;
+	static final long DEFAULT_MIN_PART_SIZE = 1024L * 1024L;
+
+	private static final String UPLOAD_DIRECTORY = "Temp\\SEN_Upload";
+	private static final String PRESENT = "present";
+	private static final String VERIFIED = "verified";
+
+	/**
+	 * Beginning of the scripts: stop on errors, and the function giving the SHA-256 hash of a file
+	 * (Get-FileHash is missing in PowerShell 2 and 3).
+	 */
+	private static final String SCRIPT_HEADER = "$ErrorActionPreference = 'Stop'; "
+			+ "$ProgressPreference = 'SilentlyContinue'; "
+			+ "function Get-Sha256($p) { $s = [IO.File]::OpenRead($p); "
+			+ "try { $h = [Security.Cryptography.SHA256]::Create().ComputeHash($s) } finally { $s.Close() }; "
+			+ "-join ($h | ForEach-Object { $_.ToString('x2') }) }; ";
+
+	private final WinRMService winRMService;
+	private final long timeout;
+	private final Semaphore shells;
+	private final int maxShells;
+	private final long minPartSize;
+
+	/**
+	 * @param winRMService The WinRM service of the host (mandatory)
+	 * @param timeout The timeout of each command in milliseconds
+	 */
+	public WinRMFileUploader(final WinRMService winRMService, final long timeout) {
+		this(winRMService, timeout, getShells(), DEFAULT_MIN_PART_SIZE);
+	}
+
+	WinRMFileUploader(
+			final WinRMService winRMService,
+			final long timeout,
+			final int maxShells,
+			final long minPartSize) {
+		Utils.checkNonNull(winRMService, "winRMService");
+		Utils.checkArgumentNotZeroOrNegative(timeout, "timeout");
+
+		this.winRMService = winRMService;
+		this.timeout = timeout;
+		this.maxShells = maxShells;
+		this.shells = new Semaphore(maxShells);
+		this.minPartSize = minPartSize;
+	}
+
+	/**
+	 * Upload the local files which are not on the remote system yet, and update the command with their path
+	 * as seen in the remote system.
+	 *
+	 * @param command The command (mandatory)
+	 * @param localFiles The local files to copy list
+	 * @return The updated command, with the remote path and the copy time of each file.
+	 * @throws IOException If a file cannot be uploaded
+	 * @see WindowsRemoteProcessUtils#copyLocalFiles(String, List, LocalFileCopier)
+	 */
+	public LocalFilesCopy copyLocalFiles(final String command, final List<String> localFiles) throws IOException {
+		return WindowsRemoteProcessUtils.copyLocalFiles(command, localFiles, this);
+	}
+
+	/**
+	 * Upload the local files as a single compressed archive, only if it is not on the remote system yet,
+	 * expand it there, and update the command with their path as seen in the remote system.
+	 *
+	 * @param command The command (mandatory)
+	 * @param localFiles The local files to copy list
+	 * @return The updated command, with the remote path and the copy time of each file.
+	 * @throws IOException If the archive cannot be built, uploaded or expanded
+	 * @throws TimeoutException If the expansion timed out
+	 * @throws WindowsRemoteException For any problem encountered on remote
+	 * @see LocalFilesBundler#copyLocalFiles(String, List, LocalFileCopier,
+	 * org.sentrysoftware.winrm.WindowsRemoteExecutor, long)
+	 */
+	public LocalFilesCopy copyLocalFilesBundle(final String command, final List<String> localFiles)
+			throws IOException, TimeoutException, WindowsRemoteException {
+		return LocalFilesBundler.getInstance().copyLocalFiles(command, localFiles, this, winRMService, timeout);
+	}
+
+	@Override
+	public String copy(final Path localFile) throws IOException {
+		Utils.checkNonNull(localFile, "localFile");
+
+		final long size = Files.size(localFile);
+		final String hash = UploadCache.getInstance().getHash(localFile);
+		final String name = localFile.getFileName().toString();
+
+		// The temporary file of each upload is unique, several hosts may upload the same file at the same time
+		final String variables = String.format(
+				"$f = Join-Path $env:SystemRoot %s; $t = $f + %s; ",
+				WindowsRemoteProcessUtils.quotePowerShellString(UPLOAD_DIRECTORY + "\\" + name),
+				WindowsRemoteProcessUtils.quotePowerShellString("." + UUID.randomUUID() + ".tmp"));
+
+		final String[] prepared = run(
+				SCRIPT_HEADER + variables
+				+ String.format("if ((Test-Path -LiteralPath $f) -and (Get-Sha256 $f) -eq '%s') { '%s' } ", hash, PRESENT)
+				+ "else { $null = [IO.Directory]::CreateDirectory([IO.Path]::GetDirectoryName($f)); "
+				+ String.format("$s = [IO.File]::Create($t); $s.SetLength(%d); $s.Close(); 'missing' }; ", size)
+				+ "$env:SystemRoot",
+				InputStream.nullInputStream())
+				.getStdout()
+				.trim()
+				.split("\\s*\\R\\s*");
+
+		if (prepared.length < 2) {
+			throw new IOException("Unexpected output when preparing the upload of " + localFile);
+		}
+
+		final String remotePath = String.format("%s\\%s\\%s", prepared[prepared.length - 1], UPLOAD_DIRECTORY, name);
+		if (PRESENT.equals(prepared[0])) {
+			return remotePath;
+		}
+
+		if (size > 0) {
+			uploadParts(localFile, size, variables);
+		}
+
+		final String verified = run(
+				SCRIPT_HEADER + variables
+				+ String.format("$h = Get-Sha256 $t; if ($h -eq '%s') { ", hash)
+				+ String.format("Move-Item -LiteralPath $t -Destination $f -Force; '%s' } ", VERIFIED)
+				+ "else { Remove-Item -LiteralPath $t -Force; $h }",
+				InputStream.nullInputStream())
+				.getStdout()
+				.trim();
+
+		if (!VERIFIED.equals(verified)) {
+			throw new IOException(String.format(
+					"Integrity check failed for the upload of %s: SHA-256 %s expected, %s found",
+					localFile,
+					hash,
+					verified));
+		}
+
+		return remotePath;
+	}
+
+	/**
+	 * Send the content of the file to the temporary file, in parts sent in separate shells at the same time.
+	 */
+	private void uploadParts(final Path localFile, final long size, final String variables) throws IOException {
+		final int parts = (int) Math.max(Math.min(maxShells, (size + minPartSize - 1) / minPartSize), 1);
+		final long partSize = (size + parts - 1) / parts;
+
+		if (parts == 1) {
+			uploadPart(localFile, 0, size, variables);
+			return;
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(parts, runnable -> {
+			final Thread thread = new Thread(runnable, "WinRM file upload");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			final List<Future<Void>> uploads = new ArrayList<>(parts);
+			for (long offset = 0; offset < size; offset += partSize) {
+				final long start = offset;
+				final long length = Math.min(partSize, size - offset);
+				uploads.add(executor.submit(() -> {
+					uploadPart(localFile, start, length, variables);
+					return null;
+				}));
+			}
+			for (final Future<Void> upload : uploads) {
+				waitFor(upload);
+			}
+		} finally {
+			// interrupts the remaining parts if one failed
+			executor.shutdownNow();
+		}
+	}
+
+	private void uploadPart(
+			final Path localFile,
+			final long offset,
+			final long length,
+			final String variables) throws IOException {
+
+		try (final FileChannel channel = FileChannel.open(localFile, StandardOpenOption.READ)) {
+			run(
+					SCRIPT_HEADER + variables
+					+ "$o = New-Object IO.FileStream($t, 'Open', 'Write', 'ReadWrite'); "
+					+ String.format("try { $o.Position = %d; $i = [Console]::OpenStandardInput(); ", offset)
+					+ "$b = New-Object byte[] 65536; "
+					+ "while (($r = $i.Read($b, 0, $b.Length)) -gt 0) { $o.Write($b, 0, $r) } } "
+					+ "finally { $o.Close() }",
+					new PartInputStream(channel, offset, length));
+		}
+	}
+
+	/**
+	 * Run the PowerShell script in a shell of its own, with the specified standard input.
+	 *
+	 * @return The result of the script, which succeeded
+	 * @throws IOException If the script failed
+	 */
+	private WindowsRemoteCommandResult run(final String script, final InputStream input) throws IOException {
+		try {
+			shells.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a shell to upload files");
+		}
+
+		try {
+			final WindowsRemoteCommandResult result = winRMService.executeCommandWithInput(
+					WindowsRemoteProcessUtils.buildPowerShellCommand(script),
+					input,
+					null,
+					timeout,
+					true);
+
+			if (result.getStatusCode() != 0) {
+				throw new IOException(String.format(
+						"Upload command failed with exit code %d on %s: %s",
+						result.getStatusCode(),
+						winRMService.getHostname(),
+						result.getStderr().trim()));
+			}
+
+			return result;
+
+		} catch (final WinRMException | TimeoutException e) {
+			throw new IOException("Cannot upload files to " + winRMService.getHostname(), e);
+		} finally {
+			shells.release();
+		}
+	}
+
+	private static void waitFor(final Future<Void> upload) throws IOException {
+		try {
+			upload.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while uploading a file");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	static int getShells() {
+		return Math.max(Integer.getInteger(SHELLS_PROPERTY, DEFAULT_SHELLS), 1);
+	}
+
+	/**
+	 * Content of a part of a file, read at its position.
+	 */
+	private static class PartInputStream extends InputStream {
+
+		private final FileChannel channel;
+		private final long end;
+		private long position;
+
+		PartInputStream(final FileChannel channel, final long offset, final long length) {
+			this.channel = channel;
+			this.position = offset;
+			this.end = offset + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (position >= end) {
+				return -1;
+			}
+			if (len == 0) {
+				return 0;
+			}
+
+			final int length = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+			if (length < 0) {
+				return -1;
+			}
+			position += length;
+			return length;
+		}
+	}
+}
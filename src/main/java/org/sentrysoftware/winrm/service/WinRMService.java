@@ -21,6 +21,7 @@ package org.sentrysoftware.winrm.service;
  */
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Proxy;
@@ -31,6 +32,7 @@ import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -66,6 +68,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import org.sentrysoftware.winrm.TimeoutProfile;
 import org.sentrysoftware.winrm.Utils;
 import org.sentrysoftware.winrm.WmiHelper;
 import org.sentrysoftware.winrm.exceptions.WqlQuerySyntaxException;
@@ -74,6 +77,8 @@ import org.sentrysoftware.winrm.WindowsRemoteExecutor;
 import org.sentrysoftware.winrm.exceptions.WinRMException;
 import org.sentrysoftware.winrm.service.client.WinRMInvocationHandler;
 import org.sentrysoftware.winrm.service.client.auth.AuthenticationEnum;
+import org.sentrysoftware.winrm.service.client.encryption.AsyncHttpEncryptionAwareConduitFactory;
+import org.sentrysoftware.winrm.service.client.encryption.ConnectionStatistics;
 
 import org.sentrysoftware.winrm.service.enumeration.Enumerate;
 import org.sentrysoftware.winrm.service.enumeration.EnumerateResponse;
@@ -86,6 +91,7 @@ import org.sentrysoftware.winrm.service.shell.CommandStateType;
 import org.sentrysoftware.winrm.service.shell.DesiredStreamType;
 import org.sentrysoftware.winrm.service.shell.Receive;
 import org.sentrysoftware.winrm.service.shell.ReceiveResponse;
+import org.sentrysoftware.winrm.service.shell.Send;
 import org.sentrysoftware.winrm.service.shell.Shell;
 import org.sentrysoftware.winrm.service.shell.StreamType;
 import org.sentrysoftware.winrm.service.transfer.ResourceCreated;
@@ -105,11 +111,27 @@ public class WinRMService implements WindowsRemoteExecutor {
 	public static final List<AuthenticationEnum> DEFAULT_AUTHENTICATION =
 			Collections.singletonList(AuthenticationEnum.NTLM);
 
+	/**
+	 * Code page of the remote shell when none is specified (OEM United States)
+	 */
+	public static final int DEFAULT_CODE_PAGE = 437;
+
+	/**
+	 * UTF-8 code page
+	 */
+	public static final int UTF8_CODE_PAGE = 65001;
+
 	private static final String STDERR = "stderr";
 	private static final String STDOUT = "stdout";
 
 	private static final int MAX_ENVELOPE_SIZE = 153600;
 
+	/**
+	 * Maximum number of standard input bytes per Send request: the bytes are base64-encoded in the envelope,
+	 * which also holds the SOAP headers.
+	 */
+	static final int MAX_SEND_SIZE = (MAX_ENVELOPE_SIZE - 8192) / 4 * 3;
+
 	private static final String ENUMERATION_NAMESPACE = "http://schemas.xmlsoap.org/ws/2004/09/enumeration";
 
 	private static final String WSMAN_URI = "http://schemas.microsoft.com/wbem/wsman/1";
@@ -160,35 +182,11 @@ public class WinRMService implements WindowsRemoteExecutor {
 		LOCALE.setLang(java.util.Locale.US.toLanguageTag());
 	}
 
-	private static final OptionSetType OPTION_SET_CREATE;
-	static {
-		final OptionType optNoProfile = new OptionType();
-		optNoProfile.setName("WINRS_NOPROFILE");
-		optNoProfile.setValue("true");
+	private static final OptionSetType OPTION_SET_CREATE = createShellOptionSet(DEFAULT_CODE_PAGE);
 
-		final OptionType optCodepage = new OptionType();
-		optCodepage.setName("WINRS_CODEPAGE");
-		optCodepage.setValue("437");
+	private static final OptionSetType OPTION_SET_COMMAND = createCommandOptionSet(false);
 
-		OPTION_SET_CREATE = new OptionSetType();
-		OPTION_SET_CREATE.getOption().add(optNoProfile);
-		OPTION_SET_CREATE.getOption().add(optCodepage);
-	}
-
-	private static final OptionSetType OPTION_SET_COMMAND;
-	static {
-		final OptionType optConsoleModeStdin = new OptionType();
-		optConsoleModeStdin.setName("WINRS_CONSOLEMODE_STDIN");
-		optConsoleModeStdin.setValue("true");
-
-		final OptionType optSkipCmdShell = new OptionType();
-		optSkipCmdShell.setName("WINRS_SKIP_CMD_SHELL");
-		optSkipCmdShell.setValue("false");
-
-		OPTION_SET_COMMAND = new OptionSetType();
-		OPTION_SET_COMMAND.getOption().add(optConsoleModeStdin);
-		OPTION_SET_COMMAND.getOption().add(optSkipCmdShell);
-	}
+	private static final OptionSetType OPTION_SET_COMMAND_SKIP_CMD_SHELL = createCommandOptionSet(true);
 
 	private static final ConcurrentHashMap<WinRMEndpoint, WinRMService> CONNECTIONS_CACHE =
 			new ConcurrentHashMap<>();
@@ -203,7 +201,11 @@ public class WinRMService implements WindowsRemoteExecutor {
 	private final Client wqlClient;
 	private final String strTimeout;
 
-	private SelectorSetType shellSelector = null;
+	/**
+	 * The shells, one per code page: the code page is set at the shell creation, and the commands
+	 * using another one must not delete a shell in which other commands may be running.
+	 */
+	private final Map<Integer, SelectorSetType> shellSelectors = new ConcurrentHashMap<>();
 
 	/**
 	 * The WinRMService constructor.
@@ -212,14 +214,14 @@ public class WinRMService implements WindowsRemoteExecutor {
 	 * @param bus Apache CXF Bus
 	 * @param cmdInvocation The WinRM web service for executing commands
 	 * @param wqlInvocation The WinRM web service for executing WQL queries
-	 * @param timeout Timeout in milliseconds
+	 * @param operationTimeout Timeout of each operation (WS-Management OperationTimeout) in milliseconds
 	 */
 	private WinRMService(
 			final WinRMEndpoint winRMEndpoint,
 			final Bus bus,
 			final WinRMInvocationHandler cmdInvocation,
 			final WinRMInvocationHandler wqlInvocation,
-			final long timeout) {
+			final long operationTimeout) {
 
 		this.winRMEndpoint = winRMEndpoint;
 		this.bus = bus;
@@ -228,7 +230,7 @@ public class WinRMService implements WindowsRemoteExecutor {
 		this.cmdClient = cmdInvocation.getClient();
 		this.wqlClient = wqlInvocation.getClient();
 
-		final BigDecimal timeoutSec = BigDecimal.valueOf(timeout).divide(BigDecimal.valueOf(1000));
+		final BigDecimal timeoutSec = BigDecimal.valueOf(operationTimeout).divide(BigDecimal.valueOf(1000));
 		final DecimalFormat decimalFormat =
 				new DecimalFormat("PT#.###S", new DecimalFormatSymbols(java.util.Locale.ROOT));
 		this.strTimeout =  decimalFormat.format(timeoutSec);
@@ -257,6 +259,32 @@ public class WinRMService implements WindowsRemoteExecutor {
 		Utils.checkNonNull(winRMEndpoint, "winRMEndpoint");
 		Utils.checkArgumentNotZeroOrNegative(timeout, "timeout");
 
+		return createInstance(winRMEndpoint, TimeoutProfile.of(timeout), ticketCache, authentications);
+	}
+
+	/**
+	 * Create a WinRMService instance with separate timeouts, so that a dead host is detected with the
+	 * connect timeout while the long operations (e.g. WQL queries) can still complete.
+	 *
+	 * @param winRMEndpoint Endpoint with credentials (mandatory)
+	 * @param timeoutProfile The connect, connection request, operation and call timeouts (mandatory)
+	 * @param ticketCache The Ticket Cache path
+	 * @param authentications List of authentications. only NTLM if absent
+	 * 
+	 * @return WinRMService instance
+	 * 
+	 * @throws WinRMException For any problem encountered
+	 */
+	public static WinRMService createInstance(
+			final WinRMEndpoint winRMEndpoint,
+			final TimeoutProfile timeoutProfile,
+			final Path ticketCache,
+			final List<AuthenticationEnum> authentications)
+			throws WinRMException {
+
+		Utils.checkNonNull(winRMEndpoint, "winRMEndpoint");
+		Utils.checkNonNull(timeoutProfile, "timeoutProfile");
+
 		final List<AuthenticationEnum> normalizedAuthentications = authentications == null ?
 				DEFAULT_AUTHENTICATION :
 				authentications.stream().distinct().collect(Collectors.toList());
@@ -277,7 +305,7 @@ public class WinRMService implements WindowsRemoteExecutor {
 							final WinRMInvocationHandler cmdInvocation = createWinRMInvocationHandlerInstance(
 									winRMEndpoint,
 									bus,
-									timeout,
+									timeoutProfile,
 									null,
 									ticketCache,
 									normalizedAuthentications);
@@ -285,12 +313,17 @@ public class WinRMService implements WindowsRemoteExecutor {
 							final WinRMInvocationHandler wqlInvocation = createWinRMInvocationHandlerInstance(
 									winRMEndpoint,
 									bus,
-									timeout,
+									timeoutProfile,
 									String.format("%s/wmi/%s/*", WSMAN_URI, winRMEndpoint.getNamespace()),
 									ticketCache,
 									normalizedAuthentications);
 
-							return new WinRMService(winRMEndpoint, bus, cmdInvocation, wqlInvocation, timeout);
+							return new WinRMService(
+									winRMEndpoint,
+									bus,
+									cmdInvocation,
+									wqlInvocation,
+									timeoutProfile.getOperationTimeout());
 						} else {
 							synchronized (win) {
 								win.incrementUseCount();
@@ -312,6 +345,35 @@ public class WinRMService implements WindowsRemoteExecutor {
 		}
 	}
 
+	/**
+	 * Create and cache the credentials of the endpoint ahead of the connections, e.g. before a scheduled
+	 * collection window, so that the Kerberos login is not done when the connections are opened.
+	 *
+	 * @param winRMEndpoint Endpoint with credentials (mandatory)
+	 * @param ticketCache The Ticket Cache path
+	 * @param authentications List of authentications. only NTLM if absent
+	 * @return The authentications whose credentials are ready
+	 * @throws WinRMException If the credentials of none of the authentications can be created
+	 */
+	public static List<AuthenticationEnum> warmUpCredentials(
+			final WinRMEndpoint winRMEndpoint,
+			final Path ticketCache,
+			final List<AuthenticationEnum> authentications)
+			throws WinRMException {
+
+		Utils.checkNonNull(winRMEndpoint, "winRMEndpoint");
+
+		final List<AuthenticationEnum> normalizedAuthentications = authentications == null ?
+				DEFAULT_AUTHENTICATION :
+				authentications.stream().distinct().collect(Collectors.toList());
+
+		try {
+			return WinRMInvocationHandler.warmUpCredentials(winRMEndpoint, ticketCache, normalizedAuthentications);
+		} catch (final RuntimeException e) {
+			throw new WinRMException(e, e.getMessage());
+		}
+	}
+
 	public int getUseCount() {
 		return useCount.get();
 	}
@@ -341,17 +403,7 @@ public class WinRMService implements WindowsRemoteExecutor {
 		if (useCount.decrementAndGet() == 0) {
 			CONNECTIONS_CACHE.remove(winRMEndpoint);
 
-			if (shellSelector != null) {
-				cmdWS.delete(
-						new Delete(),
-						COMMAND_RESOURCE_URI,
-						MAX_ENVELOPE_SIZE,
-						strTimeout,
-						LOCALE,
-						shellSelector);
-
-				shellSelector = null;
-			}
+			deleteShells();
 
 			if (cmdClient != null) {
 				cmdClient.destroy();
@@ -362,6 +414,7 @@ public class WinRMService implements WindowsRemoteExecutor {
 			}
 
 			if (bus != null && bus.getState() != BusState.SHUTDOWN) {
+				AsyncHttpEncryptionAwareConduitFactory.shutdownInstance(bus);
 				bus.shutdown(true);
 			}
 		}
@@ -374,16 +427,31 @@ public class WinRMService implements WindowsRemoteExecutor {
 			final Charset charset,
 			final long timeout) throws WinRMException, TimeoutException {
 
+		return executeCommand(command, workingDirectory, charset, timeout, DEFAULT_CODE_PAGE, false);
+	}
+
+	@Override
+	public WindowsRemoteCommandResult executeCommand(
+			final String command,
+			final String workingDirectory,
+			final Charset charset,
+			final long timeout,
+			final int codePage,
+			final boolean skipCmdShell) throws WinRMException, TimeoutException {
+
 		Utils.checkNonNull(command, "command");
 		Utils.checkArgumentNotZeroOrNegative(timeout, "timeout");
+		Utils.checkArgumentNotZeroOrNegative(codePage, "codePage");
 
 		checkConnectedFirst();
 
 		try {
 			return Utils.execute(
 					() -> {
-						if (getShellSelector() == null) {
-							create(workingDirectory);
+						synchronized (this) {
+							if (getShellSelector(codePage) == null) {
+								create(workingDirectory, codePage);
+							}
 						}
 
 						try {
@@ -392,7 +460,7 @@ public class WinRMService implements WindowsRemoteExecutor {
 							final Charset cs = charset != null ? charset : StandardCharsets.UTF_8;
 
 							final long start = Utils.getCurrentTimeMillis();
-							final int statusCode = execute(command, stdout, stderr, cs);
+							final int statusCode = execute(command, stdout, stderr, cs, skipCmdShell, codePage);
 							final float executionTime = (Utils.getCurrentTimeMillis() - start) / 1000.0f;
 
 							return new WindowsRemoteCommandResult(
@@ -413,6 +481,69 @@ public class WinRMService implements WindowsRemoteExecutor {
 		}
 	}
 
+	/**
+	 * Execute a command in a new shell of its own, with the specified content as standard input,
+	 * and return its output. Several such commands can run at the same time, each in its own shell.
+	 *
+	 * @param command The command to execute (mandatory)
+	 * @param input The content sent to the standard input of the command, in chunks as large as the envelope
+	 * allows (mandatory)
+	 * @param charset The charset of the output (UTF-8 if null)
+	 * @param timeout Timeout in milliseconds
+	 * @param skipCmdShell Whether the command is run directly instead of through CMD.EXE
+	 *
+	 * @return The result of the command
+	 *
+	 * @throws WinRMException For any problem encountered
+	 * @throws TimeoutException To notify userName of timeout
+	 */
+	public WindowsRemoteCommandResult executeCommandWithInput(
+			final String command,
+			final InputStream input,
+			final Charset charset,
+			final long timeout,
+			final boolean skipCmdShell) throws WinRMException, TimeoutException {
+
+		Utils.checkNonNull(command, "command");
+		Utils.checkNonNull(input, "input");
+		Utils.checkArgumentNotZeroOrNegative(timeout, "timeout");
+
+		checkConnectedFirst();
+
+		try {
+			return Utils.execute(
+					() -> {
+						final SelectorSetType selector = createShellSelector(
+								getShellId(createShell(null, DEFAULT_CODE_PAGE)));
+						try {
+							final StringWriter stdout = new StringWriter();
+							final StringWriter stderr = new StringWriter();
+							final Charset cs = charset != null ? charset : StandardCharsets.UTF_8;
+
+							final long start = Utils.getCurrentTimeMillis();
+							final int statusCode = execute(command, input, stdout, stderr, cs, skipCmdShell, selector);
+							final float executionTime = (Utils.getCurrentTimeMillis() - start) / 1000.0f;
+
+							return new WindowsRemoteCommandResult(
+									stdout.toString(),
+									stderr.toString(),
+									executionTime,
+									statusCode);
+						} catch (final WinRMException e) {
+							throw new RuntimeException(e);
+						} finally {
+							deleteShell(selector);
+						}
+					},
+					timeout);
+		} catch (final InterruptedException | ExecutionException e) {
+			if (e.getCause() != null) {
+				throw new WinRMException(e.getCause(), e.getCause().getMessage());
+			}
+			throw new WinRMException(e);
+		}
+	}
+
 	@Override
 	public List<Map<String, Object>> executeWql(
 			final String wqlQuery,
@@ -459,10 +590,26 @@ public class WinRMService implements WindowsRemoteExecutor {
 			final String resourceUri,
 			final Path ticketCache,
 			final List<AuthenticationEnum> authentications) {
+		return createWinRMInvocationHandlerInstance(
+				winRMEndpoint,
+				bus,
+				TimeoutProfile.of(timeout),
+				resourceUri,
+				ticketCache,
+				authentications);
+	}
+
+	public static WinRMInvocationHandler createWinRMInvocationHandlerInstance(
+			final WinRMEndpoint winRMEndpoint,
+			final Bus bus,
+			final TimeoutProfile timeoutProfile,
+			final String resourceUri,
+			final Path ticketCache,
+			final List<AuthenticationEnum> authentications) {
 		return new WinRMInvocationHandler(
 				winRMEndpoint,
 				bus,
-				timeout,
+				timeoutProfile,
 				resourceUri,
 				ticketCache,
 				authentications);
@@ -514,6 +661,32 @@ public class WinRMService implements WindowsRemoteExecutor {
 	}
 
 	public ResourceCreated create(final String workingDirectory) {
+		return create(workingDirectory, DEFAULT_CODE_PAGE);
+	}
+
+	/**
+	 * Create the remote shell used to execute the commands with the specified code page,
+	 * replacing the shell of this code page if any.
+	 *
+	 * @param workingDirectory Path of the directory for the spawned process on the remote system (can be null)
+	 * @param codePage The code page of the shell (437 by default, 65001 for UTF-8)
+	 *
+	 * @return The WS-Transfer ResourceCreated response
+	 */
+	public ResourceCreated create(final String workingDirectory, final int codePage) {
+
+		final ResourceCreated resourceCreated = createShell(workingDirectory, codePage);
+
+		final SelectorSetType replaced =
+				shellSelectors.put(codePage, createShellSelector(getShellId(resourceCreated)));
+		if (replaced != null) {
+			deleteShell(replaced);
+		}
+
+		return resourceCreated;
+	}
+
+	private ResourceCreated createShell(final String workingDirectory, final int codePage) {
 
 		final Shell shell = new Shell();
 		shell.getInputStreams().add("stdin");
@@ -524,27 +697,70 @@ public class WinRMService implements WindowsRemoteExecutor {
 			shell.setWorkingDirectory(workingDirectory);
 		}
 
-		final ResourceCreated resourceCreated = cmdWS.create(
+		return cmdWS.create(
 				shell,
 				COMMAND_RESOURCE_URI,
 				MAX_ENVELOPE_SIZE,
 				strTimeout,
 				LOCALE,
-				OPTION_SET_CREATE);
-
-		final String shellId = getShellId(resourceCreated);
+				codePage == DEFAULT_CODE_PAGE ? OPTION_SET_CREATE : createShellOptionSet(codePage));
+	}
 
-		shellSelector = new SelectorSetType();
+	private static SelectorSetType createShellSelector(final String shellId) {
+		final SelectorSetType selectorSet = new SelectorSetType();
 		final SelectorType selectorType = new SelectorType();
 		selectorType.setName("ShellId");
 		selectorType.getContent().add(shellId);
-		shellSelector.getSelector().add(selectorType);
-
-		return resourceCreated;
+		selectorSet.getSelector().add(selectorType);
+		return selectorSet;
 	}
 
 	public int execute(final String command, final Writer out, final Writer err, final Charset charset)
 			throws WinRMException {
+		return execute(command, out, err, charset, false);
+	}
+
+	public int execute(
+			final String command,
+			final Writer out,
+			final Writer err,
+			final Charset charset,
+			final boolean skipCmdShell) throws WinRMException {
+		return execute(command, out, err, charset, skipCmdShell, DEFAULT_CODE_PAGE);
+	}
+
+	/**
+	 * Execute the command in the shell of the code page and write its output.
+	 *
+	 * @param command The command to execute
+	 * @param out The standard output writer
+	 * @param err The standard error writer
+	 * @param charset The charset of the output
+	 * @param skipCmdShell Whether the command is run directly instead of through CMD.EXE
+	 * @param codePage The code page of the shell, created with {@link #create(String, int)}
+	 *
+	 * @return The exit code of the command
+	 *
+	 * @throws WinRMException For any problem encountered
+	 */
+	public int execute(
+			final String command,
+			final Writer out,
+			final Writer err,
+			final Charset charset,
+			final boolean skipCmdShell,
+			final int codePage) throws WinRMException {
+		return execute(command, null, out, err, charset, skipCmdShell, getShellSelector(codePage));
+	}
+
+	private int execute(
+			final String command,
+			final InputStream input,
+			final Writer out,
+			final Writer err,
+			final Charset charset,
+			final boolean skipCmdShell,
+			final SelectorSetType selector) throws WinRMException {
 
 		final CommandLine body = new CommandLine();
 		body.setCommand(command);
@@ -555,13 +771,16 @@ public class WinRMService implements WindowsRemoteExecutor {
 				MAX_ENVELOPE_SIZE,
 				strTimeout,
 				LOCALE,
-				shellSelector,
-				OPTION_SET_COMMAND);
+				selector,
+				skipCmdShell ? OPTION_SET_COMMAND_SKIP_CMD_SHELL : OPTION_SET_COMMAND);
 
 		final String commandId = commandResponse.getCommandId();
 
 		try {
-			return receiveCommand(commandId, out, err, charset);
+			if (input != null) {
+				send(commandId, input, selector);
+			}
+			return receiveCommand(commandId, out, err, charset, selector);
 		} finally {
 			try {
 				final Signal signal = new Signal();
@@ -574,18 +793,59 @@ public class WinRMService implements WindowsRemoteExecutor {
 						MAX_ENVELOPE_SIZE,
 						strTimeout,
 						LOCALE,
-						shellSelector);
+						selector);
 			} catch (final SOAPFaultException soapFault) {
 				assertFaultCode(soapFault, WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND,  true);
 			}
 		}
 	}
 
+	/**
+	 * Send the content to the standard input of the command, the last chunk closing it.
+	 */
+	private void send(
+			final String commandId,
+			final InputStream input,
+			final SelectorSetType selector) throws WinRMException {
+
+		final byte[] buffer = new byte[MAX_SEND_SIZE];
+		boolean end = false;
+		while (!end) {
+			final int length;
+			try {
+				length = input.readNBytes(buffer, 0, buffer.length);
+			} catch (final IOException e) {
+				throw new WinRMException(e, "Cannot read the standard input of the command: " + e.getMessage());
+			}
+			end = length < buffer.length;
+
+			final StreamType stream = new StreamType();
+			stream.setName("stdin");
+			stream.setCommandId(commandId);
+			stream.setValue(length == buffer.length ? buffer : Arrays.copyOf(buffer, length));
+			if (end) {
+				stream.setEnd(true);
+			}
+
+			final Send send = new Send();
+			send.getStream().add(stream);
+
+			cmdWS.send(
+					send,
+					COMMAND_RESOURCE_URI,
+					MAX_ENVELOPE_SIZE,
+					strTimeout,
+					LOCALE,
+					selector);
+		}
+	}
+
 	private int receiveCommand(
 			final String commandId,
 			final Writer out,
 			final Writer err,
-			final Charset charset) throws WinRMException {
+			final Charset charset,
+			final SelectorSetType selector) throws WinRMException {
 
 		while(true) {
 
@@ -603,7 +863,7 @@ public class WinRMService implements WindowsRemoteExecutor {
 						MAX_ENVELOPE_SIZE,
 						strTimeout,
 						LOCALE,
-						shellSelector);
+						selector);
 				getStreams(receiveResponse, out, err, charset);
 
 				final CommandStateType state = receiveResponse.getCommandState();
@@ -618,6 +878,58 @@ public class WinRMService implements WindowsRemoteExecutor {
 		}
 	}
 
+	/**
+	 * Delete the remote shells which have been created.
+	 */
+	private void deleteShells() {
+		for (final Integer codePage : shellSelectors.keySet()) {
+			final SelectorSetType selector = shellSelectors.remove(codePage);
+			if (selector != null) {
+				deleteShell(selector);
+			}
+		}
+	}
+
+	private void deleteShell(final SelectorSetType selector) {
+		cmdWS.delete(
+				new Delete(),
+				COMMAND_RESOURCE_URI,
+				MAX_ENVELOPE_SIZE,
+				strTimeout,
+				LOCALE,
+				selector);
+	}
+
+	private static OptionSetType createShellOptionSet(final int codePage) {
+		final OptionType optNoProfile = new OptionType();
+		optNoProfile.setName("WINRS_NOPROFILE");
+		optNoProfile.setValue("true");
+
+		final OptionType optCodepage = new OptionType();
+		optCodepage.setName("WINRS_CODEPAGE");
+		optCodepage.setValue(String.valueOf(codePage));
+
+		final OptionSetType optionSet = new OptionSetType();
+		optionSet.getOption().add(optNoProfile);
+		optionSet.getOption().add(optCodepage);
+		return optionSet;
+	}
+
+	private static OptionSetType createCommandOptionSet(final boolean skipCmdShell) {
+		final OptionType optConsoleModeStdin = new OptionType();
+		optConsoleModeStdin.setName("WINRS_CONSOLEMODE_STDIN");
+		optConsoleModeStdin.setValue("true");
+
+		final OptionType optSkipCmdShell = new OptionType();
+		optSkipCmdShell.setName("WINRS_SKIP_CMD_SHELL");
+		optSkipCmdShell.setValue(String.valueOf(skipCmdShell));
+
+		final OptionSetType optionSet = new OptionSetType();
+		optionSet.getOption().add(optConsoleModeStdin);
+		optionSet.getOption().add(optSkipCmdShell);
+		return optionSet;
+	}
+
 	private static Map<String, Object> convertRow(final Node node) {
 		return IntStream
 				.range(0, node.getChildNodes().getLength())
@@ -866,7 +1178,23 @@ public class WinRMService implements WindowsRemoteExecutor {
 
 
 	public SelectorSetType getShellSelector() {
-		return shellSelector;
+		return getShellSelector(DEFAULT_CODE_PAGE);
+	}
+
+	/**
+	 * @param codePage The code page of the shell
+	 * @return The selector of the shell of the code page, or null if not created yet
+	 */
+	public SelectorSetType getShellSelector(final int codePage) {
+		return shellSelectors.get(codePage);
+	}
+
+	/**
+	 * @return The counters of the HTTP connections used by this instance (all zero once closed)
+	 */
+	public ConnectionStatistics getConnectionStatistics() {
+		final AsyncHttpEncryptionAwareConduitFactory factory = AsyncHttpEncryptionAwareConduitFactory.findInstance(bus);
+		return factory != null ? factory.getStatistics() : new ConnectionStatistics();
 	}
 
 	@Override
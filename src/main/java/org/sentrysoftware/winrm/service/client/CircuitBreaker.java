@@ -0,0 +1,238 @@
+package org.sentrysoftware.winrm.service.client;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.conn.ConnectTimeoutException;
+
+import org.sentrysoftware.winrm.Utils;
+
+/**
+ * Circuit breaker of the WinRM calls to a host. After consecutive connection failures, the breaker opens
+ * and the calls fail immediately instead of waiting for the connection timeout on each attempt. Once the
+ * open time has elapsed, a single probe call is let through (half-open): its success closes the breaker,
+ * its failure opens it again.
+ * Only the failures to connect count: a read timeout means the host is reachable, only slow.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		/** The calls go through */
+		CLOSED,
+		/** The calls fail immediately */
+		OPEN,
+		/** A probe call is in progress, the other calls fail immediately */
+		HALF_OPEN
+	}
+
+	/**
+	 * System property with the number of consecutive connection failures opening the breaker
+	 * (5 by default, 0 disables the breakers).
+	 */
+	public static final String FAILURE_THRESHOLD_PROPERTY = "org.sentrysoftware.winrm.circuitBreakerFailures";
+
+	/**
+	 * System property with the time the breaker stays open before a probe, in milliseconds (30 seconds by default).
+	 */
+	public static final String OPEN_TIME_PROPERTY = "org.sentrysoftware.winrm.circuitBreakerOpenTime";
+
+	static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	static final long DEFAULT_OPEN_TIME_MILLISECONDS = TimeUnit.SECONDS.toMillis(30);
+	static final int MAX_HOSTS = 1024;
+
+	private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+	private final String hostname;
+	private final AtomicLong rejectedCalls = new AtomicLong();
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedTime;
+	private long probeTime;
+
+	CircuitBreaker(final String hostname) {
+		this.hostname = hostname;
+	}
+
+	/**
+	 * Get the circuit breaker of the host, shared by all its WinRM connections.
+	 *
+	 * @param hostname The host name (mandatory)
+	 * @return The circuit breaker
+	 */
+	public static CircuitBreaker getInstance(final String hostname) {
+		Utils.checkNonNull(hostname, "hostname");
+
+		final String key = hostname.toLowerCase();
+		final CircuitBreaker circuitBreaker = BREAKERS.get(key);
+		if (circuitBreaker != null) {
+			return circuitBreaker;
+		}
+
+		if (BREAKERS.size() >= MAX_HOSTS) {
+			// the closed breakers without failure hold no state worth keeping
+			BREAKERS.values().removeIf(CircuitBreaker::isIdle);
+		}
+		return BREAKERS.computeIfAbsent(key, CircuitBreaker::new);
+	}
+
+	/**
+	 * @return The state of the circuit breaker of each host, for monitoring
+	 */
+	public static Map<String, State> getStates() {
+		final Map<String, State> states = new TreeMap<>();
+		BREAKERS.forEach((hostname, circuitBreaker) -> states.put(hostname, circuitBreaker.getState()));
+		return Collections.unmodifiableMap(states);
+	}
+
+	/**
+	 * Forget the state of all the hosts.
+	 */
+	public static void clear() {
+		BREAKERS.clear();
+	}
+
+	/**
+	 * @return The host name
+	 */
+	public String getHostname() {
+		return hostname;
+	}
+
+	/**
+	 * @return The current state
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return The number of connection failures since the last success
+	 */
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	/**
+	 * @return The number of calls which failed immediately because the breaker was open
+	 */
+	public long getRejectedCalls() {
+		return rejectedCalls.get();
+	}
+
+	/**
+	 * Check whether a call can be made to the host. When the open time has elapsed, the call is the probe.
+	 *
+	 * @return Whether the call can be made
+	 */
+	synchronized boolean allowRequest() {
+		if (state == State.CLOSED || getFailureThreshold() <= 0) {
+			return true;
+		}
+
+		final long now = Utils.getCurrentTimeMillis();
+		final long since = state == State.OPEN ? openedTime : probeTime;
+
+		// a probe which never reported its outcome is replaced after the open time as well
+		if (now - since >= getOpenTime()) {
+			state = State.HALF_OPEN;
+			probeTime = now;
+			return true;
+		}
+
+		rejectedCalls.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * The host answered: close the breaker.
+	 */
+	synchronized void recordSuccess() {
+		consecutiveFailures = 0;
+		state = State.CLOSED;
+	}
+
+	/**
+	 * The host could not be reached: open the breaker if the probe failed or after too many consecutive failures.
+	 */
+	synchronized void recordFailure() {
+		consecutiveFailures++;
+
+		final int threshold = getFailureThreshold();
+		if (threshold > 0 && (state == State.HALF_OPEN || consecutiveFailures >= threshold)) {
+			state = State.OPEN;
+			openedTime = Utils.getCurrentTimeMillis();
+		}
+	}
+
+	/**
+	 * @param throwable The failure of a call
+	 * @return Whether the host could not be reached: unknown host, no route, connection refused or timed out
+	 */
+	static boolean isConnectionFailure(final Throwable throwable) {
+		for (Throwable cause = throwable; cause != null; cause = cause.getCause() != cause ? cause.getCause() : null) {
+			if (cause instanceof ConnectException ||
+					cause instanceof NoRouteToHostException ||
+					cause instanceof UnknownHostException ||
+					cause instanceof ConnectTimeoutException ||
+					cause instanceof SocketTimeoutException && isConnectTimeout(cause.getMessage())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isConnectTimeout(final String message) {
+		return message != null && message.toLowerCase().contains("connect");
+	}
+
+	private synchronized boolean isIdle() {
+		return state == State.CLOSED && consecutiveFailures == 0;
+	}
+
+	private static int getFailureThreshold() {
+		return Integer.getInteger(FAILURE_THRESHOLD_PROPERTY, DEFAULT_FAILURE_THRESHOLD);
+	}
+
+	private static long getOpenTime() {
+		return Long.getLong(OPEN_TIME_PROPERTY, DEFAULT_OPEN_TIME_MILLISECONDS);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"CircuitBreaker [hostname=%s, state=%s, consecutiveFailures=%d, rejectedCalls=%d]",
+				hostname,
+				state,
+				consecutiveFailures,
+				getRejectedCalls());
+	}
+}
@@ -0,0 +1,341 @@
+package org.sentrysoftware.winrm.service.client;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.security.auth.DestroyFailedException;
+import javax.security.auth.Destroyable;
+
+import org.apache.http.auth.Credentials;
+
+import org.sentrysoftware.winrm.Utils;
+import org.sentrysoftware.winrm.service.client.WinRMInvocationHandler.CredentialsMapKey;
+import org.sentrysoftware.winrm.service.client.auth.kerberos.KerberosCredentialsWithEncryption;
+import org.sentrysoftware.winrm.service.client.encryption.EncryptedSessionCredentials;
+
+/**
+ * Cache of the credentials of the WinRM connections, per user, password, ticket cache and authentication.
+ * The credentials of the HTTP endpoints hold the keys of their security contexts: the cache is bounded,
+ * the credentials which are not used for an idle time are evicted, and the evicted credentials are destroyed.
+ * The idle credentials are evicted when credentials are taken from the cache, by {@link #evictIdle()}, and in the
+ * background every sweep period while the cache is not empty.
+ * 
+ * The credentials are used when they are taken from the cache, and each time the requests of the services
+ * holding them acquire or release a security context. The credentials evicted (because the cache is full)
+ * or replaced while still used are only dropped from the cache: the services holding them keep pooling
+ * their security contexts.
+ */
+public class CredentialsCache {
+
+	/**
+	 * System property with the idle time after which the credentials are evicted, in milliseconds (1 hour by default).
+	 */
+	public static final String IDLE_TIME_PROPERTY = "org.sentrysoftware.winrm.credentialsIdleTime";
+
+	static final long DEFAULT_IDLE_TIME_MILLISECONDS = TimeUnit.HOURS.toMillis(1);
+	static final long SWEEP_PERIOD_MILLISECONDS = TimeUnit.MINUTES.toMillis(5);
+	static final int MAX_ENTRIES = 256;
+
+	private static final CredentialsCache INSTANCE = new CredentialsCache();
+
+	private final Map<CredentialsMapKey, CachedCredentials> entries = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	// Orders the uses of the credentials, which can happen within the same millisecond
+	private final AtomicLong useSequence = new AtomicLong();
+
+	private ScheduledExecutorService executor;
+	private ScheduledFuture<?> sweep;
+
+	CredentialsCache() { }
+
+	/**
+	 * @return The cache shared by all the WinRM connections
+	 */
+	public static CredentialsCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return The number of credentials found in the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of credentials created because they were not (or no longer) in the cache
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of credentials evicted, because they were idle or the cache was full
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return The number of credentials in the cache
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Evict and destroy all the credentials, including the ones still used.
+	 */
+	public void clear() {
+		entries.keySet().forEach(key -> evict(key, entries.get(key), true));
+		cancelSweep();
+	}
+
+	/**
+	 * Evict and destroy the credentials which are not used since the idle time.
+	 */
+	public void evictIdle() {
+		final long now = Utils.getCurrentTimeMillis();
+		final long idleTime = getIdleTime();
+		entries.forEach((key, cached) -> {
+			if (cached.isIdle(now, idleTime)) {
+				evict(key, cached, true);
+			}
+		});
+	}
+
+	/**
+	 * Get the credentials of the key, or create them if they are not in the cache or idle.
+	 * The credentials are created outside of the map (a Kerberos login may take seconds): if other ones
+	 * were created for the same key in the meantime, they are kept and the new ones are destroyed.
+	 *
+	 * @param key The user, password, ticket cache and authentication of the credentials
+	 * @param supplier Creates the credentials
+	 * @return The credentials
+	 */
+	Credentials get(final CredentialsMapKey key, final Supplier<Credentials> supplier) {
+		evictIdle();
+
+		final long now = Utils.getCurrentTimeMillis();
+		final long idleTime = getIdleTime();
+
+		final CachedCredentials found = entries.computeIfPresent(key, (k, current) -> {
+			if (!current.isIdle(now, idleTime)) {
+				current.touch(now, useSequence.incrementAndGet());
+			}
+			return current;
+		});
+		if (found != null && !found.isIdle(now, idleTime)) {
+			hits.incrementAndGet();
+			return found.credentials;
+		}
+
+		misses.incrementAndGet();
+		final CachedCredentials created = new CachedCredentials(supplier.get(), now, useSequence.incrementAndGet());
+
+		final CachedCredentials[] replaced = new CachedCredentials[1];
+		final CachedCredentials cached = entries.compute(key, (k, current) -> {
+			if (current != null && !current.isIdle(now, idleTime)) {
+				current.touch(now, useSequence.incrementAndGet());
+				return current;
+			}
+			replaced[0] = current;
+			return created;
+		});
+
+		if (cached != created) {
+			destroy(created.credentials);
+		}
+		if (replaced[0] != null) {
+			evictions.incrementAndGet();
+			destroy(replaced[0].credentials);
+		}
+
+		scheduleSweep();
+
+		if (entries.size() > MAX_ENTRIES) {
+			trim(now, idleTime);
+		}
+
+		return cached.credentials;
+	}
+
+	/**
+	 * Replace the credentials of the key, destroying the previous ones unless they are still used.
+	 *
+	 * @param key The user, password, ticket cache and authentication of the credentials
+	 * @param credentials The new credentials
+	 */
+	void put(final CredentialsMapKey key, final Credentials credentials) {
+		final long now = Utils.getCurrentTimeMillis();
+		final CachedCredentials previous = entries.put(key, new CachedCredentials(credentials, now, useSequence.incrementAndGet()));
+		if (previous != null && previous.credentials != credentials && previous.isIdle(now, getIdleTime())) {
+			destroy(previous.credentials);
+		}
+
+		scheduleSweep();
+
+		if (entries.size() > MAX_ENTRIES) {
+			trim(now, getIdleTime());
+		}
+	}
+
+	/**
+	 * @return Whether the idle credentials are evicted in the background
+	 */
+	synchronized boolean isSweepScheduled() {
+		return sweep != null;
+	}
+
+	/**
+	 * Evict the idle credentials, and stop the sweep once the cache is empty.
+	 */
+	void sweep() {
+		evictIdle();
+		if (entries.isEmpty()) {
+			cancelSweep();
+		}
+	}
+
+	private synchronized void scheduleSweep() {
+		if (sweep != null) {
+			return;
+		}
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "WinRM credentials eviction");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		sweep = executor.scheduleWithFixedDelay(
+				this::sweep,
+				SWEEP_PERIOD_MILLISECONDS,
+				SWEEP_PERIOD_MILLISECONDS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void cancelSweep() {
+		// credentials cached in the meantime schedule the sweep again
+		if (sweep != null && entries.isEmpty()) {
+			sweep.cancel(false);
+			sweep = null;
+		}
+	}
+
+	/**
+	 * Evict the idle credentials, then the least recently used ones until the cache is within its bound.
+	 */
+	private void trim(final long now, final long idleTime) {
+		entries.forEach((key, cached) -> {
+			if (cached.isIdle(now, idleTime)) {
+				evict(key, cached, true);
+			}
+		});
+
+		while (entries.size() > MAX_ENTRIES) {
+			entries.entrySet().stream()
+				.min(Comparator.comparingLong(entry -> entry.getValue().lastUse))
+				.ifPresent(entry -> evict(entry.getKey(), entry.getValue(), entry.getValue().isIdle(now, idleTime)));
+		}
+	}
+
+	private void evict(final CredentialsMapKey key, final CachedCredentials cached, final boolean destroy) {
+		if (cached != null && entries.remove(key, cached)) {
+			evictions.incrementAndGet();
+			if (destroy) {
+				destroy(cached.credentials);
+			}
+		}
+	}
+
+	/**
+	 * Clear the keys held by the credentials, and release the Kerberos principal holding their TGT.
+	 * The connections still using them keep working, with new security contexts.
+	 */
+	private static void destroy(final Credentials credentials) {
+		if (credentials instanceof KerberosCredentialsWithEncryption) {
+			destroy(((KerberosCredentialsWithEncryption) credentials).getKerberosCredentials());
+		}
+		if (credentials instanceof Destroyable) {
+			try {
+				((Destroyable) credentials).destroy();
+			} catch (final DestroyFailedException e) {
+				// nothing more can be cleared
+			}
+		}
+	}
+
+	private static long getIdleTime() {
+		return Long.getLong(IDLE_TIME_PROPERTY, DEFAULT_IDLE_TIME_MILLISECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"CredentialsCache [entries=%d, hits=%d, misses=%d, evictions=%d]",
+				size(),
+				getHits(),
+				getMisses(),
+				getEvictions());
+	}
+
+	private static class CachedCredentials {
+
+		private final Credentials credentials;
+		private volatile long lastAccess;
+		private volatile long lastUse;
+
+		CachedCredentials(final Credentials credentials, final long lastAccess, final long lastUse) {
+			this.credentials = credentials;
+			this.lastAccess = lastAccess;
+			this.lastUse = lastUse;
+		}
+
+		void touch(final long now, final long use) {
+			lastAccess = now;
+			lastUse = use;
+		}
+
+		/**
+		 * @return Whether neither the cache nor the requests of the services holding the credentials
+		 * used them within the idle time
+		 */
+		boolean isIdle(final long now, final long idleTime) {
+			final long lastSecurityContextUse = credentials instanceof EncryptedSessionCredentials ?
+					((EncryptedSessionCredentials) credentials).getLastUseTime() : 0;
+			return now - Math.max(lastAccess, lastSecurityContextUse) >= idleTime;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package org.sentrysoftware.winrm.service.client;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.xml.namespace.QName;
+import jakarta.xml.soap.SOAPFault;
+import jakarta.xml.ws.soap.SOAPFaultException;
+
+import org.sentrysoftware.winrm.Utils;
+
+/**
+ * Retry policy with a maximum number of attempts and an exponential backoff with jitter, so that the
+ * clients of many hosts which failed together (e.g. a site-wide outage) do not retry all at the same time.
+ * <ul>
+ * <li>Only the transient faults are retried: I/O errors such as connection refused, reset or timed out,
+ * and the WS-Management quota faults. The unknown host and TLS handshake errors are fatal.</li>
+ * <li>A call is only retried if the pause and the shortest useful attempt fit in the time left before its
+ * timeout. The timeouts of the next attempt are shortened to the time left, so the retries never overshoot.</li>
+ * <li>Each host has a retry budget: each call adds a fraction of a retry, each retry takes one, so that
+ * a failing host is not hammered with retries on top of its calls.</li>
+ * </ul>
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+	public static final long DEFAULT_BASE_DELAY_MILLISECONDS = 500;
+	public static final long DEFAULT_MAX_DELAY_MILLISECONDS = 10_000;
+	public static final double DEFAULT_BUDGET_RATIO = 0.2;
+	public static final long DEFAULT_MIN_ATTEMPT_TIME_MILLISECONDS = 1000;
+
+	/**
+	 * Maximum (and initial) number of retries in the budget of a host.
+	 */
+	static final double MAX_BUDGET = 20;
+	static final int MAX_HOSTS = 1024;
+
+	private static final String QUOTA_LIMIT_FAULT = "QuotaLimit";
+
+	private final int maxAttempts;
+	private final long baseDelay;
+	private final long maxDelay;
+	private final double budgetRatio;
+	private final long minAttemptTime;
+
+	private final Map<String, RetryBudget> budgets = new ConcurrentHashMap<>();
+
+	/**
+	 * Policy with 3 attempts, a backoff starting at 500 milliseconds up to 10 seconds, and a retry
+	 * budget of 20% of the calls.
+	 */
+	public ExponentialBackoffRetryPolicy() {
+		this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLISECONDS, DEFAULT_MAX_DELAY_MILLISECONDS, DEFAULT_BUDGET_RATIO);
+	}
+
+	/**
+	 * @param maxAttempts The maximum number of attempts of a call, including the first one
+	 * @param baseDelay The pause before the first retry, doubled for each next retry, in milliseconds
+	 * @param maxDelay The maximum pause, in milliseconds
+	 * @param budgetRatio The number of retries earned by each call to a host (e.g. 0.2 for 20%)
+	 */
+	public ExponentialBackoffRetryPolicy(
+			final int maxAttempts,
+			final long baseDelay,
+			final long maxDelay,
+			final double budgetRatio) {
+		this(maxAttempts, baseDelay, maxDelay, budgetRatio, DEFAULT_MIN_ATTEMPT_TIME_MILLISECONDS);
+	}
+
+	/**
+	 * @param maxAttempts The maximum number of attempts of a call, including the first one
+	 * @param baseDelay The pause before the first retry, doubled for each next retry, in milliseconds
+	 * @param maxDelay The maximum pause, in milliseconds
+	 * @param budgetRatio The number of retries earned by each call to a host (e.g. 0.2 for 20%)
+	 * @param minAttemptTime The shortest time worth giving to an attempt, in milliseconds: no retry if less
+	 * is left after the pause
+	 */
+	public ExponentialBackoffRetryPolicy(
+			final int maxAttempts,
+			final long baseDelay,
+			final long maxDelay,
+			final double budgetRatio,
+			final long minAttemptTime) {
+		Utils.checkArgumentNotZeroOrNegative(maxAttempts, "maxAttempts");
+		Utils.checkArgumentNotZeroOrNegative(baseDelay, "baseDelay");
+		Utils.checkArgumentNotZeroOrNegative(maxDelay, "maxDelay");
+		if (budgetRatio < 0) {
+			throw new IllegalArgumentException("budgetRatio must not be negative: " + budgetRatio);
+		}
+		if (minAttemptTime < 0) {
+			throw new IllegalArgumentException("minAttemptTime must not be negative: " + minAttemptTime);
+		}
+
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = Math.max(baseDelay, maxDelay);
+		this.budgetRatio = budgetRatio;
+		this.minAttemptTime = minAttemptTime;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public long getMinAttemptTime() {
+		return minAttemptTime;
+	}
+
+	@Override
+	public void onCall(final String hostname) {
+		getBudget(hostname).deposit(budgetRatio);
+	}
+
+	@Override
+	public long getRetryDelay(
+			final String hostname,
+			final int attempt,
+			final Throwable failure,
+			final long remainingTime) {
+
+		if (attempt >= maxAttempts || !isRetryable(failure)) {
+			return NO_RETRY;
+		}
+
+		final long delay = computeDelay(attempt);
+		if (delay + minAttemptTime > remainingTime || !getBudget(hostname).withdraw()) {
+			return NO_RETRY;
+		}
+
+		return delay;
+	}
+
+	/**
+	 * Exponential backoff with "equal jitter": half of the pause is fixed, the other half is random.
+	 *
+	 * @param attempt The number of attempts made so far
+	 * @return The pause in milliseconds
+	 */
+	long computeDelay(final int attempt) {
+		final int shift = Math.min(attempt - 1, 30);
+		final long exponential = Math.min(maxDelay, baseDelay << shift);
+		final long cap = exponential > 0 ? exponential : maxDelay;
+		final long half = cap / 2;
+		return half + ThreadLocalRandom.current().nextLong(cap - half + 1);
+	}
+
+	/**
+	 * @param failure The failure of the last attempt
+	 * @return Whether the failure is transient
+	 */
+	protected boolean isRetryable(final Throwable failure) {
+		if (failure instanceof SOAPFaultException) {
+			return isQuotaFault(((SOAPFaultException) failure).getFault());
+		}
+
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof UnknownHostException || cause instanceof SSLHandshakeException) {
+				return false;
+			}
+			if (cause instanceof ConnectException || cause instanceof NoRouteToHostException) {
+				return true;
+			}
+		}
+
+		// connection reset, timeouts and the other I/O errors
+		return true;
+	}
+
+	/**
+	 * @param fault The SOAP fault
+	 * @return Whether this is a WS-Management quota fault (e.g. too many concurrent shells or operations)
+	 */
+	static boolean isQuotaFault(final SOAPFault fault) {
+		if (fault == null) {
+			return false;
+		}
+
+		try {
+			final Iterator<QName> subcodes = fault.getFaultSubcodes();
+			while (subcodes.hasNext()) {
+				if (QUOTA_LIMIT_FAULT.equals(subcodes.next().getLocalPart())) {
+					return true;
+				}
+			}
+		} catch (final UnsupportedOperationException e) {
+			// SOAP 1.1 faults have no subcodes
+		}
+
+		return false;
+	}
+
+	private RetryBudget getBudget(final String hostname) {
+		final String key = hostname != null ? hostname.toLowerCase() : Utils.EMPTY;
+		final RetryBudget budget = budgets.get(key);
+		if (budget != null) {
+			return budget;
+		}
+
+		if (budgets.size() >= MAX_HOSTS) {
+			// the full budgets are the same as new ones
+			budgets.values().removeIf(RetryBudget::isFull);
+		}
+		return budgets.computeIfAbsent(key, k -> new RetryBudget());
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"ExponentialBackoffRetryPolicy [maxAttempts=%d, baseDelay=%d, maxDelay=%d, budgetRatio=%s]",
+				maxAttempts,
+				baseDelay,
+				maxDelay,
+				budgetRatio);
+	}
+
+	private static class RetryBudget {
+
+		private double balance = MAX_BUDGET;
+
+		synchronized void deposit(final double amount) {
+			balance = Math.min(MAX_BUDGET, balance + amount);
+		}
+
+		synchronized boolean withdraw() {
+			if (balance < 1) {
+				return false;
+			}
+			balance--;
+			return true;
+		}
+
+		synchronized boolean isFull() {
+			return balance >= MAX_BUDGET;
+		}
+	}
+}
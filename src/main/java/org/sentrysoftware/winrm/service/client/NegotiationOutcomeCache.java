@@ -0,0 +1,218 @@
+package org.sentrysoftware.winrm.service.client;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sentrysoftware.winrm.Utils;
+import org.sentrysoftware.winrm.service.WinRMEndpoint;
+import org.sentrysoftware.winrm.service.client.auth.AuthenticationEnum;
+
+/**
+ * Remembers, per endpoint (protocol, host and port) and user, the authentication which succeeded last,
+ * so that the next connections try it first instead of repeating the failing attempts and their retries.
+ * The outcomes expire after a time to live, so that a change of configuration on the host is picked up.
+ */
+public class NegotiationOutcomeCache {
+
+	/**
+	 * System property with the time to live of the outcomes, in milliseconds (30 minutes by default).
+	 */
+	public static final String TIME_TO_LIVE_PROPERTY = "org.sentrysoftware.winrm.negotiationOutcomeTtl";
+
+	static final long DEFAULT_TIME_TO_LIVE_MILLISECONDS = TimeUnit.MINUTES.toMillis(30);
+	static final int MAX_ENTRIES = 1024;
+
+	private static final NegotiationOutcomeCache INSTANCE = new NegotiationOutcomeCache();
+
+	private final Map<String, Outcome> outcomes = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong avoidedFallbacks = new AtomicLong();
+	private final AtomicLong fallbacks = new AtomicLong();
+
+	NegotiationOutcomeCache() { }
+
+	/**
+	 * @return The cache shared by all the WinRM connections
+	 */
+	public static NegotiationOutcomeCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return The number of connections which found a valid outcome for their endpoint
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of connections without (valid) outcome for their endpoint
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of connections which started with the remembered authentication
+	 * instead of failing first with the authentications listed before it
+	 */
+	public long getAvoidedFallbacks() {
+		return avoidedFallbacks.get();
+	}
+
+	/**
+	 * @return The number of connections which succeeded only after another authentication failed
+	 */
+	public long getFallbacks() {
+		return fallbacks.get();
+	}
+
+	/**
+	 * Forget all the outcomes.
+	 */
+	public void clear() {
+		outcomes.clear();
+	}
+
+	/**
+	 * Order the authentications to try: the one which succeeded last on the endpoint comes first.
+	 *
+	 * @param winRMEndpoint The endpoint
+	 * @param authentications The authentications allowed, in order of preference
+	 * @return The authentications in the order they should be tried
+	 */
+	List<AuthenticationEnum> order(final WinRMEndpoint winRMEndpoint, final List<AuthenticationEnum> authentications) {
+		final Outcome outcome = getValidOutcome(createKey(winRMEndpoint));
+		if (outcome == null || !authentications.contains(outcome.authentication)) {
+			misses.incrementAndGet();
+			return authentications;
+		}
+
+		hits.incrementAndGet();
+		if (authentications.get(0) == outcome.authentication) {
+			return authentications;
+		}
+
+		avoidedFallbacks.incrementAndGet();
+		final List<AuthenticationEnum> ordered = new ArrayList<>(authentications.size());
+		ordered.add(outcome.authentication);
+		authentications.stream()
+			.filter(authentication -> authentication != outcome.authentication)
+			.forEach(ordered::add);
+		return ordered;
+	}
+
+	/**
+	 * Remember the authentication which succeeded on the endpoint.
+	 *
+	 * @param winRMEndpoint The endpoint
+	 * @param authentication The authentication which succeeded
+	 * @param fallback Whether another authentication failed before
+	 */
+	void recordSuccess(
+			final WinRMEndpoint winRMEndpoint,
+			final AuthenticationEnum authentication,
+			final boolean fallback) {
+		if (fallback) {
+			fallbacks.incrementAndGet();
+		}
+
+		if (outcomes.size() >= MAX_ENTRIES) {
+			final long now = Utils.getCurrentTimeMillis();
+			outcomes.values().removeIf(outcome -> outcome.isExpired(now));
+			if (outcomes.size() >= MAX_ENTRIES) {
+				return;
+			}
+		}
+
+		outcomes.put(
+				createKey(winRMEndpoint),
+				new Outcome(authentication, Utils.getCurrentTimeMillis() + getTimeToLive()));
+	}
+
+	/**
+	 * Forget the outcome of the endpoint if it is the authentication which just failed.
+	 *
+	 * @param winRMEndpoint The endpoint
+	 * @param authentication The authentication which failed
+	 */
+	void recordFailure(final WinRMEndpoint winRMEndpoint, final AuthenticationEnum authentication) {
+		final String key = createKey(winRMEndpoint);
+		final Outcome outcome = outcomes.get(key);
+		if (outcome != null && outcome.authentication == authentication) {
+			outcomes.remove(key, outcome);
+		}
+	}
+
+	private Outcome getValidOutcome(final String key) {
+		final Outcome outcome = outcomes.get(key);
+		if (outcome != null && outcome.isExpired(Utils.getCurrentTimeMillis())) {
+			outcomes.remove(key, outcome);
+			return null;
+		}
+		return outcome;
+	}
+
+	private static long getTimeToLive() {
+		return Long.getLong(TIME_TO_LIVE_PROPERTY, DEFAULT_TIME_TO_LIVE_MILLISECONDS);
+	}
+
+	private static String createKey(final WinRMEndpoint winRMEndpoint) {
+		final String username = winRMEndpoint.getRawUsername() != null ?
+				winRMEndpoint.getRawUsername().replaceAll("\\s", Utils.EMPTY).toUpperCase() :
+				Utils.EMPTY;
+		return winRMEndpoint.getEndpoint().toLowerCase() + " " + username;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"NegotiationOutcomeCache [entries=%d, hits=%d, misses=%d, avoidedFallbacks=%d, fallbacks=%d]",
+				outcomes.size(),
+				getHits(),
+				getMisses(),
+				getAvoidedFallbacks(),
+				getFallbacks());
+	}
+
+	private static class Outcome {
+
+		private final AuthenticationEnum authentication;
+		private final long expiration;
+
+		Outcome(final AuthenticationEnum authentication, final long expiration) {
+			this.authentication = authentication;
+			this.expiration = expiration;
+		}
+
+		boolean isExpired(final long now) {
+			return now >= expiration;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package org.sentrysoftware.winrm.service.client;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+/**
+ * Decides whether and when a failed WinRM call is attempted again.
+ */
+public interface RetryPolicy {
+
+	/**
+	 * Delay meaning that the call must not be attempted again.
+	 */
+	long NO_RETRY = -1;
+
+	/**
+	 * Called once per WinRM call, before its first attempt.
+	 *
+	 * @param hostname The host called
+	 */
+	default void onCall(final String hostname) { }
+
+	/**
+	 * Get the pause before the next attempt of a call which failed.
+	 *
+	 * @param hostname The host called
+	 * @param attempt The number of attempts made so far (1 after the first failure)
+	 * @param failure The failure of the last attempt: a WebServiceException or a SOAPFaultException
+	 * @param remainingTime The time left before the timeout of the call, in milliseconds
+	 * @return The pause in milliseconds, or {@link #NO_RETRY}
+	 */
+	long getRetryDelay(String hostname, int attempt, Throwable failure, long remainingTime);
+}
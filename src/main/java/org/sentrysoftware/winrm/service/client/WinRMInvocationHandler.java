@@ -26,6 +26,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -34,7 +35,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -62,34 +62,40 @@ import org.apache.cxf.ws.addressing.policy.MetadataConstants;
 import org.apache.cxf.ws.policy.PolicyConstants;
 import org.apache.http.auth.AuthSchemeProvider;
 import org.apache.http.auth.Credentials;
+import org.apache.http.auth.KerberosCredentials;
 import org.apache.http.auth.NTCredentials;
 import org.apache.http.client.config.AuthSchemes;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
-import org.apache.http.impl.auth.KerberosSchemeFactory;
 import org.apache.neethi.Policy;
 import org.apache.neethi.builders.PrimitiveAssertion;
 
+import org.sentrysoftware.winrm.TimeoutProfile;
 import org.sentrysoftware.winrm.WinRMHttpProtocolEnum;
 import org.sentrysoftware.winrm.Utils;
+import org.sentrysoftware.winrm.exceptions.CircuitBreakerOpenException;
 import org.sentrysoftware.winrm.service.WinRMEndpoint;
 import org.sentrysoftware.winrm.service.WinRMWebService;
 import org.sentrysoftware.winrm.service.WinRMWebServiceClient;
 import org.sentrysoftware.winrm.service.client.auth.AuthenticationEnum;
 import org.sentrysoftware.winrm.service.client.auth.TrustAllX509Manager;
+import org.sentrysoftware.winrm.service.client.auth.kerberos.KerberosCredentialsWithEncryption;
 import org.sentrysoftware.winrm.service.client.auth.kerberos.KerberosUtils;
+import org.sentrysoftware.winrm.service.client.auth.kerberos.KerberosWithEncryptionSchemeFactory;
 import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
 import org.sentrysoftware.winrm.service.client.auth.ntlm.NtlmMasqAsSpnegoSchemeFactory;
+import org.sentrysoftware.winrm.service.client.encryption.AsyncHttpEncryptionAwareConduit;
 import org.sentrysoftware.winrm.service.client.encryption.AsyncHttpEncryptionAwareConduitFactory;
 import org.sentrysoftware.winrm.service.client.encryption.DecryptAndVerifyInInterceptor;
+import org.sentrysoftware.winrm.service.client.encryption.SecurityContextOutInterceptor;
 import org.sentrysoftware.winrm.service.client.encryption.SignAndEncryptOutInterceptor;
+import org.sentrysoftware.winrm.service.client.encryption.VerifyAndReleaseInInterceptor;
 
 public class WinRMInvocationHandler implements InvocationHandler {
 
 	public static final String WSMAN_SCHEMA_NAMESPACE = "http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd";
 
-	private static final long PAUSE_TIME_MILLISECONDS = 500;
-	private static final int MAX_RETRY = 3;
+	private static volatile RetryPolicy retryPolicy = new ExponentialBackoffRetryPolicy();
 
 	private static final URL WSDL_LOCATION_URL =
 			WinRMWebServiceClient.class.getClassLoader().getResource("wsdl/WinRM.wsdl");
@@ -108,7 +114,7 @@ public class WinRMInvocationHandler implements InvocationHandler {
 	private static final Registry<AuthSchemeProvider> AUTH_SCHEME_REGISTRY =
 			RegistryBuilder.<AuthSchemeProvider>create()
 			.register(AuthSchemes.SPNEGO, new NtlmMasqAsSpnegoSchemeFactory())
-			.register(AuthSchemes.KERBEROS, new KerberosSchemeFactory(true))
+			.register(AuthSchemes.KERBEROS, new KerberosWithEncryptionSchemeFactory(true))
 			.build();
 
 	private static final Policy POLICY;
@@ -131,15 +137,15 @@ public class WinRMInvocationHandler implements InvocationHandler {
 		TLS_CLIENT_PARAMETERS.setTrustManagers(new TrustManager[] {new TrustAllX509Manager()});
 	}
 
-	private static final Map<CredentialsMapKey, Credentials> CREDENTIALS = new ConcurrentHashMap<>();
-
 	private final WinRMWebService winRMWebService;
 	private final WinRMEndpoint winRMEndpoint;
-	private final long timeout;
+	private final TimeoutProfile timeoutProfile;
 	private final String resourceUri;
 	private final Path ticketCache;
 	private final Queue<AuthenticationEnum> authenticationsQueue;
+	private final AuthenticationEnum firstAuthentication;
 	private AuthenticationEnum authentication;
+	private AuthenticationEnum recordedAuthentication;
 	private Client wsClient;
 
 	/**
@@ -159,16 +165,40 @@ public class WinRMInvocationHandler implements InvocationHandler {
 			final String resourceUri,
 			final Path ticketCache,
 			final List<AuthenticationEnum> authentications) {
+		this(winRMEndpoint, bus, TimeoutProfile.of(timeout), resourceUri, ticketCache, authentications);
+	}
+
+	/**
+	 * WinRMInvocationHandler constructor
+	 *
+	 * @param winRMEndpoint Endpoint with credentials (mandatory)
+	 * @param bus Apache CXF Bus (mandatory)
+	 * @param timeoutProfile The connect, connection request, operation and call timeouts (mandatory)
+	 * @param resourceUri The enumerate resource URI
+	 * @param ticketCache The Ticket Cache path
+	 * @param authentications List of authentications. (mandatory)
+	 */
+	public WinRMInvocationHandler(
+			final WinRMEndpoint winRMEndpoint,
+			final Bus bus,
+			final TimeoutProfile timeoutProfile,
+			final String resourceUri,
+			final Path ticketCache,
+			final List<AuthenticationEnum> authentications) {
 
 		Utils.checkNonNull(winRMEndpoint, "winRMEndpoint");
 		Utils.checkNonNull(bus, "bus");
+		Utils.checkNonNull(timeoutProfile, "timeoutProfile");
 		Utils.checkNonNull(authentications, "authentications");
 
 		this.winRMEndpoint = winRMEndpoint;
-		this.timeout = timeout;
+		this.timeoutProfile = timeoutProfile;
 		this.resourceUri = resourceUri;
 		this.ticketCache = ticketCache;
-		authenticationsQueue = authentications.stream().collect(Collectors.toCollection(LinkedList::new));
+		// Start with the authentication which succeeded last on this endpoint
+		authenticationsQueue = NegotiationOutcomeCache.getInstance().order(winRMEndpoint, authentications).stream()
+				.collect(Collectors.toCollection(LinkedList::new));
+		firstAuthentication = authenticationsQueue.peek();
 
 		winRMWebService = createWinRMWebService(winRMEndpoint, bus);
 
@@ -178,7 +208,7 @@ public class WinRMInvocationHandler implements InvocationHandler {
 
 		wsClient = getWebServiceClient(
 				winRMEndpoint,
-				timeout,
+				timeoutProfile,
 				resourceUri,
 				winRMWebService,
 				authCredentials.getCredentials());
@@ -188,13 +218,32 @@ public class WinRMInvocationHandler implements InvocationHandler {
 		return wsClient;
 	}
 
+	/**
+	 * @return The retry policy of the WinRM calls
+	 */
+	public static RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Replace the retry policy of all the WinRM calls.
+	 *
+	 * @param policy The retry policy (mandatory)
+	 */
+	public static void setRetryPolicy(final RetryPolicy policy) {
+		Utils.checkNonNull(policy, "policy");
+		retryPolicy = policy;
+	}
+
 	@Override
 	public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
 
 		Utils.checkNonNull(method, "method");
 
 		try {
-			return invokeMethod(method, args);
+			final Object result = invokeMethod(method, args);
+			recordSuccess();
+			return result;
 
 		} catch (final RetryTgtExpirationException e) {
 			// retry with a new TGT in case of current TGT expiration
@@ -202,12 +251,11 @@ public class WinRMInvocationHandler implements InvocationHandler {
 
 			Credentials credentials;
 			try {
-				credentials = KerberosUtils.createCredentials(
-						winRMEndpoint.getUsername(),
-						winRMEndpoint.getPassword(),
-						ticketCache);
+				// the shared TGT is still valid for the client, but the server rejected it: log in again
+				KerberosUtils.invalidateCredentials(winRMEndpoint.getUsername(), winRMEndpoint.getPassword(), ticketCache);
+				credentials = createCredentials(winRMEndpoint, AuthenticationEnum.KERBEROS, ticketCache);
 
-				CREDENTIALS.put(
+				CredentialsCache.getInstance().put(
 						new CredentialsMapKey(winRMEndpoint, ticketCache, AuthenticationEnum.KERBEROS),
 						credentials);
 
@@ -226,11 +274,13 @@ public class WinRMInvocationHandler implements InvocationHandler {
 			}
 
 			wsClient =
-					getWebServiceClient(winRMEndpoint, timeout, resourceUri, winRMWebService, credentials);
+					getWebServiceClient(winRMEndpoint, timeoutProfile, resourceUri, winRMWebService, credentials);
 
 			return invoke(proxy, method, args);
 
 		} catch (final RetryAuthenticationException e) {
+			NegotiationOutcomeCache.getInstance().recordFailure(winRMEndpoint, authentication);
+
 			if (continueToRetry()) {
 				final AuthCredentials authCredentials =
 						computeCredentials(winRMEndpoint, ticketCache, authenticationsQueue);
@@ -239,7 +289,7 @@ public class WinRMInvocationHandler implements InvocationHandler {
 
 				wsClient = getWebServiceClient(
 						winRMEndpoint,
-						timeout,
+						timeoutProfile,
 						resourceUri,
 						winRMWebService,
 						authCredentials.getCredentials());
@@ -248,11 +298,18 @@ public class WinRMInvocationHandler implements InvocationHandler {
 			}
 
 			// No more retries
-			final Throwable cause = e.getCause();
-			if (cause instanceof SOAPFaultException) {
-				throw new RuntimeException("KERBEROS with encryption over HTTP is not implemented.", cause);
-			}
-			throw cause;
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Remember the authentication of the successful call for the next connections to this endpoint.
+	 */
+	private void recordSuccess() {
+		if (authentication != null && authentication != recordedAuthentication) {
+			NegotiationOutcomeCache.getInstance()
+				.recordSuccess(winRMEndpoint, authentication, authentication != firstAuthentication);
+			recordedAuthentication = authentication;
 		}
 	}
 
@@ -263,75 +320,129 @@ public class WinRMInvocationHandler implements InvocationHandler {
 
 	Object invokeMethod(final Method method, final Object[] args)
 			throws IllegalAccessException, RetryAuthenticationException {
+		final String hostname = winRMEndpoint.getHostname();
+		final CircuitBreaker circuitBreaker = CircuitBreaker.getInstance(hostname);
+		final RetryPolicy policy = retryPolicy;
+		final long start = Utils.getCurrentTimeMillis();
+
+		policy.onCall(hostname);
+
+		// each attempt is shortened to the time left before the timeout of the call
+		AsyncHttpEncryptionAwareConduit.setCallDeadline(start + timeoutProfile.getTimeout());
+		try {
+			return invokeWithRetries(method, args, hostname, circuitBreaker, policy, start);
+		} finally {
+			AsyncHttpEncryptionAwareConduit.setCallDeadline(null);
+		}
+	}
+
+	private Object invokeWithRetries(
+			final Method method,
+			final Object[] args,
+			final String hostname,
+			final CircuitBreaker circuitBreaker,
+			final RetryPolicy policy,
+			final long start) throws IllegalAccessException, RetryAuthenticationException {
 		Throwable firstEx = null;
-		int retry = 0;
+		int attempt = 0;
+
+		while (true) {
+			if (!circuitBreaker.allowRequest()) {
+				throw new CircuitBreakerOpenException(
+						String.format("Calls to %s are suspended after %d consecutive connection failures: %s",
+								hostname,
+								circuitBreaker.getConsecutiveFailures(),
+								createCallInfos(method, args)),
+						firstEx);
+			}
 
-		while (retry < MAX_RETRY) {
-			retry++;
+			attempt++;
 
+			final Throwable failure;
 			try {
-				return method.invoke(winRMWebService, args);
+				final Object result = method.invoke(winRMWebService, args);
+				circuitBreaker.recordSuccess();
+				return result;
 
 			} catch (final InvocationTargetException ite) {
 
 				final Throwable targetEx = ite.getTargetException();
 
 				if (targetEx instanceof SOAPFaultException) {
-					// Could retry with a different authentication than NTLM
-					// because it could be a "WstxEOFException: Unexpected EOF in prolog"
-					// due to a KERBEROS with HTTP and AllowUnencrypted=false
-					if (winRMEndpoint.getProtocol() == WinRMHttpProtocolEnum.HTTP &&
-							authentication != AuthenticationEnum.NTLM) {
-						throw new RetryAuthenticationException(targetEx);
-					}
-					throw (SOAPFaultException) targetEx;
-				}
-
-				if (!(targetEx instanceof WebServiceException)) {
-					throw new IllegalStateException("Failure when calling " + createCallInfos(method, args), targetEx);
-				}
+					circuitBreaker.recordSuccess();
+					failure = targetEx;
 
-				final WebServiceException wsEx = (WebServiceException) targetEx;
+				} else {
+					if (!(targetEx instanceof WebServiceException)) {
+						throw new IllegalStateException("Failure when calling " + createCallInfos(method, args), targetEx);
+					}
 
-				if (!(wsEx.getCause() instanceof IOException)) {
-					throw new RuntimeException(
-							"Exception occurred while making WinRM WebService call " + createCallInfos(method, args), wsEx);
-				}
+					final WebServiceException wsEx = (WebServiceException) targetEx;
 
-				if (wsEx.getCause().getMessage() != null &&
-						wsEx.getCause().getMessage().startsWith("Authorization loop detected on Conduit")) {
+					if (!(wsEx.getCause() instanceof IOException)) {
+						throw new RuntimeException(
+								"Exception occurred while making WinRM WebService call " + createCallInfos(method, args),
+								wsEx);
+					}
 
-					final RuntimeException authEx = new RuntimeException(
-							String.format("Authentication error on %s with user name \"%s\"",
-									winRMEndpoint.getEndpoint(),
-									winRMEndpoint.getRawUsername()));
+					if (wsEx.getCause().getMessage() != null &&
+							wsEx.getCause().getMessage().startsWith("Authorization loop detected on Conduit")) {
+						circuitBreaker.recordSuccess();
+
+						final RuntimeException authEx = new RuntimeException(
+								String.format("Authentication error on %s with user name \"%s\"",
+										winRMEndpoint.getEndpoint(),
+										winRMEndpoint.getRawUsername()));
+
+						// Could be due to a TGT expiration
+						if (authentication == AuthenticationEnum.KERBEROS) {
+							throw new RetryTgtExpirationException(authEx);
+						}
+						// Could retry with a different authentication
+						throw new RetryAuthenticationException(authEx);
+					}
 
-					// Could be due to a TGT expiration
-					if (authentication == AuthenticationEnum.KERBEROS) {
-						throw new RetryTgtExpirationException(authEx);
+					// a read timeout of a long command on a slow host must not suspend the calls to it
+					if (CircuitBreaker.isConnectionFailure(wsEx.getCause())) {
+						circuitBreaker.recordFailure();
+					} else {
+						circuitBreaker.recordSuccess();
 					}
-					// Could retry with a different authentication
-					throw new RetryAuthenticationException(authEx);
+					failure = wsEx;
 				}
+			}
+
+			if (firstEx == null) {
+				firstEx = failure;
+			}
+
+			final long delay = policy.getRetryDelay(
+					hostname,
+					attempt,
+					failure,
+					timeoutProfile.getTimeout() - (Utils.getCurrentTimeMillis() - start));
 
-				if (firstEx == null) {
-					firstEx = wsEx;
+			if (delay < 0) {
+				if (failure instanceof SOAPFaultException) {
+					throw (SOAPFaultException) failure;
 				}
+				break;
+			}
 
-				if (retry < MAX_RETRY) {
-					try {
-						Utils.sleep(PAUSE_TIME_MILLISECONDS);
-					} catch (final InterruptedException ie) {
-						Thread.currentThread().interrupt();
-						throw new RuntimeException(
-								"Exception occured while making WinRM WebService call " + createCallInfos(method, args), ie);
-					}
+			// no pause when the breaker just opened: the next attempt fails immediately
+			if (delay > 0 && circuitBreaker.getState() == CircuitBreaker.State.CLOSED) {
+				try {
+					Utils.sleep(delay);
+				} catch (final InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(
+							"Exception occured while making WinRM WebService call " + createCallInfos(method, args), ie);
 				}
 			}
 		}
 
 		throw new RuntimeException(
-				String.format("failed task \"%s\" after %d attempts", createCallInfos(method, args), MAX_RETRY),
+				String.format("failed task \"%s\" after %d attempts", createCallInfos(method, args), attempt),
 				firstEx);
 	}
 
@@ -351,10 +462,13 @@ public class WinRMInvocationHandler implements InvocationHandler {
 			final Path ticketCache) {
 		switch (authentication) {
 			case KERBEROS:
-				return KerberosUtils.createCredentials(
+				final KerberosCredentials kerberosCredentials = KerberosUtils.createCredentials(
 						winRMEndpoint.getUsername(),
 						winRMEndpoint.getPassword(),
 						ticketCache);
+				return winRMEndpoint.getProtocol() == WinRMHttpProtocolEnum.HTTP ?
+						new KerberosCredentialsWithEncryption(kerberosCredentials) :
+						kerberosCredentials;
 
 			case NTLM:
 			default:
@@ -380,11 +494,9 @@ public class WinRMInvocationHandler implements InvocationHandler {
 		try {
 			final AuthenticationEnum authenticationEnum = authenticationsQueue.remove();
 
-			final Credentials credentials = CREDENTIALS.compute(
+			final Credentials credentials = CredentialsCache.getInstance().get(
 					new CredentialsMapKey(winRMEndpoint, ticketCache, authenticationEnum),
-					(user, cred) -> cred != null ?
-											cred :
-											createCredentials(winRMEndpoint, authenticationEnum, ticketCache));
+					() -> createCredentials(winRMEndpoint, authenticationEnum, ticketCache));
 
 			return new AuthCredentials(authenticationEnum, credentials);
 
@@ -397,6 +509,44 @@ public class WinRMInvocationHandler implements InvocationHandler {
 		}
 	}
 
+	/**
+	 * Create the credentials of the endpoint for each authentication and keep them in the cache,
+	 * so that the connections opened later (e.g. in a scheduled collection window) do not wait for
+	 * the Kerberos login.
+	 *
+	 * @param winRMEndpoint Endpoint with credentials (mandatory)
+	 * @param ticketCache The Ticket Cache path
+	 * @param authentications List of authentications. (mandatory)
+	 * @return The authentications whose credentials are ready
+	 */
+	public static List<AuthenticationEnum> warmUpCredentials(
+			final WinRMEndpoint winRMEndpoint,
+			final Path ticketCache,
+			final List<AuthenticationEnum> authentications) {
+
+		Utils.checkNonNull(winRMEndpoint, "winRMEndpoint");
+		Utils.checkNonNull(authentications, "authentications");
+
+		final List<AuthenticationEnum> ready = new ArrayList<>();
+		RuntimeException lastException = null;
+		for (final AuthenticationEnum authenticationEnum : authentications) {
+			try {
+				CredentialsCache.getInstance().get(
+						new CredentialsMapKey(winRMEndpoint, ticketCache, authenticationEnum),
+						() -> createCredentials(winRMEndpoint, authenticationEnum, ticketCache));
+				ready.add(authenticationEnum);
+			} catch (final RuntimeException e) {
+				// the connections will try the next authentication as well
+				lastException = e;
+			}
+		}
+
+		if (ready.isEmpty() && lastException != null) {
+			throw lastException;
+		}
+		return ready;
+	}
+
 	static WinRMWebService createWinRMWebService(final WinRMEndpoint winRMEndpoint, final Bus bus) {
 
 		final JaxWsProxyFactoryBean jaxWsProxyFactoryBean = new JaxWsProxyFactoryBean();
@@ -414,7 +564,7 @@ public class WinRMInvocationHandler implements InvocationHandler {
 
 	static Client getWebServiceClient(
 			final WinRMEndpoint winRMEndpoint,
-			final long timeout,
+			final TimeoutProfile timeoutProfile,
 			final String enumerateResourceUri,
 			final WinRMWebService winRMWebService,
 			final Credentials credentials) {
@@ -427,12 +577,16 @@ public class WinRMInvocationHandler implements InvocationHandler {
 		}
 
 		client.getInInterceptors().add(new DecryptAndVerifyInInterceptor());
+		client.getInInterceptors().add(new VerifyAndReleaseInInterceptor());
+		client.getInFaultInterceptors().add(new VerifyAndReleaseInInterceptor());
+		client.getOutInterceptors().add(new SecurityContextOutInterceptor());
 		client.getOutInterceptors().add(new SignAndEncryptOutInterceptor());
 
 		// this is different to endpoint properties
+		// The clients of a Bus share the same connection pool, to reuse the authenticated connections
 		client.getEndpoint().getEndpointInfo().setProperty(
 				HTTPConduitFactory.class.getName(),
-				new AsyncHttpEncryptionAwareConduitFactory());
+				AsyncHttpEncryptionAwareConduitFactory.getInstance(client.getBus()));
 
 		final ServiceInfo serviceInfo = client.getEndpoint().getEndpointInfo().getService();
 		serviceInfo.setProperty("soap.force.doclit.bare", true);
@@ -451,11 +605,11 @@ public class WinRMInvocationHandler implements InvocationHandler {
 
 		bindingProvider.getRequestContext().put(Message.PROTOCOL_HEADERS, headers);
 
-		// Setup timeouts
+		// Setup timeouts: a dead host is detected with the connect timeout, not the operation one
 		final HTTPClientPolicy httpClientPolicy = new HTTPClientPolicy();
-		httpClientPolicy.setConnectionTimeout(timeout);
-		httpClientPolicy.setConnectionRequestTimeout(timeout);
-		httpClientPolicy.setReceiveTimeout(timeout);
+		httpClientPolicy.setConnectionTimeout(timeoutProfile.getConnectTimeout());
+		httpClientPolicy.setConnectionRequestTimeout(timeoutProfile.getConnectionRequestTimeout());
+		httpClientPolicy.setReceiveTimeout(timeoutProfile.getOperationTimeout());
 		httpClientPolicy.setAllowChunking(false);
 
 		bindingProvider.getRequestContext().put(Credentials.class.getName(), credentials);
@@ -529,6 +683,8 @@ public class WinRMInvocationHandler implements InvocationHandler {
 		private final char[] password;
 		private final Path ticketCache;
 		private final AuthenticationEnum authentication;
+		// The credentials of the HTTP endpoints hold the security contexts encrypting the messages
+		private final boolean encrypted;
 
 		CredentialsMapKey(
 				final WinRMEndpoint winRMEndpoint,
@@ -536,6 +692,7 @@ public class WinRMInvocationHandler implements InvocationHandler {
 				final AuthenticationEnum authentication) {
 			this.ticketCache = ticketCache;
 			this.authentication = authentication;
+			encrypted = winRMEndpoint.getProtocol() == WinRMHttpProtocolEnum.HTTP;
 
 			password = winRMEndpoint.getPassword();
 			canonizedRawUsername =
@@ -549,7 +706,7 @@ public class WinRMInvocationHandler implements InvocationHandler {
 			final int prime = 31;
 			int result = 1;
 			result = prime * result + Arrays.hashCode(password);
-			result = prime * result + Objects.hash(authentication, canonizedRawUsername, ticketCache);
+			result = prime * result + Objects.hash(authentication, canonizedRawUsername, ticketCache, encrypted);
 			return result;
 		}
 
@@ -565,7 +722,7 @@ public class WinRMInvocationHandler implements InvocationHandler {
 				return false;
 			}
 			final CredentialsMapKey other = (CredentialsMapKey) obj;
-			return authentication == other.authentication
+			return authentication == other.authentication && encrypted == other.encrypted
 					&& Objects.equals(canonizedRawUsername, other.canonizedRawUsername)
 					&& Arrays.equals(password, other.password) && Objects.equals(ticketCache, other.ticketCache);
 		}
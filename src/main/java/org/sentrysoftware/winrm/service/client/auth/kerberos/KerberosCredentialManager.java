@@ -0,0 +1,567 @@
+package org.sentrysoftware.winrm.service.client.auth.kerberos;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.nio.file.Path;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.Subject;
+import javax.security.auth.login.Configuration;
+
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+
+import org.sentrysoftware.winrm.Utils;
+
+/**
+ * Shares one TGT per principal between all the endpoints.
+ *
+ * The login is done once per principal. The Subject of the login keeps the service tickets obtained
+ * for each SPN, so that a new GSS context to a known server does not go back to the KDC. Before the TGT
+ * expires, a background thread logs in again and fetches the service tickets of the known SPNs with the
+ * new TGT, while the requests keep using the current one.
+ *
+ * The principals are bounded. A principal which is not used for an idle time, whose renewal keeps failing,
+ * or whose credentials are destroyed by the credentials cache, is retired: it is no longer renewed and
+ * its password is cleared. The connections still holding its credentials use the current TGT until it
+ * expires, then log in again with a new principal.
+ */
+public class KerberosCredentialManager {
+
+	/**
+	 * The TGT is renewed when this percentage of its lifetime has elapsed.
+	 */
+	static final int REFRESH_PERCENT = 80;
+
+	/**
+	 * Minimum delay between two renewals, also used to retry a failed renewal.
+	 */
+	static final long MIN_REFRESH_DELAY_SECONDS = 60;
+
+	/**
+	 * Maximum number of SPNs whose service tickets are fetched again after a renewal, per principal.
+	 */
+	static final int MAX_SERVICE_PRINCIPALS = 256;
+
+	/**
+	 * Maximum number of principals.
+	 */
+	static final int MAX_PRINCIPALS = 256;
+
+	/**
+	 * Number of consecutive failed renewals after which the principal is retired.
+	 */
+	static final int MAX_REFRESH_FAILURES = 5;
+
+	/**
+	 * System property with the idle time after which a principal is no longer renewed, in milliseconds (1 hour by default).
+	 */
+	public static final String IDLE_TIME_PROPERTY = "org.sentrysoftware.winrm.kerberosPrincipalIdleTime";
+
+	static final long DEFAULT_IDLE_TIME_MILLISECONDS = TimeUnit.HOURS.toMillis(1);
+
+	private static final KerberosCredentialManager INSTANCE = new KerberosCredentialManager();
+
+	private final Map<PrincipalKey, PrincipalEntry> entries = new ConcurrentHashMap<>();
+
+	private final AtomicLong logins = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong failedRefreshes = new AtomicLong();
+	private final AtomicLong prefetchedServiceTickets = new AtomicLong();
+	private final AtomicLong retirements = new AtomicLong();
+
+	private ScheduledExecutorService executor;
+
+	KerberosCredentialManager() { }
+
+	/**
+	 * @return The manager shared by all the WinRM connections
+	 */
+	public static KerberosCredentialManager getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return The number of logins done on a request thread (no valid TGT for the principal)
+	 */
+	public long getLogins() {
+		return logins.get();
+	}
+
+	/**
+	 * @return The number of TGT renewals done in the background
+	 */
+	public long getRefreshes() {
+		return refreshes.get();
+	}
+
+	/**
+	 * @return The number of background renewals which failed (and were retried later, up to {@link #MAX_REFRESH_FAILURES} times)
+	 */
+	public long getFailedRefreshes() {
+		return failedRefreshes.get();
+	}
+
+	/**
+	 * @return The number of service tickets fetched in the background after a renewal
+	 */
+	public long getPrefetchedServiceTickets() {
+		return prefetchedServiceTickets.get();
+	}
+
+	/**
+	 * @return The number of principals retired because they were idle, their renewal kept failing,
+	 * their credentials were destroyed or there were too many principals
+	 */
+	public long getRetirements() {
+		return retirements.get();
+	}
+
+	/**
+	 * @return The number of principals
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Forget all the principals, stop their renewals and clear their passwords and TGTs.
+	 */
+	public void clear() {
+		entries.values().forEach(PrincipalEntry::drop);
+	}
+
+	/**
+	 * Drop the TGT of the principal, rejected by a server (expired, revoked or clock skew),
+	 * so that the next request logs in again instead of reusing it.
+	 *
+	 * @param username The canonized user name
+	 * @param password The password
+	 * @param ticketCache The Ticket Cache path
+	 */
+	void invalidate(final String username, final char[] password, final Path ticketCache) {
+		final PrincipalEntry entry = entries.get(new PrincipalKey(username, password, ticketCache));
+		if (entry != null) {
+			entry.invalidate();
+		}
+	}
+
+	/**
+	 * Get the credentials of the principal, logging in only if there is no valid TGT for it yet.
+	 *
+	 * @param username The canonized user name
+	 * @param password The password
+	 * @param ticketCache The Ticket Cache path
+	 * @param configuration The JAAS configuration of the login
+	 * @return Credentials whose GSS credential is always the current TGT of the principal
+	 */
+	ManagedKerberosCredentials getCredentials(
+			final String username,
+			final char[] password,
+			final Path ticketCache,
+			final Configuration configuration) {
+
+		final PrincipalKey principalKey = new PrincipalKey(username, password, ticketCache);
+		while (true) {
+			// The key kept in the map holds its own copy of the password, shared with the entry
+			final PrincipalEntry entry = entries.computeIfAbsent(
+					principalKey,
+					key -> new PrincipalEntry(key, username, configuration));
+			if (entries.size() > MAX_PRINCIPALS) {
+				trim();
+			}
+
+			// A principal retired in the meantime is replaced
+			if (entry.ensureLoggedIn()) {
+				return entry.credentials;
+			}
+		}
+	}
+
+	/**
+	 * Retire the idle principals, then the least recently used ones until the manager is within its bound.
+	 */
+	private void trim() {
+		final long now = Utils.getCurrentTimeMillis();
+		final long idleTime = getIdleTime();
+		entries.values().stream()
+			.filter(entry -> entry.isIdle(now, idleTime))
+			.forEach(PrincipalEntry::retire);
+
+		while (entries.size() > MAX_PRINCIPALS) {
+			entries.values().stream()
+				.min(Comparator.comparingLong(entry -> entry.lastUse))
+				.ifPresent(PrincipalEntry::retire);
+		}
+	}
+
+	private static long getIdleTime() {
+		return Long.getLong(IDLE_TIME_PROPERTY, DEFAULT_IDLE_TIME_MILLISECONDS);
+	}
+
+	private synchronized ScheduledExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "WinRM Kerberos credential refresh");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executor;
+	}
+
+	private static long getRemainingLifetime(final Login login) {
+		if (login == null || login.credential == null) {
+			return 0;
+		}
+		try {
+			return login.credential.getRemainingLifetime();
+		} catch (final GSSException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * The Subject of a login (holding the TGT and the service tickets) and its GSS credential.
+	 */
+	private static class Login {
+
+		private final Subject subject;
+		private final GSSCredential credential;
+
+		Login(final Subject subject, final GSSCredential credential) {
+			this.subject = subject;
+			this.credential = credential;
+		}
+	}
+
+	class PrincipalEntry {
+
+		private final PrincipalKey key;
+		private final String username;
+		private final char[] password;
+		private final Configuration configuration;
+		private final ManagedKerberosCredentials credentials = new ManagedKerberosCredentials(this);
+		private final Set<String> servicePrincipals = ConcurrentHashMap.newKeySet();
+		private final Object loginLock = new Object();
+
+		private volatile Login current;
+		private volatile Login rejected;
+		private volatile boolean retired;
+		private volatile long lastUse = Utils.getCurrentTimeMillis();
+		private ScheduledFuture<?> refresh;
+		private int refreshFailures;
+
+		PrincipalEntry(final PrincipalKey key, final String username, final Configuration configuration) {
+			this.key = key;
+			this.username = username;
+			this.password = key.password;
+			this.configuration = configuration;
+		}
+
+		GSSCredential getCredential() {
+			lastUse = Utils.getCurrentTimeMillis();
+			final Login login = current;
+			return login != null ? login.credential : null;
+		}
+
+		/**
+		 * Run the action as the Subject of the current login, so that the service tickets it holds are used,
+		 * and the ones obtained are kept.
+		 */
+		<T> T doAs(final PrivilegedExceptionAction<T> action) throws GSSException {
+			lastUse = Utils.getCurrentTimeMillis();
+			final Login login = current;
+			if (login == null || login.subject == null) {
+				return run(action);
+			}
+
+			try {
+				return Subject.doAs(login.subject, action);
+			} catch (final PrivilegedActionException e) {
+				if (e.getException() instanceof GSSException) {
+					throw (GSSException) e.getException();
+				}
+				throw new IllegalStateException(e.getException());
+			}
+		}
+
+		void registerServicePrincipal(final String servicePrincipal) {
+			if (servicePrincipals.size() < MAX_SERVICE_PRINCIPALS) {
+				servicePrincipals.add(servicePrincipal);
+			}
+		}
+
+		/**
+		 * Mark the current login as rejected: the next call to {@link #ensureLoggedIn()} logs in again,
+		 * while the connections keep using it until the new login succeeds.
+		 */
+		private void invalidate() {
+			rejected = current;
+		}
+
+		boolean isRetired() {
+			return retired;
+		}
+
+		/**
+		 * Retire the principal if no connection used it within the idle time:
+		 * its credentials have been destroyed by the credentials cache.
+		 */
+		void release() {
+			if (isIdle(Utils.getCurrentTimeMillis(), getIdleTime())) {
+				drop();
+			}
+		}
+
+		private boolean isIdle(final long now, final long idleTime) {
+			return now - lastUse >= idleTime;
+		}
+
+		/**
+		 * Remove the principal from the manager, stop its renewals for good and clear its password.
+		 * The connections holding its credentials keep the current TGT until it expires.
+		 */
+		private synchronized void retire() {
+			if (!retired) {
+				retired = true;
+				entries.remove(key, this);
+				retirements.incrementAndGet();
+			}
+			cancelRefresh();
+			Arrays.fill(password, '\0');
+		}
+
+		/**
+		 * Retire the principal and forget its TGT.
+		 */
+		private synchronized void drop() {
+			retire();
+			current = null;
+		}
+
+		/**
+		 * Log in if there is no valid TGT, or if it was rejected by a server. The login is done outside of
+		 * the monitor of the entry, one at a time: the connections keep using the current TGT until the new
+		 * one replaces it.
+		 *
+		 * @return Whether the principal is logged in, false if it has been retired
+		 */
+		private boolean ensureLoggedIn() {
+			if (retired) {
+				return false;
+			}
+
+			lastUse = Utils.getCurrentTimeMillis();
+			if (isUsable(current)) {
+				return true;
+			}
+
+			synchronized (loginLock) {
+				// logged in by another thread in the meantime
+				if (isUsable(current)) {
+					return !retired;
+				}
+
+				final Login renewed = login();
+				synchronized (this) {
+					if (retired) {
+						return false;
+					}
+					refreshFailures = 0;
+					rejected = null;
+					current = renewed;
+				}
+				logins.incrementAndGet();
+				scheduleRefresh(renewed);
+				return true;
+			}
+		}
+
+		private boolean isUsable(final Login login) {
+			return login != rejected && getRemainingLifetime(login) > 0;
+		}
+
+		private Login login() {
+			final Subject subject = KerberosUtils.authenticate(username, password, configuration);
+			final GSSCredential credential = Subject.doAs(subject, KerberosUtils.createPrivilegedAction(username));
+			return new Login(subject, credential);
+		}
+
+		private synchronized void scheduleRefresh(final Login login) {
+			final long remaining = getRemainingLifetime(login);
+			if (remaining <= 0 || remaining == GSSCredential.INDEFINITE_LIFETIME) {
+				return;
+			}
+
+			scheduleRefresh(Math.max(MIN_REFRESH_DELAY_SECONDS, remaining * REFRESH_PERCENT / 100));
+		}
+
+		private synchronized void scheduleRefresh(final long delaySeconds) {
+			cancelRefresh();
+			if (retired) {
+				return;
+			}
+			refresh = getExecutor().schedule(this::refresh, delaySeconds, TimeUnit.SECONDS);
+		}
+
+		private synchronized void cancelRefresh() {
+			if (refresh != null) {
+				refresh.cancel(false);
+				refresh = null;
+			}
+		}
+
+		/**
+		 * Log in again in the background: the requests keep using the current TGT in the meantime.
+		 * A principal which is no longer used, or whose logins keep failing (e.g. its password was changed),
+		 * is retired instead.
+		 */
+		void refresh() {
+			synchronized (this) {
+				if (retired) {
+					return;
+				}
+				if (isIdle(Utils.getCurrentTimeMillis(), getIdleTime())) {
+					retire();
+					return;
+				}
+			}
+
+			final Login renewed;
+			try {
+				renewed = login();
+			} catch (final RuntimeException e) {
+				failedRefreshes.incrementAndGet();
+				synchronized (this) {
+					if (++refreshFailures >= MAX_REFRESH_FAILURES) {
+						retire();
+					} else {
+						scheduleRefresh(MIN_REFRESH_DELAY_SECONDS);
+					}
+				}
+				return;
+			}
+
+			synchronized (this) {
+				if (retired) {
+					return;
+				}
+				refreshFailures = 0;
+				rejected = null;
+				current = renewed;
+			}
+			refreshes.incrementAndGet();
+
+			servicePrincipals.forEach(servicePrincipal -> prefetchServiceTicket(renewed, servicePrincipal));
+
+			scheduleRefresh(renewed);
+		}
+
+		/**
+		 * Initiate a context with the server, which obtains its service ticket and stores it in the Subject.
+		 */
+		private void prefetchServiceTicket(final Login login, final String servicePrincipal) {
+			try {
+				Subject.doAs(login.subject, (PrivilegedExceptionAction<Void>) () -> {
+					final GSSManager manager = GSSManager.getInstance();
+					final Oid oid = new Oid(KerberosUtils.KERBEROS_V5_OID);
+					final GSSName serverName = manager.createName(servicePrincipal, GSSName.NT_HOSTBASED_SERVICE);
+					final GSSContext context = manager.createContext(
+							serverName.canonicalize(oid),
+							oid,
+							login.credential,
+							GSSContext.DEFAULT_LIFETIME);
+					try {
+						context.initSecContext(new byte[0], 0, 0);
+					} finally {
+						context.dispose();
+					}
+					return null;
+				});
+				prefetchedServiceTickets.incrementAndGet();
+			} catch (final PrivilegedActionException | RuntimeException e) {
+				// the ticket will be obtained by the next request to this server
+			}
+		}
+
+		private <T> T run(final PrivilegedExceptionAction<T> action) throws GSSException {
+			try {
+				return action.run();
+			} catch (final GSSException | RuntimeException e) {
+				throw e;
+			} catch (final Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private static class PrincipalKey {
+
+		private final String username;
+		private final char[] password;
+		private final Path ticketCache;
+
+		PrincipalKey(final String username, final char[] password, final Path ticketCache) {
+			this.username = username;
+			this.password = password.clone();
+			this.ticketCache = ticketCache;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + Arrays.hashCode(password);
+			result = prime * result + Objects.hash(username, ticketCache);
+			return result;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof PrincipalKey)) {
+				return false;
+			}
+			final PrincipalKey other = (PrincipalKey) obj;
+			return Objects.equals(username, other.username) && Arrays.equals(password, other.password)
+					&& Objects.equals(ticketCache, other.ticketCache);
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package org.sentrysoftware.winrm.service.client.auth.kerberos;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.Serializable;
+import java.security.Principal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.auth.KerberosCredentials;
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.MessageProp;
+
+import org.sentrysoftware.winrm.Utils;
+import org.sentrysoftware.winrm.service.client.encryption.EncryptedSessionCredentials;
+
+/**
+ * KerberosCredentials with encryption: holds the GSS security context established with the server,
+ * which wraps and unwraps the WinRM messages sent over HTTP.
+ */
+public class KerberosCredentialsWithEncryption extends KerberosCredentials implements EncryptedSessionCredentials {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Maximum number of idle security contexts kept per target.
+	 */
+	static final int MAX_IDLE_SECURITY_CONTEXTS = 16;
+
+	// Set by the authentication scheme on the I/O thread while the request thread waits for the handshake
+	private transient volatile GSSContext context;
+	private transient volatile boolean destroyed = false;
+	private transient volatile long lastUseTime;
+
+	private final transient Principal securityContextPrincipal = new SecurityContextPrincipal();
+	private final transient Map<String, Deque<KerberosCredentialsWithEncryption>> idleSecurityContexts =
+			new ConcurrentHashMap<>();
+
+	private final KerberosCredentials kerberosCredentials;
+
+	/**
+	 * @param kerberosCredentials The credentials holding the TGT
+	 */
+	public KerberosCredentialsWithEncryption(final KerberosCredentials kerberosCredentials) {
+		super(null);
+		this.kerberosCredentials = kerberosCredentials;
+	}
+
+	/**
+	 * @return The credentials holding the TGT
+	 */
+	public KerberosCredentials getKerberosCredentials() {
+		return kerberosCredentials;
+	}
+
+	@Override
+	public GSSCredential getGSSCredential() {
+		return kerberosCredentials != null ? kerberosCredentials.getGSSCredential() : null;
+	}
+
+	/**
+	 * The principal is unique to this security context. It is the state of the pooled connections
+	 * authenticated with it, so that each connection is only used by its own security context.
+	 */
+	@Override
+	public Principal getUserPrincipal() {
+		return securityContextPrincipal;
+	}
+
+	/**
+	 * Take an idle security context for the target, or create a new one with the same TGT.
+	 * Each context is used by one request at a time.
+	 *
+	 * @param target The endpoint the context is used with
+	 * @return A security context which is not used by any other request
+	 */
+	@Override
+	public KerberosCredentialsWithEncryption acquireSecurityContext(final String target) {
+		lastUseTime = Utils.getCurrentTimeMillis();
+
+		final Deque<KerberosCredentialsWithEncryption> idle = idleSecurityContexts.get(target);
+		if (idle != null) {
+			synchronized (idle) {
+				final KerberosCredentialsWithEncryption securityContext = idle.pollFirst();
+				if (securityContext != null) {
+					return securityContext;
+				}
+			}
+		}
+		return new KerberosCredentialsWithEncryption(kerberosCredentials);
+	}
+
+	/**
+	 * Give back a security context once its response has been decrypted.
+	 * The most recently used contexts are used first, as their connection is more likely to still be open.
+	 *
+	 * @param target The endpoint the context was used with
+	 * @param securityContext The context obtained with {@link #acquireSecurityContext(String)}
+	 */
+	@Override
+	public void releaseSecurityContext(final String target, final EncryptedSessionCredentials securityContext) {
+		if (!(securityContext instanceof KerberosCredentialsWithEncryption)) {
+			return;
+		}
+
+		lastUseTime = Utils.getCurrentTimeMillis();
+
+		if (destroyed) {
+			((KerberosCredentialsWithEncryption) securityContext).destroy();
+			return;
+		}
+
+		final Deque<KerberosCredentialsWithEncryption> idle =
+				idleSecurityContexts.computeIfAbsent(target, key -> new ArrayDeque<>());
+		synchronized (idle) {
+			if (idle.size() < MAX_IDLE_SECURITY_CONTEXTS) {
+				idle.offerFirst((KerberosCredentialsWithEncryption) securityContext);
+				return;
+			}
+		}
+		((KerberosCredentialsWithEncryption) securityContext).destroy();
+	}
+
+	/**
+	 * Dispose the GSS context, which clears its session keys, in this security context and in the idle ones.
+	 * The contexts still in use are destroyed when they are released. The TGT is shared and left untouched.
+	 */
+	@Override
+	public void destroy() {
+		destroyed = true;
+
+		idleSecurityContexts.values().forEach(idle -> {
+			synchronized (idle) {
+				idle.forEach(KerberosCredentialsWithEncryption::destroy);
+				idle.clear();
+			}
+		});
+
+		setContext(null);
+	}
+
+	@Override
+	public boolean isDestroyed() {
+		return destroyed;
+	}
+
+	@Override
+	public long getLastUseTime() {
+		return lastUseTime;
+	}
+
+	/**
+	 * @return Whether the GSS context is established, including the mutual authentication of the server
+	 */
+	@Override
+	public boolean isAuthenticated() {
+		final GSSContext current = context;
+		return current != null && current.isEstablished();
+	}
+
+	/**
+	 * Start a new GSS context, replacing (and disposing) the previous one.
+	 *
+	 * @param context The GSS context initiated by the authentication scheme
+	 */
+	public void setContext(final GSSContext context) {
+		final GSSContext previous = this.context;
+		this.context = context;
+
+		if (previous != null && previous != context) {
+			try {
+				previous.dispose();
+			} catch (final GSSException e) {
+				// the previous context is no longer used anyway
+			}
+		}
+	}
+
+	/**
+	 * Complete the GSS context with the mutual authentication token sent back by the server.
+	 * A context whose token is rejected is disposed, the next request starts a new one.
+	 *
+	 * @param token The AP-REP token of the WWW-Authenticate header
+	 * @throws GSSException If the token is rejected
+	 */
+	public void completeAuthentication(final byte[] token) throws GSSException {
+		final GSSContext current = context;
+		if (current != null && !current.isEstablished()) {
+			try {
+				current.initSecContext(token, 0, token.length);
+			} catch (final GSSException | RuntimeException e) {
+				if (context == current) {
+					setContext(null);
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Wrap (encrypt and sign) the message body.
+	 *
+	 * @param messageBody The buffer holding the message body
+	 * @param offset The offset of the body in the buffer
+	 * @param length The length of the body
+	 * @return The GSS wrap token
+	 * @throws GSSException If the context is not established or the body cannot be wrapped
+	 */
+	public byte[] wrap(final byte[] messageBody, final int offset, final int length) throws GSSException {
+		return getEstablishedContext().wrap(messageBody, offset, length, new MessageProp(0, true));
+	}
+
+	/**
+	 * Unwrap (verify and decrypt) a wrap token sent by the server.
+	 *
+	 * @param token The buffer holding the GSS wrap token
+	 * @param offset The offset of the token in the buffer
+	 * @param length The length of the token
+	 * @return The message body
+	 * @throws GSSException If the token is invalid or not encrypted
+	 */
+	public byte[] unwrap(final byte[] token, final int offset, final int length) throws GSSException {
+		final MessageProp messageProp = new MessageProp(0, true);
+		final byte[] messageBody = getEstablishedContext().unwrap(token, offset, length, messageProp);
+		if (!messageProp.getPrivacy()) {
+			throw new GSSException(GSSException.FAILURE, 0, "Unencrypted message from server");
+		}
+		return messageBody;
+	}
+
+	private GSSContext getEstablishedContext() throws GSSException {
+		final GSSContext current = context;
+		if (current == null || !current.isEstablished()) {
+			throw new GSSException(GSSException.NO_CONTEXT);
+		}
+		return current;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "{auth=" + isAuthenticated() + "}";
+	}
+
+	/**
+	 * Principal only equal to itself.
+	 */
+	private static class SecurityContextPrincipal implements Principal, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public String getName() {
+			return "KerberosSecurityContext@" + Integer.toHexString(hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	}
+}
@@ -62,7 +62,7 @@ public class KerberosUtils {
 	 * Object identifier of Kerberos as mechanism used by GSS to obtain the Ticket Granting Ticket (TGT).
 	 * @see http://oid-info.com/get/1.2.840.113554.1.2.2
 	 */
-	private static final String KERBEROS_V5_OID = "1.2.840.113554.1.2.2";
+	static final String KERBEROS_V5_OID = "1.2.840.113554.1.2.2";
 
 	private static final Configuration JAAS_CONFIG;
 	static {
@@ -94,6 +94,7 @@ public class KerberosUtils {
 
 	/**
 	 * Get Kerberos credentials (i.e a TGT) with the username and password provided.
+	 * The login is only done if there is no valid TGT for this principal yet.
 	 *
 	 * @param username The user name (mandatory)
 	 * @param password The password (mandatory)
@@ -120,13 +121,12 @@ public class KerberosUtils {
 					createConfigurationWithTicketCache(ticketCache) :
 					JAAS_CONFIG;
 
-			final Subject subject = authenticate(canonizedUsername, password, configuration);
-
-			final PrivilegedAction<GSSCredential> privilegedAction = createPrivilegedAction(canonizedUsername);
-
-			final GSSCredential gssUserCredential = Subject.doAs(subject, privilegedAction);
-
-			return new KerberosCredentials(gssUserCredential);
+			// The TGT is shared by all the endpoints, and renewed in the background before it expires
+			return KerberosCredentialManager.getInstance().getCredentials(
+					canonizedUsername,
+					password,
+					ticketCache,
+					configuration);
 
 		} catch (final KerberosCredentialsException e) {
 			throw e;
@@ -136,6 +136,26 @@ public class KerberosUtils {
 		}
 	}
 
+	/**
+	 * Drop the shared TGT of the principal, so that the next call to
+	 * {@link #createCredentials(String, char[], Path)} logs in again.
+	 * To use when a server rejects the TGT before its end time (revoked, clock skew).
+	 *
+	 * @param username The user name (mandatory)
+	 * @param password The password (mandatory)
+	 * @param ticketCache The Ticket Cache path
+	 */
+	public static void invalidateCredentials(
+			final String username,
+			final char[] password,
+			final Path ticketCache) {
+
+		Utils.checkNonNull(username, "username");
+		Utils.checkNonNull(password, "password");
+
+		KerberosCredentialManager.getInstance().invalidate(username.trim().toUpperCase(), password, ticketCache);
+	}
+
 	public static Configuration createConfigurationWithTicketCache(final Path ticketCache) {
 		final Map<String, String> moduleOptions = new HashMap<>();
 		moduleOptions.put(REFRESH_KRB5_CONFIG, TRUE);
@@ -182,7 +202,7 @@ public class KerberosUtils {
 		}
 	}
 
-	private static PrivilegedAction<GSSCredential> createPrivilegedAction(final String username) {
+	static PrivilegedAction<GSSCredential> createPrivilegedAction(final String username) {
 		return () -> {
 			try {
 				final GSSManager gssManager = GSSManager.getInstance();
@@ -0,0 +1,104 @@
+package org.sentrysoftware.winrm.service.client.auth.kerberos;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import org.apache.http.auth.Credentials;
+import org.apache.http.impl.auth.KerberosScheme;
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+
+/**
+ * Kerberos scheme requesting the mutual authentication, the confidentiality and the integrity,
+ * and keeping the GSS context in the {@link KerberosCredentialsWithEncryption} to encrypt the messages
+ * sent over HTTP. The contexts of the TGTs managed by the {@link KerberosCredentialManager} are initiated
+ * as their Subject, so that the service tickets are reused.
+ */
+public class KerberosWithEncryptionScheme extends KerberosScheme {
+
+	private static final String SERVICE_PREFIX = "HTTP@";
+
+	public KerberosWithEncryptionScheme(final boolean stripPort, final boolean useCanonicalHostname) {
+		super(stripPort, useCanonicalHostname);
+	}
+
+	@Override
+	protected byte[] generateGSSToken(
+			final byte[] input,
+			final Oid oid,
+			final String authServer,
+			final Credentials credentials) throws GSSException {
+
+		final Credentials tgtCredentials = credentials instanceof KerberosCredentialsWithEncryption ?
+				((KerberosCredentialsWithEncryption) credentials).getKerberosCredentials() :
+				credentials;
+
+		// Run as the Subject of the TGT, which keeps the service ticket of the server for the next contexts
+		if (tgtCredentials instanceof ManagedKerberosCredentials) {
+			return ((ManagedKerberosCredentials) tgtCredentials).doAs(
+					SERVICE_PREFIX + authServer,
+					() -> generateToken(input, oid, authServer, credentials));
+		}
+
+		return generateToken(input, oid, authServer, credentials);
+	}
+
+	private byte[] generateToken(
+			final byte[] input,
+			final Oid oid,
+			final String authServer,
+			final Credentials credentials) throws GSSException {
+
+		if (!(credentials instanceof KerberosCredentialsWithEncryption)) {
+			return super.generateGSSToken(input, oid, authServer, credentials);
+		}
+
+		final KerberosCredentialsWithEncryption kerberosCredentials = (KerberosCredentialsWithEncryption) credentials;
+
+		final GSSManager manager = getManager();
+		final GSSName serverName = manager.createName(SERVICE_PREFIX + authServer, GSSName.NT_HOSTBASED_SERVICE);
+
+		final GSSContext context = manager.createContext(
+				serverName.canonicalize(oid),
+				oid,
+				kerberosCredentials.getGSSCredential(),
+				GSSContext.DEFAULT_LIFETIME);
+		context.requestMutualAuth(true);
+		context.requestConf(true);
+		context.requestInteg(true);
+
+		final byte[] token;
+		try {
+			token = input != null ?
+					context.initSecContext(input, 0, input.length) :
+					context.initSecContext(new byte[0], 0, 0);
+		} catch (final GSSException | RuntimeException e) {
+			context.dispose();
+			throw e;
+		}
+
+		kerberosCredentials.setContext(context);
+
+		return token;
+	}
+}
@@ -0,0 +1,74 @@
+package org.sentrysoftware.winrm.service.client.auth.kerberos;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.security.PrivilegedExceptionAction;
+
+import javax.security.auth.Destroyable;
+
+import org.apache.http.auth.KerberosCredentials;
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+
+/**
+ * Kerberos credentials of a principal managed by the {@link KerberosCredentialManager}:
+ * the GSS credential is always the current TGT, renewed in the background.
+ * Destroying them retires the principal, unless a connection used it within the idle time.
+ */
+class ManagedKerberosCredentials extends KerberosCredentials implements Destroyable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient KerberosCredentialManager.PrincipalEntry entry;
+
+	ManagedKerberosCredentials(final KerberosCredentialManager.PrincipalEntry entry) {
+		super(null);
+		this.entry = entry;
+	}
+
+	@Override
+	public GSSCredential getGSSCredential() {
+		return entry.getCredential();
+	}
+
+	/**
+	 * Run the action as the Subject holding the TGT, so that the service tickets are reused.
+	 *
+	 * @param servicePrincipal The SPN of the server (e.g. HTTP@host), whose ticket is fetched again after renewals
+	 * @param action The action creating the GSS context
+	 * @return The result of the action
+	 * @throws GSSException If the action fails
+	 */
+	<T> T doAs(final String servicePrincipal, final PrivilegedExceptionAction<T> action) throws GSSException {
+		entry.registerServicePrincipal(servicePrincipal);
+		return entry.doAs(action);
+	}
+
+	@Override
+	public void destroy() {
+		entry.release();
+	}
+
+	@Override
+	public boolean isDestroyed() {
+		return entry.isRetired();
+	}
+}
@@ -20,16 +20,27 @@ package org.sentrysoftware.winrm.service.client.auth.ntlm;
  * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
  */
 
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpRequest;
 import org.apache.http.auth.NTCredentials;
+import org.apache.http.auth.NTUserPrincipal;
 
+import org.sentrysoftware.winrm.Utils;
+import org.sentrysoftware.winrm.service.client.encryption.EncryptedSessionCredentials;
 import org.sentrysoftware.winrm.service.client.encryption.EncryptionAwareHttpEntity;
 import org.sentrysoftware.winrm.service.client.encryption.EncryptionUtils;
 
@@ -38,11 +49,18 @@ import org.sentrysoftware.winrm.service.client.encryption.EncryptionUtils;
  * Code from io.cloudsoft.winrm4j.client.ntlm.NTCredentialsWithEncryption
  * release 0.12.3 @link https://github.com/cloudsoft/winrm4j
  */
-public class NTCredentialsWithEncryption extends NTCredentials {
+public class NTCredentialsWithEncryption extends NTCredentials implements EncryptedSessionCredentials {
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Maximum number of idle security contexts kept per target.
+	 */
+	static final int MAX_IDLE_SECURITY_CONTEXTS = 16;
+
 	private boolean isAuthenticated = false;
+	private volatile boolean destroyed = false;
+	private volatile long lastUseTime;
 	private long negotiateFlags;
 	private byte[] clientSigningKey;
 	private byte[] serverSigningKey;
@@ -51,14 +69,122 @@ public class NTCredentialsWithEncryption extends NTCredentials {
 	private AtomicLong sequenceNumberIncoming = new AtomicLong(-1);
 	private AtomicLong sequenceNumberOutgoing = new AtomicLong(-1);
 
+	private final transient Principal securityContextPrincipal;
+	private final transient Map<String, Deque<NTCredentialsWithEncryption>> idleSecurityContexts =
+			new ConcurrentHashMap<>();
+
 	public NTCredentialsWithEncryption(
 			final String userName,
 			final String password,
 			final String workstation,
 			final String domain) {
 		super(userName, password, workstation, domain);
+		securityContextPrincipal = new SecurityContextPrincipal(domain, userName);
+	}
+
+	/**
+	 * The principal is unique to this security context. It is the state of the pooled connections
+	 * authenticated with it, so that each connection is only used by its own sealing keys and sequence numbers.
+	 */
+	@Override
+	public Principal getUserPrincipal() {
+		return securityContextPrincipal;
+	}
+
+	/**
+	 * Take an idle security context for the target, or create a new one with the same user name,
+	 * password and domain. Each context is used by one request at a time.
+	 *
+	 * @param target The endpoint the context is used with
+	 * @return A security context which is not used by any other request
+	 */
+	@Override
+	public NTCredentialsWithEncryption acquireSecurityContext(final String target) {
+		lastUseTime = Utils.getCurrentTimeMillis();
+
+		final Deque<NTCredentialsWithEncryption> idle = idleSecurityContexts.get(target);
+		if (idle != null) {
+			synchronized (idle) {
+				final NTCredentialsWithEncryption context = idle.pollFirst();
+				if (context != null) {
+					return context;
+				}
+			}
+		}
+		return new NTCredentialsWithEncryption(getUserName(), getPassword(), getWorkstation(), getDomain());
+	}
+
+	/**
+	 * Give back a security context once its response has been decrypted.
+	 * The most recently used contexts are used first, as their connection is more likely to still be open.
+	 *
+	 * @param target The endpoint the context was used with
+	 * @param context The context obtained with {@link #acquireSecurityContext(String)}
+	 */
+	@Override
+	public void releaseSecurityContext(final String target, final EncryptedSessionCredentials context) {
+		if (!(context instanceof NTCredentialsWithEncryption)) {
+			return;
+		}
+
+		lastUseTime = Utils.getCurrentTimeMillis();
+
+		if (destroyed) {
+			((NTCredentialsWithEncryption) context).destroy();
+			return;
+		}
+
+		final Deque<NTCredentialsWithEncryption> idle =
+				idleSecurityContexts.computeIfAbsent(target, key -> new ArrayDeque<>());
+		synchronized (idle) {
+			if (idle.size() < MAX_IDLE_SECURITY_CONTEXTS) {
+				idle.offerFirst((NTCredentialsWithEncryption) context);
+				return;
+			}
+		}
+		((NTCredentialsWithEncryption) context).destroy();
+	}
+
+	/**
+	 * Overwrite the signing and sealing keys with zeros, in this context and in the idle ones.
+	 * The contexts still in use are destroyed when they are released.
+	 */
+	@Override
+	public void destroy() {
+		destroyed = true;
+
+		idleSecurityContexts.values().forEach(idle -> {
+			synchronized (idle) {
+				idle.forEach(NTCredentialsWithEncryption::destroy);
+				idle.clear();
+			}
+		});
+
+		setIsAuthenticated(false);
+		clear(clientSealingKey);
+		clear(clientSigningKey);
+		clear(serverSealingKey);
+		clear(serverSigningKey);
+		resetEncryption(null);
+	}
+
+	@Override
+	public boolean isDestroyed() {
+		return destroyed;
 	}
 
+	@Override
+	public long getLastUseTime() {
+		return lastUseTime;
+	}
+
+	private static void clear(final byte[] key) {
+		if (key != null) {
+			Arrays.fill(key, (byte) 0);
+		}
+	}
+
+	@Override
 	public boolean isAuthenticated() {
 		return isAuthenticated;
 	}
@@ -69,10 +195,12 @@ public class NTCredentialsWithEncryption extends NTCredentials {
 
 	public void setClientSigningKey(byte[] clientSigningKey) {
 		this.clientSigningKey = clientSigningKey;
+		clientSigningMac = clientSigningKey != null ? createHmacMd5(clientSigningKey) : null;
 	}
 
 	public void setServerSigningKey(byte[] serverSigningKey) {
 		this.serverSigningKey = serverSigningKey;
+		serverSigningMac = serverSigningKey != null ? createHmacMd5(serverSigningKey) : null;
 	}
 
 	public byte[] getClientSigningKey() {
@@ -135,6 +263,52 @@ public class NTCredentialsWithEncryption extends NTCredentials {
 		return decryptor;
 	}
 
+	/**
+	 * HMAC-MD5 context initialized with the client signing key. A Mac is not thread-safe: this one is
+	 * never updated, only cloned, so each message gets its own context even when signed concurrently.
+	 */
+	private transient volatile Mac clientSigningMac;
+	/**
+	 * @return A new HMAC-MD5 context keyed with the client signing key, owned by the caller
+	 */
+	public Mac createClientSigningMac() {
+		return cloneHmacMd5(clientSigningMac, getClientSigningKey());
+	}
+
+	/**
+	 * HMAC-MD5 context initialized with the server signing key, only cloned (see {@link #clientSigningMac}).
+	 */
+	private transient volatile Mac serverSigningMac;
+	/**
+	 * @return A new HMAC-MD5 context keyed with the server signing key, owned by the caller
+	 */
+	public Mac createServerSigningMac() {
+		return cloneHmacMd5(serverSigningMac, getServerSigningKey());
+	}
+
+	private static Mac createHmacMd5(final byte[] key) {
+		try {
+			return EncryptionUtils.createHmacMd5(key);
+		} catch (final NoSuchAlgorithmException | InvalidKeyException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Clone the context initialized when the key was set, which is never updated itself, so that the
+	 * key schedule is not computed again for each message.
+	 */
+	private static Mac cloneHmacMd5(final Mac mac, final byte[] key) {
+		if (mac != null) {
+			try {
+				return (Mac) mac.clone();
+			} catch (final CloneNotSupportedException e) {
+				// provider without clone support
+			}
+		}
+		return createHmacMd5(key);
+	}
+
 	void resetEncryption(final HttpRequest request) {
 		setIsAuthenticated(false);
 		clientSealingKey = null;
@@ -143,6 +317,8 @@ public class NTCredentialsWithEncryption extends NTCredentials {
 		serverSigningKey = null;
 		encryptor = null;
 		decryptor = null;
+		clientSigningMac = null;
+		serverSigningMac = null;
 		sequenceNumberIncoming.set(-1);
 		sequenceNumberOutgoing.set(-1);
 
@@ -200,4 +376,26 @@ public class NTCredentialsWithEncryption extends NTCredentials {
 				&& Arrays.equals(serverSealingKey, other.serverSealingKey)
 				&& Arrays.equals(serverSigningKey, other.serverSigningKey);
 	}
+
+	/**
+	 * NT user principal only equal to itself.
+	 */
+	private static class SecurityContextPrincipal extends NTUserPrincipal {
+
+		private static final long serialVersionUID = 1L;
+
+		SecurityContextPrincipal(final String domain, final String userName) {
+			super(domain, userName);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return this == obj;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this);
+		}
+	}
 }
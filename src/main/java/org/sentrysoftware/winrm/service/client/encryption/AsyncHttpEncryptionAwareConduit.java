@@ -26,21 +26,43 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.cxf.Bus;
 import org.apache.cxf.io.CacheAndWriteOutputStream;
 import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageUtils;
 import org.apache.cxf.service.model.EndpointInfo;
 import org.apache.cxf.transport.http.Address;
 import org.apache.cxf.transport.http.asyncclient.AsyncHTTPConduit;
 import org.apache.cxf.transport.http.asyncclient.CXFHttpRequest;
 import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
 import org.apache.cxf.ws.addressing.EndpointReferenceType;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.AuthSchemeProvider;
+import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.Credentials;
 import org.apache.http.client.config.AuthSchemes;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Lookup;
 import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.util.EntityUtils;
+import org.ietf.jgss.GSSException;
+
+import org.sentrysoftware.winrm.Utils;
+import org.sentrysoftware.winrm.service.client.auth.kerberos.KerberosCredentialsWithEncryption;
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
 
 /**
  * Creates an output stream which sends back the appropriate encrypted or unencrypted stream,
@@ -56,9 +78,60 @@ public class AsyncHttpEncryptionAwareConduit extends AsyncHTTPConduit {
 
 	static final byte[] PRE_AUTH_BOGUS_PAYLOAD = "AWAITING_ENCRYPTION_KEYS".getBytes();
 
+	/**
+	 * Contextual property (or system property) enabling the proactive authentication: the NTLM handshake
+	 * is run on an empty request before the first message of a security context, which is then sent once,
+	 * already sealed, instead of the bogus payload followed by the encrypted one.
+	 * Kerberos is always authenticated proactively, as the mutual authentication token of the server
+	 * is needed before the first message can be wrapped.
+	 */
+	public static final String PROACTIVE_AUTHENTICATION = "org.sentrysoftware.winrm.proactiveAuthentication";
+
+	private static final String KERBEROS_AUTHORIZATION = AuthSchemes.KERBEROS + " ";
+
 	private static final List<String> TARGET_AUTH_SCHEMES =
 			Arrays.asList(AuthSchemes.SPNEGO, AuthSchemes.KERBEROS);
 
+	/**
+	 * Time at which the WinRM call made by the current thread must be over, if any.
+	 * The requests are prepared on the calling thread, so their timeouts can be shortened to the time left.
+	 */
+	private static final ThreadLocal<Long> CALL_DEADLINE = new ThreadLocal<>();
+
+	/**
+	 * Set the time at which the WinRM call made by the current thread must be over, including its retries.
+	 *
+	 * @param deadline The deadline in milliseconds since the epoch, or null once the call is over
+	 */
+	public static void setCallDeadline(final Long deadline) {
+		if (deadline != null) {
+			CALL_DEADLINE.set(deadline);
+		} else {
+			CALL_DEADLINE.remove();
+		}
+	}
+
+	/**
+	 * @return The time left before the deadline of the call made by the current thread
+	 * (at least 1 millisecond), or 0 if there is no deadline
+	 */
+	static long getCallTimeLeft() {
+		final Long deadline = CALL_DEADLINE.get();
+		return deadline != null ? Math.max(1, deadline - Utils.getCurrentTimeMillis()) : 0;
+	}
+
+	/**
+	 * @param timeout A timeout of the request, 0 or less meaning none
+	 * @param timeLeft The time left before the deadline of the call, 0 meaning none
+	 * @return The timeout, shortened to the time left
+	 */
+	static int capTimeout(final long timeout, final long timeLeft) {
+		if (timeLeft <= 0) {
+			return (int) timeout;
+		}
+		return (int) (timeout > 0 ? Math.min(timeout, timeLeft) : timeLeft);
+	}
+
 	private static ContentWithType getAppropriate(final Message msg) {
 		final EncryptAndSignOutputStream encryptingStream = msg.getContent(EncryptAndSignOutputStream.class);
 		if (encryptingStream == null) {
@@ -82,7 +155,7 @@ public class AsyncHttpEncryptionAwareConduit extends AsyncHTTPConduit {
 			final boolean isChunking,
 			final int chunkThreshold) throws IOException {
 
-		final NtlmEncryptionUtils encryptor = NtlmEncryptionUtils.of(message.get(Credentials.class));
+		final MessageEncryption encryptor = MessageEncryption.of(message.get(Credentials.class));
 		if (encryptor == null) {
 			return super.createOutputStream(message, needToCacheRequest, isChunking, chunkThreshold);
 		}
@@ -114,6 +187,16 @@ public class AsyncHttpEncryptionAwareConduit extends AsyncHTTPConduit {
 
 		super.setupConnection(message, address, csPolicy);
 
+		final Object credentials = message.get(Credentials.class.getName());
+		if (credentials instanceof KerberosCredentialsWithEncryption ||
+				credentials instanceof NTCredentialsWithEncryption &&
+				MessageUtils.getContextualBoolean(
+						message,
+						PROACTIVE_AUTHENTICATION,
+						Boolean.getBoolean(PROACTIVE_AUTHENTICATION))) {
+			authenticateProactively(message, address, csPolicy, (EncryptedSessionCredentials) credentials);
+		}
+
 		// replace similar logic in super method, but with a refreshHeaders method available
 
 		final CXFHttpRequest requestEntity = message.get(CXFHttpRequest.class);
@@ -134,11 +217,127 @@ public class AsyncHttpEncryptionAwareConduit extends AsyncHTTPConduit {
 
 		requestEntity.setEntity(entity);
 
-		requestEntity.setConfig(RequestConfig.copy(requestEntity.getConfig())
+		// The attempt must not overshoot the deadline of the call
+		final RequestConfig config = requestEntity.getConfig();
+		final long timeLeft = getCallTimeLeft();
+		requestEntity.setConfig(RequestConfig.copy(config)
 				.setTargetPreferredAuthSchemes(TARGET_AUTH_SCHEMES)
+				.setConnectionRequestTimeout(capTimeout(config.getConnectionRequestTimeout(), timeLeft))
+				.setConnectTimeout(capTimeout(config.getConnectTimeout(), timeLeft))
+				.setSocketTimeout(capTimeout(config.getSocketTimeout(), timeLeft))
 				.build());
 	}
 
+	/**
+	 * Run the authentication handshake with an empty request if the security context is not authenticated yet.
+	 * The connection is released in the pool with the principal as state, so it is the one used by the message.
+	 *
+	 * @param message The CXF message about to be sent
+	 * @param address The endpoint address
+	 * @param csPolicy The HTTP client policy with the timeouts
+	 * @param credentials The credentials holding the security context
+	 * @throws IOException When the handshake request fails
+	 */
+	@SuppressWarnings("unchecked")
+	private void authenticateProactively(
+			final Message message,
+			final Address address,
+			final HTTPClientPolicy csPolicy,
+			final EncryptedSessionCredentials credentials) throws IOException {
+
+		synchronized (credentials) {
+			if (credentials.isAuthenticated()) {
+				return;
+			}
+
+			final HttpPost request = new HttpPost(address.getURI());
+			request.setEntity(new ByteArrayEntity(new byte[0]));
+
+			final BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+			credentialsProvider.setCredentials(AuthScope.ANY, credentials);
+
+			final HttpClientContext context = HttpClientContext.create();
+			context.setCredentialsProvider(credentialsProvider);
+			context.setUserToken(credentials.getUserPrincipal());
+
+			final Object authSchemeRegistry = message.getContextualProperty(AuthSchemeProvider.class.getName());
+			if (authSchemeRegistry instanceof Lookup) {
+				context.setAuthSchemeRegistry((Lookup<AuthSchemeProvider>) authSchemeRegistry);
+			}
+
+			// The handshake is part of the attempt: it must not overshoot the deadline of the call either
+			final long timeLeft = getCallTimeLeft();
+			context.setRequestConfig(RequestConfig.custom()
+					.setTargetPreferredAuthSchemes(TARGET_AUTH_SCHEMES)
+					.setConnectTimeout(capTimeout(csPolicy.getConnectionTimeout(), timeLeft))
+					.setConnectionRequestTimeout(capTimeout(csPolicy.getConnectionRequestTimeout(), timeLeft))
+					.setSocketTimeout(capTimeout(csPolicy.getReceiveTimeout(), timeLeft))
+					.build());
+
+			final Future<HttpResponse> future = getHttpAsyncClient().execute(request, context, null);
+			final long timeout = timeLeft > 0 ?
+					timeLeft :
+					csPolicy.getConnectionRequestTimeout() + csPolicy.getConnectionTimeout() + csPolicy.getReceiveTimeout();
+
+			try {
+				final HttpResponse response = timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+				// The status is not relevant: the server answers the empty request once the connection is authenticated
+				EntityUtils.consume(response.getEntity());
+
+				if (credentials instanceof KerberosCredentialsWithEncryption) {
+					completeKerberosAuthentication(response, (KerberosCredentialsWithEncryption) credentials, address);
+				}
+
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted during the authentication of " + address.getString(), e);
+
+			} catch (final TimeoutException e) {
+				future.cancel(true);
+				throw new IOException("Timeout during the authentication of " + address.getString(), e);
+
+			} catch (final ExecutionException e) {
+				throw e.getCause() instanceof IOException ?
+						(IOException) e.getCause() :
+						new IOException("Authentication of " + address.getString() + " failed", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * The response authenticating the connection carries the mutual authentication token of the server,
+	 * which completes the GSS context.
+	 *
+	 * @param response The response to the empty request
+	 * @param credentials The credentials holding the GSS context
+	 * @param address The endpoint address
+	 * @throws IOException When the GSS context cannot be established
+	 */
+	private static void completeKerberosAuthentication(
+			final HttpResponse response,
+			final KerberosCredentialsWithEncryption credentials,
+			final Address address) throws IOException {
+
+		for (final Header header : response.getHeaders(AUTH.WWW_AUTH)) {
+			final String value = header.getValue().trim();
+			if (value.regionMatches(true, 0, KERBEROS_AUTHORIZATION, 0, KERBEROS_AUTHORIZATION.length())) {
+				try {
+					credentials.completeAuthentication(
+							Base64.getDecoder().decode(value.substring(KERBEROS_AUTHORIZATION.length()).trim()));
+				} catch (final GSSException | IllegalArgumentException e) {
+					throw new IOException("Kerberos mutual authentication of " + address.getString() + " failed", e);
+				}
+			}
+		}
+
+		if (!credentials.isAuthenticated()) {
+			throw new IOException(String.format(
+					"Kerberos authentication of %s failed (HTTP status %d)",
+					address.getString(),
+					response.getStatusLine().getStatusCode()));
+		}
+	}
+
 	private class AsyncWrappedEncryptionAwareOutputStream extends AsyncWrappedOutputStream {
 
 		public AsyncWrappedEncryptionAwareOutputStream(
@@ -21,6 +21,8 @@ package org.sentrysoftware.winrm.service.client.encryption;
  */
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.cxf.Bus;
@@ -28,17 +30,118 @@ import org.apache.cxf.service.model.EndpointInfo;
 import org.apache.cxf.transport.http.HTTPConduit;
 import org.apache.cxf.transport.http.asyncclient.AsyncHTTPConduitFactory;
 import org.apache.cxf.ws.addressing.EndpointReferenceType;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AUTH;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.protocol.HttpContext;
 
 /**
  * Code from io.cloudsoft.winrm4j.client.encryption.AsyncHttpEncryptionAwareConduitFactory
  * release 0.12.3 @link https://github.com/cloudsoft/winrm4j
+ *
+ * NTLM and Negotiate authenticate the connection, not the request: the connections are kept alive
+ * and pooled with the principal of their credentials as state, so that the next requests of the same
+ * security context are sent on an already authenticated connection. With encryption, each security
+ * context has its own principal (see NTCredentialsWithEncryption), hence its own connection.
+ * One factory (and therefore one pool) is shared by all the clients of a Bus.
  */
 public class AsyncHttpEncryptionAwareConduitFactory extends AsyncHTTPConduitFactory {
 
+	/**
+	 * Connections idle for longer are closed. (The WinRM service closes them after 120 seconds)
+	 */
+	static final int CONNECTION_MAX_IDLE_MILLISECONDS = 100 * 1000;
+
+	private static final String EXCHANGE_RECORDED = "org.sentrysoftware.winrm.exchange.recorded";
+
+	private final ConnectionStatistics statistics = new ConnectionStatistics();
+
 	public AsyncHttpEncryptionAwareConduitFactory() {
 		super((Map<String, Object>) null);
 	}
 
+	/**
+	 * Create a factory with the given pool properties. (See AsyncHTTPConduitFactory constants)
+	 *
+	 * @param properties The connection pool properties
+	 */
+	public AsyncHttpEncryptionAwareConduitFactory(final Map<String, Object> properties) {
+		super(properties);
+	}
+
+	/**
+	 * Get the factory shared by the clients of the Bus, create it if needed.
+	 *
+	 * @param bus Apache CXF Bus (mandatory)
+	 *
+	 * @return The AsyncHttpEncryptionAwareConduitFactory instance of the Bus
+	 */
+	public static AsyncHttpEncryptionAwareConduitFactory getInstance(final Bus bus) {
+		synchronized (bus) {
+			final Object factory = bus.getProperty(AsyncHttpEncryptionAwareConduitFactory.class.getName());
+			if (factory instanceof AsyncHttpEncryptionAwareConduitFactory) {
+				return (AsyncHttpEncryptionAwareConduitFactory) factory;
+			}
+
+			final AsyncHttpEncryptionAwareConduitFactory newFactory =
+					new AsyncHttpEncryptionAwareConduitFactory(createPoolProperties());
+			bus.setProperty(AsyncHttpEncryptionAwareConduitFactory.class.getName(), newFactory);
+			return newFactory;
+		}
+	}
+
+	/**
+	 * Get the factory shared by the clients of the Bus, without creating it.
+	 *
+	 * @param bus Apache CXF Bus (mandatory)
+	 *
+	 * @return The AsyncHttpEncryptionAwareConduitFactory instance of the Bus, or null if none
+	 */
+	public static AsyncHttpEncryptionAwareConduitFactory findInstance(final Bus bus) {
+		synchronized (bus) {
+			final Object factory = bus.getProperty(AsyncHttpEncryptionAwareConduitFactory.class.getName());
+			return factory instanceof AsyncHttpEncryptionAwareConduitFactory ?
+					(AsyncHttpEncryptionAwareConduitFactory) factory :
+					null;
+		}
+	}
+
+	/**
+	 * Shut down the factory shared by the clients of the Bus, if any.
+	 *
+	 * @param bus Apache CXF Bus (mandatory)
+	 */
+	public static void shutdownInstance(final Bus bus) {
+		synchronized (bus) {
+			final Object factory = bus.getProperty(AsyncHttpEncryptionAwareConduitFactory.class.getName());
+			if (factory instanceof AsyncHttpEncryptionAwareConduitFactory) {
+				((AsyncHttpEncryptionAwareConduitFactory) factory).shutdown();
+				bus.setProperty(AsyncHttpEncryptionAwareConduitFactory.class.getName(), null);
+			}
+		}
+	}
+
+	static Map<String, Object> createPoolProperties() {
+		final Map<String, Object> properties = new HashMap<>();
+		properties.put(SO_KEEPALIVE, Boolean.TRUE);
+		// Keep the authenticated connections as long as they are used
+		properties.put(CONNECTION_TTL, 0);
+		properties.put(CONNECTION_MAX_IDLE, CONNECTION_MAX_IDLE_MILLISECONDS);
+		// No limit per host when encrypting: each connection is bound to its own security context
+		return properties;
+	}
+
+	/**
+	 * @return The counters of the connections of this factory
+	 */
+	public ConnectionStatistics getStatistics() {
+		return statistics;
+	}
+
 	@Override
 	public HTTPConduit createConduit(final Bus bus, final EndpointInfo localInfo, final EndpointReferenceType target)
 			throws IOException {
@@ -46,4 +149,35 @@ public class AsyncHttpEncryptionAwareConduitFactory extends AsyncHTTPConduitFact
 			null :
 			new AsyncHttpEncryptionAwareConduit(bus, localInfo, target, this);
 	}
+
+	@Override
+	protected void adaptClientBuilder(final HttpAsyncClientBuilder httpAsyncClientBuilder) {
+		httpAsyncClientBuilder.addInterceptorLast((HttpResponseInterceptor) this::recordResponse);
+	}
+
+	/**
+	 * Update the statistics with a received response.
+	 *
+	 * @param response The HTTP response
+	 * @param context The HTTP context of the exchange
+	 */
+	void recordResponse(final HttpResponse response, final HttpContext context) {
+		final HttpClientContext clientContext = HttpClientContext.adapt(context);
+
+		statistics.recordRequest();
+
+		if (clientContext.getAttribute(EXCHANGE_RECORDED) == null) {
+			clientContext.setAttribute(EXCHANGE_RECORDED, Boolean.TRUE);
+
+			final HttpConnection connection = clientContext.getConnection();
+			statistics.recordExchange(connection != null && connection.getMetrics().getRequestCount() > 1);
+		}
+
+		// A challenge without token is the beginning of a new authentication handshake
+		if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED &&
+				Arrays.stream(response.getHeaders(AUTH.WWW_AUTH))
+					.anyMatch(header -> header.getValue() != null && header.getValue().trim().indexOf(' ') < 0)) {
+			statistics.recordHandshake();
+		}
+	}
 }
@@ -0,0 +1,69 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small pool of fixed-size byte buffers used to read encrypted responses.
+ * The buffers only ever hold sealed bytes, so they are not cleared when released.
+ */
+final class BufferPool {
+
+	static final int BUFFER_SIZE = 16 * 1024;
+
+	private static final int MAX_POOLED_BUFFERS = 64;
+
+	private static final Queue<byte[]> BUFFERS = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger POOLED = new AtomicInteger();
+
+	private BufferPool() { }
+
+	/**
+	 * @return A pooled buffer, or a new one if the pool is empty
+	 */
+	static byte[] acquire() {
+		final byte[] buffer = BUFFERS.poll();
+		if (buffer == null) {
+			return new byte[BUFFER_SIZE];
+		}
+		POOLED.decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Give a buffer back to the pool. It is dropped if the pool is full.
+	 *
+	 * @param buffer The buffer obtained with {@link #acquire()}
+	 */
+	static void release(final byte[] buffer) {
+		if (buffer == null || buffer.length != BUFFER_SIZE) {
+			return;
+		}
+		if (POOLED.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+			BUFFERS.offer(buffer);
+		} else {
+			POOLED.decrementAndGet();
+		}
+	}
+}
@@ -23,8 +23,13 @@ package org.sentrysoftware.winrm.service.client.encryption;
 import java.security.Key;
 import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
@@ -40,6 +45,18 @@ import org.sentrysoftware.winrm.service.client.auth.ntlm.NTLMEngineUtils;
  */
 public class CipherGen {
 
+	/**
+	 * Time to live of the cached NT and NTLMv2 hashes of a credential.
+	 */
+	static final long HASH_CACHE_TTL_NANOSECONDS = TimeUnit.MINUTES.toNanos(10);
+
+	/**
+	 * Maximum number of credentials whose hashes are cached.
+	 */
+	static final int HASH_CACHE_MAX_ENTRIES = 256;
+
+	private static final Map<HashCacheKey, CachedHashes> HASH_CACHE = new ConcurrentHashMap<>();
+
 	private final Random random;
 	private final long currentTime;
 
@@ -135,7 +152,7 @@ public class CipherGen {
 	/** Calculate and return the NTLMHash */
 	private byte[] getNTLMHash() throws NTLMEngineException {
 		if (ntlmHash == null) {
-			ntlmHash = ntlmHash(password);
+			ntlmHash = getCachedHashes().getNtlmHash();
 		}
 		return ntlmHash;
 	}
@@ -151,7 +168,7 @@ public class CipherGen {
 	/** Calculate the LMv2 hash */
 	private byte[] getLMv2Hash() throws NTLMEngineException {
 		if (lmv2Hash == null) {
-			lmv2Hash = lmv2Hash(domain, user, getNTLMHash());
+			lmv2Hash = getCachedHashes().getLmv2Hash();
 		}
 		return lmv2Hash;
 	}
@@ -159,11 +176,78 @@ public class CipherGen {
 	/** Calculate the NTLMv2 hash */
 	private byte[] getNTLMv2Hash() throws NTLMEngineException {
 		if (ntlmv2Hash == null) {
-			ntlmv2Hash = ntlmv2Hash(domain, user, getNTLMHash());
+			ntlmv2Hash = getCachedHashes().getNtlmv2Hash();
 		}
 		return ntlmv2Hash;
 	}
 
+	/**
+	 * Get the hashes of the credential from the cache, or compute them. The same credential
+	 * (domain, user and password instance) is authenticated on each new connection, so the hashes
+	 * are computed once and kept for a limited time only.
+	 */
+	private CachedHashes getCachedHashes() throws NTLMEngineException {
+		final HashCacheKey key = new HashCacheKey(domain, user, password);
+		final long now = System.nanoTime();
+
+		final CachedHashes cached = HASH_CACHE.get(key);
+		if (cached != null) {
+			final CachedHashes copy = cached.copyIfValid(now);
+			if (copy != null) {
+				return copy;
+			}
+			evict(key, cached);
+		}
+
+		final byte[] ntlmHashValue = ntlmHash(password);
+		final CachedHashes hashes = new CachedHashes(
+				ntlmHashValue,
+				ntlmv2Hash(domain, user, ntlmHashValue),
+				lmv2Hash(domain, user, ntlmHashValue),
+				now + HASH_CACHE_TTL_NANOSECONDS);
+
+		if (HASH_CACHE.size() >= HASH_CACHE_MAX_ENTRIES) {
+			evictExpired(now);
+		}
+		if (HASH_CACHE.size() < HASH_CACHE_MAX_ENTRIES) {
+			final CachedHashes previous = HASH_CACHE.put(key, hashes.copyIfValid(now));
+			if (previous != null) {
+				previous.destroy();
+			}
+		}
+
+		return hashes;
+	}
+
+	private static void evict(final HashCacheKey key, final CachedHashes hashes) {
+		if (HASH_CACHE.remove(key, hashes)) {
+			hashes.destroy();
+		}
+	}
+
+	private static void evictExpired(final long now) {
+		final Iterator<Map.Entry<HashCacheKey, CachedHashes>> iterator = HASH_CACHE.entrySet().iterator();
+		while (iterator.hasNext()) {
+			final Map.Entry<HashCacheKey, CachedHashes> entry = iterator.next();
+			if (entry.getValue().isExpired(now)) {
+				iterator.remove();
+				entry.getValue().destroy();
+			}
+		}
+	}
+
+	/**
+	 * Remove all the cached hashes, after overwriting them with zeros.
+	 */
+	public static void clearHashCache() {
+		final Iterator<CachedHashes> iterator = HASH_CACHE.values().iterator();
+		while (iterator.hasNext()) {
+			final CachedHashes hashes = iterator.next();
+			iterator.remove();
+			hashes.destroy();
+		}
+	}
+
 	/** Calculate a timestamp */
 	private byte[] getTimestamp() {
 		if (timestamp == null) {
@@ -587,4 +671,92 @@ public class CipherGen {
 		hmacMD5.update(value);
 		return hmacMD5.getOutput();
 	}
+
+	/**
+	 * Identity of a credential: the password is compared by reference, as it is the same instance
+	 * for all the security contexts of a credential.
+	 */
+	private static class HashCacheKey {
+
+		private final String domain;
+		private final String user;
+		private final String password;
+
+		HashCacheKey(final String domain, final String user, final String password) {
+			this.domain = domain;
+			this.user = user;
+			this.password = password;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(domain, user, System.identityHashCode(password));
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof HashCacheKey)) {
+				return false;
+			}
+			final HashCacheKey other = (HashCacheKey) obj;
+			return password == other.password
+					&& Objects.equals(domain, other.domain)
+					&& Objects.equals(user, other.user);
+		}
+	}
+
+	/**
+	 * Hashes of a credential. The cached instances are only read through copies, so that they can
+	 * be zeroed on eviction while a handshake is using them.
+	 */
+	private static class CachedHashes {
+
+		private final byte[] ntlmHash;
+		private final byte[] ntlmv2Hash;
+		private final byte[] lmv2Hash;
+		private final long expiration;
+		private boolean destroyed;
+
+		CachedHashes(final byte[] ntlmHash, final byte[] ntlmv2Hash, final byte[] lmv2Hash, final long expiration) {
+			this.ntlmHash = ntlmHash;
+			this.ntlmv2Hash = ntlmv2Hash;
+			this.lmv2Hash = lmv2Hash;
+			this.expiration = expiration;
+		}
+
+		byte[] getNtlmHash() {
+			return ntlmHash;
+		}
+
+		byte[] getNtlmv2Hash() {
+			return ntlmv2Hash;
+		}
+
+		byte[] getLmv2Hash() {
+			return lmv2Hash;
+		}
+
+		boolean isExpired(final long now) {
+			return now - expiration >= 0;
+		}
+
+		/**
+		 * @return A copy of the hashes, or null if they have expired or been destroyed
+		 */
+		synchronized CachedHashes copyIfValid(final long now) {
+			return destroyed || isExpired(now) ?
+					null :
+					new CachedHashes(ntlmHash.clone(), ntlmv2Hash.clone(), lmv2Hash.clone(), expiration);
+		}
+
+		synchronized void destroy() {
+			destroyed = true;
+			Arrays.fill(ntlmHash, (byte) 0);
+			Arrays.fill(ntlmv2Hash, (byte) 0);
+			Arrays.fill(lmv2Hash, (byte) 0);
+		}
+	}
 }
@@ -0,0 +1,99 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the HTTP exchanges of a WinRM connection pool: how many of them had to
+ * open a new connection (and authenticate it) and how many reused an authenticated one.
+ */
+public class ConnectionStatistics {
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong exchanges = new AtomicLong();
+	private final AtomicLong openedConnections = new AtomicLong();
+	private final AtomicLong reusedConnections = new AtomicLong();
+	private final AtomicLong handshakes = new AtomicLong();
+
+	/**
+	 * @return The number of HTTP requests sent, authentication legs included
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return The number of WinRM calls (one or more HTTP requests each)
+	 */
+	public long getExchanges() {
+		return exchanges.get();
+	}
+
+	/**
+	 * @return The number of WinRM calls sent on a new connection
+	 */
+	public long getOpenedConnections() {
+		return openedConnections.get();
+	}
+
+	/**
+	 * @return The number of WinRM calls sent on a pooled, already used connection
+	 */
+	public long getReusedConnections() {
+		return reusedConnections.get();
+	}
+
+	/**
+	 * @return The number of authentication handshakes started by the server (401 with a new challenge)
+	 */
+	public long getHandshakes() {
+		return handshakes.get();
+	}
+
+	void recordRequest() {
+		requests.incrementAndGet();
+	}
+
+	void recordExchange(final boolean reused) {
+		exchanges.incrementAndGet();
+		if (reused) {
+			reusedConnections.incrementAndGet();
+		} else {
+			openedConnections.incrementAndGet();
+		}
+	}
+
+	void recordHandshake() {
+		handshakes.incrementAndGet();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"ConnectionStatistics [requests=%d, exchanges=%d, openedConnections=%d, reusedConnections=%d, handshakes=%d]",
+				getRequests(),
+				getExchanges(),
+				getOpenedConnections(),
+				getReusedConnections(),
+				getHandshakes());
+	}
+}
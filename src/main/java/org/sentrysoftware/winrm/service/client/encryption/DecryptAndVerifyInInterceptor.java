@@ -20,6 +20,8 @@ package org.sentrysoftware.winrm.service.client.encryption;
  * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
  */
 
+import java.io.IOException;
+
 import org.apache.cxf.interceptor.StaxInInterceptor;
 import org.apache.cxf.message.Message;
 import org.apache.cxf.phase.AbstractPhaseInterceptor;
@@ -37,9 +39,19 @@ public class DecryptAndVerifyInInterceptor extends AbstractPhaseInterceptor<Mess
 	}
 
 	public void handleMessage(final Message message) {
-		final NtlmEncryptionUtils ntlmEncryptionUtils = NtlmEncryptionUtils.of(message);
-		if (ntlmEncryptionUtils != null) {
-			ntlmEncryptionUtils.decrypt(message);
+		final MessageEncryption encryption = MessageEncryption.of(message);
+		if (encryption != null) {
+			encryption.decrypt(message);
+		}
+	}
+
+	@Override
+	public void handleFault(final Message message) {
+		try {
+			VerifyAndReleaseInInterceptor.close(message);
+		} catch (final IOException e) {
+			// the fault being handled is more relevant
 		}
+		SecurityContextOutInterceptor.release(message.getExchange(), false);
 	}
 }
@@ -0,0 +1,333 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTLMEngineUtils;
+
+/**
+ * InputStream unsealing a multipart/encrypted response while it is being received.
+ *
+ * The multipart framing is parsed as soon as the stream is created, then the sealed bytes are read
+ * into a pooled buffer and unsealed directly into the caller's buffer, so that the XML parser can start
+ * before the whole response has arrived. The signature is verified once the last sealed byte is read,
+ * or when the stream is closed. Once a read failed (invalid framing or signature), the stateful decryptor
+ * is out of sync with the response: the next reads fail too.
+ */
+class DecryptingInputStream extends InputStream {
+
+	private static final String ORIGINAL_CONTENT = "OriginalContent:";
+	private static final String LENGTH = "Length=";
+	private static final int MAX_LINE_LENGTH = 1024;
+
+	private static final byte[] ENCRYPTED_BOUNDARY_END_PREFIX =
+			(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_PREFIX + "--").getBytes(StandardCharsets.US_ASCII);
+
+	private final InputStream in;
+	private final NTCredentialsWithEncryption credentials;
+	private final Cipher decryptor;
+	private final byte[] signature = new byte[NtlmEncryptionUtils.SIGNATURE_SIZE];
+
+	private byte[] buffer;
+	private int position;
+	private int limit;
+
+	private NtlmSignature expectedSignature;
+	private long remaining;
+	private boolean verified;
+	private boolean failed;
+	private boolean closed;
+
+	/**
+	 * Read the multipart framing and the signature of the encrypted response.
+	 *
+	 * @param in The stream of the multipart/encrypted response
+	 * @param credentials The authenticated credentials holding the security context
+	 * @throws IOException If the framing is invalid or cannot be read
+	 */
+	DecryptingInputStream(final InputStream in, final NTCredentialsWithEncryption credentials) throws IOException {
+		this.in = in;
+		this.credentials = credentials;
+		decryptor = credentials.getStatefulDecryptor();
+		buffer = BufferPool.acquire();
+
+		try {
+			readHeader();
+		} catch (final IOException | RuntimeException e) {
+			release();
+			throw e;
+		}
+	}
+
+	private void readHeader() throws IOException {
+		String line = readLine();
+		if (!NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_PREFIX.equals(line)) {
+			throw new IOException(String.format(
+					"Invalid format for response from server; expecting '%s' but got '%s'",
+					NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_PREFIX,
+					line));
+		}
+
+		long length = -1;
+		while (!NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_PREFIX.equals(line = readLine())) {
+			if (line.trim().startsWith(ORIGINAL_CONTENT)) {
+				length = parseLength(line);
+			}
+		}
+
+		// Content-Type: application/octet-stream
+		readLine();
+
+		if (length < 0) {
+			throw new IOException("Invalid format for response from server; missing length of the original content");
+		}
+
+		final byte[] signatureLength = new byte[NtlmEncryptionUtils.SIGNATURE_LENGTH_SIZE];
+		readFully(signatureLength);
+		if (ByteArrayUtils.readLittleEndianUnsignedInt(signatureLength, 0) != signature.length) {
+			throw new IOException("Invalid format for response from server; unexpected signature length");
+		}
+		readFully(signature);
+
+		// without extended session security the sequence number is sealed, so the expected one is used
+		final long seqNum = credentials.hasNegotiateFlag(NTLMEngineUtils.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY) ?
+				ByteArrayUtils.readLittleEndianUnsignedInt(signature, 12) :
+				credentials.getSequenceNumberIncoming().get() + 1;
+		expectedSignature = new NtlmSignature(credentials, NTCredentialsWithEncryption::createServerSigningMac, seqNum);
+		remaining = length;
+	}
+
+	private static long parseLength(final String line) throws IOException {
+		final int start = line.indexOf(LENGTH);
+		if (start < 0) {
+			throw new IOException("Invalid format for response from server; no length in " + line);
+		}
+
+		int end = start + LENGTH.length();
+		while (end < line.length() && Character.isDigit(line.charAt(end))) {
+			end++;
+		}
+
+		try {
+			return Long.parseLong(line.substring(start + LENGTH.length(), end));
+		} catch (final NumberFormatException e) {
+			throw new IOException("Invalid format for response from server; invalid length in " + line, e);
+		}
+	}
+
+	/**
+	 * @return The next line, without its line terminator
+	 */
+	private String readLine() throws IOException {
+		final StringBuilder line = new StringBuilder();
+		while (true) {
+			if (position == limit && fill() < 0) {
+				throw new EOFException("Invalid format for response from server; terminated early in the header");
+			}
+
+			final byte b = buffer[position++];
+			if (b == '\n') {
+				final int length = line.length();
+				if (length > 0 && line.charAt(length - 1) == '\r') {
+					line.setLength(length - 1);
+				}
+				return line.toString();
+			}
+
+			if (line.length() >= MAX_LINE_LENGTH) {
+				throw new IOException("Invalid format for response from server; header line too long");
+			}
+			line.append((char) (b & 0xFF));
+		}
+	}
+
+	private void readFully(final byte[] bytes) throws IOException {
+		int index = 0;
+		while (index < bytes.length) {
+			if (position == limit && fill() < 0) {
+				throw new EOFException("Invalid format for response from server; terminated early");
+			}
+			final int length = Math.min(bytes.length - index, limit - position);
+			System.arraycopy(buffer, position, bytes, index, length);
+			position += length;
+			index += length;
+		}
+	}
+
+	private int fill() throws IOException {
+		position = 0;
+		limit = 0;
+		final int read = in.read(buffer, 0, buffer.length);
+		if (read > 0) {
+			limit = read;
+		}
+		return read;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final byte[] single = new byte[1];
+		final int read = read(single, 0, 1);
+		return read < 0 ? -1 : single[0] & 0xFF;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (closed || failed) {
+			throw new IOException("Stream closed");
+		}
+
+		try {
+			return unseal(b, off, len);
+		} catch (final IOException | RuntimeException e) {
+			failed = true;
+			release();
+			throw e;
+		}
+	}
+
+	private int unseal(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (remaining == 0) {
+			finish();
+			return -1;
+		}
+
+		if (position == limit && fill() < 0) {
+			throw new EOFException("Invalid format for response from server; encrypted payload terminated early");
+		}
+
+		final int length = (int) Math.min(Math.min(len, limit - position), remaining);
+		try {
+			decryptor.update(buffer, position, length, b, off);
+		} catch (final ShortBufferException e) {
+			throw new IOException(e);
+		}
+		expectedSignature.update(b, off, length);
+
+		position += length;
+		remaining -= length;
+
+		if (remaining == 0) {
+			finish();
+		}
+
+		return length;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return closed || failed || remaining == 0 ? 0 : (int) Math.min(limit - position, remaining);
+	}
+
+	/**
+	 * Skip the remaining sealed bytes if the parser stopped early (they must still go through the stateful
+	 * decryptor), verify the signature and close the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		try {
+			if (!failed) {
+				final byte[] skipped = new byte[BufferPool.BUFFER_SIZE];
+				while (read(skipped, 0, skipped.length) >= 0) {
+					// unseal and discard
+				}
+			}
+		} finally {
+			closed = true;
+			release();
+			in.close();
+		}
+	}
+
+	private void finish() throws IOException {
+		if (verified) {
+			return;
+		}
+		verified = true;
+
+		try {
+			final byte[] end = new byte[ENCRYPTED_BOUNDARY_END_PREFIX.length];
+			readFully(end);
+			if (!Arrays.equals(end, ENCRYPTED_BOUNDARY_END_PREFIX)) {
+				throw new IOException(String.format(
+						"Invalid format for response from server; expecting '%s' after the encrypted payload",
+						NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END.trim()));
+			}
+
+			verify();
+		} catch (final ShortBufferException e) {
+			throw new IOException(e);
+		} finally {
+			release();
+		}
+	}
+
+	private void verify() throws IOException, ShortBufferException {
+
+		final int checkSumOffset =
+				credentials.hasNegotiateFlag(
+						NTLMEngineUtils.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY) ? 4 : 8;
+
+		final byte[] expected = new byte[NtlmEncryptionUtils.SIGNATURE_SIZE];
+		expectedSignature.write(expected, 0, decryptor);
+
+		final byte[] checksum = Arrays.copyOfRange(signature, checkSumOffset, 12);
+		final byte[] expectedChecksum = Arrays.copyOfRange(expected, checkSumOffset, 12);
+
+		if (!Arrays.equals(checksum, expectedChecksum)) {
+			throw new IOException(String.format("Checksum mismatch\n%s--\n%s",
+					ByteArrayUtils.formatHexDump(checksum),
+					ByteArrayUtils.formatHexDump(expectedChecksum)));
+		}
+
+		final long seqNum = ByteArrayUtils.readLittleEndianUnsignedInt(signature, 12);
+		final long expectedSeqNum = ByteArrayUtils.readLittleEndianUnsignedInt(expected, 12);
+		if (expectedSeqNum != seqNum) {
+			throw new IOException(String.format(
+					"Sequence number mismatch: %d != %d", seqNum, expectedSeqNum));
+		}
+
+		credentials.getSequenceNumberIncoming().incrementAndGet();
+	}
+
+	private void release() {
+		BufferPool.release(buffer);
+		buffer = null;
+		position = 0;
+		limit = 0;
+	}
+}
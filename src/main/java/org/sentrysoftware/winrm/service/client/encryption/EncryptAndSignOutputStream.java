@@ -22,39 +22,43 @@ package org.sentrysoftware.winrm.service.client.encryption;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Objects;
 
+import org.apache.cxf.helpers.LoadingByteArrayOutputStream;
 import org.apache.cxf.io.CachedOutputStream;
 import org.apache.cxf.message.Message;
 import org.apache.http.auth.Credentials;
 
-import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
-
 /**
  * Code from io.cloudsoft.winrm4j.client.encryption.SignAndEncryptOutInterceptor.EncryptAndSignOutputStream
  * release 0.12.3 @link https://github.com/cloudsoft/winrm4j
+ *
+ * The body is kept in memory and encrypted from the cache buffer itself, without copy.
  */
 class EncryptAndSignOutputStream extends CachedOutputStream {
 
-	private final CachedOutputStream unencrypted;
+	private byte[] unencrypted = new byte[0];
+	private int unencryptedLength = 0;
 	private ContentWithType unencryptedResult = null;
 	private ContentWithType encrypted = null;
 	private final Message message;
 
 	private OutputStream wrapped;
 
-	private NTCredentialsWithEncryption credentials;
+	private EncryptedSessionCredentials credentials;
 
 	public EncryptAndSignOutputStream(final Message message, final OutputStream outputStream) {
 		super();
 
 		this.message = message;
 		wrapped = outputStream;
-		unencrypted = new CachedOutputStream();
+		// The whole body is needed to encrypt it: never spill it to a temporary file
+		setThreshold(Long.MAX_VALUE);
 
 		final Object creds = message.get(Credentials.class.getName());
-		if (creds instanceof NTCredentialsWithEncryption) {
-			credentials = (NTCredentialsWithEncryption) creds;
+		if (creds instanceof EncryptedSessionCredentials) {
+			credentials = (EncryptedSessionCredentials) creds;
 		}
 	}
 
@@ -66,7 +70,13 @@ class EncryptAndSignOutputStream extends CachedOutputStream {
 	@Override
 	public void close() throws IOException {
 		super.close();
-		unencrypted.write(getBytes());
+		if (currentStream instanceof LoadingByteArrayOutputStream) {
+			unencrypted = ((LoadingByteArrayOutputStream) currentStream).getRawBytes();
+			unencryptedLength = ((LoadingByteArrayOutputStream) currentStream).size();
+		} else {
+			unencrypted = getBytes();
+			unencryptedLength = unencrypted.length;
+		}
 		currentStream = NullOutputStream.NULL_OUTPUT_STREAM;
 
 		if (wrapped!=null) {
@@ -76,27 +86,17 @@ class EncryptAndSignOutputStream extends CachedOutputStream {
 	}
 
 	private synchronized ContentWithType getEncrypted() {
-		try {
-			if (encrypted == null) {
-				final byte[] bytesEncryptedAndSigned = NtlmEncryptionUtils.of(credentials)
-						.encryptAndSign(message, unencrypted.getBytes());
+		if (encrypted == null) {
+			final byte[] bytesEncryptedAndSigned = MessageEncryption.of(credentials)
+					.encryptAndSign(message, unencrypted, 0, unencryptedLength);
 
-				encrypted = ContentWithType.of(message, bytesEncryptedAndSigned);
-			}
-			return encrypted;
-
-		} catch (final IOException e) {
-			throw new IllegalStateException(e);
+			encrypted = ContentWithType.of(message, bytesEncryptedAndSigned);
 		}
+		return encrypted;
 	}
 
 	private byte[] getUnencrypted() {
-		try {
-			return unencrypted.getBytes();
-
-		} catch (final IOException e) {
-			throw new IllegalStateException(e);
-		}
+		return unencrypted.length == unencryptedLength ? unencrypted : Arrays.copyOf(unencrypted, unencryptedLength);
 	}
 
 	synchronized ContentWithType getAppropriate() {
@@ -128,7 +128,8 @@ class EncryptAndSignOutputStream extends CachedOutputStream {
 		final int prime = 31;
 		int result = super.hashCode();
 		result = prime * result
-				+ Objects.hash(credentials, encrypted, message, unencrypted, unencryptedResult, wrapped);
+				+ Objects.hash(credentials, encrypted, message, unencryptedLength, unencryptedResult, wrapped);
+		result = prime * result + Arrays.hashCode(unencrypted);
 		return result;
 	}
 
@@ -142,7 +143,8 @@ class EncryptAndSignOutputStream extends CachedOutputStream {
 			return false;
 		EncryptAndSignOutputStream other = (EncryptAndSignOutputStream) obj;
 		return Objects.equals(credentials, other.credentials) && Objects.equals(encrypted, other.encrypted)
-				&& Objects.equals(message, other.message) && Objects.equals(unencrypted, other.unencrypted)
+				&& Objects.equals(message, other.message) && Arrays.equals(unencrypted, other.unencrypted)
+				&& unencryptedLength == other.unencryptedLength
 				&& Objects.equals(unencryptedResult, other.unencryptedResult) && Objects.equals(wrapped, other.wrapped);
 	}
 }
@@ -0,0 +1,61 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import javax.security.auth.Destroyable;
+
+import org.apache.http.auth.Credentials;
+
+/**
+ * Credentials holding a security context which seals the WinRM messages sent over HTTP
+ * (NTLM or Kerberos), pooled per target so that concurrent requests never share it.
+ * Destroying the credentials clears the keys of the idle security contexts; the contexts in use
+ * are cleared when they are released.
+ */
+public interface EncryptedSessionCredentials extends Credentials, Destroyable {
+
+	/**
+	 * @return Whether the security context is established, i.e. the messages can be sealed
+	 */
+	boolean isAuthenticated();
+
+	/**
+	 * Take an idle security context for the target, or create a new one with the same credentials.
+	 * Each context is used by one request at a time.
+	 *
+	 * @param target The endpoint the context is used with
+	 * @return A security context which is not used by any other request
+	 */
+	EncryptedSessionCredentials acquireSecurityContext(String target);
+
+	/**
+	 * Give back a security context once its response has been decrypted.
+	 *
+	 * @param target The endpoint the context was used with
+	 * @param context The context obtained with {@link #acquireSecurityContext(String)}
+	 */
+	void releaseSecurityContext(String target, EncryptedSessionCredentials context);
+
+	/**
+	 * @return The time when a security context was last acquired or released, in milliseconds (0 if never)
+	 */
+	long getLastUseTime();
+}
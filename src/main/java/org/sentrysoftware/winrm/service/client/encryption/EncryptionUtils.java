@@ -75,12 +75,23 @@ public class EncryptionUtils {
 		}
 	}
 
+	/**
+	 * Create an HMAC-MD5 context initialized with the key, to be fed incrementally.
+	 *
+	 * @param key The signing key
+	 * @return The initialized Mac
+	 * @throws NoSuchAlgorithmException If HmacMD5 is not available
+	 * @throws InvalidKeyException If the key is invalid
+	 */
+	public static Mac createHmacMd5(final byte[] key) throws NoSuchAlgorithmException, InvalidKeyException {
+		final Mac mac = Mac.getInstance(HMAC_MD5);
+		mac.init(new SecretKeySpec(key, HMAC_MD5));
+		return mac;
+	}
+
 	public static byte[] hmacMd5(byte[] key, byte[] body) {
 		try {
-			final SecretKeySpec keySpec = new SecretKeySpec(key, HMAC_MD5);
-			final Mac mac = Mac.getInstance(HMAC_MD5);
-			mac.init(keySpec);
-			return mac.doFinal( body );
+			return createHmacMd5(key).doFinal( body );
 
 		} catch (final NoSuchAlgorithmException | InvalidKeyException e) {
 			throw new IllegalStateException(e);
@@ -0,0 +1,173 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.cxf.message.Message;
+import org.ietf.jgss.GSSException;
+
+import org.sentrysoftware.winrm.service.client.auth.kerberos.KerberosCredentialsWithEncryption;
+
+/**
+ * Kerberos encryption of the WinRM messages sent over HTTP: the body is wrapped with the GSS context
+ * and sent in the same multipart/encrypted framing as NTLM, the "signature" being the token without the
+ * encrypted data.
+ */
+public class KerberosEncryptionUtils implements MessageEncryption {
+
+	static final String KERBEROS_PROTOCOL = "application/HTTP-Kerberos-session-encrypted";
+
+	private static final byte[] ENCRYPTED_HEADER_START =
+			NtlmEncryptionUtils.createEncryptedHeaderStart(KERBEROS_PROTOCOL);
+
+	private static final byte[] OCTET_STREAM = "application/octet-stream\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] ENCRYPTED_BOUNDARY_END_PREFIX =
+			(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_PREFIX + "--").getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Size of the header of a CFX (RFC 4121) token, and of the confounder of the AES encryption types.
+	 */
+	static final int CFX_HEADER_SIZE = 16;
+
+	private final KerberosCredentialsWithEncryption credentials;
+
+	KerberosEncryptionUtils(final KerberosCredentialsWithEncryption credentials) {
+		this.credentials = credentials;
+	}
+
+	@Override
+	public KerberosCredentialsWithEncryption getCredentials() {
+		return credentials;
+	}
+
+	@Override
+	public byte[] encryptAndSign(final Message message, final byte[] messageBody, final int offset, final int length) {
+		try {
+			final byte[] token = credentials.wrap(messageBody, offset, length);
+			final int signatureLength = token.length - length;
+			rotate(token, signatureLength);
+
+			final byte[] lengthBytes = String.valueOf(length).getBytes(StandardCharsets.US_ASCII);
+
+			final byte[] out = new byte[ENCRYPTED_HEADER_START.length + lengthBytes.length
+					+ NtlmEncryptionUtils.ENCRYPTED_HEADER_END.length + NtlmEncryptionUtils.SIGNATURE_LENGTH_SIZE
+					+ token.length + NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END_BYTES.length];
+
+			int index = NtlmEncryptionUtils.write(ENCRYPTED_HEADER_START, out, 0);
+			index = NtlmEncryptionUtils.write(lengthBytes, out, index);
+			index = NtlmEncryptionUtils.write(NtlmEncryptionUtils.ENCRYPTED_HEADER_END, out, index);
+			index = NtlmEncryptionUtils.write(ByteArrayUtils.getLittleEndianUnsignedInt(signatureLength), out, index);
+			index = NtlmEncryptionUtils.write(token, out, index);
+			NtlmEncryptionUtils.write(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END_BYTES, out, index);
+
+			message.put(Message.CONTENT_TYPE, NtlmEncryptionUtils.createEncryptedContentType(KERBEROS_PROTOCOL));
+			message.put(Message.ENCODING, null);
+
+			return out;
+
+		} catch (final Exception e) {
+			throw new IllegalStateException("Cannot encrypt WinRM message", e);
+		}
+	}
+
+	/**
+	 * Windows expects the encrypted data at the end of a CFX wrap token, as produced by its IOV API:
+	 * everything after the token header is rotated right by the size of the encrypted header copy and
+	 * of the checksum, which is written in the RRC field of the header.
+	 * Tokens of the older RC4 encryption type are left unchanged.
+	 *
+	 * @param token The wrap token
+	 * @param signatureLength The length of the token without the encrypted data
+	 */
+	static void rotate(final byte[] token, final int signatureLength) {
+		final boolean isCfx = token.length > CFX_HEADER_SIZE && token[0] == 0x05 && token[1] == 0x04;
+		final int rrc = signatureLength - 2 * CFX_HEADER_SIZE;
+		if (!isCfx || rrc <= 0 || token[6] != 0 || token[7] != 0) {
+			return;
+		}
+
+		final byte[] tail = Arrays.copyOfRange(token, token.length - rrc, token.length);
+		System.arraycopy(token, CFX_HEADER_SIZE, token, CFX_HEADER_SIZE + rrc, token.length - CFX_HEADER_SIZE - rrc);
+		System.arraycopy(tail, 0, token, CFX_HEADER_SIZE, rrc);
+
+		token[6] = (byte) (rrc >>> 8);
+		token[7] = (byte) rrc;
+	}
+
+	/**
+	 * The whole response is needed to unwrap it: it is read, then unwrapped at once.
+	 * The rotation of the token is handled by the GSS implementation.
+	 */
+	@Override
+	public InputStream decrypt(final InputStream encrypted) throws IOException {
+		final byte[] payload;
+		try (InputStream in = encrypted) {
+			payload = in.readAllBytes();
+		}
+
+		final int octetStream = indexOf(payload, OCTET_STREAM);
+		final int end = lastIndexOf(payload, ENCRYPTED_BOUNDARY_END_PREFIX);
+		if (octetStream < 0 || end < 0) {
+			throw new IOException("Invalid format for response from server; missing encrypted part");
+		}
+
+		final int signatureLengthOffset = octetStream + OCTET_STREAM.length;
+		final int tokenOffset = signatureLengthOffset + NtlmEncryptionUtils.SIGNATURE_LENGTH_SIZE;
+		if (tokenOffset > end ||
+				ByteArrayUtils.readLittleEndianUnsignedInt(payload, signatureLengthOffset) > end - tokenOffset) {
+			throw new IOException("Invalid format for response from server; unexpected signature length");
+		}
+
+		try {
+			return new ByteArrayInputStream(credentials.unwrap(payload, tokenOffset, end - tokenOffset));
+		} catch (final GSSException e) {
+			throw new IOException("Cannot decrypt WinRM response", e);
+		}
+	}
+
+	private static int indexOf(final byte[] array, final byte[] target) {
+		for (int i = 0; i <= array.length - target.length; i++) {
+			if (regionMatches(array, i, target)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(final byte[] array, final byte[] target) {
+		for (int i = array.length - target.length; i >= 0; i--) {
+			if (regionMatches(array, i, target)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean regionMatches(final byte[] array, final int offset, final byte[] target) {
+		return Arrays.equals(array, offset, offset + target.length, target, 0, target.length);
+	}
+}
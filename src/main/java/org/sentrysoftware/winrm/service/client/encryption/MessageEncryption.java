@@ -0,0 +1,90 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.cxf.message.Message;
+import org.apache.http.auth.Credentials;
+
+import org.sentrysoftware.winrm.service.client.auth.kerberos.KerberosCredentialsWithEncryption;
+
+/**
+ * Seals and unseals the multipart/encrypted payload of the WinRM messages with the security context
+ * of the credentials: NTLM ({@link NtlmEncryptionUtils}) or Kerberos ({@link KerberosEncryptionUtils}).
+ */
+public interface MessageEncryption {
+
+	/**
+	 * @param credentials The credentials of the request
+	 * @return The encryption matching the credentials, or null if the messages are not encrypted
+	 */
+	static MessageEncryption of(final Credentials credentials) {
+		if (credentials instanceof KerberosCredentialsWithEncryption) {
+			return new KerberosEncryptionUtils((KerberosCredentialsWithEncryption) credentials);
+		}
+		return NtlmEncryptionUtils.of(credentials);
+	}
+
+	/**
+	 * @param message The CXF message
+	 * @return The encryption matching the credentials of the exchange, or null if the messages are not encrypted
+	 */
+	static MessageEncryption of(final Message message) {
+		return of((Credentials) message.getExchange().get(Credentials.class.getName()));
+	}
+
+	/**
+	 * @return The credentials holding the security context
+	 */
+	EncryptedSessionCredentials getCredentials();
+
+	/**
+	 * Seal and sign the message body into the multipart/encrypted payload.
+	 *
+	 * @param message The CXF message, whose content type is updated
+	 * @param messageBody The buffer holding the message body
+	 * @param offset The offset of the body in the buffer
+	 * @param length The length of the body
+	 * @return The multipart/encrypted payload
+	 */
+	byte[] encryptAndSign(Message message, byte[] messageBody, int offset, int length);
+
+	/**
+	 * Unseal the multipart/encrypted payload of a response.
+	 *
+	 * @param encrypted The stream of the multipart/encrypted payload
+	 * @return The stream of the message body
+	 * @throws IOException If the payload cannot be read or its signature is invalid
+	 */
+	InputStream decrypt(InputStream encrypted) throws IOException;
+
+	/**
+	 * Replace the content of the message with its unsealed body, after checking that the response
+	 * is encrypted when the security context is established.
+	 *
+	 * @param message The incoming message
+	 */
+	default void decrypt(final Message message) {
+		new Decryptor(getCredentials(), this).handle(message);
+	}
+}
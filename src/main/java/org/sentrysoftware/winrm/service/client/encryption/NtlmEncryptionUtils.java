@@ -20,29 +20,45 @@ package org.sentrysoftware.winrm.service.client.encryption;
  * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
  */
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.function.Function;
-import java.util.function.UnaryOperator;
-import java.util.zip.CRC32;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 
 import org.apache.cxf.message.Message;
 import org.apache.http.auth.Credentials;
 
 import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
-import org.sentrysoftware.winrm.service.client.auth.ntlm.NTLMEngineUtils;
 
 /**
  * Code from io.cloudsoft.winrm4j.client.encryption.NtlmEncryptionUtils
  * release 0.12.3 @link https://github.com/cloudsoft/winrm4j
  */
-public class NtlmEncryptionUtils {
+public class NtlmEncryptionUtils implements MessageEncryption {
 
 	public static final String ENCRYPTED_BOUNDARY_PREFIX = "--Encrypted Boundary";
 	public static final String ENCRYPTED_BOUNDARY_CR = ENCRYPTED_BOUNDARY_PREFIX+"\r\n";
 	public static final String ENCRYPTED_BOUNDARY_END = ENCRYPTED_BOUNDARY_PREFIX+"--\r\n";
 
+	static final String NTLM_PROTOCOL = "application/HTTP-SPNEGO-session-encrypted";
+
+	private static final byte[] ENCRYPTED_HEADER_START = createEncryptedHeaderStart(NTLM_PROTOCOL);
+
+	static final byte[] ENCRYPTED_HEADER_END = ("\r\n"
+			+ ENCRYPTED_BOUNDARY_CR
+			+ "\tContent-Type: application/octet-stream\r\n")
+			.getBytes(StandardCharsets.US_ASCII);
+
+	static final byte[] ENCRYPTED_BOUNDARY_END_BYTES =
+			ENCRYPTED_BOUNDARY_END.getBytes(StandardCharsets.US_ASCII);
+
+	static final int SIGNATURE_LENGTH_SIZE = 4;
+	static final int SIGNATURE_SIZE = 16;
+
 	protected final NTCredentialsWithEncryption credentials;
 
 	private NtlmEncryptionUtils(final NTCredentialsWithEncryption credentials) {
@@ -55,118 +71,136 @@ public class NtlmEncryptionUtils {
 				null;
 	}
 
-	static NtlmEncryptionUtils of(final Message message) {
-		final Credentials credentials = (Credentials) message.getExchange().get(Credentials.class.getName());
-		return of(credentials);
+	/**
+	 * @param protocol The protocol of the encrypted payload
+	 * @return The beginning of the multipart/encrypted payload, up to the length of the original content
+	 */
+	static byte[] createEncryptedHeaderStart(final String protocol) {
+		return (ENCRYPTED_BOUNDARY_CR
+				+ "\tContent-Type: " + protocol + "\r\n"
+				+ "\tOriginalContent: type=application/soap+xml;charset=UTF-8;Length=")
+				.getBytes(StandardCharsets.US_ASCII);
 	}
 
-	public byte[] encryptAndSign(final Message message, final byte[] messageBody) {
-		try (final ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+	/**
+	 * @param protocol The protocol of the encrypted payload
+	 * @return The content type of the multipart/encrypted payload
+	 */
+	static String createEncryptedContentType(final String protocol) {
+		return "multipart/encrypted;protocol=\"" + protocol + "\";boundary=\"Encrypted Boundary\"";
+	}
 
-			out.write(ENCRYPTED_BOUNDARY_CR.getBytes());
-			out.write(("\tContent-Type: application/HTTP-SPNEGO-session-encrypted\r\n").getBytes());
+	@Override
+	public NTCredentialsWithEncryption getCredentials() {
+		return credentials;
+	}
 
+	public byte[] encryptAndSign(final Message message, final byte[] messageBody) {
+		return encryptAndSign(message, messageBody, 0, messageBody.length);
+	}
+
+	/**
+	 * Seal and sign the message body into a single buffer holding the whole multipart/encrypted payload.
+	 * The body is sealed directly at its final position and the signature is computed incrementally,
+	 * without any intermediate copy.
+	 *
+	 * @param message The CXF message, whose content type is updated
+	 * @param messageBody The buffer holding the message body
+	 * @param offset The offset of the body in the buffer
+	 * @param length The length of the body
+	 * @return The multipart/encrypted payload
+	 */
+	@Override
+	public byte[] encryptAndSign(final Message message, final byte[] messageBody, final int offset, final int length) {
+		try {
 			//message.get(Message.CONTENT_TYPE); - if we need the action
 			// Content-Type -> application/soap+xml; action="http://schemas.xmlsoap.org/ws/2004/09/transfer/Create"
-			out.write(String.format(
-					"\tOriginalContent: type=application/soap+xml;charset=UTF-8;Length=%d\r\n", messageBody.length)
-					.getBytes());
+			final byte[] lengthBytes = String.valueOf(length).getBytes(StandardCharsets.US_ASCII);
+
+			final byte[] out = new byte[ENCRYPTED_HEADER_START.length + lengthBytes.length + ENCRYPTED_HEADER_END.length
+					+ SIGNATURE_LENGTH_SIZE + SIGNATURE_SIZE + length + ENCRYPTED_BOUNDARY_END_BYTES.length];
 
-			out.write(ENCRYPTED_BOUNDARY_CR.getBytes());
-			out.write("\tContent-Type: application/octet-stream\r\n".getBytes());
+			int index = write(ENCRYPTED_HEADER_START, out, 0);
+			index = write(lengthBytes, out, index);
+			index = write(ENCRYPTED_HEADER_END, out, index);
 
 			// for credssh chunking might be needed, but not for ntlm
 
-			writeNtlmEncrypted(messageBody, out);
+			index = write(ByteArrayUtils.getLittleEndianUnsignedInt(SIGNATURE_SIZE), out, index);
+			final int signatureOffset = index;
+			final int sealedOffset = signatureOffset + SIGNATURE_SIZE;
+
+			final long seqNum = credentials.getSequenceNumberOutgoing().incrementAndGet();
+			final Cipher encryptor = credentials.getStatefulEncryptor();
+
+			// seal first, even though appended afterwards, because encryptor is stateful
+			encryptor.update(messageBody, offset, length, out, sealedOffset);
+
+			writeSignature(
+					messageBody,
+					offset,
+					length,
+					seqNum,
+					out,
+					signatureOffset,
+					credentials,
+					NTCredentialsWithEncryption::createClientSigningMac,
+					encryptor);
 
-			out.write(ENCRYPTED_BOUNDARY_END.getBytes());
+			write(ENCRYPTED_BOUNDARY_END_BYTES, out, sealedOffset + length);
 
-			message.put(
-					Message.CONTENT_TYPE,
-					"multipart/encrypted;protocol=\"application/HTTP-SPNEGO-session-encrypted\";"
-							+ "boundary=\"Encrypted Boundary\"");
+			message.put(Message.CONTENT_TYPE, createEncryptedContentType(NTLM_PROTOCOL));
 			message.put(Message.ENCODING, null);
 
-			return out.toByteArray();
+			return out;
 
 		} catch (final Exception e) {
 			throw new IllegalStateException("Cannot encrypt WinRM message", e);
 		}
 	}
 
-	private byte[] seal(final byte[] in) {
-		return credentials.getStatefulEncryptor().update(in);
+	static int write(final byte[] bytes, final byte[] out, final int index) {
+		System.arraycopy(bytes, 0, out, index, bytes.length);
+		return index + bytes.length;
 	}
 
-	private void writeNtlmEncrypted(final byte[] messageBody, final ByteArrayOutputStream encrypted)
-			throws IOException {
-
-		long seqNum = credentials.getSequenceNumberOutgoing().incrementAndGet();
-
-		try (final ByteArrayOutputStream signature = new ByteArrayOutputStream();
-				final ByteArrayOutputStream sealed = new ByteArrayOutputStream()) {
-
-			// seal first, even though appended afterwards, because encryptor is stateful
-			sealed.write(seal(messageBody));
-
-			calculateSignature(
-					messageBody,
-					seqNum,
-					signature,
-					credentials,
-					NTCredentialsWithEncryption::getClientSigningKey,
-					this::seal);
-
-			encrypted.write(ByteArrayUtils.getLittleEndianUnsignedInt(signature.size()));
-			encrypted.write(signature.toByteArray());
-			encrypted.write(sealed.toByteArray());
-		}
-	}
-
-	public void decrypt(final Message message) {
-		new Decryptor(credentials).handle(message);
+	/**
+	 * The response is unsealed while it is read, and its signature is verified when the stream is closed.
+	 */
+	@Override
+	public InputStream decrypt(final InputStream encrypted) throws IOException {
+		return new DecryptingInputStream(encrypted, credentials);
 	}
 
 
-	static void calculateSignature(
+	/**
+	 * Write the 16 bytes NTLM signature of the message body.
+	 *
+	 * @param messageBody The buffer holding the message body
+	 * @param offset The offset of the body in the buffer
+	 * @param length The length of the body
+	 * @param seqNum The sequence number of the message
+	 * @param signature The buffer where the signature is written
+	 * @param signatureOffset The offset of the signature in its buffer
+	 * @param credentials The credentials holding the security context
+	 * @param signingMacFunction The function providing the HMAC-MD5 context of the signing key (client or server)
+	 * @param sealer The stateful RC4 cipher used to seal the checksum
+	 * @throws ShortBufferException If the signature buffer is too small
+	 */
+	static void writeSignature(
 			final byte[] messageBody,
+			final int offset,
+			final int length,
 			final long seqNum,
-			final ByteArrayOutputStream signature,
+			final byte[] signature,
+			final int signatureOffset,
 			final NTCredentialsWithEncryption credentials,
-			final Function<NTCredentialsWithEncryption,byte[]> signingKeyFunction,
-			final UnaryOperator<byte[]> sealer) throws IOException {
-
-		if (credentials.hasNegotiateFlag(NTLMEngineUtils.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY)) {
-			// also see HMACMD5 in NTLMEngineIpml
-			byte[] checksum = EncryptionUtils.hmacMd5(
-					signingKeyFunction.apply(credentials),
-					ByteArrayUtils.concat(ByteArrayUtils.getLittleEndianUnsignedInt(seqNum),messageBody));
-
-			checksum = Arrays.copyOfRange(checksum, 0, 8);
-
-			if (credentials.hasNegotiateFlag(NTLMEngineUtils.NTLMSSP_NEGOTIATE_KEY_EXCH)) {
-				checksum = sealer.apply(checksum);
-			}
-			// version
-			signature.write(new byte[]{1, 0, 0, 0});
-			// checksum
-			signature.write(checksum);
-			// seq num
-			signature.write(ByteArrayUtils.getLittleEndianUnsignedInt(seqNum));
-
-		} else {
-			final CRC32 crc = new CRC32();
-			crc.update(messageBody);
-			final long messageCrc = crc.getValue();
-
-			// version
-			signature.write(new byte[]{1, 0, 0, 0});
-			// random pad
-			signature.write(sealer.apply(ByteArrayUtils.getLittleEndianUnsignedInt(0)));
-			// checksum
-			signature.write(sealer.apply(ByteArrayUtils.getLittleEndianUnsignedInt(messageCrc)));
-			// seq num
-			signature.write(sealer.apply(ByteArrayUtils.getLittleEndianUnsignedInt(seqNum)));
-		}
+			final Function<NTCredentialsWithEncryption, Mac> signingMacFunction,
+			final Cipher sealer) throws ShortBufferException {
+
+		final NtlmSignature ntlmSignature =
+				new NtlmSignature(credentials, signingMacFunction, seqNum);
+		ntlmSignature.update(messageBody, offset, length);
+		ntlmSignature.write(signature, signatureOffset, sealer);
 	}
 }
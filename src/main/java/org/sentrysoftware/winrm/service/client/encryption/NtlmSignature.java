@@ -0,0 +1,118 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTLMEngineUtils;
+
+/**
+ * Incremental computation of the 16 bytes NTLM signature of a message body,
+ * so that the body can be signed or verified while it is being streamed.
+ */
+final class NtlmSignature {
+
+	private static final byte[] SIGNATURE_VERSION = {1, 0, 0, 0};
+
+	private final byte[] seqNumBytes;
+	private final boolean keyExchange;
+	private final Mac mac;
+	private final CRC32 crc;
+
+	/**
+	 * @param credentials The credentials holding the security context
+	 * @param signingMacFunction The function providing the HMAC-MD5 context of the signing key (client or server)
+	 * @param seqNum The sequence number of the message
+	 */
+	NtlmSignature(
+			final NTCredentialsWithEncryption credentials,
+			final Function<NTCredentialsWithEncryption, Mac> signingMacFunction,
+			final long seqNum) {
+		seqNumBytes = ByteArrayUtils.getLittleEndianUnsignedInt(seqNum);
+		keyExchange = credentials.hasNegotiateFlag(NTLMEngineUtils.NTLMSSP_NEGOTIATE_KEY_EXCH);
+
+		if (credentials.hasNegotiateFlag(NTLMEngineUtils.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY)) {
+			// also see HMACMD5 in NTLMEngineIpml
+			mac = signingMacFunction.apply(credentials);
+			mac.update(seqNumBytes);
+			crc = null;
+		} else {
+			mac = null;
+			crc = new CRC32();
+		}
+	}
+
+	/**
+	 * Add a part of the message body to the signature.
+	 *
+	 * @param body The buffer holding the part of the body
+	 * @param offset The offset in the buffer
+	 * @param length The number of bytes
+	 */
+	void update(final byte[] body, final int offset, final int length) {
+		if (mac != null) {
+			mac.update(body, offset, length);
+		} else {
+			crc.update(body, offset, length);
+		}
+	}
+
+	/**
+	 * Write the signature of the whole body.
+	 *
+	 * @param signature The buffer where the signature is written
+	 * @param offset The offset of the signature in its buffer
+	 * @param sealer The stateful RC4 cipher used to seal the checksum
+	 * @throws ShortBufferException If the signature buffer is too small
+	 */
+	void write(final byte[] signature, final int offset, final Cipher sealer) throws ShortBufferException {
+
+		// version
+		System.arraycopy(SIGNATURE_VERSION, 0, signature, offset, SIGNATURE_VERSION.length);
+
+		if (mac != null) {
+			final byte[] checksum = mac.doFinal();
+
+			// checksum
+			if (keyExchange) {
+				sealer.update(checksum, 0, 8, signature, offset + 4);
+			} else {
+				System.arraycopy(checksum, 0, signature, offset + 4, 8);
+			}
+			// seq num
+			System.arraycopy(seqNumBytes, 0, signature, offset + 12, 4);
+
+		} else {
+			// random pad
+			sealer.update(ByteArrayUtils.getLittleEndianUnsignedInt(0), 0, 4, signature, offset + 4);
+			// checksum
+			sealer.update(ByteArrayUtils.getLittleEndianUnsignedInt(crc.getValue()), 0, 4, signature, offset + 8);
+			// seq num
+			sealer.update(seqNumBytes, 0, 4, signature, offset + 12);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.http.auth.Credentials;
+
+/**
+ * Gives each request its own NTLM or Kerberos security context, taken from the pool of the configured credentials,
+ * so that concurrent requests do not share the stateful sealing keys and sequence numbers.
+ * The context is given back by {@link VerifyAndReleaseInInterceptor} once the response is decrypted.
+ */
+public class SecurityContextOutInterceptor extends AbstractPhaseInterceptor<Message> {
+
+	private static final String ACQUIRED = SecurityContextOutInterceptor.class.getName() + ".ACQUIRED";
+
+	public SecurityContextOutInterceptor() {
+		super(Phase.SETUP);
+	}
+
+	@Override
+	public void handleMessage(final Message message) {
+		final Exchange exchange = message.getExchange();
+		if (exchange == null || exchange.containsKey(ACQUIRED)) {
+			return;
+		}
+
+		final Object credentials = message.getContextualProperty(Credentials.class.getName());
+		if (!(credentials instanceof EncryptedSessionCredentials)) {
+			return;
+		}
+
+		final EncryptedSessionCredentials base = (EncryptedSessionCredentials) credentials;
+		final String target = String.valueOf(message.getContextualProperty(Message.ENDPOINT_ADDRESS));
+		final EncryptedSessionCredentials context = base.acquireSecurityContext(target);
+
+		exchange.put(ACQUIRED, new AcquiredSecurityContext(base, target, context));
+		exchange.put(Credentials.class.getName(), context);
+		message.put(Credentials.class.getName(), context);
+	}
+
+	/**
+	 * The request failed: its security context may be out of sync with the server, so it is not reused.
+	 */
+	@Override
+	public void handleFault(final Message message) {
+		release(message.getExchange(), false);
+	}
+
+	/**
+	 * Give back the security context of the exchange, if not already done.
+	 *
+	 * @param exchange The CXF exchange
+	 * @param reusable Whether the context can be used by another request
+	 */
+	static void release(final Exchange exchange, final boolean reusable) {
+		if (exchange == null) {
+			return;
+		}
+
+		final Object acquired = exchange.remove(ACQUIRED);
+		if (reusable && acquired instanceof AcquiredSecurityContext) {
+			((AcquiredSecurityContext) acquired).release();
+		}
+	}
+
+	private static class AcquiredSecurityContext {
+
+		private final EncryptedSessionCredentials base;
+		private final String target;
+		private final EncryptedSessionCredentials context;
+
+		AcquiredSecurityContext(
+				final EncryptedSessionCredentials base,
+				final String target,
+				final EncryptedSessionCredentials context) {
+			this.base = base;
+			this.target = target;
+			this.context = context;
+		}
+
+		void release() {
+			base.releaseSecurityContext(target, context);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.interceptor.StaxInEndingInterceptor;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+
+/**
+ * Once the response (or the SOAP fault) has been unmarshalled, finishes the decryption: this unseals
+ * what the parser did not read, so that the stateful decryptor stays in sync for the next response,
+ * and verifies the signature. The security context of the request is then given back to its pool.
+ */
+public class VerifyAndReleaseInInterceptor extends AbstractPhaseInterceptor<Message> {
+
+	public VerifyAndReleaseInInterceptor() {
+		super(Phase.PRE_INVOKE);
+		addAfter(StaxInEndingInterceptor.class.getName());
+	}
+
+	@Override
+	public void handleMessage(final Message message) {
+		try {
+			close(message);
+		} catch (final IOException e) {
+			SecurityContextOutInterceptor.release(message.getExchange(), false);
+			throw new Fault(e);
+		}
+		SecurityContextOutInterceptor.release(message.getExchange(), true);
+	}
+
+	/**
+	 * Close the decrypting stream of the message, if any.
+	 *
+	 * @param message The incoming message
+	 * @throws IOException If the remaining payload cannot be read or its signature is invalid
+	 */
+	static void close(final Message message) throws IOException {
+		final InputStream in = message.getContent(InputStream.class);
+		if (in instanceof DecryptingInputStream) {
+			in.close();
+		}
+	}
+}
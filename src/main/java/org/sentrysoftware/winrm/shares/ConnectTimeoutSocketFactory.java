@@ -0,0 +1,90 @@
+package org.sentrysoftware.winrm.shares;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import javax.net.SocketFactory;
+
+/**
+ * Socket factory connecting with a timeout, as the SMB client connects without any by default.
+ */
+class ConnectTimeoutSocketFactory extends SocketFactory {
+
+	private final int connectTimeout;
+
+	/**
+	 * @param connectTimeout Timeout of the connection in milliseconds
+	 */
+	ConnectTimeoutSocketFactory(final long connectTimeout) {
+		this.connectTimeout = (int) Math.min(Integer.MAX_VALUE, connectTimeout);
+	}
+
+	@Override
+	public Socket createSocket() {
+		return new Socket();
+	}
+
+	@Override
+	public Socket createSocket(final String host, final int port) throws IOException {
+		return connect(new InetSocketAddress(host, port), null);
+	}
+
+	@Override
+	public Socket createSocket(
+			final String host,
+			final int port,
+			final InetAddress localHost,
+			final int localPort) throws IOException {
+		return connect(new InetSocketAddress(host, port), new InetSocketAddress(localHost, localPort));
+	}
+
+	@Override
+	public Socket createSocket(final InetAddress host, final int port) throws IOException {
+		return connect(new InetSocketAddress(host, port), null);
+	}
+
+	@Override
+	public Socket createSocket(
+			final InetAddress address,
+			final int port,
+			final InetAddress localAddress,
+			final int localPort) throws IOException {
+		return connect(new InetSocketAddress(address, port), new InetSocketAddress(localAddress, localPort));
+	}
+
+	private Socket connect(final InetSocketAddress address, final InetSocketAddress localAddress) throws IOException {
+		final Socket socket = new Socket();
+		try {
+			if (localAddress != null) {
+				socket.bind(localAddress);
+			}
+			socket.connect(address, connectTimeout);
+			return socket;
+		} catch (final IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+}
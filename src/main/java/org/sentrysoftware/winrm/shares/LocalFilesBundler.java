@@ -0,0 +1,451 @@
+package org.sentrysoftware.winrm.shares;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.sentrysoftware.winrm.LocalFileCopier;
+import org.sentrysoftware.winrm.LocalFilesCopy;
+import org.sentrysoftware.winrm.Utils;
+import org.sentrysoftware.winrm.WindowsRemoteCommandResult;
+import org.sentrysoftware.winrm.WindowsRemoteExecutor;
+import org.sentrysoftware.winrm.WindowsRemoteProcessUtils;
+import org.sentrysoftware.winrm.exceptions.WindowsRemoteException;
+
+/**
+ * Copy of several local files as a single compressed archive, expanded on the remote system.
+ * 
+ * The archive of the same files is built once, and kept in a local directory (see {@link #DIRECTORY_PROPERTY})
+ * under the hash of the bundle, that is of the names and contents of its files. It is expanded
+ * with PowerShell and .NET 4.5 into a directory named after this hash, next to the uploaded archive,
+ * unless all its files are already there.
+ * 
+ * The bundles expanded on each host are remembered for the presence time of the {@link UploadCache}:
+ * executing the same tools again neither copies nor expands them, until {@link #forget(String)} is called
+ * for the host.
+ */
+public class LocalFilesBundler {
+
+	/**
+	 * System property with the local directory of the archives (<code>SEN_Bundles</code> in the temporary
+	 * directory by default).
+	 */
+	public static final String DIRECTORY_PROPERTY = "org.sentrysoftware.winrm.bundleDirectory";
+
+	static final int MAX_ARCHIVES = 64;
+	static final int MAX_HOSTS = 1024;
+	static final int MAX_BUNDLES_PER_HOST = 1024;
+	static final String ARCHIVE_EXTENSION = ".zip";
+
+	/**
+	 * Time of the archive entries (the earliest DOS time), so that the archives of the same files are identical.
+	 */
+	private static final long ENTRY_TIME = 315532800000L;
+
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private static final LocalFilesBundler INSTANCE = new LocalFilesBundler();
+
+	private final Map<String, Map<String, ExpandedBundle>> expandedBundles = new ConcurrentHashMap<>();
+
+	private final AtomicLong archiveHits = new AtomicLong();
+	private final AtomicLong archiveMisses = new AtomicLong();
+	private final AtomicLong expansionHits = new AtomicLong();
+	private final AtomicLong expansionMisses = new AtomicLong();
+
+	LocalFilesBundler() { }
+
+	/**
+	 * @return The bundler shared by all the hosts
+	 */
+	public static LocalFilesBundler getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Copy the local files to the remote system as a single archive, expanded there, and update the command with
+	 * their path as seen in the remote system.
+	 * 
+	 * The files are copied one by one if there are less than 2 of them, or if some have the same file name.
+	 * A bundle remembered as expanded on the host of the executor is neither copied nor expanded again.
+	 *
+	 * @param command The command (mandatory)
+	 * @param localFiles The local files to copy list
+	 * @param copier Copies the archive and returns its remote path (mandatory)
+	 * @param windowsRemoteExecutor Executes the command expanding the archive (mandatory)
+	 * @param timeout Timeout of the expansion in milliseconds
+	 * @return The updated command, with the remote path and the copy time of each file
+	 * @throws IOException If the archive cannot be built, copied or expanded
+	 * @throws TimeoutException If the expansion timed out
+	 * @throws WindowsRemoteException For any problem encountered on remote
+	 */
+	public LocalFilesCopy copyLocalFiles(
+			final String command,
+			final List<String> localFiles,
+			final LocalFileCopier copier,
+			final WindowsRemoteExecutor windowsRemoteExecutor,
+			final long timeout) throws IOException, TimeoutException, WindowsRemoteException {
+
+		Utils.checkNonNull(command, "command");
+		Utils.checkNonNull(copier, "copier");
+		Utils.checkNonNull(windowsRemoteExecutor, "windowsRemoteExecutor");
+		Utils.checkArgumentNotZeroOrNegative(timeout, "timeout");
+
+		final List<String> distinctFiles = localFiles == null ?
+				Collections.emptyList() :
+				localFiles.stream().distinct().collect(Collectors.toList());
+		final List<Path> paths = distinctFiles.stream().map(Paths::get).collect(Collectors.toList());
+
+		if (!canBundle(paths)) {
+			return WindowsRemoteProcessUtils.copyLocalFiles(command, localFiles, copier);
+		}
+
+		final long start = System.nanoTime();
+
+		final List<Path> sortedFiles = sort(paths);
+		final String bundleHash = computeBundleHash(sortedFiles);
+		final String host = getHostKey(windowsRemoteExecutor);
+
+		String remoteDirectory = getExpandedBundle(host, bundleHash);
+		if (remoteDirectory == null) {
+			final String remoteArchive = copier.copy(getArchive(sortedFiles, bundleHash));
+			remoteDirectory = remoteArchive.substring(0, remoteArchive.length() - ARCHIVE_EXTENSION.length());
+			expand(remoteArchive, remoteDirectory, sortedFiles, windowsRemoteExecutor, timeout);
+			setExpandedBundle(host, bundleHash, remoteDirectory);
+		}
+
+		final long copyTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		final Map<String, String> remotePaths = new LinkedHashMap<>();
+		final Map<String, Long> copyTimes = new LinkedHashMap<>();
+		String updatedCommand = command;
+		for (int i = 0; i < distinctFiles.size(); i++) {
+			final String localFile = distinctFiles.get(i);
+			final String remotePath = remoteDirectory + "\\" + paths.get(i).getFileName();
+			remotePaths.put(localFile, remotePath);
+			copyTimes.put(localFile, copyTime);
+			updatedCommand = WindowsRemoteProcessUtils.caseInsensitiveReplace(updatedCommand, localFile, remotePath);
+		}
+
+		return new LocalFilesCopy(updatedCommand, remotePaths, copyTimes);
+	}
+
+	/**
+	 * Get the archive of the local files, built if not in the directory of the archives yet.
+	 *
+	 * @param localFiles The local files, with distinct file names (mandatory)
+	 * @return The path of the archive, named after the hash of the bundle
+	 * @throws IOException If a file cannot be read, or the archive cannot be written
+	 */
+	public Path getArchive(final List<Path> localFiles) throws IOException {
+		Utils.checkNonNull(localFiles, "localFiles");
+
+		final List<Path> sortedFiles = sort(localFiles);
+		return getArchive(sortedFiles, computeBundleHash(sortedFiles));
+	}
+
+	/**
+	 * Forget the bundles expanded on a host, e.g. because a command using them failed.
+	 *
+	 * @param hostname The host
+	 */
+	public void forget(final String hostname) {
+		if (hostname != null) {
+			expandedBundles.remove(hostname.toLowerCase(Locale.ROOT));
+		}
+	}
+
+	/**
+	 * Expand the archive in the remote directory, unless all its files are already there.
+	 * 
+	 * The archive is expanded in a temporary directory, which is renamed to the remote directory if it does not
+	 * exist, or from which the missing files are moved if it is incomplete: the same bundle may be expanded
+	 * at the same time, and its files may be in use.
+	 */
+	private static void expand(
+			final String remoteArchive,
+			final String remoteDirectory,
+			final List<Path> sortedFiles,
+			final WindowsRemoteExecutor windowsRemoteExecutor,
+			final long timeout) throws IOException, TimeoutException, WindowsRemoteException {
+
+		final String entries = sortedFiles.stream()
+				.map(localFile -> WindowsRemoteProcessUtils.quotePowerShellString(localFile.getFileName().toString()))
+				.collect(Collectors.joining(","));
+
+		final String script = String.format(
+				"$ErrorActionPreference = 'Stop'; $d = %s; "
+				+ "$m = @(@(%s) | Where-Object { -not (Test-Path -LiteralPath (Join-Path $d $_)) }); "
+				+ "if ($m.Count -gt 0) { "
+				+ "Add-Type -AssemblyName System.IO.Compression.FileSystem; $t = $d + %s; "
+				+ "[IO.Compression.ZipFile]::ExtractToDirectory(%s, $t); "
+				+ "try { "
+				+ "if (-not (Test-Path -LiteralPath $d)) { "
+				+ "try { [IO.Directory]::Move($t, $d) } catch { if (-not (Test-Path -LiteralPath $d)) { throw } } }; "
+				+ "foreach ($n in $m) { $p = Join-Path $d $n; if (-not (Test-Path -LiteralPath $p)) { "
+				+ "try { [IO.File]::Move((Join-Path $t $n), $p) } catch { if (-not (Test-Path -LiteralPath $p)) { throw } } } } "
+				+ "} finally { if (Test-Path -LiteralPath $t) { Remove-Item -LiteralPath $t -Recurse -Force } } }",
+				WindowsRemoteProcessUtils.quotePowerShellString(remoteDirectory),
+				entries,
+				WindowsRemoteProcessUtils.quotePowerShellString("." + UUID.randomUUID() + ".tmp"),
+				WindowsRemoteProcessUtils.quotePowerShellString(remoteArchive));
+
+		final WindowsRemoteCommandResult result = windowsRemoteExecutor.executeCommand(
+				WindowsRemoteProcessUtils.buildPowerShellCommand(script),
+				null,
+				StandardCharsets.UTF_8,
+				timeout);
+		if (result.getStatusCode() != 0) {
+			throw new IOException(String.format(
+					"Cannot expand %s (exit code %d): %s",
+					remoteArchive,
+					result.getStatusCode(),
+					result.getStderr().trim()));
+		}
+	}
+
+	/**
+	 * @return The remote directory of the bundle if it was expanded on the host within the presence time,
+	 * or null
+	 */
+	private String getExpandedBundle(final String host, final String bundleHash) {
+		final Map<String, ExpandedBundle> bundles = expandedBundles.get(host);
+		final ExpandedBundle bundle = bundles != null ? bundles.get(bundleHash) : null;
+
+		if (bundle != null && Utils.getCurrentTimeMillis() - bundle.time < UploadCache.getPresenceTime()) {
+			expansionHits.incrementAndGet();
+			return bundle.remoteDirectory;
+		}
+
+		expansionMisses.incrementAndGet();
+		return null;
+	}
+
+	private void setExpandedBundle(final String host, final String bundleHash, final String remoteDirectory) {
+		if (expandedBundles.size() >= MAX_HOSTS) {
+			expandedBundles.clear();
+		}
+		final Map<String, ExpandedBundle> bundles = expandedBundles.computeIfAbsent(
+				host,
+				key -> new ConcurrentHashMap<>());
+		if (bundles.size() >= MAX_BUNDLES_PER_HOST) {
+			bundles.clear();
+		}
+		bundles.put(bundleHash, new ExpandedBundle(remoteDirectory, Utils.getCurrentTimeMillis()));
+	}
+
+	private static String getHostKey(final WindowsRemoteExecutor windowsRemoteExecutor) {
+		final String hostname = windowsRemoteExecutor.getHostname();
+		return hostname != null ? hostname.toLowerCase(Locale.ROOT) : "";
+	}
+
+	private static List<Path> sort(final List<Path> localFiles) {
+		final List<Path> sortedFiles = new ArrayList<>(localFiles);
+		sortedFiles.sort(Comparator.comparing(localFile -> localFile.getFileName().toString()));
+		return sortedFiles;
+	}
+
+	private Path getArchive(final List<Path> sortedFiles, final String bundleHash) throws IOException {
+		final Path directory = getDirectory();
+		final Path archive = directory.resolve(bundleHash + ARCHIVE_EXTENSION);
+
+		if (Files.isRegularFile(archive)) {
+			archiveHits.incrementAndGet();
+			// the least recently used archives are removed first
+			Files.setLastModifiedTime(archive, FileTime.fromMillis(Utils.getCurrentTimeMillis()));
+			return archive;
+		}
+
+		archiveMisses.incrementAndGet();
+		Files.createDirectories(directory);
+
+		final Path tempArchive = Files.createTempFile(directory, archive.getFileName().toString(), ".tmp");
+		try {
+			try (final ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(tempArchive))) {
+				zip.setLevel(Deflater.BEST_COMPRESSION);
+				for (final Path localFile : sortedFiles) {
+					final ZipEntry entry = new ZipEntry(localFile.getFileName().toString());
+					entry.setTime(ENTRY_TIME);
+					zip.putNextEntry(entry);
+					copy(localFile, zip);
+					zip.closeEntry();
+				}
+			}
+			Files.move(tempArchive, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempArchive);
+		}
+
+		removeOldArchives(directory);
+
+		return archive;
+	}
+
+	/**
+	 * @return The number of archives found in the directory of the archives
+	 */
+	public long getArchiveHits() {
+		return archiveHits.get();
+	}
+
+	/**
+	 * @return The number of archives built
+	 */
+	public long getArchiveMisses() {
+		return archiveMisses.get();
+	}
+
+	/**
+	 * @return The number of bundles known to be expanded on the host, which were neither copied nor expanded
+	 */
+	public long getExpansionHits() {
+		return expansionHits.get();
+	}
+
+	/**
+	 * @return The number of bundles which had to be copied and expanded (unless all their files were there)
+	 */
+	public long getExpansionMisses() {
+		return expansionMisses.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"LocalFilesBundler[archiveHits=%d, archiveMisses=%d, expansionHits=%d, expansionMisses=%d]",
+				archiveHits.get(),
+				archiveMisses.get(),
+				expansionHits.get(),
+				expansionMisses.get());
+	}
+
+	/**
+	 * @return Whether the files are at least 2, with distinct file names
+	 */
+	static boolean canBundle(final List<Path> localFiles) {
+		return localFiles.size() >= 2 && localFiles.stream()
+				.map(localFile -> localFile.getFileName().toString().toLowerCase(Locale.ROOT))
+				.distinct()
+				.count() == localFiles.size();
+	}
+
+	/**
+	 * @return The SHA-256 hash of the names and content hashes of the files, in lower case hexadecimal
+	 */
+	static String computeBundleHash(final List<Path> sortedFiles) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		final UploadCache uploadCache = UploadCache.getInstance();
+		for (final Path localFile : sortedFiles) {
+			digest.update(String.format("%s\0%s\n", localFile.getFileName(), uploadCache.getHash(localFile))
+					.getBytes(StandardCharsets.UTF_8));
+		}
+
+		final StringBuilder hash = new StringBuilder();
+		for (final byte b : digest.digest()) {
+			hash.append(String.format("%02x", b));
+		}
+		return hash.toString();
+	}
+
+	static Path getDirectory() {
+		final String directory = System.getProperty(DIRECTORY_PROPERTY);
+		return Utils.isNotBlank(directory) ?
+				Paths.get(directory) :
+				Paths.get(System.getProperty("java.io.tmpdir"), "SEN_Bundles");
+	}
+
+	private static void copy(final Path localFile, final OutputStream outputStream) throws IOException {
+		final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		try (final InputStream inputStream = Files.newInputStream(localFile)) {
+			int length;
+			while ((length = inputStream.read(buffer)) > 0) {
+				outputStream.write(buffer, 0, length);
+			}
+		}
+	}
+
+	/**
+	 * Remove the least recently used archives beyond the maximum number.
+	 */
+	private static void removeOldArchives(final Path directory) throws IOException {
+		final List<Path> archives = new ArrayList<>();
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ARCHIVE_EXTENSION)) {
+			stream.forEach(archives::add);
+		}
+
+		if (archives.size() <= MAX_ARCHIVES) {
+			return;
+		}
+
+		final Map<Path, Long> times = new LinkedHashMap<>();
+		for (final Path archive : archives) {
+			times.put(archive, Files.getLastModifiedTime(archive).toMillis());
+		}
+		archives.sort(Comparator.comparing(times::get));
+		for (final Path archive : archives.subList(0, archives.size() - MAX_ARCHIVES)) {
+			Files.deleteIfExists(archive);
+		}
+	}
+
+	private static class ExpandedBundle {
+
+		private final String remoteDirectory;
+		private final long time;
+
+		ExpandedBundle(final String remoteDirectory, final long time) {
+			this.remoteDirectory = remoteDirectory;
+			this.time = time;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package org.sentrysoftware.winrm.shares;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import com.hierynomus.msfscc.FileAttributes;
+import com.hierynomus.msfscc.fileinformation.FileAllInformation;
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+
+/**
+ * A file or directory of a share, as listed or queried through the SMB session.
+ */
+public class RemoteFile {
+
+	private final String name;
+	private final String path;
+	private final long size;
+	private final long creationTime;
+	private final long lastModifiedTime;
+	private final long attributes;
+	private final long fileId;
+
+	/**
+	 * @param name The name of the file
+	 * @param path The path of the file, relative to the root of the share
+	 * @param size The size of the file in bytes
+	 * @param creationTime The creation time in milliseconds since the epoch
+	 * @param lastModifiedTime The last write time in milliseconds since the epoch
+	 * @param attributes The Windows attributes of the file
+	 * @param fileId The identifier of the file in its volume, which does not change when renamed
+	 */
+	public RemoteFile(
+			final String name,
+			final String path,
+			final long size,
+			final long creationTime,
+			final long lastModifiedTime,
+			final long attributes,
+			final long fileId) {
+		this.name = name;
+		this.path = path;
+		this.size = size;
+		this.creationTime = creationTime;
+		this.lastModifiedTime = lastModifiedTime;
+		this.attributes = attributes;
+		this.fileId = fileId;
+	}
+
+	static RemoteFile of(final String directory, final FileIdBothDirectoryInformation information) {
+		return new RemoteFile(
+				information.getFileName(),
+				directory.isEmpty() ? information.getFileName() : directory + "\\" + information.getFileName(),
+				information.getEndOfFile(),
+				information.getCreationTime().toEpochMillis(),
+				information.getLastWriteTime().toEpochMillis(),
+				information.getFileAttributes(),
+				information.getFileId());
+	}
+
+	static RemoteFile of(final String path, final FileAllInformation information) {
+		final int separator = path.lastIndexOf('\\');
+		return new RemoteFile(
+				separator < 0 ? path : path.substring(separator + 1),
+				path,
+				information.getStandardInformation().getEndOfFile(),
+				information.getBasicInformation().getCreationTime().toEpochMillis(),
+				information.getBasicInformation().getLastWriteTime().toEpochMillis(),
+				information.getBasicInformation().getFileAttributes(),
+				information.getInternalInformation().getIndexNumber());
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	public long getLastModifiedTime() {
+		return lastModifiedTime;
+	}
+
+	public long getAttributes() {
+		return attributes;
+	}
+
+	public long getFileId() {
+		return fileId;
+	}
+
+	/**
+	 * @return Whether this is a directory
+	 */
+	public boolean isDirectory() {
+		return (attributes & FileAttributes.FILE_ATTRIBUTE_DIRECTORY.getValue()) != 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"RemoteFile [path=%s, size=%d, lastModifiedTime=%d, attributes=0x%x, fileId=%d]",
+				path,
+				size,
+				lastModifiedTime,
+				attributes,
+				fileId);
+	}
+}
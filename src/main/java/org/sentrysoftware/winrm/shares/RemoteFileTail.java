@@ -0,0 +1,116 @@
+package org.sentrysoftware.winrm.shares;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import org.sentrysoftware.winrm.Utils;
+
+/**
+ * The position of a remote file being tailed through the SMB session: its identifier and the offset of the
+ * bytes already read. The file is considered rotated, and read again from the start, when its identifier
+ * changes (renamed and recreated) or when it is smaller than the offset (truncated).
+ * 
+ * See {@link SmbTempShare#tail(RemoteFileTail, int)}.
+ */
+public class RemoteFileTail {
+
+	private final String shareName;
+	private final String path;
+	private final boolean fromEnd;
+
+	private boolean started;
+	private long fileId;
+	private long offset;
+	private int rotations;
+
+	/**
+	 * @param shareName The name of the share of the file, such as C$, or null for the temporary share
+	 * @param path The path of the file, relative to the root of the share (mandatory)
+	 * @param fromEnd Whether the bytes present on the first read are skipped
+	 */
+	public RemoteFileTail(final String shareName, final String path, final boolean fromEnd) {
+		Utils.checkNonBlank(path, "path");
+
+		this.shareName = shareName;
+		this.path = path;
+		this.fromEnd = fromEnd;
+	}
+
+	/**
+	 * Update the identity of the file, and get the offset of the next bytes to read.
+	 *
+	 * @param currentFileId The identifier of the file
+	 * @param size The size of the file
+	 * @return The offset of the next bytes to read
+	 */
+	synchronized long start(final long currentFileId, final long size) {
+		if (!started) {
+			started = true;
+			fileId = currentFileId;
+			offset = fromEnd ? size : 0;
+		} else if (currentFileId != fileId || size < offset) {
+			rotations++;
+			fileId = currentFileId;
+			offset = 0;
+		}
+		return offset;
+	}
+
+	/**
+	 * @param length The number of bytes read
+	 */
+	synchronized void advance(final long length) {
+		offset += length;
+	}
+
+	public String getShareName() {
+		return shareName;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public synchronized long getFileId() {
+		return fileId;
+	}
+
+	public synchronized long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return The number of times the file was found rotated
+	 */
+	public synchronized int getRotations() {
+		return rotations;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"RemoteFileTail [shareName=%s, path=%s, fileId=%d, offset=%d, rotations=%d]",
+				shareName,
+				path,
+				fileId,
+				offset,
+				rotations);
+	}
+}
@@ -0,0 +1,375 @@
+package org.sentrysoftware.winrm.shares;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sentrysoftware.winrm.Utils;
+
+/**
+ * Optional on-disk store of the temporary share of each host, so that a restarted JVM connects to the shares
+ * without discovering them again with WQL queries and commands.
+ * 
+ * The store is enabled by setting the {@link #FILE_PROPERTY} system property to the path of its file. The file
+ * is an append-only log of records (hostname, UNC path of the share, remote path), read once, the last record
+ * of a host winning. The UNC path keeps the name of the cluster serving a clustered share (a record of a previous
+ * version may hold the share name only). An empty UNC path forgets the host. The file is compacted when most of its records
+ * are outdated. The stored shares are not checked here: a share which cannot be connected must be removed.
+ */
+public class ShareStore {
+
+	/**
+	 * System property with the path of the store file. The store is disabled if not set.
+	 */
+	public static final String FILE_PROPERTY = "org.sentrysoftware.winrm.shareStore";
+
+	static final int MAGIC = 0x57524D53;
+	static final byte VERSION = 1;
+	static final int HEADER_SIZE = Integer.BYTES + 1;
+	static final int MAX_FIELD_LENGTH = 0xFFFF;
+
+	private static final ShareStore DISABLED = new ShareStore(null);
+	private static final Map<Path, ShareStore> STORES = new ConcurrentHashMap<>();
+
+	private final Path file;
+	private final Map<String, StoredShare> shares = new ConcurrentHashMap<>();
+	private FileChannel appendChannel;
+	private boolean loaded;
+	private int records;
+
+	ShareStore(final Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return The store of the file set in the {@link #FILE_PROPERTY} system property,
+	 * or a disabled store which keeps nothing
+	 */
+	public static ShareStore getInstance() {
+		final String fileName = System.getProperty(FILE_PROPERTY);
+		if (Utils.isBlank(fileName)) {
+			return DISABLED;
+		}
+		return STORES.computeIfAbsent(Paths.get(fileName).toAbsolutePath().normalize(), ShareStore::new);
+	}
+
+	/**
+	 * @return Whether the shares are stored in a file
+	 */
+	public boolean isEnabled() {
+		return file != null;
+	}
+
+	/**
+	 * Get the stored share of the host.
+	 *
+	 * @param hostname The hostname (mandatory)
+	 * @return The share, or null if not stored
+	 */
+	public synchronized StoredShare get(final String hostname) {
+		Utils.checkNonNull(hostname, "hostname");
+
+		if (!isEnabled()) {
+			return null;
+		}
+
+		load();
+
+		return shares.get(hostname.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Store the share of the host.
+	 *
+	 * @param hostname The hostname (mandatory)
+	 * @param uncSharePath The UNC path of the share (mandatory)
+	 * @param remotePath The path on the remote system of the directory being shared
+	 * @throws IOException If the store file cannot be written
+	 */
+	public synchronized void put(final String hostname, final String uncSharePath, final String remotePath)
+			throws IOException {
+		Utils.checkNonNull(hostname, "hostname");
+		Utils.checkNonBlank(uncSharePath, "uncSharePath");
+
+		if (!isEnabled()) {
+			return;
+		}
+
+		load();
+
+		final StoredShare share = new StoredShare(uncSharePath, remotePath == null ? Utils.EMPTY : remotePath);
+		final String key = hostname.toLowerCase(Locale.ROOT);
+		if (share.equals(shares.get(key))) {
+			return;
+		}
+
+		shares.put(key, share);
+		append(key, share);
+	}
+
+	/**
+	 * Forget the share of the host, e.g. because it no longer exists.
+	 *
+	 * @param hostname The hostname (mandatory)
+	 * @throws IOException If the store file cannot be written
+	 */
+	public synchronized void remove(final String hostname) throws IOException {
+		Utils.checkNonNull(hostname, "hostname");
+
+		if (!isEnabled()) {
+			return;
+		}
+
+		load();
+
+		final String key = hostname.toLowerCase(Locale.ROOT);
+		if (shares.remove(key) != null) {
+			append(key, null);
+		}
+	}
+
+	/**
+	 * @return The number of stored shares
+	 */
+	public synchronized int size() {
+		if (isEnabled()) {
+			load();
+		}
+		return shares.size();
+	}
+
+	/**
+	 * Forget all the shares and delete the store file.
+	 *
+	 * @throws IOException If the store file cannot be deleted
+	 */
+	public synchronized void clear() throws IOException {
+		shares.clear();
+		records = 0;
+		closeAppendChannel();
+		if (isEnabled()) {
+			Files.deleteIfExists(file);
+			loaded = true;
+		}
+	}
+
+	/**
+	 * Read the store file once, ignoring a truncated last record and a file of another format.
+	 * The file is read in a heap buffer rather than mapped: a mapping stays until garbage collected,
+	 * and prevents the file from being replaced or deleted on Windows.
+	 */
+	private void load() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+
+		if (!Files.isRegularFile(file)) {
+			return;
+		}
+
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// read the whole file
+			}
+			buffer.flip();
+			if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+				return;
+			}
+
+			while (buffer.hasRemaining()) {
+				final String hostname = readField(buffer);
+				final String uncSharePath = readField(buffer);
+				final String remotePath = readField(buffer);
+				records++;
+
+				if (uncSharePath.isEmpty()) {
+					shares.remove(hostname);
+				} else {
+					shares.put(hostname, new StoredShare(uncSharePath, remotePath));
+				}
+			}
+		} catch (final BufferUnderflowException | IOException e) {
+			// keep the records read so far, the file is rewritten on the next change
+			records = Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Append a record, after compacting the file if most of its records are outdated.
+	 */
+	private void append(final String hostname, final StoredShare share) throws IOException {
+		if (records > 2 * shares.size() + 64) {
+			compact();
+			return;
+		}
+
+		if (appendChannel == null) {
+			appendChannel = FileChannel.open(
+					file,
+					StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+			if (appendChannel.size() == 0) {
+				writeFully(appendChannel, header());
+			}
+		}
+
+		writeFully(appendChannel, record(hostname, share));
+		records++;
+	}
+
+	/**
+	 * Rewrite the file with the current shares only, replacing it atomically.
+	 */
+	private void compact() throws IOException {
+		closeAppendChannel();
+
+		final Path parent = file.toAbsolutePath().getParent();
+		final Path tempFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			try (final FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+				writeFully(channel, header());
+				for (final Map.Entry<String, StoredShare> entry : shares.entrySet()) {
+					writeFully(channel, record(entry.getKey(), entry.getValue()));
+				}
+			}
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+
+		records = shares.size();
+	}
+
+	private void closeAppendChannel() throws IOException {
+		if (appendChannel != null) {
+			appendChannel.close();
+			appendChannel = null;
+		}
+	}
+
+	private static ByteBuffer header() {
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+		buffer.putInt(MAGIC).put(VERSION).flip();
+		return buffer;
+	}
+
+	private static ByteBuffer record(final String hostname, final StoredShare share) {
+		final byte[][] fields = {
+				toBytes(hostname),
+				toBytes(share != null ? share.getUncSharePath() : Utils.EMPTY),
+				toBytes(share != null ? share.getRemotePath() : Utils.EMPTY)
+		};
+
+		final ByteBuffer buffer = ByteBuffer.allocate(
+				3 * Short.BYTES + fields[0].length + fields[1].length + fields[2].length);
+		for (final byte[] field : fields) {
+			buffer.putShort((short) field.length).put(field);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static byte[] toBytes(final String field) {
+		final byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_FIELD_LENGTH) {
+			throw new IllegalArgumentException("Too long to be stored: " + field);
+		}
+		return bytes;
+	}
+
+	private static String readField(final ByteBuffer buffer) {
+		final byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ShareStore [file=%s, shares=%d]", file, shares.size());
+	}
+
+	/**
+	 * The share of a host, as stored.
+	 */
+	public static class StoredShare {
+
+		private final String uncSharePath;
+		private final String remotePath;
+
+		StoredShare(final String uncSharePath, final String remotePath) {
+			this.uncSharePath = uncSharePath;
+			this.remotePath = remotePath;
+		}
+
+		/**
+		 * @return The UNC path of the share, or its name only if stored by a previous version
+		 */
+		public String getUncSharePath() {
+			return uncSharePath;
+		}
+
+		/**
+		 * @return The path on the remote system of the directory being shared
+		 */
+		public String getRemotePath() {
+			return remotePath;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof StoredShare)) {
+				return false;
+			}
+			final StoredShare other = (StoredShare) obj;
+			return uncSharePath.equals(other.uncSharePath) && remotePath.equals(other.remotePath);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(uncSharePath, remotePath);
+		}
+	}
+}
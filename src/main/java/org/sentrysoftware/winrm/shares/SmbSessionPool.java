@@ -0,0 +1,513 @@
+package org.sentrysoftware.winrm.shares;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.sentrysoftware.winrm.Utils;
+import org.sentrysoftware.winrm.service.WinRMEndpoint;
+
+import com.hierynomus.smbj.SMBClient;
+import com.hierynomus.smbj.SmbConfig;
+import com.hierynomus.smbj.auth.AuthenticationContext;
+import com.hierynomus.smbj.connection.Connection;
+import com.hierynomus.smbj.session.Session;
+
+/**
+ * Pool of the authenticated SMB sessions, per host, user and {@link SmbSettings}.
+ * 
+ * The hosts connected with the same settings share one SMB client. As the settings include the timeouts of the
+ * callers, the clients whose settings no longer have a pooled session are closed with the idle sessions.
+ * A session stays open when its temporary
+ * shares are closed, and is used again by the next temporary share of the same host and user, unless it is
+ * idle for the idle time or its connection was lost. The idle sessions are closed when a session is acquired,
+ * by {@link #evictIdle()}, and in the background every sweep period while the pool is not empty.
+ * 
+ * The sessions are opened outside of the lock of the pool: a host slow to connect does not block the others.
+ */
+public class SmbSessionPool {
+
+	/**
+	 * System property with the idle time after which the SMB sessions are closed, in milliseconds
+	 * (5 minutes by default).
+	 */
+	public static final String IDLE_TIME_PROPERTY = "org.sentrysoftware.winrm.smbSessionIdleTime";
+
+	static final long DEFAULT_IDLE_TIME_MILLISECONDS = TimeUnit.MINUTES.toMillis(5);
+	static final long SWEEP_PERIOD_MILLISECONDS = TimeUnit.MINUTES.toMillis(1);
+	static final int MAX_SESSIONS = 256;
+
+	private static final SmbSessionPool INSTANCE = new SmbSessionPool(SMBClient::new);
+
+	private final Function<SmbConfig, SMBClient> clientFactory;
+	private final Map<SmbSettings, PooledClient> clients = new ConcurrentHashMap<>();
+	private final Map<SessionKey, PooledSession> sessions = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private ScheduledExecutorService executor;
+	private ScheduledFuture<?> sweep;
+
+	SmbSessionPool(final Function<SmbConfig, SMBClient> clientFactory) {
+		this.clientFactory = clientFactory;
+	}
+
+	/**
+	 * @return The pool shared by all the temporary shares
+	 */
+	public static SmbSessionPool getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return The number of sessions used again
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of sessions opened because none was available
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of sessions closed because they were idle, lost or the pool was full
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return The number of sessions in the pool
+	 */
+	public int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * Get an open session of the host and user, or open one.
+	 * Each acquired session must be released.
+	 *
+	 * @param winRMEndpoint The host and credentials (mandatory)
+	 * @param smbSettings The settings of the SMB client (mandatory)
+	 * @return The authenticated session
+	 * @throws IOException If the host cannot be connected
+	 */
+	Session acquire(final WinRMEndpoint winRMEndpoint, final SmbSettings smbSettings) throws IOException {
+		Utils.checkNonNull(winRMEndpoint, "winRMEndpoint");
+		Utils.checkNonNull(smbSettings, "smbSettings");
+
+		evictIdle();
+
+		final SessionKey key = new SessionKey(winRMEndpoint, smbSettings);
+		final PooledSession[] lost = new PooledSession[2];
+		final PooledSession published;
+		try {
+			final PooledSession pooled = sessions.computeIfPresent(key, (k, current) -> use(current, lost, 0));
+			if (pooled != null) {
+				hits.incrementAndGet();
+				return pooled.session;
+			}
+
+			// Connected and authenticated outside of the map, then published unless another thread was faster
+			misses.incrementAndGet();
+			final SMBClient smbClient = acquireClient(smbSettings);
+			try {
+				final PooledSession opened = new PooledSession(open(smbClient, winRMEndpoint));
+				published = sessions.compute(key, (k, current) -> {
+					final PooledSession used = current != null ? use(current, lost, 1) : null;
+					if (used != null) {
+						return used;
+					}
+					opened.useCount++;
+					return opened;
+				});
+
+				if (published != opened) {
+					close(opened.session);
+				}
+			} finally {
+				releaseClient(smbSettings);
+			}
+		} finally {
+			for (final PooledSession pooled : lost) {
+				if (pooled != null) {
+					evictions.incrementAndGet();
+					close(pooled.session);
+				}
+			}
+		}
+
+		scheduleSweep();
+
+		if (sessions.size() > MAX_SESSIONS) {
+			trim();
+		}
+
+		return published.session;
+	}
+
+	/**
+	 * Use the pooled session, unless its connection was lost.
+	 *
+	 * @return The session, or null if it must be removed from the pool (and closed, as lost[index])
+	 */
+	private static PooledSession use(final PooledSession pooled, final PooledSession[] lost, final int index) {
+		if (pooled.isConnected()) {
+			pooled.useCount++;
+			return pooled;
+		}
+
+		lost[index] = pooled;
+		return null;
+	}
+
+	/**
+	 * Release a session acquired from the pool. It stays open until idle for the idle time.
+	 *
+	 * @param session The session
+	 */
+	void release(final Session session) {
+		if (session == null) {
+			return;
+		}
+
+		final long now = Utils.getCurrentTimeMillis();
+		for (final Map.Entry<SessionKey, PooledSession> entry : sessions.entrySet()) {
+			if (entry.getValue().session == session) {
+				sessions.computeIfPresent(entry.getKey(), (key, pooled) -> {
+					if (pooled.useCount > 0) {
+						pooled.useCount--;
+					}
+					pooled.lastRelease = now;
+					return pooled;
+				});
+				return;
+			}
+		}
+
+		// no longer in the pool
+		close(session);
+	}
+
+	/**
+	 * Close the sessions which are not used since the idle time, and the ones whose connection was lost,
+	 * then the SMB clients which no longer have a session.
+	 */
+	public void evictIdle() {
+		final long now = Utils.getCurrentTimeMillis();
+		final long idleTime = getIdleTime();
+		sessions.keySet().forEach(key -> evictIf(
+				key,
+				pooled -> pooled.useCount == 0 && (pooled.isIdle(now, idleTime) || !pooled.isConnected())));
+
+		clients.keySet().forEach(this::closeClientIfUnused);
+	}
+
+	/**
+	 * @return The number of SMB clients
+	 */
+	int getClientCount() {
+		return clients.size();
+	}
+
+	/**
+	 * Close all the sessions and all the SMB clients.
+	 */
+	public void clear() {
+		sessions.keySet().forEach(key -> evictIf(key, pooled -> true));
+		clients.keySet().forEach(settings -> {
+			final PooledClient pooledClient = clients.remove(settings);
+			if (pooledClient != null) {
+				pooledClient.client.close();
+			}
+		});
+		cancelSweep();
+	}
+
+	/**
+	 * @return Whether the idle sessions are closed in the background
+	 */
+	synchronized boolean isSweepScheduled() {
+		return sweep != null;
+	}
+
+	/**
+	 * Close the idle sessions, and stop the sweep once the pool is empty.
+	 */
+	void sweep() {
+		evictIdle();
+		if (sessions.isEmpty()) {
+			cancelSweep();
+		}
+	}
+
+	private synchronized void scheduleSweep() {
+		if (sweep != null) {
+			return;
+		}
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "WinRM SMB session eviction");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		sweep = executor.scheduleWithFixedDelay(
+				this::sweep,
+				SWEEP_PERIOD_MILLISECONDS,
+				SWEEP_PERIOD_MILLISECONDS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void cancelSweep() {
+		// a session published in the meantime schedules the sweep again
+		if (sweep != null && sessions.isEmpty()) {
+			sweep.cancel(false);
+			sweep = null;
+		}
+	}
+
+	/**
+	 * Get the SMB client of the settings, or create it. It is not closed until released.
+	 */
+	private SMBClient acquireClient(final SmbSettings smbSettings) {
+		return clients.compute(smbSettings, (settings, current) -> {
+			final PooledClient pooledClient = current != null ?
+					current :
+					new PooledClient(clientFactory.apply(settings.toSmbConfig()));
+			pooledClient.openings++;
+			return pooledClient;
+		}).client;
+	}
+
+	private void releaseClient(final SmbSettings smbSettings) {
+		clients.computeIfPresent(smbSettings, (settings, pooledClient) -> {
+			pooledClient.openings--;
+			return pooledClient;
+		});
+	}
+
+	/**
+	 * Close the SMB client of the settings if no session is being opened with it, and no pooled session uses it.
+	 */
+	private void closeClientIfUnused(final SmbSettings smbSettings) {
+		final PooledClient[] closed = new PooledClient[1];
+		clients.computeIfPresent(smbSettings, (settings, pooledClient) -> {
+			if (pooledClient.openings > 0 || sessions.keySet().stream().anyMatch(key -> key.smbSettings.equals(settings))) {
+				return pooledClient;
+			}
+			closed[0] = pooledClient;
+			return null;
+		});
+
+		if (closed[0] != null) {
+			closed[0].client.close();
+		}
+	}
+
+	private static Session open(final SMBClient smbClient, final WinRMEndpoint winRMEndpoint) throws IOException {
+		// The client returns its open connection to the host if any
+		final Connection connection = smbClient.connect(winRMEndpoint.getHostname());
+		return connection.authenticate(new AuthenticationContext(
+				winRMEndpoint.getUsername(),
+				winRMEndpoint.getPassword(),
+				winRMEndpoint.getDomain()));
+	}
+
+	/**
+	 * Close the least recently released sessions which are not used, until the pool is within its bound.
+	 */
+	private void trim() {
+		while (sessions.size() > MAX_SESSIONS) {
+			final Optional<Map.Entry<SessionKey, PooledSession>> oldest = sessions.entrySet().stream()
+					.filter(entry -> entry.getValue().useCount == 0)
+					.min(Comparator.comparingLong(entry -> entry.getValue().lastRelease));
+			if (!oldest.isPresent()) {
+				return;
+			}
+			evictIf(oldest.get().getKey(), pooled -> pooled.useCount == 0);
+		}
+	}
+
+	private void evictIf(final SessionKey key, final Predicate<PooledSession> condition) {
+		final PooledSession[] evicted = new PooledSession[1];
+		sessions.computeIfPresent(key, (k, pooled) -> {
+			if (condition.test(pooled)) {
+				evicted[0] = pooled;
+				return null;
+			}
+			return pooled;
+		});
+
+		if (evicted[0] != null) {
+			evictions.incrementAndGet();
+			close(evicted[0].session);
+		}
+	}
+
+	/**
+	 * Log off the session, and close its connection if no other pooled session uses it.
+	 */
+	private void close(final Session session) {
+		try {
+			session.close();
+		} catch (final Exception e) {
+			// the connection may already be lost
+		}
+
+		final Connection connection = session.getConnection();
+		if (connection != null
+				&& sessions.values().stream().noneMatch(pooled -> pooled.session.getConnection() == connection)) {
+			try {
+				connection.close();
+			} catch (final Exception e) {
+				// already closed
+			}
+		}
+	}
+
+	private static long getIdleTime() {
+		return Long.getLong(IDLE_TIME_PROPERTY, DEFAULT_IDLE_TIME_MILLISECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"SmbSessionPool [sessions=%d, clients=%d, hits=%d, misses=%d, evictions=%d]",
+				size(),
+				clients.size(),
+				getHits(),
+				getMisses(),
+				getEvictions());
+	}
+
+	private static class PooledClient {
+
+		private final SMBClient client;
+		// updated within the compute of the clients map
+		private int openings;
+
+		PooledClient(final SMBClient client) {
+			this.client = client;
+		}
+	}
+
+	private static class PooledSession {
+
+		private final Session session;
+		// updated within the compute of the pool map
+		private int useCount;
+		private volatile long lastRelease = Utils.getCurrentTimeMillis();
+
+		PooledSession(final Session session) {
+			this.session = session;
+		}
+
+		boolean isConnected() {
+			final Connection connection = session.getConnection();
+			return connection != null && connection.isConnected();
+		}
+
+		boolean isIdle(final long now, final long idleTime) {
+			return now - lastRelease >= idleTime;
+		}
+	}
+
+	private static class SessionKey {
+
+		private final String hostname;
+		private final String username;
+		private final String domain;
+		// a digest of the password, which is neither kept in memory nor changed by the caller
+		private final byte[] passwordHash;
+		private final SmbSettings smbSettings;
+
+		SessionKey(final WinRMEndpoint winRMEndpoint, final SmbSettings smbSettings) {
+			hostname = winRMEndpoint.getHostname().toLowerCase(Locale.ROOT);
+			username = winRMEndpoint.getUsername();
+			domain = winRMEndpoint.getDomain();
+			passwordHash = hash(winRMEndpoint.getPassword());
+			this.smbSettings = smbSettings;
+		}
+
+		private static byte[] hash(final char[] password) {
+			if (password == null) {
+				return null;
+			}
+
+			final MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (final NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+
+			for (final char c : password) {
+				digest.update((byte) (c >> 8));
+				digest.update((byte) c);
+			}
+			return digest.digest();
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Arrays.hashCode(passwordHash) + Objects.hash(hostname, username, domain, smbSettings);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof SessionKey)) {
+				return false;
+			}
+			final SessionKey other = (SessionKey) obj;
+			return hostname.equals(other.hostname)
+					&& Objects.equals(username, other.username)
+					&& Objects.equals(domain, other.domain)
+					&& Arrays.equals(passwordHash, other.passwordHash)
+					&& smbSettings.equals(other.smbSettings);
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package org.sentrysoftware.winrm.shares;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.sentrysoftware.winrm.TimeoutProfile;
+import org.sentrysoftware.winrm.Utils;
+
+import com.hierynomus.mssmb2.SMB2Dialect;
+import com.hierynomus.security.bc.BCSecurityProvider;
+import com.hierynomus.smbj.SmbConfig;
+import com.hierynomus.smbj.connection.Connection;
+
+/**
+ * The settings of the SMB client, from the system properties and the timeouts of the connections.
+ * The hosts connected with the same settings share the same SMB client.
+ */
+public class SmbSettings {
+
+	/**
+	 * System property with the maximum size of the SMB read requests, in bytes (1 MiB by default).
+	 * The server may negotiate smaller requests, in which case larger buffers are read with several requests.
+	 */
+	public static final String READ_BUFFER_SIZE_PROPERTY = "org.sentrysoftware.winrm.smbReadBufferSize";
+
+	/**
+	 * System property with the maximum size of the SMB write requests, in bytes (1 MiB by default).
+	 * The server may negotiate smaller requests, in which case larger buffers are written with several requests.
+	 */
+	public static final String WRITE_BUFFER_SIZE_PROPERTY = "org.sentrysoftware.winrm.smbWriteBufferSize";
+
+	/**
+	 * System property with the maximum size of the SMB transact requests, such as directory listings, in bytes
+	 * (1 MiB by default).
+	 */
+	public static final String TRANSACT_BUFFER_SIZE_PROPERTY = "org.sentrysoftware.winrm.smbTransactBufferSize";
+
+	/**
+	 * System property set to true to require the signing of the SMB messages (false by default).
+	 */
+	public static final String SIGNING_REQUIRED_PROPERTY = "org.sentrysoftware.winrm.smbSigningRequired";
+
+	/**
+	 * System property set to true to encrypt the SMB messages, with SMB 3 (false by default).
+	 */
+	public static final String ENCRYPT_DATA_PROPERTY = "org.sentrysoftware.winrm.smbEncryptData";
+
+	/**
+	 * System property with the comma-separated SMB dialects to negotiate, e.g. "SMB_3_1_1,SMB_3_0_2,SMB_2_1"
+	 * (all the dialects of the SMB client by default).
+	 */
+	public static final String DIALECTS_PROPERTY = "org.sentrysoftware.winrm.smbDialects";
+
+	static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	private final int readBufferSize;
+	private final int writeBufferSize;
+	private final int transactBufferSize;
+	private final boolean signingRequired;
+	private final boolean encryptData;
+	private final List<SMB2Dialect> dialects;
+	private final long connectTimeout;
+	private final long operationTimeout;
+
+	SmbSettings(
+			final int readBufferSize,
+			final int writeBufferSize,
+			final int transactBufferSize,
+			final boolean signingRequired,
+			final boolean encryptData,
+			final List<SMB2Dialect> dialects,
+			final long connectTimeout,
+			final long operationTimeout) {
+		this.readBufferSize = readBufferSize;
+		this.writeBufferSize = writeBufferSize;
+		this.transactBufferSize = transactBufferSize;
+		this.signingRequired = signingRequired;
+		this.encryptData = encryptData;
+		this.dialects = Collections.unmodifiableList(new ArrayList<>(dialects));
+		this.connectTimeout = connectTimeout;
+		this.operationTimeout = operationTimeout;
+	}
+
+	/**
+	 * Get the settings of the system properties, with the timeouts of the profile.
+	 *
+	 * @param timeoutProfile The connect and operation timeouts (mandatory)
+	 * @return The SMB settings
+	 * @throws IllegalArgumentException If a dialect is unknown
+	 */
+	public static SmbSettings of(final TimeoutProfile timeoutProfile) {
+		Utils.checkNonNull(timeoutProfile, "timeoutProfile");
+
+		return new SmbSettings(
+				getSize(READ_BUFFER_SIZE_PROPERTY),
+				getSize(WRITE_BUFFER_SIZE_PROPERTY),
+				getSize(TRANSACT_BUFFER_SIZE_PROPERTY),
+				Boolean.getBoolean(SIGNING_REQUIRED_PROPERTY),
+				Boolean.getBoolean(ENCRYPT_DATA_PROPERTY),
+				parseDialects(System.getProperty(DIALECTS_PROPERTY)),
+				timeoutProfile.getConnectTimeout(),
+				timeoutProfile.getOperationTimeout());
+	}
+
+	/**
+	 * @return The configuration of an SMB client with these settings
+	 */
+	SmbConfig toSmbConfig() {
+		final SmbConfig.Builder builder = SmbConfig.builder()
+				.withSecurityProvider(new BCSecurityProvider())
+				.withSocketFactory(new ConnectTimeoutSocketFactory(connectTimeout))
+				.withTimeout(operationTimeout, TimeUnit.MILLISECONDS)
+				.withReadBufferSize(readBufferSize)
+				.withWriteBufferSize(writeBufferSize)
+				.withTransactBufferSize(transactBufferSize)
+				.withSigningRequired(signingRequired)
+				.withEncryptData(encryptData);
+
+		if (!dialects.isEmpty()) {
+			builder.withDialects(dialects);
+		}
+
+		return builder.build();
+	}
+
+	static List<SMB2Dialect> parseDialects(final String value) {
+		final List<SMB2Dialect> dialects = new ArrayList<>();
+		if (Utils.isBlank(value)) {
+			return dialects;
+		}
+
+		for (final String dialect : value.split(",")) {
+			if (Utils.isNotBlank(dialect)) {
+				dialects.add(SMB2Dialect.valueOf(dialect.trim().toUpperCase(Locale.ROOT)));
+			}
+		}
+		return dialects;
+	}
+
+	private static int getSize(final String property) {
+		return Math.max(Integer.getInteger(property, DEFAULT_BUFFER_SIZE), 1);
+	}
+
+	/**
+	 * @param connection The connection of the SMB session
+	 * @return The size of the read requests: the read buffer size, within the maximum negotiated with the server
+	 */
+	int getReadSize(final Connection connection) {
+		return Math.min(readBufferSize, connection.getNegotiatedProtocol().getMaxReadSize());
+	}
+
+	/**
+	 * @param connection The connection of the SMB session
+	 * @return The size of the write requests: the write buffer size, within the maximum negotiated with the server
+	 */
+	int getWriteSize(final Connection connection) {
+		return Math.min(writeBufferSize, connection.getNegotiatedProtocol().getMaxWriteSize());
+	}
+
+	public int getReadBufferSize() {
+		return readBufferSize;
+	}
+
+	public int getWriteBufferSize() {
+		return writeBufferSize;
+	}
+
+	public int getTransactBufferSize() {
+		return transactBufferSize;
+	}
+
+	public boolean isSigningRequired() {
+		return signingRequired;
+	}
+
+	public boolean isEncryptData() {
+		return encryptData;
+	}
+
+	public List<SMB2Dialect> getDialects() {
+		return dialects;
+	}
+
+	public long getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public long getOperationTimeout() {
+		return operationTimeout;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof SmbSettings)) {
+			return false;
+		}
+		final SmbSettings other = (SmbSettings) obj;
+		return readBufferSize == other.readBufferSize
+				&& writeBufferSize == other.writeBufferSize
+				&& transactBufferSize == other.transactBufferSize
+				&& signingRequired == other.signingRequired
+				&& encryptData == other.encryptData
+				&& dialects.equals(other.dialects)
+				&& connectTimeout == other.connectTimeout
+				&& operationTimeout == other.operationTimeout;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(
+				readBufferSize,
+				writeBufferSize,
+				transactBufferSize,
+				signingRequired,
+				encryptData,
+				dialects,
+				connectTimeout,
+				operationTimeout);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"SmbSettings [readBufferSize=%d, writeBufferSize=%d, transactBufferSize=%d, signingRequired=%s, "
+				+ "encryptData=%s, dialects=%s, connectTimeout=%d, operationTimeout=%d]",
+				readBufferSize,
+				writeBufferSize,
+				transactBufferSize,
+				signingRequired,
+				encryptData,
+				dialects,
+				connectTimeout,
+				operationTimeout);
+	}
+}
@@ -20,36 +20,75 @@ package org.sentrysoftware.winrm.shares;
  * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
-import com.hierynomus.security.bc.BCSecurityProvider;
-import com.hierynomus.smbj.SMBClient;
-import com.hierynomus.smbj.SmbConfig;
-import com.hierynomus.smbj.auth.AuthenticationContext;
-import com.hierynomus.smbj.connection.Connection;
+import com.hierynomus.mserref.NtStatus;
+import com.hierynomus.msdtyp.AccessMask;
+import com.hierynomus.msdtyp.FileTime;
+import com.hierynomus.msfscc.FileAttributes;
+import com.hierynomus.msfscc.fileinformation.FileAllInformation;
+import com.hierynomus.msfscc.fileinformation.FileBasicInformation;
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import com.hierynomus.mssmb2.SMB2CreateDisposition;
+import com.hierynomus.mssmb2.SMB2CreateOptions;
+import com.hierynomus.mssmb2.SMB2ShareAccess;
+import com.hierynomus.mssmb2.SMBApiException;
 import com.hierynomus.smbj.session.Session;
+import com.hierynomus.smbj.common.SMBRuntimeException;
+import com.hierynomus.smbj.share.Directory;
 import com.hierynomus.smbj.share.DiskShare;
+import com.hierynomus.smbj.share.File;
+import com.hierynomus.smbj.share.Share;
+import org.sentrysoftware.winrm.TimeoutProfile;
 import org.sentrysoftware.winrm.Utils;
 import org.sentrysoftware.winrm.exceptions.WindowsRemoteException;
+import org.sentrysoftware.winrm.WindowsRemoteCommandResult;
 import org.sentrysoftware.winrm.WindowsRemoteExecutor;
 import org.sentrysoftware.winrm.WindowsTempShare;
+import org.sentrysoftware.winrm.WindowsRemoteProcessUtils;
+import org.sentrysoftware.winrm.LocalFilesCopy;
 import org.sentrysoftware.winrm.exceptions.WinRMException;
 import org.sentrysoftware.winrm.service.WinRMEndpoint;
 import org.sentrysoftware.winrm.service.WinRMService;
 import org.sentrysoftware.winrm.service.client.auth.AuthenticationEnum;
+import org.sentrysoftware.winrm.shares.ShareStore.StoredShare;
 
 public class SmbTempShare extends WindowsTempShare implements AutoCloseable {
 
+	/**
+	 * System property with the maximum number of write requests of an upload in flight at the same time (4 by default).
+	 */
+	public static final String OUTSTANDING_WRITES_PROPERTY = "org.sentrysoftware.winrm.smbOutstandingWrites";
+
+	static final int DEFAULT_OUTSTANDING_WRITES = 4;
+
 	private final WinRMEndpoint winRMEndpoint;
-	private final SMBClient smbClient;
-	private final Connection connection;
 	private final Session session;
+	private final SmbSettings smbSettings;
 	private final DiskShare diskShare;
 
 	/**
@@ -57,9 +96,8 @@ public class SmbTempShare extends WindowsTempShare implements AutoCloseable {
 	 *
 	 * @param winRMService WinRMService instance
 	 * @param winRMEndpoint Endpoint with credentials
-	 * @param smbClient The SMB client
-	 * @param connection The SMB connection
-	 * @param session The SMB session
+	 * @param session The SMB session, acquired from the pool
+	 * @param smbSettings The settings of the SMB client of the session
 	 * @param diskShare The SMB disk share
 	 * @param shareNameOrUnc The name of the share, or its full UNC path
 	 * @param remotePath The path on the remote system of the directory being shared
@@ -67,9 +105,8 @@ public class SmbTempShare extends WindowsTempShare implements AutoCloseable {
 	private SmbTempShare(
 			final WinRMService winRMService,
 			final WinRMEndpoint winRMEndpoint,
-			final SMBClient smbClient,
-			final Connection connection,
 			final Session session,
+			final SmbSettings smbSettings,
 			final DiskShare diskShare,
 			final String shareNameOrUnc,
 			final String remotePath) {
@@ -77,9 +114,8 @@ public class SmbTempShare extends WindowsTempShare implements AutoCloseable {
 		super(winRMService, shareNameOrUnc, remotePath);
 
 		this.winRMEndpoint = winRMEndpoint;
-		this.smbClient = smbClient;
-		this.connection = connection;
 		this.session = session;
+		this.smbSettings = smbSettings;
 		this.diskShare = diskShare;
 	}
 
@@ -114,67 +150,119 @@ public class SmbTempShare extends WindowsTempShare implements AutoCloseable {
 		Utils.checkNonNull(winRMEndpoint.getPassword(), "password");
 		Utils.checkArgumentNotZeroOrNegative(timeout, "timeout");
 
+		return createInstance(winRMEndpoint, TimeoutProfile.of(timeout), ticketCache, authentications);
+	}
+
+	/**
+	 * Create a SmbTempShare instance with separate timeouts.
+	 * Get or create a temp share and connect to it with SMB.
+	 *
+	 * @param winRMEndpoint Endpoint with credentials (mandatory)
+	 * @param timeoutProfile The connect, connection request, operation and call timeouts (mandatory)
+	 * @param ticketCache The Ticket Cache path
+	 * @param authentications List of authentications. only NTLM if absent
+	 * 
+	 * @return SmbTempShare instance
+	 * 
+	 * @throws IOException If an I/O error occurred
+	 * @throws WinRMException For any problem encountered
+	 * @throws TimeoutException To notify userName of timeout.
+	 */
+	public static SmbTempShare createInstance(
+			final WinRMEndpoint winRMEndpoint,
+			final TimeoutProfile timeoutProfile,
+			final Path ticketCache,
+			final List<AuthenticationEnum> authentications)
+					throws IOException, WinRMException, TimeoutException {
+
+		Utils.checkNonNull(winRMEndpoint, "winRMEndpoint");
+		Utils.checkNonNull(winRMEndpoint.getPassword(), "password");
+		Utils.checkNonNull(timeoutProfile, "timeoutProfile");
+
 		try {
 			return CONNECTIONS_CACHE.compute(
 					winRMEndpoint,
 					(key, smb) -> {
 						if (smb == null) {
 							WinRMService winRMService = null;
-							SMBClient smbClient = null;
-							Connection connection = null;
 							Session session = null;
 							DiskShare diskShare = null;
 
 							try {
 								winRMService = WinRMService.createInstance(
 										winRMEndpoint,
-										timeout,
+										timeoutProfile,
 										ticketCache,
 										authentications);
 
-								final WindowsTempShare windowsTempShare = getOrCreateShare(
-										winRMService,
-										timeout,
-										(w, r, s, t) -> {
-											try {
-												shareRemoteDirectory(w, r, s, t);
-											} catch (final TimeoutException | WindowsRemoteException e) {
-												throw new RuntimeException(e);
-											}
-										});
-
-								final SmbConfig smbConfig = SmbConfig.builder()
-										.withSecurityProvider(new BCSecurityProvider())
-										.withTimeout(timeout, TimeUnit.SECONDS)
-										.build();
-
-								final AuthenticationContext authenticationContext = new AuthenticationContext(
-										winRMEndpoint.getUsername(),
-										winRMEndpoint.getPassword(),
-										winRMEndpoint.getDomain());
-
-								smbClient = createSmbClient(smbConfig);
-								connection = smbClient.connect(winRMEndpoint.getHostname());
-								session = connection.authenticate(authenticationContext);
-								diskShare = (DiskShare) session.connectShare(windowsTempShare.getShareName());
+								final WinRMService service = winRMService;
+								final Callable<WindowsTempShare> discoverShare = () -> {
+									final WindowsTempShare share = getOrCreateShare(
+											service,
+											timeoutProfile.getTimeout(),
+											(w, r, s, t) -> {
+												try {
+													shareRemoteDirectory(w, r, s, t);
+												} catch (final TimeoutException | WindowsRemoteException e) {
+													throw new RuntimeException(e);
+												}
+											});
+
+									// A share created again (e.g. after a reboot) does not have the files uploaded before
+									UploadCache.getInstance().forget(share.getUncSharePath());
+
+									return share;
+								};
+
+								// A share stored by a previous run is checked when connecting to it
+								final ShareStore shareStore = ShareStore.getInstance();
+								final StoredShare storedShare = shareStore.get(winRMEndpoint.getHostname());
+								WindowsTempShare windowsTempShare = storedShare != null ?
+										new WindowsTempShare(
+												winRMService,
+												storedShare.getUncSharePath(),
+												storedShare.getRemotePath()) :
+										discoverShare.call();
+
+								// The session outlives the share, in the pool
+								final SmbSettings smbSettings = SmbSettings.of(timeoutProfile);
+								session = SmbSessionPool.getInstance().acquire(winRMEndpoint, smbSettings);
+								try {
+									diskShare = (DiskShare) session.connectShare(windowsTempShare.getShareName());
+								} catch (final SMBApiException e) {
+									if (storedShare == null) {
+										throw e;
+									}
+									// The stored share was removed in the meantime
+									windowsTempShare = discoverShare.call();
+									diskShare = (DiskShare) session.connectShare(windowsTempShare.getShareName());
+								}
+
+								try {
+									shareStore.put(
+											winRMEndpoint.getHostname(),
+											windowsTempShare.getUncSharePath(),
+											windowsTempShare.getRemotePath());
+								} catch (final IOException e) {
+									// the share will be discovered again after a restart
+								}
 
 								return new SmbTempShare(
 										winRMService,
 										winRMEndpoint,
-										smbClient,
-										connection,
 										session,
+										smbSettings,
 										diskShare,
 										windowsTempShare.getUncSharePath(),
 										windowsTempShare.getRemotePath());
 
 							} catch (final RuntimeException e) {
-								closeResources(winRMService, smbClient, connection, session, diskShare);
+								closeResources(winRMService, session);
 
 								throw e;
 
 							} catch (final Exception e) {
-								closeResources(winRMService, smbClient, connection, session, diskShare);
+								closeResources(winRMService, session);
 
 								throw new RuntimeException(e);
 							}
@@ -206,31 +294,8 @@ public class SmbTempShare extends WindowsTempShare implements AutoCloseable {
 		}
 	}
 
-	private static void closeResources(
-			final WinRMService winRMService,
-			final SMBClient smbClient,
-			final Connection connection,
-			final Session session,
-			final DiskShare diskShare) {
-		try {
-			if (diskShare != null) {
-				diskShare.close();
-			}
-
-			if (session != null) {
-				session.close();
-			}
-
-			if (connection != null) {
-				connection.close();
-			}
-		} catch (final IOException ioe) {
-			throw new RuntimeException(ioe);
-		}
-
-		if (smbClient != null) {
-			smbClient.close();
-		}
+	private static void closeResources(final WinRMService winRMService, final Session session) {
+		SmbSessionPool.getInstance().release(session);
 
 		if (winRMService != null) {
 			winRMService.close();
@@ -261,26 +326,690 @@ public class SmbTempShare extends WindowsTempShare implements AutoCloseable {
 		}
 	}
 
-	@Override
-	public synchronized void close() throws IOException {
-		if (useCount.decrementAndGet() == 0) {
-			CONNECTIONS_CACHE.remove(winRMEndpoint);
+	/**
+	 * Upload a local file to the root of the share, with the same file name.
+	 * 
+	 * As when copying to the UNC path of the share, the upload is skipped if the remote file has the same size
+	 * and was not modified before the local file: the uploads keep the last-modified time of the local files.
+	 *
+	 * @param localFile The file to upload (mandatory)
+	 * @return The path of the uploaded file, as seen in the remote system
+	 * @throws IOException If the file cannot be read or written on the share
+	 */
+	public String upload(final Path localFile) throws IOException {
+		Utils.checkNonNull(localFile, "localFile");
+		checkConnectedFirst();
+
+		final String fileName = localFile.getFileName().toString();
+		if (!isUpToDate(diskShare, localFile, fileName)) {
+			upload(localFile, fileName);
+		}
+
+		return toRemotePath(fileName);
+	}
+
+	/**
+	 * Upload the local files to the share through the SMB session, several at a time and only if their content
+	 * is not there yet (see {@link #uploadContent(Path)}), and update the command with their path as seen in the remote system.
+	 *
+	 * @param command The command (mandatory)
+	 * @param localFiles The local files to upload
+	 * @return The updated command, with the remote path and the upload time of each file
+	 * @throws IOException If a file cannot be read or written on the share
+	 * @see WindowsRemoteProcessUtils#copyLocalFiles(String, List, org.sentrysoftware.winrm.LocalFileCopier)
+	 */
+	public LocalFilesCopy copyLocalFiles(final String command, final List<String> localFiles) throws IOException {
+		return WindowsRemoteProcessUtils.copyLocalFiles(command, localFiles, this::uploadContent);
+	}
+
+	/**
+	 * Upload the local files to the share as a single compressed archive, only if its content is not there yet,
+	 * expand it in the remote system, and update the command with their path as seen in the remote system.
+	 *
+	 * @param command The command (mandatory)
+	 * @param localFiles The local files to upload
+	 * @param timeout Timeout of the expansion in milliseconds
+	 * @return The updated command, with the remote path and the upload time of each file
+	 * @throws IOException If the archive cannot be built, written on the share or expanded
+	 * @throws TimeoutException If the expansion timed out
+	 * @throws WindowsRemoteException For any problem encountered on remote
+	 * @see LocalFilesBundler#copyLocalFiles(String, List, org.sentrysoftware.winrm.LocalFileCopier,
+	 * WindowsRemoteExecutor, long)
+	 */
+	public LocalFilesCopy copyLocalFilesBundle(
+			final String command,
+			final List<String> localFiles,
+			final long timeout) throws IOException, TimeoutException, WindowsRemoteException {
+		try {
+			return LocalFilesBundler.getInstance().copyLocalFiles(
+					command,
+					localFiles,
+					this::uploadContent,
+					getWindowsRemoteExecutor(),
+					timeout);
+		} catch (final IOException | TimeoutException | WindowsRemoteException e) {
+			// the archive assumed to be present may have been removed
+			forgetUploads();
+			throw e;
+		}
+	}
 
-			if (diskShare != null) {
-				diskShare.close();
+	/**
+	 * Forget the files known to be present on the share, and the bundles expanded on its host, so that they are
+	 * checked again by the next uploads, e.g. because a command using them failed.
+	 */
+	public void forgetUploads() {
+		UploadCache.getInstance().forget(getUncSharePath());
+		LocalFilesBundler.getInstance().forget(winRMEndpoint.getHostname());
+	}
+
+	/**
+	 * Upload a local file to the share through the SMB session, replacing the remote file if it exists.
+	 * The file is sent in large chunks, several of them in flight at the same time.
+	 *
+	 * @param localFile The file to upload (mandatory)
+	 * @param remoteFileName The path of the file, relative to the root of the share (mandatory)
+	 * @return The number of bytes uploaded
+	 * @throws IOException If the file cannot be read or written on the share
+	 */
+	public long upload(final Path localFile, final String remoteFileName) throws IOException {
+		Utils.checkNonNull(localFile, "localFile");
+		Utils.checkNonNull(remoteFileName, "remoteFileName");
+		checkConnectedFirst();
+
+		return upload(localFile, remoteFileName, null);
+	}
+
+	/**
+	 * Upload a local file to the root of the share, with the same file name, unless it is already there:
+	 * the files of a command stay side by side, as when copying to the UNC path of the share.
+	 * 
+	 * The hashes and the files present on each share, with the hash of their content, are kept in the
+	 * {@link UploadCache}: executing the same tools again neither reads them nor checks the share during
+	 * the presence time. Otherwise, the remote file is kept if it has the size of the local file and was not
+	 * modified before it. The file is uploaded under a temporary name and then renamed, so that a file found
+	 * on the share is always complete.
+	 *
+	 * @param localFile The file to upload (mandatory)
+	 * @return The path of the uploaded file, as seen in the remote system
+	 * @throws IOException If the file cannot be read or written on the share
+	 */
+	public String uploadContent(final Path localFile) throws IOException {
+		Utils.checkNonNull(localFile, "localFile");
+
+		final UploadCache uploadCache = UploadCache.getInstance();
+		final String hash = uploadCache.getHash(localFile);
+		final String remoteFileName = localFile.getFileName().toString();
+		final String remoteFilePath = toRemotePath(remoteFileName);
+
+		if (uploadCache.isPresent(getUncSharePath(), remoteFileName, hash)) {
+			return remoteFilePath;
+		}
+
+		checkConnectedFirst();
+
+		if (!isUpToDate(diskShare, localFile, remoteFileName)) {
+			upload(localFile, remoteFileName + "." + UUID.randomUUID() + ".tmp", remoteFileName);
+		}
+
+		uploadCache.setPresent(getUncSharePath(), remoteFileName, hash);
+
+		return remoteFilePath;
+	}
+
+	/**
+	 * Upload the local file, and rename it once complete if a new name is specified.
+	 */
+	private long upload(final Path localFile, final String remoteFileName, final String newName) throws IOException {
+		boolean uploaded = false;
+		try (final FileChannel channel = FileChannel.open(localFile, StandardOpenOption.READ);
+				final File file = diskShare.openFile(
+						remoteFileName,
+						newName != null ?
+								EnumSet.of(AccessMask.GENERIC_WRITE, AccessMask.DELETE) :
+								EnumSet.of(AccessMask.GENERIC_WRITE),
+						EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL),
+						EnumSet.of(SMB2ShareAccess.FILE_SHARE_READ),
+						SMB2CreateDisposition.FILE_OVERWRITE_IF,
+						EnumSet.of(SMB2CreateOptions.FILE_NON_DIRECTORY_FILE))) {
+
+			final long length = write(channel, file, getWriteSize(), getOutstandingWrites());
+			file.setFileInformation(new FileBasicInformation(
+					FileBasicInformation.DONT_SET,
+					FileBasicInformation.DONT_SET,
+					FileTime.ofEpochMillis(Files.getLastModifiedTime(localFile).toMillis()),
+					FileBasicInformation.DONT_SET,
+					0));
+			if (newName != null) {
+				// the same content may have been uploaded in the meantime
+				file.rename(newName, true);
 			}
+			uploaded = true;
 
-			if (session != null) {
-				session.close();
+			return length;
+
+		} catch (final SMBApiException e) {
+			throw new IOException(
+					String.format("Cannot upload %s to %s\\%s", localFile, getUncSharePath(), remoteFileName), e);
+		} finally {
+			if (!uploaded && newName != null) {
+				removeQuietly(remoteFileName);
 			}
+		}
+	}
+
+	/**
+	 * Execute a command with its output redirected to files of the share, which are read through the SMB session
+	 * when the command completes, and then removed.
+	 * 
+	 * Large outputs are then transferred in large SMB reads, instead of base64-encoded (and possibly sealed)
+	 * SOAP Receive responses.
+	 *
+	 * @param command The command to execute, through CMD.EXE (mandatory)
+	 * @param workingDirectory Path of the directory for the spawned process on the remote system (can be null)
+	 * @param charset The charset of the output (mandatory)
+	 * @param timeout Timeout in milliseconds
+	 * @param codePage The code page of the remote shell. If null, the default code page of the shell
+	 * @return The command result
+	 * @throws WindowsRemoteException For any problem encountered on remote
+	 * @throws TimeoutException To notify userName of timeout
+	 * @throws IOException If the output files cannot be read
+	 */
+	public WindowsRemoteCommandResult executeCommandWithOutputOnShare(
+			final String command,
+			final String workingDirectory,
+			final Charset charset,
+			final long timeout,
+			final Integer codePage) throws WindowsRemoteException, TimeoutException, IOException {
+
+		Utils.checkNonNull(command, "command");
+		Utils.checkNonNull(charset, "charset");
+		checkConnectedFirst();
+
+		final String outputFileName = WindowsRemoteProcessUtils.buildNewOutputFileName();
+		final String stdoutFileName = outputFileName + ".out";
+		final String stderrFileName = outputFileName + ".err";
+
+		final String redirectedCommand = String.format(
+				"CMD.EXE /C (%s) > \"%s\" 2> \"%s\"",
+				command,
+				toRemotePath(stdoutFileName),
+				toRemotePath(stderrFileName));
+
+		try {
+			final WindowsRemoteCommandResult result = codePage == null ?
+					getWindowsRemoteExecutor().executeCommand(redirectedCommand, workingDirectory, charset, timeout) :
+					getWindowsRemoteExecutor().executeCommand(
+							redirectedCommand,
+							workingDirectory,
+							charset,
+							timeout,
+							codePage,
+							false);
+
+			final String stdout = new String(readOutputFile(stdoutFileName), charset);
+			final String stderr = new String(readOutputFile(stderrFileName), charset);
+
+			return new WindowsRemoteCommandResult(
+					stdout,
+					Utils.isNotBlank(result.getStderr()) ? stderr + result.getStderr() : stderr,
+					result.getExecutionTime(),
+					result.getStatusCode());
 
-			if (connection != null) {
-				connection.close();
+		} finally {
+			removeQuietly(stdoutFileName);
+			removeQuietly(stderrFileName);
+		}
+	}
+
+	/**
+	 * Read an output file of the share, empty if the command did not create it.
+	 */
+	private byte[] readOutputFile(final String remoteFileName) throws IOException {
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		try (final File file = diskShare.openFile(
+						remoteFileName,
+						EnumSet.of(AccessMask.GENERIC_READ),
+						null,
+						EnumSet.of(SMB2ShareAccess.FILE_SHARE_READ, SMB2ShareAccess.FILE_SHARE_WRITE),
+						SMB2CreateDisposition.FILE_OPEN,
+						EnumSet.of(SMB2CreateOptions.FILE_NON_DIRECTORY_FILE))) {
+
+			read(file, Channels.newChannel(outputStream), getReadSize());
+
+		} catch (final SMBApiException e) {
+			if (isNotFound(e)) {
+				return new byte[0];
 			}
+			throw new IOException(String.format("Cannot read %s\\%s", getUncSharePath(), remoteFileName), e);
+		}
+
+		return outputStream.toByteArray();
+	}
+
+	/**
+	 * @return The path of a file of the share, as seen in the remote system
+	 */
+	private String toRemotePath(final String remoteFileName) {
+		return getRemotePath() != null ? getRemotePath() + "\\" + remoteFileName : remoteFileName;
+	}
+
+	/**
+	 * Remove a file of the share, if possible.
+	 *
+	 * @param remoteFileName The path of the file, relative to the root of the share
+	 */
+	void removeQuietly(final String remoteFileName) {
+		try {
+			diskShare.rm(remoteFileName);
+		} catch (final Exception e) {
+			// the temporary file stays in the temporary share
+		}
+	}
+
+	/**
+	 * Download a file of the share through the SMB session, replacing the local file if it exists.
+	 *
+	 * @param remoteFileName The path of the file, relative to the root of the share (mandatory)
+	 * @param localFile The local file to write (mandatory)
+	 * @return The number of bytes downloaded
+	 * @throws IOException If the file cannot be read on the share or written locally
+	 */
+	public long download(final String remoteFileName, final Path localFile) throws IOException {
+		Utils.checkNonNull(remoteFileName, "remoteFileName");
+		Utils.checkNonNull(localFile, "localFile");
+		checkConnectedFirst();
 
-			if (smbClient != null) {
-				smbClient.close();
+		try (final File file = diskShare.openFile(
+						remoteFileName,
+						EnumSet.of(AccessMask.GENERIC_READ),
+						null,
+						EnumSet.of(SMB2ShareAccess.FILE_SHARE_READ, SMB2ShareAccess.FILE_SHARE_WRITE),
+						SMB2CreateDisposition.FILE_OPEN,
+						EnumSet.of(SMB2CreateOptions.FILE_NON_DIRECTORY_FILE));
+				final FileChannel channel = FileChannel.open(
+						localFile,
+						StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			return read(file, channel, getReadSize());
+
+		} catch (final SMBApiException e) {
+			throw new IOException(
+					String.format("Cannot download %s\\%s to %s", getUncSharePath(), remoteFileName, localFile), e);
+		}
+	}
+
+	/**
+	 * List the files of a directory of the share matching a pattern, passing each one to the consumer as the
+	 * server returns them. The server sends the entries in batches as large as the transact buffer size,
+	 * so large directories are neither held in memory nor requested one entry at a time.
+	 *
+	 * @param directory The path of the directory, relative to the root of the share (the root if null or empty)
+	 * @param pattern The pattern of the file names, with the * and ? wildcards (all the files if null)
+	 * @param consumer Receives each file, except "." and ".." (mandatory)
+	 * @throws IOException If the directory cannot be listed
+	 */
+	public void listFiles(
+			final String directory,
+			final String pattern,
+			final Consumer<RemoteFile> consumer) throws IOException {
+		Utils.checkNonNull(consumer, "consumer");
+		checkConnectedFirst();
+
+		list(diskShare, directory, pattern, consumer);
+	}
+
+	/**
+	 * List the files of a directory of another share of the host, such as an administrative share (C$, D$...),
+	 * through the same SMB session. See {@link #listFiles(String, String, Consumer)}.
+	 *
+	 * @param shareName The name of the share (mandatory)
+	 * @param directory The path of the directory, relative to the root of the share (the root if null or empty)
+	 * @param pattern The pattern of the file names, with the * and ? wildcards (all the files if null)
+	 * @param consumer Receives each file, except "." and ".." (mandatory)
+	 * @throws IOException If the share cannot be connected or the directory cannot be listed
+	 */
+	public void listFiles(
+			final String shareName,
+			final String directory,
+			final String pattern,
+			final Consumer<RemoteFile> consumer) throws IOException {
+		Utils.checkNonBlank(shareName, "shareName");
+		Utils.checkNonNull(consumer, "consumer");
+		checkConnectedFirst();
+
+		list(getDiskShare(shareName), directory, pattern, consumer);
+	}
+
+	/**
+	 * Get the size, times, attributes and identifier of a file of the share.
+	 *
+	 * @param path The path of the file, relative to the root of the share (mandatory)
+	 * @return The file, or null if it does not exist
+	 * @throws IOException If the file cannot be queried
+	 */
+	public RemoteFile getFileInfo(final String path) throws IOException {
+		Utils.checkNonNull(path, "path");
+		checkConnectedFirst();
+
+		return stat(diskShare, path);
+	}
+
+	/**
+	 * Get the size, times, attributes and identifier of a file of another share of the host,
+	 * such as an administrative share (C$, D$...), through the same SMB session.
+	 *
+	 * @param shareName The name of the share (mandatory)
+	 * @param path The path of the file, relative to the root of the share (mandatory)
+	 * @return The file, or null if it does not exist
+	 * @throws IOException If the share cannot be connected or the file cannot be queried
+	 */
+	public RemoteFile getFileInfo(final String shareName, final String path) throws IOException {
+		Utils.checkNonBlank(shareName, "shareName");
+		Utils.checkNonNull(path, "path");
+		checkConnectedFirst();
+
+		return stat(getDiskShare(shareName), path);
+	}
+
+	/**
+	 * Read the bytes appended to a remote file since the previous call, at most maxLength of them,
+	 * with positional reads. A rotated file is read again from its start.
+	 * The file is opened with all the sharing modes, so that the writing process is not disturbed.
+	 *
+	 * @param tail The file and its position, updated with the bytes read (mandatory)
+	 * @param maxLength The maximum number of bytes to read, the next ones are read on the next call
+	 * @return The new bytes, empty if there are none or the file does not exist
+	 * @throws IOException If the file cannot be read
+	 */
+	public byte[] tail(final RemoteFileTail tail, final int maxLength) throws IOException {
+		Utils.checkNonNull(tail, "tail");
+		Utils.checkArgumentNotZeroOrNegative(maxLength, "maxLength");
+		checkConnectedFirst();
+
+		final DiskShare share = tail.getShareName() == null ? diskShare : getDiskShare(tail.getShareName());
+
+		return tail(share, tail, maxLength, getReadSize());
+	}
+
+	static byte[] tail(
+			final DiskShare share,
+			final RemoteFileTail tail,
+			final int maxLength,
+			final int readSize) throws IOException {
+		try (final File file = share.openFile(
+				tail.getPath(),
+				EnumSet.of(AccessMask.GENERIC_READ),
+				null,
+				SMB2ShareAccess.ALL,
+				SMB2CreateDisposition.FILE_OPEN,
+				EnumSet.of(SMB2CreateOptions.FILE_NON_DIRECTORY_FILE))) {
+
+			final FileAllInformation information = file.getFileInformation();
+			final long size = information.getStandardInformation().getEndOfFile();
+			final long offset = tail.start(information.getInternalInformation().getIndexNumber(), size);
+
+			final int length = (int) Math.min(size - offset, maxLength);
+			if (length <= 0) {
+				return new byte[0];
+			}
+
+			final byte[] bytes = new byte[length];
+			int read = 0;
+			while (read < length) {
+				final int count = file.read(bytes, offset + read, read, Math.min(length - read, readSize));
+				if (count <= 0) {
+					break;
+				}
+				read += count;
+			}
+			tail.advance(read);
+
+			return read == length ? bytes : Arrays.copyOf(bytes, read);
+
+		} catch (final SMBApiException e) {
+			if (isNotFound(e)) {
+				return new byte[0];
 			}
+			throw new IOException(String.format("Cannot read %s", tail.getPath()), e);
+		}
+	}
+
+	/**
+	 * Get a share of the host through the SMB session, which keeps it connected until it is closed.
+	 */
+	private DiskShare getDiskShare(final String shareName) throws IOException {
+		if (shareName.equalsIgnoreCase(getShareName())) {
+			return diskShare;
+		}
+
+		final Share share;
+		try {
+			share = session.connectShare(shareName);
+		} catch (final SMBRuntimeException e) {
+			throw new IOException(String.format("Cannot connect to the share %s", shareName), e);
+		}
+
+		if (!(share instanceof DiskShare)) {
+			throw new IOException(String.format("%s is not a disk share", shareName));
+		}
+
+		return (DiskShare) share;
+	}
+
+	static void list(
+			final DiskShare share,
+			final String directory,
+			final String pattern,
+			final Consumer<RemoteFile> consumer) throws IOException {
+
+		final String path = directory == null ? Utils.EMPTY : directory;
+
+		try (final Directory remoteDirectory = share.openDirectory(
+				path,
+				EnumSet.of(AccessMask.FILE_LIST_DIRECTORY, AccessMask.FILE_READ_ATTRIBUTES),
+				null,
+				SMB2ShareAccess.ALL,
+				SMB2CreateDisposition.FILE_OPEN,
+				EnumSet.of(SMB2CreateOptions.FILE_DIRECTORY_FILE))) {
+
+			final Iterator<FileIdBothDirectoryInformation> iterator = remoteDirectory.iterator(
+					FileIdBothDirectoryInformation.class,
+					pattern != null ? pattern : "*");
+
+			while (iterator.hasNext()) {
+				final FileIdBothDirectoryInformation information = iterator.next();
+				final String fileName = information.getFileName();
+				if (!".".equals(fileName) && !"..".equals(fileName)) {
+					consumer.accept(RemoteFile.of(path, information));
+				}
+			}
+
+		} catch (final SMBRuntimeException e) {
+			throw new IOException(String.format("Cannot list %s", path), e);
+		}
+	}
+
+	static RemoteFile stat(final DiskShare share, final String path) throws IOException {
+		try {
+			return RemoteFile.of(path, share.getFileInformation(path));
+		} catch (final SMBApiException e) {
+			if (isNotFound(e)) {
+				return null;
+			}
+			throw new IOException(String.format("Cannot query %s", path), e);
+		}
+	}
+
+	/**
+	 * @return Whether the remote file has the size of the local file, and was not modified before it
+	 */
+	static boolean isUpToDate(final DiskShare share, final Path localFile, final String remoteFileName)
+			throws IOException {
+		final RemoteFile remoteFile = stat(share, remoteFileName);
+		return remoteFile != null
+				&& !remoteFile.isDirectory()
+				&& remoteFile.getSize() == Files.size(localFile)
+				&& remoteFile.getLastModifiedTime() >= Files.getLastModifiedTime(localFile).toMillis();
+	}
+
+	private static boolean isNotFound(final SMBApiException e) {
+		return e.getStatus() == NtStatus.STATUS_OBJECT_NAME_NOT_FOUND
+				|| e.getStatus() == NtStatus.STATUS_OBJECT_PATH_NOT_FOUND
+				|| e.getStatus() == NtStatus.STATUS_NO_SUCH_FILE;
+	}
+
+	/**
+	 * Write the content of the channel to the remote file. Each chunk has its own buffer, which is reused
+	 * once its write request completed, so that up to maxOutstandingWrites chunks are in flight.
+	 * A write request may write only part of its chunk (limited by the negotiated write size or the credits
+	 * of the session): the remainder is written again at its offset.
+	 */
+	static long write(
+			final FileChannel channel,
+			final File file,
+			final int bufferSize,
+			final int maxOutstandingWrites) throws IOException {
+
+		final byte[][] buffers = new byte[maxOutstandingWrites][];
+		final Deque<PendingWrite> pendingWrites = new ArrayDeque<>(maxOutstandingWrites);
+		long offset = 0;
+		int index = 0;
+
+		while (true) {
+			if (pendingWrites.size() == maxOutstandingWrites) {
+				// the oldest write used the buffer about to be filled
+				pendingWrites.poll().complete(file);
+			}
+
+			if (buffers[index] == null) {
+				buffers[index] = new byte[bufferSize];
+			}
+			final byte[] buffer = buffers[index];
+
+			final int length = readFully(channel, buffer);
+			if (length <= 0) {
+				break;
+			}
+
+			pendingWrites.add(new PendingWrite(file.writeAsync(buffer, offset, 0, length), buffer, offset, length));
+			offset += length;
+			index = (index + 1) % maxOutstandingWrites;
+		}
+
+		while (!pendingWrites.isEmpty()) {
+			pendingWrites.poll().complete(file);
+		}
+
+		return offset;
+	}
+
+	/**
+	 * Read the remote file into the channel.
+	 */
+	static long read(final File file, final WritableByteChannel channel, final int bufferSize) throws IOException {
+		final byte[] buffer = new byte[bufferSize];
+		long offset = 0;
+
+		int length;
+		while ((length = file.read(buffer, offset, 0, buffer.length)) > 0) {
+			final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+			while (byteBuffer.hasRemaining()) {
+				channel.write(byteBuffer);
+			}
+			offset += length;
+		}
+
+		return offset;
+	}
+
+	private static int readFully(final FileChannel channel, final byte[] buffer) throws IOException {
+		final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+		while (byteBuffer.hasRemaining()) {
+			if (channel.read(byteBuffer) < 0) {
+				break;
+			}
+		}
+		return byteBuffer.position();
+	}
+
+	private static long waitFor(final Future<Long> write) throws IOException {
+		try {
+			final Long written = write.get();
+			return written != null ? written : 0;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing on the share");
+		} catch (final ExecutionException e) {
+			throw new IOException("Write on the share failed", e.getCause());
+		}
+	}
+
+	/**
+	 * A write request in flight, with the chunk it was given.
+	 */
+	private static class PendingWrite {
+
+		private final Future<Long> future;
+		private final byte[] buffer;
+		private final long offset;
+		private final int length;
+
+		PendingWrite(final Future<Long> future, final byte[] buffer, final long offset, final int length) {
+			this.future = future;
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		/**
+		 * Wait for the write request, then write the part of the chunk it did not write.
+		 */
+		void complete(final File file) throws IOException {
+			long written = waitFor(future);
+			while (written < length) {
+				final int remaining = (int) (length - written);
+				final long count = waitFor(file.writeAsync(buffer, offset + written, (int) written, remaining));
+				if (count <= 0) {
+					throw new IOException(String.format(
+							"Write on the share failed: %d bytes left at offset %d",
+							remaining,
+							offset + written));
+				}
+				written += count;
+			}
+		}
+	}
+
+	/**
+	 * @return The size of the read requests, within the maximum negotiated with the server
+	 */
+	private int getReadSize() {
+		return smbSettings.getReadSize(session.getConnection());
+	}
+
+	/**
+	 * @return The size of the write requests, within the maximum negotiated with the server
+	 */
+	private int getWriteSize() {
+		return smbSettings.getWriteSize(session.getConnection());
+	}
+
+	static int getOutstandingWrites() {
+		return Math.max(Integer.getInteger(OUTSTANDING_WRITES_PROPERTY, DEFAULT_OUTSTANDING_WRITES), 1);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (useCount.decrementAndGet() == 0) {
+			CONNECTIONS_CACHE.remove(winRMEndpoint);
+
+			// The session stays in the pool until idle, with its tree connects which other shares of
+			// the same host and user may be using: they are disconnected when the session is closed
+			SmbSessionPool.getInstance().release(session);
 
 			((WinRMService) getWindowsRemoteExecutor()).close();
 		}
@@ -315,8 +1044,4 @@ public class SmbTempShare extends WindowsTempShare implements AutoCloseable {
 				null,
 				timeout);
 	}
-
-	static SMBClient createSmbClient(final SmbConfig smbConfig) {
-		return new SMBClient(smbConfig);
-	}
 }
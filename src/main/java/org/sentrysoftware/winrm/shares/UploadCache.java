@@ -0,0 +1,284 @@
+package org.sentrysoftware.winrm.shares;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * WinRM Java Client
+ * ჻჻჻჻჻჻
+ * Copyright 2023 - 2024 Sentry Software
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sentrysoftware.winrm.Utils;
+
+/**
+ * Cache of the uploads of local files to the temporary shares, by content:
+ * <ul>
+ * <li>the SHA-256 hash of each local file, computed again only when its size or last-modified time changes</li>
+ * <li>for each share, the files known to be present with the hash of their content, which are not checked again
+ * for a presence time</li>
+ * </ul>
+ * Both are bounded, and emptied when full.
+ */
+public class UploadCache {
+
+	/**
+	 * System property with the time during which a file uploaded (or found) on a share is assumed to be still there,
+	 * in milliseconds (1 hour by default).
+	 */
+	public static final String PRESENCE_TIME_PROPERTY = "org.sentrysoftware.winrm.uploadPresenceTime";
+
+	static final long DEFAULT_PRESENCE_TIME_MILLISECONDS = TimeUnit.HOURS.toMillis(1);
+	static final int MAX_HASHES = 1024;
+	static final int MAX_SHARES = 1024;
+	static final int MAX_FILES_PER_SHARE = 1024;
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final UploadCache INSTANCE = new UploadCache();
+
+	private final Map<LocalFileKey, String> hashes = new ConcurrentHashMap<>();
+	private final Map<String, Map<String, Presence>> presentFiles = new ConcurrentHashMap<>();
+
+	private final AtomicLong hashHits = new AtomicLong();
+	private final AtomicLong hashMisses = new AtomicLong();
+	private final AtomicLong presenceHits = new AtomicLong();
+	private final AtomicLong presenceMisses = new AtomicLong();
+
+	UploadCache() { }
+
+	/**
+	 * @return The cache shared by all the temporary shares
+	 */
+	public static UploadCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return The number of hashes found in the cache
+	 */
+	public long getHashHits() {
+		return hashHits.get();
+	}
+
+	/**
+	 * @return The number of hashes computed because the file was not in the cache or was modified
+	 */
+	public long getHashMisses() {
+		return hashMisses.get();
+	}
+
+	/**
+	 * @return The number of files known to be present on a share, which were neither checked nor uploaded
+	 */
+	public long getPresenceHits() {
+		return presenceHits.get();
+	}
+
+	/**
+	 * @return The number of files which had to be checked on a share
+	 */
+	public long getPresenceMisses() {
+		return presenceMisses.get();
+	}
+
+	/**
+	 * Forget the files present on a share, e.g. because its directory was cleaned.
+	 *
+	 * @param uncSharePath The UNC path of the share
+	 */
+	public void forget(final String uncSharePath) {
+		if (uncSharePath != null) {
+			presentFiles.remove(uncSharePath.toLowerCase(Locale.ROOT));
+		}
+	}
+
+	/**
+	 * Forget all the hashes and all the files present on the shares.
+	 */
+	public void clear() {
+		hashes.clear();
+		presentFiles.clear();
+	}
+
+	/**
+	 * Get the SHA-256 hash of the content of a local file, computed only if the file is new or modified.
+	 *
+	 * @param localFile The local file (mandatory)
+	 * @return The hash, in lower case hexadecimal
+	 * @throws IOException If the file cannot be read
+	 */
+	public String getHash(final Path localFile) throws IOException {
+		Utils.checkNonNull(localFile, "localFile");
+
+		final BasicFileAttributes attributes = Files.readAttributes(localFile, BasicFileAttributes.class);
+		final LocalFileKey key = new LocalFileKey(
+				localFile.toAbsolutePath().normalize().toString(),
+				attributes.size(),
+				attributes.lastModifiedTime().toMillis());
+
+		final String hash = hashes.get(key);
+		if (hash != null) {
+			hashHits.incrementAndGet();
+			return hash;
+		}
+
+		hashMisses.incrementAndGet();
+		final String computedHash = computeHash(localFile);
+		if (hashes.size() >= MAX_HASHES) {
+			hashes.clear();
+		}
+		hashes.put(key, computedHash);
+
+		return computedHash;
+	}
+
+	/**
+	 * @param uncSharePath The UNC path of the share
+	 * @param remoteFileName The path of the file, relative to the root of the share
+	 * @param hash The hash of the content expected in the file
+	 * @return Whether the file was uploaded or found on the share with this content within the presence time
+	 */
+	boolean isPresent(final String uncSharePath, final String remoteFileName, final String hash) {
+		final Map<String, Presence> files = presentFiles.get(uncSharePath.toLowerCase(Locale.ROOT));
+		final Presence presence = files != null ? files.get(remoteFileName.toLowerCase(Locale.ROOT)) : null;
+
+		if (presence != null
+				&& presence.hash.equals(hash)
+				&& Utils.getCurrentTimeMillis() - presence.time < getPresenceTime()) {
+			presenceHits.incrementAndGet();
+			return true;
+		}
+
+		presenceMisses.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Remember that the file has been uploaded or found on the share, with the content of the local file.
+	 *
+	 * @param uncSharePath The UNC path of the share
+	 * @param remoteFileName The path of the file, relative to the root of the share
+	 * @param hash The hash of the content of the file
+	 */
+	void setPresent(final String uncSharePath, final String remoteFileName, final String hash) {
+		if (presentFiles.size() >= MAX_SHARES) {
+			presentFiles.clear();
+		}
+		final Map<String, Presence> files = presentFiles.computeIfAbsent(
+				uncSharePath.toLowerCase(Locale.ROOT),
+				key -> new ConcurrentHashMap<>());
+		if (files.size() >= MAX_FILES_PER_SHARE) {
+			files.clear();
+		}
+		files.put(remoteFileName.toLowerCase(Locale.ROOT), new Presence(hash, Utils.getCurrentTimeMillis()));
+	}
+
+	static String computeHash(final Path localFile) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		final byte[] buffer = new byte[READ_BUFFER_SIZE];
+		try (final InputStream inputStream = Files.newInputStream(localFile)) {
+			int length;
+			while ((length = inputStream.read(buffer)) > 0) {
+				digest.update(buffer, 0, length);
+			}
+		}
+
+		final byte[] hash = digest.digest();
+		final char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0x0F];
+			hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0x0F];
+		}
+		return new String(hex);
+	}
+
+	static long getPresenceTime() {
+		return Long.getLong(PRESENCE_TIME_PROPERTY, DEFAULT_PRESENCE_TIME_MILLISECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"UploadCache [hashes=%d, shares=%d, hashHits=%d, hashMisses=%d, presenceHits=%d, presenceMisses=%d]",
+				hashes.size(),
+				presentFiles.size(),
+				getHashHits(),
+				getHashMisses(),
+				getPresenceHits(),
+				getPresenceMisses());
+	}
+
+	private static class Presence {
+
+		private final String hash;
+		private final long time;
+
+		Presence(final String hash, final long time) {
+			this.hash = hash;
+			this.time = time;
+		}
+	}
+
+	private static class LocalFileKey {
+
+		private final String path;
+		private final long size;
+		private final long lastModified;
+
+		LocalFileKey(final String path, final long size, final long lastModified) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof LocalFileKey)) {
+				return false;
+			}
+			final LocalFileKey other = (LocalFileKey) obj;
+			return size == other.size && lastModified == other.lastModified && path.equals(other.path);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(path, size, lastModified);
+		}
+	}
+}
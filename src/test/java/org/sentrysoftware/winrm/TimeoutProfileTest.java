@@ -0,0 +1,25 @@
+package org.sentrysoftware.winrm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class TimeoutProfileTest {
+
+	@Test
+	void testTimeoutProfile() {
+		assertThrows(IllegalArgumentException.class, () -> new TimeoutProfile(0, 1000, 1000, 1000));
+		assertThrows(IllegalArgumentException.class, () -> new TimeoutProfile(1000, -1, 1000, 1000));
+		assertThrows(IllegalArgumentException.class, () -> new TimeoutProfile(1000, 1000, 0, 1000));
+		assertThrows(IllegalArgumentException.class, () -> TimeoutProfile.of(0));
+
+		final TimeoutProfile timeoutProfile = new TimeoutProfile(2000, 5000, 120_000, 300_000);
+		assertEquals(2000, timeoutProfile.getConnectTimeout());
+		assertEquals(5000, timeoutProfile.getConnectionRequestTimeout());
+		assertEquals(120_000, timeoutProfile.getOperationTimeout());
+		assertEquals(300_000, timeoutProfile.getTimeout());
+
+		assertEquals(new TimeoutProfile(30_000, 30_000, 30_000, 30_000), TimeoutProfile.of(30_000));
+	}
+}
@@ -0,0 +1,56 @@
+package org.sentrysoftware.winrm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class WindowsRemoteProcessUtilsTest {
+
+	@Test
+	void testCopyLocalFiles() throws Exception {
+
+		final List<String> localFiles = Arrays.asList("a.exe", "b.vbs", "c.ps1");
+		final String command = "a.exe b.vbs C.PS1";
+
+		// all the copies must run at the same time for any of them to complete
+		final CountDownLatch started = new CountDownLatch(localFiles.size());
+		final LocalFilesCopy copy = WindowsRemoteProcessUtils.copyLocalFiles(
+				command,
+				localFiles,
+				localFile -> {
+					started.countDown();
+					try {
+						if (!started.await(10, TimeUnit.SECONDS)) {
+							throw new IOException("Copies are not concurrent");
+						}
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return "Windows\\Temp\\" + localFile.getFileName();
+				});
+
+		assertEquals(
+				"Windows\\Temp\\a.exe Windows\\Temp\\b.vbs Windows\\Temp\\c.ps1",
+				copy.getCommand());
+		assertEquals(localFiles, Arrays.asList(copy.getRemotePaths().keySet().toArray()));
+		assertEquals(localFiles, Arrays.asList(copy.getCopyTimes().keySet().toArray()));
+
+		assertEquals(command, WindowsRemoteProcessUtils.copyLocalFiles(command, null, localFile -> null).getCommand());
+
+		assertThrows(
+				IOException.class,
+				() -> WindowsRemoteProcessUtils.copyLocalFiles(
+						command,
+						localFiles,
+						localFile -> {
+							throw new IOException("Access denied");
+						}));
+	}
+}
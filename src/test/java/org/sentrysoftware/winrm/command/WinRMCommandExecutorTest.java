@@ -1,15 +1,19 @@
 package org.sentrysoftware.winrm.command;
 
 import static org.sentrysoftware.winrm.WinRMHttpProtocolEnum.HTTPS;
-import static org.sentrysoftware.winrm.WindowsRemoteProcessUtils.copyLocalFilesToShare;
 import static org.sentrysoftware.winrm.WindowsRemoteProcessUtils.getWindowsEncodingCharset;
 import static org.sentrysoftware.winrm.command.WinRMCommandExecutor.execute;
+import static org.sentrysoftware.winrm.command.WinRMCommandExecutor.isMissingFile;
 import static org.sentrysoftware.winrm.service.client.auth.AuthenticationEnum.NTLM;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
@@ -20,15 +24,25 @@ import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.MockedStatic;
 
+import org.sentrysoftware.winrm.LocalFilesCopy;
 import org.sentrysoftware.winrm.WindowsRemoteCommandResult;
 import org.sentrysoftware.winrm.WindowsRemoteExecutor;
 import org.sentrysoftware.winrm.WindowsRemoteProcessUtils;
@@ -199,6 +213,46 @@ class WinRMCommandExecutorTest {
 							null));
 		}
 
+		// case code page specified: no CodeSet query
+		try (final MockedStatic<WinRMService> mockedWinRMService = mockStatic(WinRMService.class)) {
+
+			final WinRMService winRMService = mock(WinRMService.class);
+
+			mockedWinRMService.when(() -> WinRMService.createInstance(
+					any(WinRMEndpoint.class),
+					anyLong(),
+					isNull(),
+					isNull()))
+			.thenReturn(winRMService);
+
+			doReturn(expected).when(winRMService).executeCommand(
+					eq(command),
+					isNull(),
+					eq(UTF_8),
+					anyLong(),
+					eq(WinRMService.UTF8_CODE_PAGE),
+					eq(true));
+
+			assertEquals(
+					expected,
+					execute(
+							command,
+							null,
+							hostname,
+							null,
+							username,
+							password,
+							null,
+							timeout,
+							null,
+							null,
+							null,
+							WinRMService.UTF8_CODE_PAGE,
+							true));
+
+			verify(winRMService, never()).executeWql(anyString(), anyLong());
+		}
+
 		// Case with localFileToCopyList
 		try (final MockedStatic<WindowsRemoteProcessUtils> mockedWindowsRemoteProcessUtils =
 				mockStatic(WindowsRemoteProcessUtils.class);
@@ -207,13 +261,6 @@ class WinRMCommandExecutorTest {
 			mockedWindowsRemoteProcessUtils.when(() -> getWindowsEncodingCharset(any(), anyLong()))
 			.thenReturn(UTF_8);
 
-			mockedWindowsRemoteProcessUtils.when(() -> copyLocalFilesToShare(
-					anyString(),
-					anyList(),
-					anyString(),
-					anyString()))
-			.thenReturn("launch remote/localFile");
-
 			final SmbTempShare smbTempShare = mock(SmbTempShare.class);
 			final WindowsRemoteExecutor windowsRemoteExecutor = mock(WindowsRemoteExecutor.class);
 
@@ -226,12 +273,17 @@ class WinRMCommandExecutorTest {
 
 			doNothing().when(smbTempShare).checkConnectedFirst();
 			doReturn(windowsRemoteExecutor).when(smbTempShare).getWindowsRemoteExecutor();
+			doReturn(new LocalFilesCopy(
+					"launch Windows\\Temp\\SEN_ShareFor_TEST$\\localFile",
+					singletonMap("localFile", "Windows\\Temp\\SEN_ShareFor_TEST$\\localFile"),
+					singletonMap("localFile", 10L)))
+			.when(smbTempShare).copyLocalFiles(eq(command), anyList());
 			doReturn("\\\\2001-db8--85b-3c51-f5ff-ffdb.ipv6-literal.net\\SEN_ShareFor_PC-TEST$")
 			.when(smbTempShare).getUncSharePath();
 			doReturn("Windows\\Temp\\SEN_ShareFor_TEST$").when(smbTempShare).getRemotePath();
 
 			doReturn(expected).when(windowsRemoteExecutor).executeCommand(
-					anyString(),
+					eq("CMD.EXE /C (launch Windows\\Temp\\SEN_ShareFor_TEST$\\localFile)"),
 					isNull(),
 					any(Charset.class),
 					anyLong());
@@ -250,6 +302,180 @@ class WinRMCommandExecutorTest {
 							localFileToCopyList,
 							null,
 							null));
+			verify(smbTempShare, never()).forgetUploads();
+
+			// the command exited with an error of its own: the uploaded files are still assumed to be present
+			final WindowsRemoteCommandResult noMatch = new WindowsRemoteCommandResult("", "", 1.0f, 1);
+			doReturn(noMatch).when(windowsRemoteExecutor).executeCommand(
+					eq("CMD.EXE /C (launch Windows\\Temp\\SEN_ShareFor_TEST$\\localFile)"),
+					isNull(),
+					any(Charset.class),
+					anyLong());
+
+			assertEquals(
+					noMatch,
+					execute(
+							command,
+							null,
+							hostname,
+							null,
+							username,
+							password,
+							null,
+							timeout,
+							localFileToCopyList,
+							null,
+							null));
+			verify(smbTempShare, never()).forgetUploads();
+
+			// the command was not found: the uploaded files are checked again next time
+			final WindowsRemoteCommandResult failed = new WindowsRemoteCommandResult("", "not found", 1.0f, 9009);
+			doReturn(failed).when(windowsRemoteExecutor).executeCommand(
+					eq("CMD.EXE /C (launch Windows\\Temp\\SEN_ShareFor_TEST$\\localFile)"),
+					isNull(),
+					any(Charset.class),
+					anyLong());
+
+			assertEquals(
+					failed,
+					execute(
+							command,
+							null,
+							hostname,
+							null,
+							username,
+							password,
+							null,
+							timeout,
+							localFileToCopyList,
+							null,
+							null));
+			verify(smbTempShare).forgetUploads();
+		}
+
+		// Case with the output redirected to the share
+		try (final MockedStatic<SmbTempShare> mockedSmbTempShare = mockStatic(SmbTempShare.class)) {
+
+			final SmbTempShare smbTempShare = mock(SmbTempShare.class);
+
+			mockedSmbTempShare.when(() -> SmbTempShare.createInstance(
+					any(WinRMEndpoint.class),
+					anyLong(),
+					isNull(),
+					isNull()))
+			.thenReturn(smbTempShare);
+
+			doNothing().when(smbTempShare).checkConnectedFirst();
+			doReturn(new LocalFilesCopy(command, emptyMap(), emptyMap()))
+			.when(smbTempShare).copyLocalFiles(eq(command), anyList());
+			doReturn(expected).when(smbTempShare).executeCommandWithOutputOnShare(
+					eq(command),
+					isNull(),
+					eq(UTF_8),
+					anyLong(),
+					eq(WinRMService.UTF8_CODE_PAGE));
+
+			assertEquals(
+					expected,
+					execute(
+							command,
+							null,
+							hostname,
+							null,
+							username,
+							password,
+							null,
+							timeout,
+							null,
+							null,
+							null,
+							WinRMService.UTF8_CODE_PAGE,
+							false,
+							true));
+		}
+	}
+
+	@Test
+	void testIsMissingFile() {
+		assertTrue(isMissingFile(new WindowsRemoteCommandResult("", "", 0.1f, 9009)));
+		assertTrue(isMissingFile(new WindowsRemoteCommandResult(
+				"",
+				"'tool.exe' is not recognized as an internal or external command",
+				0.1f,
+				1)));
+		assertTrue(isMissingFile(new WindowsRemoteCommandResult("", "The system cannot find the path specified.", 0.1f, 1)));
+		assertFalse(isMissingFile(new WindowsRemoteCommandResult("", "", 0.1f, 1)));
+		assertFalse(isMissingFile(new WindowsRemoteCommandResult("", "The system cannot find the path specified.", 0.1f, 0)));
+	}
+
+	@Test
+	void testExecuteWithoutSmb(@TempDir final Path tempDir) throws Exception {
+
+		final Path localFile = tempDir.resolve("tool.exe");
+		Files.write(localFile, "abc".getBytes(StandardCharsets.US_ASCII));
+		final String command = "launch " + localFile;
+		final WindowsRemoteCommandResult expected =
+				new WindowsRemoteCommandResult("stdout", "stderr", 1.0f, 0);
+
+		// The SMB port cannot be reached: the file is uploaded through WinRM, where it is already present
+		try (final MockedStatic<SmbTempShare> mockedSmbTempShare = mockStatic(SmbTempShare.class);
+				final MockedStatic<WinRMService> mockedWinRMService = mockStatic(WinRMService.class)) {
+
+			mockedSmbTempShare.when(() -> SmbTempShare.createInstance(
+					any(WinRMEndpoint.class),
+					anyLong(),
+					isNull(),
+					isNull()))
+			.thenThrow(new IOException(new ConnectException("Connection refused")));
+
+			final WinRMService winRMService = mock(WinRMService.class);
+
+			mockedWinRMService.when(() -> WinRMService.createInstance(
+					any(WinRMEndpoint.class),
+					anyLong(),
+					isNull(),
+					isNull()))
+			.thenReturn(winRMService);
+
+			doReturn(new WindowsRemoteCommandResult("present\r\nC:\\Windows\r\n", "", 0.1f, 0))
+			.when(winRMService).executeCommandWithInput(
+					anyString(),
+					any(InputStream.class),
+					isNull(),
+					anyLong(),
+					eq(true));
+			doReturn(expected).when(winRMService).executeCommand(
+					eq("CMD.EXE /C (launch C:\\Windows\\Temp\\SEN_Upload\\tool.exe)"),
+					isNull(),
+					eq(UTF_8),
+					anyLong(),
+					eq(WinRMService.UTF8_CODE_PAGE),
+					eq(false));
+
+			for (int i = 0; i < 2; i++) {
+				assertEquals(
+						expected,
+						execute(
+								command,
+								null,
+								"smb-blocked-host",
+								null,
+								"user",
+								"pass".toCharArray(),
+								null,
+								30 * 1000L,
+								singletonList(localFile.toString()),
+								null,
+								null,
+								WinRMService.UTF8_CODE_PAGE,
+								false,
+								true));
+			}
+
+			// The SMB port is not tried again
+			mockedSmbTempShare.verify(
+					() -> SmbTempShare.createInstance(any(WinRMEndpoint.class), anyLong(), isNull(), isNull()),
+					times(1));
 		}
 	}
 }
@@ -0,0 +1,118 @@
+package org.sentrysoftware.winrm.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.sentrysoftware.winrm.WindowsRemoteCommandResult;
+import org.sentrysoftware.winrm.shares.UploadCache;
+
+class WinRMFileUploaderTest {
+
+	private static final Pattern POSITION = Pattern.compile("\\$o\\.Position = (\\d+);");
+	private static final Pattern EXPECTED_HASH = Pattern.compile("if \\(\\$h -eq '([0-9a-f]+)'\\)");
+
+	@Test
+	void testCopy(@TempDir final Path tempDir) throws Exception {
+		final byte[] content = new byte[10_000];
+		new Random(42).nextBytes(content);
+		final Path localFile = tempDir.resolve("tool.exe");
+		Files.write(localFile, content);
+
+		final WinRMService winRMService = mock(WinRMService.class);
+		doReturn("host").when(winRMService).getHostname();
+
+		// The remote temporary file, written by the parts
+		final byte[] remote = new byte[content.length];
+		final AtomicInteger parts = new AtomicInteger();
+		final boolean[] corrupt = new boolean[1];
+
+		doAnswer(invocation -> {
+			final String script = decode(invocation.getArgument(0));
+			final InputStream input = invocation.getArgument(1);
+
+			if (script.contains("Test-Path")) {
+				return result("missing\r\nC:\\Windows\r\n");
+			}
+
+			final Matcher position = POSITION.matcher(script);
+			if (position.find()) {
+				parts.incrementAndGet();
+				final byte[] part = input.readAllBytes();
+				System.arraycopy(part, 0, remote, Integer.parseInt(position.group(1)), part.length);
+				if (corrupt[0]) {
+					remote[0]++;
+				}
+				return result("");
+			}
+
+			final Matcher expectedHash = EXPECTED_HASH.matcher(script);
+			if (expectedHash.find()) {
+				final Path uploaded = tempDir.resolve("uploaded");
+				Files.write(uploaded, remote);
+				final String uploadedHash = UploadCache.getInstance().getHash(uploaded);
+				return result(uploadedHash.equals(expectedHash.group(1)) ? "verified" : uploadedHash);
+			}
+
+			throw new IllegalStateException(script);
+		}).when(winRMService).executeCommandWithInput(anyString(), any(InputStream.class), isNull(), anyLong(), eq(true));
+
+		final WinRMFileUploader uploader = new WinRMFileUploader(winRMService, 1000L, 4, 1000L);
+
+		assertEquals("C:\\Windows\\Temp\\SEN_Upload\\tool.exe", uploader.copy(localFile));
+		assertEquals(4, parts.get());
+		assertArrayEquals(content, remote);
+
+		corrupt[0] = true;
+		assertThrows(IOException.class, () -> uploader.copy(localFile));
+	}
+
+	@Test
+	void testCopyPresent(@TempDir final Path tempDir) throws Exception {
+		final Path localFile = tempDir.resolve("tool's.exe");
+		Files.write(localFile, "abc".getBytes(StandardCharsets.US_ASCII));
+
+		final WinRMService winRMService = mock(WinRMService.class);
+		doAnswer(invocation -> {
+			final String script = decode(invocation.getArgument(0));
+			assertEquals(true, script.contains("'Temp\\SEN_Upload\\tool''s.exe'"));
+			assertEquals(true, script.contains("-eq 'ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad'"));
+			return result("present\r\nD:\\WINDOWS\r\n");
+		}).when(winRMService).executeCommandWithInput(anyString(), any(InputStream.class), isNull(), anyLong(), eq(true));
+
+		assertEquals(
+				"D:\\WINDOWS\\Temp\\SEN_Upload\\tool's.exe",
+				new WinRMFileUploader(winRMService, 1000L).copy(localFile));
+	}
+
+	private static String decode(final String command) {
+		final String encoded = command.substring(command.lastIndexOf(' ') + 1);
+		return new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_16LE);
+	}
+
+	private static WindowsRemoteCommandResult result(final String stdout) {
+		return new WindowsRemoteCommandResult(stdout, "", 0.1f, 0);
+	}
+}
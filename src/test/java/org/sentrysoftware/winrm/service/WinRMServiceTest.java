@@ -10,6 +10,7 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -19,6 +20,7 @@ import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -36,6 +38,7 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.mockito.MockedStatic;
+import org.sentrysoftware.winrm.TimeoutProfile;
 import org.sentrysoftware.winrm.WindowsRemoteCommandResult;
 import org.sentrysoftware.winrm.exceptions.WqlQuerySyntaxException;
 import org.sentrysoftware.winrm.service.client.WinRMInvocationHandler;
@@ -65,11 +68,19 @@ class WinRMServiceTest {
 		.when(() -> createInstance(any(WinRMEndpoint.class), anyLong(), isNull(), isNull()))
 		.thenCallRealMethod();
 
+		MOCKED_WIN_RM_SERVICE
+		.when(() -> createInstance(any(WinRMEndpoint.class), any(TimeoutProfile.class), any(Path.class), anyList()))
+		.thenCallRealMethod();
+
+		MOCKED_WIN_RM_SERVICE
+		.when(() -> createInstance(any(WinRMEndpoint.class), any(TimeoutProfile.class), isNull(), isNull()))
+		.thenCallRealMethod();
+
 		MOCKED_WIN_RM_SERVICE
 		.when(() -> WinRMService.createWinRMInvocationHandlerInstance(
 				any(WinRMEndpoint.class),
 				any(Bus.class),
-				anyLong(),
+				any(TimeoutProfile.class),
 				anyString(),
 				isNull(),
 				anyList()))
@@ -79,7 +90,7 @@ class WinRMServiceTest {
 		.when(() -> WinRMService.createWinRMInvocationHandlerInstance(
 				any(WinRMEndpoint.class),
 				any(Bus.class),
-				anyLong(),
+				any(TimeoutProfile.class),
 				isNull(),
 				isNull(),
 				anyList()))
@@ -177,13 +188,15 @@ class WinRMServiceTest {
 
 			doNothing().when(winRMService).checkConnectedFirst();
 
-			doReturn(new ResourceCreated()).when(winRMService).create(null);
+			doReturn(new ResourceCreated()).when(winRMService).create(null, WinRMService.DEFAULT_CODE_PAGE);
 
 			doReturn(0).when(winRMService).execute(
 					eq(command),
 					any(StringWriter.class),
 					any(StringWriter.class),
-					eq(UTF_8));
+					eq(UTF_8),
+					eq(false),
+					eq(WinRMService.DEFAULT_CODE_PAGE));
 
 			final WindowsRemoteCommandResult actual =
 					winRMService.executeCommand(command, null, null, timeout);
@@ -196,14 +209,16 @@ class WinRMServiceTest {
 
 			doNothing().when(winRMService).checkConnectedFirst();
 
-			doReturn(new SelectorSetType()).when(winRMService).getShellSelector();
-			verify(winRMService, times(0)).create(null);
+			doReturn(new SelectorSetType()).when(winRMService).getShellSelector(WinRMService.DEFAULT_CODE_PAGE);
+			verify(winRMService, times(0)).create(null, WinRMService.DEFAULT_CODE_PAGE);
 
 			doReturn(0).when(winRMService).execute(
 					eq(command),
 					any(StringWriter.class),
 					any(StringWriter.class),
-					eq(UTF_8));
+					eq(UTF_8),
+					eq(false),
+					eq(WinRMService.DEFAULT_CODE_PAGE));
 
 			final WindowsRemoteCommandResult actual =
 					winRMService.executeCommand(command, null, null, timeout);
@@ -211,6 +226,44 @@ class WinRMServiceTest {
 			assertEquals(EMPTY, actual.getStdout());
 			assertEquals(EMPTY, actual.getStderr());
 		}
+
+		// Commands using different code pages run in their own shells, none of them is replaced
+		try (final WinRMService winRMService = spy(createInstance(winRMEndpoint, timeout, null, null))) {
+
+			doNothing().when(winRMService).checkConnectedFirst();
+
+			doReturn(new SelectorSetType()).when(winRMService).getShellSelector(WinRMService.DEFAULT_CODE_PAGE);
+			doReturn(new SelectorSetType()).when(winRMService).getShellSelector(WinRMService.UTF8_CODE_PAGE);
+
+			doReturn(0).when(winRMService).execute(
+					eq(command),
+					any(StringWriter.class),
+					any(StringWriter.class),
+					eq(UTF_8),
+					eq(false),
+					anyInt());
+
+			for (final int codePage : new int[] {
+					WinRMService.DEFAULT_CODE_PAGE, WinRMService.UTF8_CODE_PAGE, WinRMService.DEFAULT_CODE_PAGE}) {
+				winRMService.executeCommand(command, null, UTF_8, timeout, codePage, false);
+			}
+
+			verify(winRMService, never()).create(any(), anyInt());
+			verify(winRMService, times(2)).execute(
+					eq(command),
+					any(StringWriter.class),
+					any(StringWriter.class),
+					eq(UTF_8),
+					eq(false),
+					eq(WinRMService.DEFAULT_CODE_PAGE));
+			verify(winRMService, times(1)).execute(
+					eq(command),
+					any(StringWriter.class),
+					any(StringWriter.class),
+					eq(UTF_8),
+					eq(false),
+					eq(WinRMService.UTF8_CODE_PAGE));
+		}
 	}
 
 	@Test
@@ -0,0 +1,104 @@
+package org.sentrysoftware.winrm.service.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import jakarta.xml.ws.WebServiceException;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.junit.jupiter.api.Test;
+
+import org.sentrysoftware.winrm.service.client.CircuitBreaker.State;
+
+class CircuitBreakerTest {
+
+	@Test
+	void testStates() {
+		final CircuitBreaker circuitBreaker = new CircuitBreaker("host");
+
+		for (int i = 1; i < CircuitBreaker.DEFAULT_FAILURE_THRESHOLD; i++) {
+			assertTrue(circuitBreaker.allowRequest());
+			circuitBreaker.recordFailure();
+		}
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+
+		circuitBreaker.recordFailure();
+		assertEquals(State.OPEN, circuitBreaker.getState());
+		assertFalse(circuitBreaker.allowRequest());
+		assertEquals(1, circuitBreaker.getRejectedCalls());
+
+		System.setProperty(CircuitBreaker.OPEN_TIME_PROPERTY, "0");
+		try {
+			// the open time has elapsed: probe, which fails
+			assertTrue(circuitBreaker.allowRequest());
+			assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+			circuitBreaker.recordFailure();
+			assertEquals(State.OPEN, circuitBreaker.getState());
+
+			// the next probe succeeds
+			assertTrue(circuitBreaker.allowRequest());
+			circuitBreaker.recordSuccess();
+		} finally {
+			System.clearProperty(CircuitBreaker.OPEN_TIME_PROPERTY);
+		}
+
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		assertEquals(0, circuitBreaker.getConsecutiveFailures());
+	}
+
+	@Test
+	void testHalfOpen() {
+		final CircuitBreaker circuitBreaker = new CircuitBreaker("host");
+		for (int i = 0; i < CircuitBreaker.DEFAULT_FAILURE_THRESHOLD; i++) {
+			circuitBreaker.recordFailure();
+		}
+
+		System.setProperty(CircuitBreaker.OPEN_TIME_PROPERTY, "0");
+		try {
+			assertTrue(circuitBreaker.allowRequest());
+		} finally {
+			System.clearProperty(CircuitBreaker.OPEN_TIME_PROPERTY);
+		}
+
+		// only one probe at a time
+		assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+		assertFalse(circuitBreaker.allowRequest());
+	}
+
+	@Test
+	void testGetInstance() {
+		CircuitBreaker.clear();
+
+		final CircuitBreaker circuitBreaker = CircuitBreaker.getInstance("Host");
+		assertSame(circuitBreaker, CircuitBreaker.getInstance("host"));
+		assertEquals(State.CLOSED, CircuitBreaker.getStates().get("host"));
+
+		CircuitBreaker.clear();
+		assertTrue(CircuitBreaker.getStates().isEmpty());
+	}
+
+	@Test
+	void testIsConnectionFailure() {
+		assertTrue(CircuitBreaker.isConnectionFailure(new ConnectException("Connection refused")));
+		assertTrue(CircuitBreaker.isConnectionFailure(new ConnectException("Timeout connecting to [host/10.0.0.1:5985]")));
+		assertTrue(CircuitBreaker.isConnectionFailure(new NoRouteToHostException()));
+		assertTrue(CircuitBreaker.isConnectionFailure(new UnknownHostException("host")));
+		assertTrue(CircuitBreaker.isConnectionFailure(new ConnectTimeoutException()));
+		assertTrue(CircuitBreaker.isConnectionFailure(new SocketTimeoutException("connect timed out")));
+		assertTrue(CircuitBreaker.isConnectionFailure(new WebServiceException(new IOException(new ConnectException()))));
+
+		// the host answered, or is only slow to
+		assertFalse(CircuitBreaker.isConnectionFailure(new SocketTimeoutException("Read Timeout")));
+		assertFalse(CircuitBreaker.isConnectionFailure(new SocketTimeoutException()));
+		assertFalse(CircuitBreaker.isConnectionFailure(new IOException("Connection reset")));
+		assertFalse(CircuitBreaker.isConnectionFailure(null));
+	}
+}
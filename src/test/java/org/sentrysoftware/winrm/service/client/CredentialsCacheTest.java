@@ -0,0 +1,190 @@
+package org.sentrysoftware.winrm.service.client;
+
+import static org.sentrysoftware.winrm.service.client.auth.AuthenticationEnum.NTLM;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mockStatic;
+
+import org.apache.http.auth.Credentials;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import org.sentrysoftware.winrm.Utils;
+
+import org.sentrysoftware.winrm.service.WinRMEndpoint;
+import org.sentrysoftware.winrm.service.client.WinRMInvocationHandler.CredentialsMapKey;
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
+
+class CredentialsCacheTest {
+
+	private static CredentialsMapKey createKey(final String username) {
+		return new CredentialsMapKey(
+				new WinRMEndpoint(null, "host", null, username, "pwd".toCharArray(), null),
+				null,
+				NTLM);
+	}
+
+	private static NTCredentialsWithEncryption createCredentials() {
+		return new NTCredentialsWithEncryption("user", "pwd", null, "domain");
+	}
+
+	@Test
+	void testGet() {
+		final CredentialsCache cache = new CredentialsCache();
+		final NTCredentialsWithEncryption credentials = createCredentials();
+
+		assertSame(credentials, cache.get(createKey("JohnDoe"), () -> credentials));
+		assertSame(credentials, cache.get(createKey("JohnDoe"), CredentialsCacheTest::createCredentials));
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+
+		// idle credentials are replaced and destroyed
+		System.setProperty(CredentialsCache.IDLE_TIME_PROPERTY, "-1");
+		try {
+			final Credentials renewed = cache.get(createKey("JohnDoe"), CredentialsCacheTest::createCredentials);
+			assertNotSame(credentials, renewed);
+			assertTrue(credentials.isDestroyed());
+			assertFalse(((NTCredentialsWithEncryption) renewed).isDestroyed());
+			assertEquals(1, cache.getEvictions());
+
+			cache.evictIdle();
+			assertEquals(0, cache.size());
+			assertTrue(((NTCredentialsWithEncryption) renewed).isDestroyed());
+		} finally {
+			System.clearProperty(CredentialsCache.IDLE_TIME_PROPERTY);
+		}
+	}
+
+	@Test
+	void testSweep() {
+		final CredentialsCache cache = new CredentialsCache();
+		assertFalse(cache.isSweepScheduled());
+
+		final NTCredentialsWithEncryption credentials = createCredentials();
+		cache.get(createKey("JohnDoe"), () -> credentials);
+		assertTrue(cache.isSweepScheduled());
+
+		// the idle credentials are evicted in the background until the cache is empty
+		cache.sweep();
+		assertEquals(1, cache.size());
+		assertTrue(cache.isSweepScheduled());
+
+		System.setProperty(CredentialsCache.IDLE_TIME_PROPERTY, "-1");
+		try {
+			cache.sweep();
+			assertEquals(0, cache.size());
+			assertTrue(credentials.isDestroyed());
+			assertFalse(cache.isSweepScheduled());
+		} finally {
+			System.clearProperty(CredentialsCache.IDLE_TIME_PROPERTY);
+		}
+	}
+
+	@Test
+	void testConcurrentCreation() {
+		final CredentialsCache cache = new CredentialsCache();
+		final NTCredentialsWithEncryption first = createCredentials();
+		final NTCredentialsWithEncryption second = createCredentials();
+
+		// the credentials are created outside of the map: the ones created in the meantime are kept,
+		// and the others are destroyed
+		final Credentials credentials = cache.get(createKey("JohnDoe"), () -> {
+			assertSame(second, cache.get(createKey("JohnDoe"), () -> second));
+			return first;
+		});
+		assertSame(second, credentials);
+		assertTrue(first.isDestroyed());
+		assertFalse(second.isDestroyed());
+		assertEquals(1, cache.size());
+		assertEquals(0, cache.getEvictions());
+	}
+
+	@Test
+	void testBound() {
+		final CredentialsCache cache = new CredentialsCache();
+		final NTCredentialsWithEncryption first = createCredentials();
+		cache.get(createKey("user0"), () -> first);
+
+		for (int i = 1; i <= CredentialsCache.MAX_ENTRIES; i++) {
+			cache.get(createKey("user" + i), CredentialsCacheTest::createCredentials);
+		}
+
+		// the least recently used credentials are dropped, but not destroyed as they may still be used
+		assertEquals(CredentialsCache.MAX_ENTRIES, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertFalse(first.isDestroyed());
+		assertNotSame(first, cache.get(createKey("user0"), CredentialsCacheTest::createCredentials));
+
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	void testUsedPastIdleTime() {
+		final CredentialsCache cache = new CredentialsCache();
+		final NTCredentialsWithEncryption credentials = createCredentials();
+		final long idleTime = CredentialsCache.DEFAULT_IDLE_TIME_MILLISECONDS;
+
+		try (final MockedStatic<Utils> mockedUtils = mockStatic(Utils.class)) {
+			mockedUtils.when(Utils::getCurrentTimeMillis).thenReturn(0L);
+			assertSame(credentials, cache.get(createKey("JohnDoe"), () -> credentials));
+
+			// the handler holding the credentials keeps sending requests
+			for (long time = idleTime / 2; time <= 3 * idleTime; time += idleTime / 2) {
+				mockedUtils.when(Utils::getCurrentTimeMillis).thenReturn(time);
+				credentials.releaseSecurityContext("target", credentials.acquireSecurityContext("target"));
+			}
+
+			mockedUtils.when(Utils::getCurrentTimeMillis).thenReturn(3 * idleTime + 1);
+			cache.evictIdle();
+			assertSame(credentials, cache.get(createKey("JohnDoe"), CredentialsCacheTest::createCredentials));
+			assertFalse(credentials.isDestroyed());
+
+			// its security contexts are still pooled
+			final NTCredentialsWithEncryption context = credentials.acquireSecurityContext("target");
+			credentials.releaseSecurityContext("target", context);
+			assertFalse(context.isDestroyed());
+			assertSame(context, credentials.acquireSecurityContext("target"));
+
+			// replaced while used (e.g. after a TGT retry): dropped only
+			final NTCredentialsWithEncryption renewed = createCredentials();
+			cache.put(createKey("JohnDoe"), renewed);
+			assertFalse(credentials.isDestroyed());
+
+			// no longer used: destroyed
+			mockedUtils.when(Utils::getCurrentTimeMillis).thenReturn(5 * idleTime);
+			cache.evictIdle();
+			assertEquals(0, cache.size());
+			assertTrue(renewed.isDestroyed());
+		}
+	}
+
+	@Test
+	void testDestroy() {
+		final NTCredentialsWithEncryption credentials = createCredentials();
+		final NTCredentialsWithEncryption idle = credentials.acquireSecurityContext("target");
+		final NTCredentialsWithEncryption inUse = credentials.acquireSecurityContext("target");
+		idle.setClientSealingKey(new byte[] {1, 2, 3});
+		inUse.setClientSealingKey(new byte[] {4, 5, 6});
+		final byte[] idleKey = idle.getClientSealingKey();
+		final byte[] inUseKey = inUse.getClientSealingKey();
+		credentials.releaseSecurityContext("target", idle);
+
+		credentials.destroy();
+
+		assertTrue(idle.isDestroyed());
+		assertArrayEquals(new byte[3], idleKey);
+		assertFalse(inUse.isDestroyed());
+		assertArrayEquals(new byte[] {4, 5, 6}, inUseKey);
+
+		// the context in use is destroyed once released, and new ones can still be acquired
+		credentials.releaseSecurityContext("target", inUse);
+		assertTrue(inUse.isDestroyed());
+		assertArrayEquals(new byte[3], inUseKey);
+		assertFalse(credentials.acquireSecurityContext("target").isDestroyed());
+	}
+}
@@ -0,0 +1,101 @@
+package org.sentrysoftware.winrm.service.client;
+
+import static org.sentrysoftware.winrm.service.client.RetryPolicy.NO_RETRY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+
+import javax.xml.namespace.QName;
+import jakarta.xml.soap.SOAPConstants;
+import jakarta.xml.soap.SOAPFactory;
+import jakarta.xml.soap.SOAPFault;
+import jakarta.xml.ws.WebServiceException;
+import jakarta.xml.ws.soap.SOAPFaultException;
+
+import org.junit.jupiter.api.Test;
+
+class ExponentialBackoffRetryPolicyTest {
+
+	private static final long TIMEOUT = 60_000L;
+
+	@Test
+	void testGetRetryDelay() {
+		final ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(4, 1000, 3000, 0.2);
+		final WebServiceException reset = new WebServiceException(new SocketException("Connection reset"));
+
+		// equal jitter: between half and all of the exponential delay, up to the maximum
+		for (int i = 0; i < 20; i++) {
+			final long first = policy.computeDelay(1);
+			assertTrue(first >= 500 && first <= 1000, "first: " + first);
+			final long third = policy.computeDelay(3);
+			assertTrue(third >= 1500 && third <= 3000, "third: " + third);
+		}
+
+		assertTrue(policy.getRetryDelay("host", 1, reset, TIMEOUT) >= 500);
+		assertTrue(policy.getRetryDelay("host", 3, reset, TIMEOUT) >= 1500);
+		assertEquals(NO_RETRY, policy.getRetryDelay("host", 4, reset, TIMEOUT));
+
+		// never overshoot the timeout
+		assertEquals(NO_RETRY, policy.getRetryDelay("host", 1, reset, 400));
+	}
+
+	@Test
+	void testGetRetryDelayMinAttemptTime() {
+		final WebServiceException reset = new WebServiceException(new SocketException("Connection reset"));
+
+		// the pause fits, but leaves less than the shortest useful attempt
+		final ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(4, 1000, 1000, 1);
+		assertEquals(ExponentialBackoffRetryPolicy.DEFAULT_MIN_ATTEMPT_TIME_MILLISECONDS, policy.getMinAttemptTime());
+		for (int i = 0; i < 20; i++) {
+			assertEquals(NO_RETRY, policy.getRetryDelay("host", 1, reset, 1400));
+		}
+		assertTrue(policy.getRetryDelay("host", 1, reset, 2000) >= 500);
+
+		// without minimum, only the pause must fit
+		final ExponentialBackoffRetryPolicy noMinimum = new ExponentialBackoffRetryPolicy(4, 1000, 1000, 1, 0);
+		assertTrue(noMinimum.getRetryDelay("host", 1, reset, 1000) >= 500);
+	}
+
+	@Test
+	void testIsRetryable() throws Exception {
+		final ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy();
+
+		assertTrue(policy.isRetryable(new WebServiceException(new ConnectException("Connection refused"))));
+		assertTrue(policy.isRetryable(new WebServiceException(new IOException())));
+		assertFalse(policy.isRetryable(new WebServiceException(new UnknownHostException("host"))));
+
+		assertFalse(policy.isRetryable(new SOAPFaultException(SOAPFactory.newInstance().createFault())));
+
+		final SOAPFault quotaFault =
+				SOAPFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL).createFault();
+		quotaFault.setFaultCode(SOAPConstants.SOAP_RECEIVER_FAULT);
+		quotaFault.appendFaultSubcode(
+				new QName(WinRMInvocationHandler.WSMAN_SCHEMA_NAMESPACE, "QuotaLimit", "w"));
+		assertTrue(policy.isRetryable(new SOAPFaultException(quotaFault)));
+	}
+
+	@Test
+	void testBudget() {
+		final ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(2, 10, 10, 0.5);
+		final WebServiceException refused = new WebServiceException(new ConnectException("Connection refused"));
+
+		for (int i = 0; i < ExponentialBackoffRetryPolicy.MAX_BUDGET; i++) {
+			assertTrue(policy.getRetryDelay("host", 1, refused, TIMEOUT) > 0);
+		}
+		assertEquals(NO_RETRY, policy.getRetryDelay("host", 1, refused, TIMEOUT));
+
+		// the budget is per host
+		assertTrue(policy.getRetryDelay("other", 1, refused, TIMEOUT) > 0);
+
+		// each call earns half a retry
+		policy.onCall("host");
+		assertEquals(NO_RETRY, policy.getRetryDelay("host", 1, refused, TIMEOUT));
+		policy.onCall("host");
+		assertTrue(policy.getRetryDelay("host", 1, refused, TIMEOUT) > 0);
+	}
+}
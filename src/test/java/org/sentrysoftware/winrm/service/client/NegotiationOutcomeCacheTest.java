@@ -0,0 +1,63 @@
+package org.sentrysoftware.winrm.service.client;
+
+import static org.sentrysoftware.winrm.WinRMHttpProtocolEnum.HTTPS;
+import static org.sentrysoftware.winrm.service.client.auth.AuthenticationEnum.KERBEROS;
+import static org.sentrysoftware.winrm.service.client.auth.AuthenticationEnum.NTLM;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import org.sentrysoftware.winrm.service.WinRMEndpoint;
+
+class NegotiationOutcomeCacheTest {
+
+	private static final WinRMEndpoint WIN_RM_ENDPOINT =
+			new WinRMEndpoint(null, "host", null, "JohnDoe", "pwd".toCharArray(), null);
+
+	@Test
+	void testOrder() {
+		final NegotiationOutcomeCache cache = new NegotiationOutcomeCache();
+
+		assertEquals(asList(KERBEROS, NTLM), cache.order(WIN_RM_ENDPOINT, asList(KERBEROS, NTLM)));
+		assertEquals(1, cache.getMisses());
+
+		cache.recordSuccess(WIN_RM_ENDPOINT, NTLM, true);
+		assertEquals(1, cache.getFallbacks());
+
+		assertEquals(asList(NTLM, KERBEROS), cache.order(WIN_RM_ENDPOINT, asList(KERBEROS, NTLM)));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getAvoidedFallbacks());
+
+		// the outcome only applies to the same protocol, host, port and user
+		final WinRMEndpoint https = new WinRMEndpoint(HTTPS, "host", null, "JohnDoe", "pwd".toCharArray(), null);
+		assertEquals(asList(KERBEROS, NTLM), cache.order(https, asList(KERBEROS, NTLM)));
+		final WinRMEndpoint other = new WinRMEndpoint(null, "host", null, "JaneDoe", "pwd".toCharArray(), null);
+		assertEquals(asList(KERBEROS, NTLM), cache.order(other, asList(KERBEROS, NTLM)));
+
+		// the remembered authentication is not allowed for this connection
+		assertEquals(singletonList(KERBEROS), cache.order(WIN_RM_ENDPOINT, singletonList(KERBEROS)));
+
+		// a failure of the remembered authentication forgets it
+		cache.recordFailure(WIN_RM_ENDPOINT, KERBEROS);
+		assertEquals(asList(NTLM, KERBEROS), cache.order(WIN_RM_ENDPOINT, asList(KERBEROS, NTLM)));
+		cache.recordFailure(WIN_RM_ENDPOINT, NTLM);
+		assertEquals(asList(KERBEROS, NTLM), cache.order(WIN_RM_ENDPOINT, asList(KERBEROS, NTLM)));
+	}
+
+	@Test
+	void testExpiration() {
+		final NegotiationOutcomeCache cache = new NegotiationOutcomeCache();
+
+		System.setProperty(NegotiationOutcomeCache.TIME_TO_LIVE_PROPERTY, "-1");
+		try {
+			cache.recordSuccess(WIN_RM_ENDPOINT, NTLM, true);
+		} finally {
+			System.clearProperty(NegotiationOutcomeCache.TIME_TO_LIVE_PROPERTY);
+		}
+
+		assertEquals(asList(KERBEROS, NTLM), cache.order(WIN_RM_ENDPOINT, asList(KERBEROS, NTLM)));
+		assertEquals(0, cache.getHits());
+	}
+}
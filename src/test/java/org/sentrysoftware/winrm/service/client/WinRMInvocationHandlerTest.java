@@ -35,6 +35,8 @@ import static org.mockito.Mockito.verify;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
 import java.nio.file.Path;
 import java.util.LinkedList;
 import java.util.List;
@@ -56,15 +58,18 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.MockedStatic;
+import org.sentrysoftware.winrm.exceptions.CircuitBreakerOpenException;
 import org.sentrysoftware.winrm.exceptions.KerberosCredentialsException;
 import org.sentrysoftware.winrm.service.WinRMEndpoint;
 import org.sentrysoftware.winrm.service.client.WinRMInvocationHandler.AuthCredentials;
 import org.sentrysoftware.winrm.service.client.WinRMInvocationHandler.RetryAuthenticationException;
 import org.sentrysoftware.winrm.service.client.WinRMInvocationHandler.RetryTgtExpirationException;
 import org.sentrysoftware.winrm.service.client.auth.AuthenticationEnum;
+import org.sentrysoftware.winrm.service.client.auth.kerberos.KerberosCredentialsWithEncryption;
 import org.sentrysoftware.winrm.service.client.auth.kerberos.KerberosUtils;
 import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
 
+import org.sentrysoftware.winrm.TimeoutProfile;
 import org.sentrysoftware.winrm.Utils;
 import org.sentrysoftware.winrm.service.WinRMWebService;
 
@@ -80,7 +85,8 @@ class WinRMInvocationHandlerTest {
 			new WinRMEndpoint(null, "host3", null, "JohnDoe3", "pwd".toCharArray(), null);
 
 	private static final Bus BUS = mock(Bus.class);
-	private static final long TIMEOUT = 120L;
+	private static final long TIMEOUT = 120_000L;
+	private static final TimeoutProfile TIMEOUT_PROFILE = TimeoutProfile.of(TIMEOUT);
 	private static final WinRMWebService WIN_RM_WS = mock(WinRMWebService.class);
 	private static final Client WS_CLIENT = mock(Client.class);
 	private static final KerberosCredentials KERBEROS_CREDENTIALS = mock(KerberosCredentials.class);
@@ -128,7 +134,7 @@ class WinRMInvocationHandlerTest {
 		.when(() -> createCredentials(any(WinRMEndpoint.class), eq(NTLM), isNull())).thenCallRealMethod();
 
 		MOCKED_WIN_RM_INVOCATION_HANDLER
-		.when(() -> createCredentials(WIN_RM_ENDPOINT, KERBEROS, null)).thenCallRealMethod();
+		.when(() -> createCredentials(any(WinRMEndpoint.class), eq(KERBEROS), isNull())).thenCallRealMethod();
 
 		MOCKED_WIN_RM_INVOCATION_HANDLER
 		.when(() -> createCredentials(WIN_RM_ENDPOINT_2, KERBEROS, null))
@@ -169,7 +175,7 @@ class WinRMInvocationHandlerTest {
 		MOCKED_WIN_RM_INVOCATION_HANDLER
 		.when(() -> getWebServiceClient(
 				eq(WIN_RM_ENDPOINT),
-				eq(TIMEOUT),
+				eq(TIMEOUT_PROFILE),
 				isNull(),
 				any(WinRMWebService.class),
 				any(Credentials.class)))
@@ -197,6 +203,8 @@ class WinRMInvocationHandlerTest {
 	@BeforeEach
 	void initMock() {
 		doReturn("Receive").when(METHOD).getName();
+		NegotiationOutcomeCache.getInstance().clear();
+		CircuitBreaker.clear();
 	}
 
 	@AfterEach
@@ -307,6 +315,9 @@ class WinRMInvocationHandlerTest {
 
 		// check retry
 		{
+			// forget NTLM, which succeeded above after the failure of KERBEROS
+			NegotiationOutcomeCache.getInstance().clear();
+
 			final List<AuthenticationEnum> authentications = asList(KERBEROS, NTLM);
 
 			final WinRMInvocationHandler winRMInvocationHandler = spy(
@@ -336,10 +347,7 @@ class WinRMInvocationHandlerTest {
 
 			doReturn(false).when(winRMInvocationHandler).continueToRetry();
 
-			final RuntimeException exception = assertThrows(
-					RuntimeException.class,
-					() -> winRMInvocationHandler.invoke(PROXY, METHOD, ARGS));
-			assertEquals("KERBEROS with encryption over HTTP is not implemented.", exception.getMessage());
+			assertThrows(SOAPFaultException.class, () -> winRMInvocationHandler.invoke(PROXY, METHOD, ARGS));
 			verify(winRMInvocationHandler, times(1)).invoke(PROXY, METHOD, ARGS);
 		}
 
@@ -427,7 +435,7 @@ class WinRMInvocationHandlerTest {
 	}
 
 	@Test
-	void testInvokeMethodSOAPFaultExceptionKerberosRetry() throws Exception {
+	void testInvokeMethodSOAPFaultExceptionKerberos() throws Exception {
 		final List<AuthenticationEnum> authentications = singletonList(KERBEROS);
 
 		final WinRMInvocationHandler winRMInvocationHandler =
@@ -437,9 +445,7 @@ class WinRMInvocationHandlerTest {
 				SOAPFactory.newInstance().createFault())))
 		.when(METHOD).invoke(WIN_RM_WS, ARGS);
 
-		assertThrows(
-				RetryAuthenticationException.class,
-				() -> winRMInvocationHandler.invokeMethod(METHOD, ARGS));
+		assertThrows(SOAPFaultException.class, () -> winRMInvocationHandler.invokeMethod(METHOD, ARGS));
 
 		verify(METHOD, times(1)).invoke(WIN_RM_WS, ARGS);
 	}
@@ -564,6 +570,64 @@ class WinRMInvocationHandlerTest {
 		verify(METHOD, times(3)).invoke(WIN_RM_WS, ARGS);
 	}
 
+	@Test
+	void testInvokeMethodCircuitBreakerOpen() throws Exception {
+
+		final WinRMInvocationHandler winRMInvocationHandler =
+				new WinRMInvocationHandler(WIN_RM_ENDPOINT, BUS, TIMEOUT, null, null, AUTHENTICATIONS);
+
+		doThrow(new InvocationTargetException(new WebServiceException(new ConnectException("Connection refused"))))
+		.when(METHOD).invoke(WIN_RM_WS, ARGS);
+
+		System.setProperty(CircuitBreaker.FAILURE_THRESHOLD_PROPERTY, "2");
+		try {
+			// the breaker opens after the second attempt, the third one fails immediately
+			final CircuitBreakerOpenException exception = assertThrows(
+					CircuitBreakerOpenException.class, () ->
+					winRMInvocationHandler.invokeMethod(METHOD, ARGS));
+
+			assertEquals(
+					"Calls to host are suspended after 2 consecutive connection failures: Receive",
+					exception.getMessage());
+			assertEquals(CircuitBreaker.State.OPEN, CircuitBreaker.getStates().get("host"));
+
+			// known-dead host: no call at all
+			assertThrows(CircuitBreakerOpenException.class, () -> winRMInvocationHandler.invokeMethod(METHOD, ARGS));
+		} finally {
+			System.clearProperty(CircuitBreaker.FAILURE_THRESHOLD_PROPERTY);
+		}
+
+		verify(METHOD, times(2)).invoke(WIN_RM_WS, ARGS);
+		assertEquals(2, CircuitBreaker.getInstance("host").getRejectedCalls());
+	}
+
+	@Test
+	void testInvokeMethodReadTimeoutCircuitBreakerClosed() throws Exception {
+
+		final WinRMInvocationHandler winRMInvocationHandler =
+				new WinRMInvocationHandler(WIN_RM_ENDPOINT, BUS, TIMEOUT, null, null, AUTHENTICATIONS);
+
+		doThrow(new InvocationTargetException(new WebServiceException(new SocketTimeoutException("Read Timeout"))))
+		.when(METHOD).invoke(WIN_RM_WS, ARGS);
+
+		System.setProperty(CircuitBreaker.FAILURE_THRESHOLD_PROPERTY, "2");
+		try {
+			// the host is reachable, only slow: the calls are retried, never suspended
+			for (int i = 0; i < 3; i++) {
+				final RuntimeException exception = assertThrows(
+						RuntimeException.class, () ->
+						winRMInvocationHandler.invokeMethod(METHOD, ARGS));
+				assertEquals("failed task \"Receive\" after 3 attempts", exception.getMessage());
+			}
+		} finally {
+			System.clearProperty(CircuitBreaker.FAILURE_THRESHOLD_PROPERTY);
+		}
+
+		verify(METHOD, times(9)).invoke(WIN_RM_WS, ARGS);
+		assertEquals(CircuitBreaker.State.CLOSED, CircuitBreaker.getInstance("host").getState());
+		assertEquals(0, CircuitBreaker.getInstance("host").getConsecutiveFailures());
+	}
+
 	@Test
 	void testInvokeMethodOK() throws Exception {
 
@@ -634,7 +698,13 @@ class WinRMInvocationHandlerTest {
 			mockedKerberosUtils.when(() -> createCredentials(anyString(), any(char[].class), isNull()))
 			.thenReturn(KERBEROS_CREDENTIALS);
 
-			assertEquals(KERBEROS_CREDENTIALS, createCredentials(WIN_RM_ENDPOINT, KERBEROS, null));
+			// HTTP: the messages are encrypted with the GSS context
+			assertTrue(createCredentials(WIN_RM_ENDPOINT, KERBEROS, null) instanceof KerberosCredentialsWithEncryption);
+
+			final WinRMEndpoint winRMEndpoint =
+					new WinRMEndpoint(HTTPS, "host", null, "JohnDoe", "pwd".toCharArray(), null);
+
+			assertEquals(KERBEROS_CREDENTIALS, createCredentials(winRMEndpoint, KERBEROS, null));
 		}
 	}
 
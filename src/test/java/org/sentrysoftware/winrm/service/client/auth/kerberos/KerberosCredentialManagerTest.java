@@ -0,0 +1,146 @@
+package org.sentrysoftware.winrm.service.client.auth.kerberos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.times;
+
+import java.security.PrivilegedAction;
+import java.util.Arrays;
+
+import javax.security.auth.Subject;
+import javax.security.auth.login.Configuration;
+
+import org.ietf.jgss.GSSCredential;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.MockedStatic;
+
+class KerberosCredentialManagerTest {
+
+	private static final String USERNAME = "USER@REALM";
+	private static final char[] PASSWORD = "pwd".toCharArray();
+
+	@Test
+	void testGetCredentials() throws Exception {
+		final KerberosCredentialManager manager = new KerberosCredentialManager();
+		final Configuration configuration = mock(Configuration.class);
+		final GSSCredential tgt = mock(GSSCredential.class);
+		final GSSCredential renewedTgt = mock(GSSCredential.class);
+		doReturn(3600).when(tgt).getRemainingLifetime();
+		doReturn(3600).when(renewedTgt).getRemainingLifetime();
+
+		try (final MockedStatic<KerberosUtils> mockedKerberosUtils = mockStatic(KerberosUtils.class);
+				final MockedStatic<Subject> mockedSubject = mockStatic(Subject.class)) {
+
+			mockedKerberosUtils.when(() -> KerberosUtils.authenticate(anyString(), any(char[].class), any()))
+			.thenReturn(new Subject());
+			mockedSubject.when(() -> Subject.doAs(any(Subject.class), ArgumentMatchers.<PrivilegedAction<GSSCredential>>any()))
+			.thenReturn(tgt, renewedTgt);
+
+			// one login per principal, shared by all the endpoints
+			final ManagedKerberosCredentials credentials = manager.getCredentials(USERNAME, PASSWORD, null, configuration);
+			assertSame(tgt, credentials.getGSSCredential());
+			assertSame(credentials, manager.getCredentials(USERNAME, PASSWORD, null, configuration));
+			assertEquals(1, manager.getLogins());
+			mockedKerberosUtils.verify(() -> KerberosUtils.authenticate(anyString(), any(char[].class), any()), times(1));
+
+			// another password is another login
+			assertNotSame(credentials, manager.getCredentials(USERNAME, "other".toCharArray(), null, configuration));
+			assertEquals(2, manager.getLogins());
+
+			// the expired TGT is replaced, the credentials given to the connections follow it
+			doReturn(0).when(tgt).getRemainingLifetime();
+			assertSame(credentials, manager.getCredentials(USERNAME, PASSWORD, null, configuration));
+			assertSame(renewedTgt, credentials.getGSSCredential());
+			assertEquals(3, manager.getLogins());
+		} finally {
+			manager.clear();
+		}
+	}
+
+	@Test
+	void testInvalidate() throws Exception {
+		final KerberosCredentialManager manager = new KerberosCredentialManager();
+		final Configuration configuration = mock(Configuration.class);
+		final GSSCredential tgt = mock(GSSCredential.class);
+		final GSSCredential newTgt = mock(GSSCredential.class);
+		doReturn(3600).when(tgt).getRemainingLifetime();
+		doReturn(3600).when(newTgt).getRemainingLifetime();
+
+		try (final MockedStatic<KerberosUtils> mockedKerberosUtils = mockStatic(KerberosUtils.class);
+				final MockedStatic<Subject> mockedSubject = mockStatic(Subject.class)) {
+
+			mockedKerberosUtils.when(() -> KerberosUtils.authenticate(anyString(), any(char[].class), any()))
+			.thenReturn(new Subject());
+			mockedSubject.when(() -> Subject.doAs(any(Subject.class), ArgumentMatchers.<PrivilegedAction<GSSCredential>>any()))
+			.thenReturn(tgt, newTgt);
+
+			// the caller may clear its password once the credentials are created
+			final char[] password = PASSWORD.clone();
+			final ManagedKerberosCredentials credentials = manager.getCredentials(USERNAME, password, null, configuration);
+			Arrays.fill(password, '\0');
+			assertSame(credentials, manager.getCredentials(USERNAME, PASSWORD, null, configuration));
+			assertEquals(1, manager.getLogins());
+
+			// the TGT rejected by a server is not reused, even though it has not expired,
+			// but the connections keep it until the new login succeeds
+			manager.invalidate(USERNAME, PASSWORD, null);
+			assertSame(tgt, credentials.getGSSCredential());
+			assertSame(credentials, manager.getCredentials(USERNAME, PASSWORD, null, configuration));
+			assertSame(newTgt, credentials.getGSSCredential());
+			assertEquals(2, manager.getLogins());
+			mockedKerberosUtils.verify(() -> KerberosUtils.authenticate(anyString(), any(char[].class), any()), times(2));
+
+			// a principal without login is ignored
+			manager.invalidate("OTHER@REALM", PASSWORD, null);
+		} finally {
+			manager.clear();
+		}
+	}
+
+	@Test
+	void testDestroy() throws Exception {
+		final KerberosCredentialManager manager = new KerberosCredentialManager();
+		final Configuration configuration = mock(Configuration.class);
+		final GSSCredential tgt = mock(GSSCredential.class);
+		doReturn(3600).when(tgt).getRemainingLifetime();
+
+		try (final MockedStatic<KerberosUtils> mockedKerberosUtils = mockStatic(KerberosUtils.class);
+				final MockedStatic<Subject> mockedSubject = mockStatic(Subject.class)) {
+
+			mockedKerberosUtils.when(() -> KerberosUtils.authenticate(anyString(), any(char[].class), any()))
+			.thenReturn(new Subject());
+			mockedSubject.when(() -> Subject.doAs(any(Subject.class), ArgumentMatchers.<PrivilegedAction<GSSCredential>>any()))
+			.thenReturn(tgt);
+
+			// the credentials destroyed while the principal was used within the idle time are kept
+			final ManagedKerberosCredentials credentials = manager.getCredentials(USERNAME, PASSWORD, null, configuration);
+			credentials.destroy();
+			assertFalse(credentials.isDestroyed());
+			assertSame(credentials, manager.getCredentials(USERNAME, PASSWORD, null, configuration));
+			assertEquals(0, manager.getRetirements());
+
+			// the idle principal is retired, and replaced by a new login
+			System.setProperty(KerberosCredentialManager.IDLE_TIME_PROPERTY, "0");
+			credentials.destroy();
+			assertTrue(credentials.isDestroyed());
+			assertEquals(0, manager.size());
+			assertEquals(1, manager.getRetirements());
+
+			assertNotSame(credentials, manager.getCredentials(USERNAME, PASSWORD, null, configuration));
+			assertEquals(1, manager.size());
+			assertEquals(2, manager.getLogins());
+		} finally {
+			System.clearProperty(KerberosCredentialManager.IDLE_TIME_PROPERTY);
+			manager.clear();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package org.sentrysoftware.winrm.service.client.auth.ntlm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+
+import org.junit.jupiter.api.Test;
+
+import org.sentrysoftware.winrm.service.client.encryption.EncryptionUtils;
+
+class NTCredentialsWithEncryptionTest {
+
+	private static final String HOST1 = "http://host1:5985/wsman";
+	private static final String HOST2 = "http://host2:5985/wsman";
+
+	@Test
+	void testSecurityContexts() {
+		final NTCredentialsWithEncryption credentials =
+				new NTCredentialsWithEncryption("user", "pwd", null, "domain");
+
+		final NTCredentialsWithEncryption context1 = credentials.acquireSecurityContext(HOST1);
+		final NTCredentialsWithEncryption context2 = credentials.acquireSecurityContext(HOST1);
+
+		// concurrent requests get their own context, with its own principal
+		assertNotSame(context1, context2);
+		assertNotEquals(context1.getUserPrincipal(), context2.getUserPrincipal());
+		assertEquals(context1.getUserPrincipal(), context1.getUserPrincipal());
+		assertEquals("user", context1.getUserName());
+		assertEquals("pwd", context1.getPassword());
+		assertEquals("DOMAIN", context1.getDomain());
+
+		// the most recently released context is reused first, only for the same target
+		credentials.releaseSecurityContext(HOST1, context1);
+		credentials.releaseSecurityContext(HOST1, context2);
+
+		assertNotSame(context2, credentials.acquireSecurityContext(HOST2));
+		assertSame(context2, credentials.acquireSecurityContext(HOST1));
+		assertSame(context1, credentials.acquireSecurityContext(HOST1));
+		assertNotSame(context1, credentials.acquireSecurityContext(HOST1));
+	}
+
+	@Test
+	void testMaxIdleSecurityContexts() {
+		final NTCredentialsWithEncryption credentials =
+				new NTCredentialsWithEncryption("user", "pwd", null, "domain");
+
+		final NTCredentialsWithEncryption first = credentials.acquireSecurityContext(HOST1);
+		credentials.releaseSecurityContext(HOST1, first);
+		for (int i = 0; i < NTCredentialsWithEncryption.MAX_IDLE_SECURITY_CONTEXTS; i++) {
+			credentials.releaseSecurityContext(
+					HOST1,
+					new NTCredentialsWithEncryption("user", "pwd", null, "domain"));
+		}
+
+		// the pool is full: the first context is still idle, the last one was dropped
+		for (int i = 0; i < NTCredentialsWithEncryption.MAX_IDLE_SECURITY_CONTEXTS - 1; i++) {
+			credentials.acquireSecurityContext(HOST1);
+		}
+		assertSame(first, credentials.acquireSecurityContext(HOST1));
+	}
+
+	@Test
+	void testSigningMacs() throws Exception {
+		final Random random = new Random(42);
+		final byte[] clientSigningKey = new byte[16];
+		final byte[] serverSigningKey = new byte[16];
+		random.nextBytes(clientSigningKey);
+		random.nextBytes(serverSigningKey);
+
+		final NTCredentialsWithEncryption credentials =
+				new NTCredentialsWithEncryption("user", "pwd", null, "domain");
+		credentials.setClientSigningKey(clientSigningKey);
+		credentials.setServerSigningKey(serverSigningKey);
+
+		// each caller gets its own context
+		assertNotSame(credentials.createClientSigningMac(), credentials.createClientSigningMac());
+
+		// concurrent signatures match the ones of a freshly initialized Mac
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int thread = 0; thread < 8; thread++) {
+				final long seed = thread;
+				futures.add(executor.submit(() -> {
+					final Random threadRandom = new Random(seed);
+					for (int i = 0; i < 200; i++) {
+						final byte[] body = new byte[threadRandom.nextInt(2000)];
+						threadRandom.nextBytes(body);
+
+						final Mac clientMac = credentials.createClientSigningMac();
+						final Mac serverMac = credentials.createServerSigningMac();
+						// fed in two parts, as the messages are signed while streamed
+						clientMac.update(body, 0, body.length / 2);
+						clientMac.update(body, body.length / 2, body.length - body.length / 2);
+
+						assertArrayEquals(EncryptionUtils.hmacMd5(clientSigningKey, body), clientMac.doFinal());
+						assertArrayEquals(EncryptionUtils.hmacMd5(serverSigningKey, body), serverMac.doFinal(body));
+					}
+					return null;
+				}));
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.apache.cxf.Bus;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpConnectionMetrics;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.auth.AUTH;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.jupiter.api.Test;
+
+class AsyncHttpEncryptionAwareConduitFactoryTest {
+
+	@Test
+	void testRecordResponse() {
+		final AsyncHttpEncryptionAwareConduitFactory factory = new AsyncHttpEncryptionAwareConduitFactory();
+
+		// NTLM handshake on a new connection: challenge, token, then the response
+		final HttpClientContext newConnection = createContext(1);
+		factory.recordResponse(createResponse(HttpStatus.SC_UNAUTHORIZED, "Negotiate"), newConnection);
+		factory.recordResponse(createResponse(HttpStatus.SC_UNAUTHORIZED, "Negotiate VE9LRU4="), newConnection);
+		factory.recordResponse(createResponse(HttpStatus.SC_OK, null), newConnection);
+
+		// Two exchanges on a kept alive connection
+		factory.recordResponse(createResponse(HttpStatus.SC_OK, null), createContext(4));
+		factory.recordResponse(createResponse(HttpStatus.SC_OK, null), createContext(5));
+
+		final ConnectionStatistics statistics = factory.getStatistics();
+		assertEquals(5, statistics.getRequests());
+		assertEquals(3, statistics.getExchanges());
+		assertEquals(1, statistics.getOpenedConnections());
+		assertEquals(2, statistics.getReusedConnections());
+		assertEquals(1, statistics.getHandshakes());
+	}
+
+	@Test
+	void testFindInstance() {
+		final Bus bus = mock(Bus.class);
+		assertNull(AsyncHttpEncryptionAwareConduitFactory.findInstance(bus));
+
+		// Looking up the factory of a closed Bus doesn't create a new one
+		verify(bus, never()).setProperty(anyString(), any());
+
+		final AsyncHttpEncryptionAwareConduitFactory factory = new AsyncHttpEncryptionAwareConduitFactory();
+		doReturn(factory).when(bus).getProperty(AsyncHttpEncryptionAwareConduitFactory.class.getName());
+		assertSame(factory, AsyncHttpEncryptionAwareConduitFactory.findInstance(bus));
+	}
+
+	private static HttpClientContext createContext(final long requestCount) {
+		final HttpConnectionMetrics metrics = mock(HttpConnectionMetrics.class);
+		doReturn(requestCount).when(metrics).getRequestCount();
+		final HttpConnection connection = mock(HttpConnection.class);
+		doReturn(metrics).when(connection).getMetrics();
+
+		final HttpClientContext context = HttpClientContext.create();
+		context.setAttribute(HttpClientContext.HTTP_CONNECTION, connection);
+		return context;
+	}
+
+	private static HttpResponse createResponse(final int status, final String challenge) {
+		final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+		if (challenge != null) {
+			response.addHeader(AUTH.WWW_AUTH, challenge);
+		}
+		return response;
+	}
+}
@@ -0,0 +1,217 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.sentrysoftware.winrm.service.client.encryption.NtlmTestCredentials.authenticate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.cxf.Bus;
+import org.apache.cxf.BusFactory;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.service.model.EndpointInfo;
+import org.apache.cxf.transport.http.Address;
+import org.apache.cxf.transport.http.asyncclient.CXFHttpRequest;
+import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
+
+class AsyncHttpEncryptionAwareConduitTest {
+
+	private static final String URL = "http://host:5985/wsman";
+	private static final byte[] BODY = "<s:Envelope/>".getBytes(StandardCharsets.UTF_8);
+
+	private Bus bus;
+	private CloseableHttpAsyncClient client;
+	private AsyncHttpEncryptionAwareConduit conduit;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		bus = BusFactory.newInstance().createBus();
+		client = mock(CloseableHttpAsyncClient.class);
+
+		final EndpointInfo endpointInfo = new EndpointInfo();
+		endpointInfo.setAddress(URL);
+		conduit = new AsyncHttpEncryptionAwareConduit(
+				bus,
+				endpointInfo,
+				null,
+				new AsyncHttpEncryptionAwareConduitFactory()) {
+			@Override
+			public synchronized CloseableHttpAsyncClient getHttpAsyncClient() {
+				return client;
+			}
+		};
+	}
+
+	@AfterEach
+	void tearDown() {
+		conduit.close();
+		bus.shutdown(true);
+	}
+
+	@Test
+	void testProactiveAuthentication() throws Exception {
+		final NTCredentialsWithEncryption credentials = new NTCredentialsWithEncryption("user", "pwd", null, "domain");
+
+		// The HTTP client runs the NTLM handshake on the empty request
+		doAnswer(invocation -> {
+			final HttpPost request = invocation.getArgument(0);
+			assertEquals(0, request.getEntity().getContentLength());
+
+			final HttpClientContext context = invocation.getArgument(1);
+			assertSame(credentials, context.getCredentialsProvider().getCredentials(AuthScope.ANY));
+			assertSame(credentials.getUserPrincipal(), context.getUserToken());
+
+			authenticate(credentials, 0);
+			return CompletableFuture.completedFuture(createResponse(HttpStatus.SC_OK));
+		}).when(client).execute(any(HttpUriRequest.class), any(HttpContext.class), isNull());
+
+		final Message message = createMessage(credentials);
+		conduit.setupConnection(message, new Address(URL), new HTTPClientPolicy());
+
+		// The message is sent once, already sealed
+		assertTrue(credentials.isAuthenticated());
+		assertSealed(message);
+
+		// The security context is authenticated: no more handshake
+		final Message next = createMessage(credentials);
+		conduit.setupConnection(next, new Address(URL), new HTTPClientPolicy());
+		assertSealed(next);
+
+		verify(client, times(1)).execute(any(HttpUriRequest.class), any(HttpContext.class), isNull());
+	}
+
+	@Test
+	void testProactiveAuthenticationRejected() throws Exception {
+		final NTCredentialsWithEncryption credentials = new NTCredentialsWithEncryption("user", "pwd", null, "domain");
+
+		// The server rejects the negotiate of the empty request
+		doAnswer(invocation -> CompletableFuture.completedFuture(createResponse(HttpStatus.SC_UNAUTHORIZED)))
+		.when(client).execute(any(HttpUriRequest.class), any(HttpContext.class), isNull());
+
+		final Message message = createMessage(credentials);
+		conduit.setupConnection(message, new Address(URL), new HTTPClientPolicy());
+
+		// Reactive handshake: the bogus payload is sent first, then the sealed message once authenticated
+		final CXFHttpRequest request = message.get(CXFHttpRequest.class);
+		final EncryptionAwareHttpEntity entity = (EncryptionAwareHttpEntity) request.getEntity();
+		entity.refreshHeaders(request);
+		assertEquals(
+				String.valueOf(AsyncHttpEncryptionAwareConduit.PRE_AUTH_BOGUS_PAYLOAD.length),
+				request.getFirstHeader(HTTP.CONTENT_LEN).getValue());
+
+		authenticate(credentials, 0);
+		assertSealed(message);
+	}
+
+	@Test
+	void testCallDeadline() throws Exception {
+		final NTCredentialsWithEncryption credentials = new NTCredentialsWithEncryption("user", "pwd", null, "domain");
+		authenticate(credentials, 0);
+		final HTTPClientPolicy policy = new HTTPClientPolicy();
+		policy.setConnectionRequestTimeout(30_000);
+		policy.setConnectionTimeout(30_000);
+		policy.setReceiveTimeout(60_000);
+
+		// no deadline: the timeouts of the profile
+		final Message message = createMessage(credentials);
+		conduit.setupConnection(message, new Address(URL), policy);
+		final RequestConfig config = message.get(CXFHttpRequest.class).getConfig();
+		assertEquals(30_000, config.getConnectionRequestTimeout());
+		assertEquals(30_000, config.getConnectTimeout());
+		assertEquals(60_000, config.getSocketTimeout());
+
+		// the last attempt of a call is shortened to the time left, including its handshake
+		AsyncHttpEncryptionAwareConduit.setCallDeadline(System.currentTimeMillis() + 5_000);
+		try {
+			final Message last = createMessage(credentials);
+			conduit.setupConnection(last, new Address(URL), policy);
+			assertWithin(5_000, last.get(CXFHttpRequest.class).getConfig());
+
+			final NTCredentialsWithEncryption newCredentials =
+					new NTCredentialsWithEncryption("user", "pwd", null, "domain");
+			doAnswer(invocation -> {
+				assertWithin(5_000, ((HttpClientContext) invocation.getArgument(1)).getRequestConfig());
+				authenticate(newCredentials, 0);
+				return CompletableFuture.completedFuture(createResponse(HttpStatus.SC_OK));
+			}).when(client).execute(any(HttpUriRequest.class), any(HttpContext.class), isNull());
+			conduit.setupConnection(createMessage(newCredentials), new Address(URL), policy);
+			assertTrue(newCredentials.isAuthenticated());
+		} finally {
+			AsyncHttpEncryptionAwareConduit.setCallDeadline(null);
+		}
+		assertEquals(0, AsyncHttpEncryptionAwareConduit.getCallTimeLeft());
+
+		assertEquals(60_000, AsyncHttpEncryptionAwareConduit.capTimeout(60_000, 0));
+		assertEquals(5_000, AsyncHttpEncryptionAwareConduit.capTimeout(60_000, 5_000));
+		assertEquals(5_000, AsyncHttpEncryptionAwareConduit.capTimeout(0, 5_000));
+	}
+
+	private static void assertWithin(final int timeLeft, final RequestConfig config) {
+		for (final int timeout : new int[] {
+				config.getConnectionRequestTimeout(), config.getConnectTimeout(), config.getSocketTimeout() }) {
+			assertTrue(timeout > 0 && timeout <= timeLeft, "timeout: " + timeout);
+		}
+	}
+
+	private static Message createMessage(final NTCredentialsWithEncryption credentials) throws Exception {
+		final Message message = new MessageImpl();
+		final Exchange exchange = new ExchangeImpl();
+		exchange.setOutMessage(message);
+		message.setExchange(exchange);
+		message.put(Message.HTTP_REQUEST_METHOD, "POST");
+		message.put(Message.CONTENT_TYPE, "application/soap+xml;charset=UTF-8");
+		message.put(AsyncHttpEncryptionAwareConduit.USE_ASYNC, Boolean.TRUE);
+		message.put(AsyncHttpEncryptionAwareConduit.PROACTIVE_AUTHENTICATION, Boolean.TRUE);
+		message.put(org.apache.http.auth.Credentials.class.getName(), credentials);
+
+		final EncryptAndSignOutputStream body = new EncryptAndSignOutputStream(message, null);
+		body.write(BODY);
+		body.close();
+		message.setContent(EncryptAndSignOutputStream.class, body);
+		return message;
+	}
+
+	private static void assertSealed(final Message message) {
+		final CXFHttpRequest request = message.get(CXFHttpRequest.class);
+		final EncryptionAwareHttpEntity entity = (EncryptionAwareHttpEntity) request.getEntity();
+		entity.refreshHeaders(request);
+
+		final String payload = new String(entity.getAppropriate().getPayload(), StandardCharsets.ISO_8859_1);
+		assertTrue(payload.startsWith(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_PREFIX), payload);
+		assertEquals(
+				String.valueOf(entity.getAppropriate().getPayload().length),
+				request.getFirstHeader(HTTP.CONTENT_LEN).getValue());
+	}
+
+	private static HttpResponse createResponse(final int status) {
+		return new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+	}
+}
@@ -0,0 +1,39 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class CipherGenTest {
+
+	private static final byte[] CHALLENGE = { 1, 2, 3, 4, 5, 6, 7, 8 };
+	private static final byte[] TARGET_INFORMATION = { 0, 0, 0, 0 };
+
+	@Test
+	void testCachedHashes() throws Exception {
+		final String password = new String("pwd".toCharArray());
+
+		CipherGen.clearHashCache();
+		final byte[] computed = createCipherGen(password).getNTLMv2UserSessionKey();
+		final byte[] cached = createCipherGen(password).getNTLMv2UserSessionKey();
+		assertArrayEquals(computed, cached);
+
+		// another password instance with the same value gives the same result
+		assertArrayEquals(computed, createCipherGen(new String(password.toCharArray())).getNTLMv2UserSessionKey());
+
+		// a key computed before the cache is cleared is not altered
+		CipherGen.clearHashCache();
+		assertArrayEquals(computed, cached);
+		assertArrayEquals(computed, createCipherGen(password).getNTLMv2UserSessionKey());
+
+		assertFalse(Arrays.equals(computed, createCipherGen("other").getNTLMv2UserSessionKey()));
+	}
+
+	private static CipherGen createCipherGen(final String password) {
+		return new CipherGen(new Random(1), 1000L, "DOMAIN", "user", password, CHALLENGE, null, TARGET_INFORMATION);
+	}
+}
@@ -0,0 +1,135 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.sentrysoftware.winrm.service.client.encryption.NtlmTestCredentials.createCredentials;
+import static org.sentrysoftware.winrm.service.client.encryption.NtlmTestCredentials.createServerCredentials;
+import static org.sentrysoftware.winrm.service.client.encryption.NtlmTestCredentials.randomBytes;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.apache.cxf.helpers.IOUtils;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.junit.jupiter.api.Test;
+
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTLMEngineUtils;
+
+class DecryptingInputStreamTest {
+
+	private static final long EXTENDED_SESSION_SECURITY =
+			NTLMEngineUtils.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY | NTLMEngineUtils.NTLMSSP_NEGOTIATE_KEY_EXCH;
+
+	@Test
+	void testDecryptExtendedSessionSecurity() throws Exception {
+		checkRoundTrip(EXTENDED_SESSION_SECURITY);
+	}
+
+	@Test
+	void testDecryptWithoutExtendedSessionSecurity() throws Exception {
+		checkRoundTrip(0);
+	}
+
+	@Test
+	void testChecksumMismatch() throws Exception {
+		final Random random = new Random(1);
+		final NTCredentialsWithEncryption client = createCredentials(EXTENDED_SESSION_SECURITY);
+		final NTCredentialsWithEncryption server = createServerCredentials(client);
+
+		final byte[] encrypted = encrypt(server, randomBytes(random, 100));
+		// corrupt the last sealed byte
+		encrypted[encrypted.length - NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END.length() - 1] ^= 1;
+
+		final Message message = createMessage(encrypted, 7);
+		NtlmEncryptionUtils.of(client).decrypt(message);
+
+		try (final InputStream in = message.getContent(InputStream.class)) {
+			assertThrows(IOException.class, () -> IOUtils.readBytesFromStream(in));
+
+			// the response is not readable past the failure, and its buffer was released
+			assertEquals("Stream closed", assertThrows(IOException.class, in::read).getMessage());
+			assertEquals(0, in.available());
+		}
+	}
+
+	@Test
+	void testInvalidFraming() throws Exception {
+		final NTCredentialsWithEncryption client = createCredentials(EXTENDED_SESSION_SECURITY);
+
+		final Message message = createMessage("--Not Encrypted\r\n".getBytes(), 100);
+		assertThrows(IllegalStateException.class, () -> NtlmEncryptionUtils.of(client).decrypt(message));
+	}
+
+	private static void checkRoundTrip(final long negotiateFlags) throws Exception {
+		final Random random = new Random(negotiateFlags);
+		final NTCredentialsWithEncryption client = createCredentials(negotiateFlags);
+		final NTCredentialsWithEncryption server = createServerCredentials(client);
+
+		for (final int size : new int[] { 0, 1, 100, 20000, 70000 }) {
+			final byte[] body = randomBytes(random, size);
+
+			// read byte per byte, then with chunks spanning the framing
+			for (final int chunkSize : new int[] { 1, 7, 100000 }) {
+				final Message message = createMessage(encrypt(server, body), chunkSize);
+				NtlmEncryptionUtils.of(client).decrypt(message);
+
+				try (final InputStream in = message.getContent(InputStream.class)) {
+					assertArrayEquals(body, IOUtils.readBytesFromStream(in));
+				}
+			}
+		}
+
+		// the parser may stop before the end: closing keeps the decryptor in sync
+		final Message partial = createMessage(encrypt(server, randomBytes(random, 500)), 100);
+		NtlmEncryptionUtils.of(client).decrypt(partial);
+		partial.getContent(InputStream.class).read(new byte[10]);
+		partial.getContent(InputStream.class).close();
+
+		final byte[] body = randomBytes(random, 300);
+		final Message message = createMessage(encrypt(server, body), 100);
+		NtlmEncryptionUtils.of(client).decrypt(message);
+		try (final InputStream in = message.getContent(InputStream.class)) {
+			assertArrayEquals(body, IOUtils.readBytesFromStream(in));
+		}
+
+		assertEquals(16, client.getSequenceNumberIncoming().get());
+	}
+
+	private static byte[] encrypt(final NTCredentialsWithEncryption server, final byte[] body) {
+		return NtlmEncryptionUtils.of(server).encryptAndSign(new MessageImpl(), body);
+	}
+
+	private static Message createMessage(final byte[] content, final int chunkSize) {
+		final Message message = new MessageImpl();
+		message.put(
+				Message.CONTENT_TYPE,
+				"multipart/encrypted;protocol=\"application/HTTP-SPNEGO-session-encrypted\";"
+						+ "boundary=\"Encrypted Boundary\"");
+		message.setContent(InputStream.class, new ChunkedInputStream(content, chunkSize));
+		return message;
+	}
+
+	/**
+	 * Stream returning at most chunkSize bytes per read, as a response being received.
+	 */
+	private static class ChunkedInputStream extends FilterInputStream {
+
+		private final int chunkSize;
+
+		ChunkedInputStream(final byte[] content, final int chunkSize) {
+			super(new ByteArrayInputStream(content));
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			return super.read(b, off, Math.min(len, chunkSize));
+		}
+	}
+}
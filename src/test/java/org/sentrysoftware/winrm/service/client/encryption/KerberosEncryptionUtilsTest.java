@@ -0,0 +1,190 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.cxf.helpers.IOUtils;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.MessageProp;
+import org.junit.jupiter.api.Test;
+
+import org.sentrysoftware.winrm.service.client.auth.kerberos.KerberosCredentialsWithEncryption;
+
+class KerberosEncryptionUtilsTest {
+
+	private static final byte[] BODY = "<s:Envelope/>".getBytes(StandardCharsets.UTF_8);
+
+	/** AES token: header, encrypted confounder, body and header copy, then the checksum */
+	private static final int SIGNATURE_LENGTH = 16 + 16 + 16 + 12;
+
+	@Test
+	void testEncryptAndSignRotatesCfxToken() throws Exception {
+		final byte[] token = createCfxToken();
+		final KerberosCredentialsWithEncryption credentials = mock(KerberosCredentialsWithEncryption.class);
+		doReturn(token.clone()).when(credentials).wrap(BODY, 0, BODY.length);
+
+		final Message message = new MessageImpl();
+		final byte[] payload = new KerberosEncryptionUtils(credentials).encryptAndSign(message, BODY, 0, BODY.length);
+
+		assertTrue(((String) message.get(Message.CONTENT_TYPE)).contains(KerberosEncryptionUtils.KERBEROS_PROTOCOL));
+		final String text = new String(payload, StandardCharsets.ISO_8859_1);
+		assertTrue(text.contains("Length=" + BODY.length + "\r\n"));
+		assertTrue(text.endsWith(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END));
+
+		final int tokenOffset = payload.length - NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END_BYTES.length - token.length;
+		assertEquals(SIGNATURE_LENGTH, ByteArrayUtils.readLittleEndianUnsignedInt(payload, tokenOffset - 4));
+
+		// RRC = encrypted header copy + checksum, moved right after the token header
+		final int rrc = SIGNATURE_LENGTH - 32;
+		assertEquals(0, payload[tokenOffset + 6]);
+		assertEquals(rrc, payload[tokenOffset + 7]);
+		assertArrayEquals(
+				Arrays.copyOfRange(token, token.length - rrc, token.length),
+				Arrays.copyOfRange(payload, tokenOffset + 16, tokenOffset + 16 + rrc));
+		assertArrayEquals(
+				Arrays.copyOfRange(token, 16, token.length - rrc),
+				Arrays.copyOfRange(payload, tokenOffset + 16 + rrc, tokenOffset + token.length));
+	}
+
+	@Test
+	void testDecrypt() throws Exception {
+		final byte[] token = createCfxToken();
+		final KerberosCredentialsWithEncryption credentials = mock(KerberosCredentialsWithEncryption.class);
+		doReturn(token.clone()).when(credentials).wrap(BODY, 0, BODY.length);
+
+		final KerberosEncryptionUtils encryption = new KerberosEncryptionUtils(credentials);
+		final byte[] payload = encryption.encryptAndSign(new MessageImpl(), BODY, 0, BODY.length);
+
+		// the whole token, signature and encrypted data, is unwrapped
+		doAnswer(invocation -> {
+			assertEquals(token.length, (int) invocation.getArgument(2));
+			return BODY;
+		}).when(credentials).unwrap(any(byte[].class), anyInt(), eq(token.length));
+
+		assertArrayEquals(BODY, IOUtils.readBytesFromStream(encryption.decrypt(new ByteArrayInputStream(payload))));
+
+		assertThrows(
+				IOException.class,
+				() -> encryption.decrypt(new ByteArrayInputStream(Arrays.copyOf(payload, 100))));
+	}
+
+	@Test
+	void testWrapUnwrapWithGssContext() throws Exception {
+		final byte[] token = createCfxToken();
+		final byte[] rotated = token.clone();
+		KerberosEncryptionUtils.rotate(rotated, SIGNATURE_LENGTH);
+
+		final GSSContext gssContext = mock(GSSContext.class);
+		doReturn(true).when(gssContext).isEstablished();
+		doAnswer(invocation -> {
+			final MessageProp messageProp = invocation.getArgument(3);
+			assertTrue(messageProp.getPrivacy());
+			return token.clone();
+		}).when(gssContext).wrap(eq(BODY), eq(0), eq(BODY.length), any(MessageProp.class));
+
+		final KerberosCredentialsWithEncryption credentials = new KerberosCredentialsWithEncryption(null);
+		credentials.setContext(gssContext);
+		final KerberosEncryptionUtils encryption = new KerberosEncryptionUtils(credentials);
+
+		final Message message = new MessageImpl();
+		final byte[] payload = encryption.encryptAndSign(message, BODY, 0, BODY.length);
+
+		// MIME framing around the signature length and the rotated token
+		assertEquals(
+				"multipart/encrypted;protocol=\"application/HTTP-Kerberos-session-encrypted\";"
+				+ "boundary=\"Encrypted Boundary\"",
+				message.get(Message.CONTENT_TYPE));
+		final String header = "--Encrypted Boundary\r\n"
+				+ "\tContent-Type: application/HTTP-Kerberos-session-encrypted\r\n"
+				+ "\tOriginalContent: type=application/soap+xml;charset=UTF-8;Length=" + BODY.length + "\r\n"
+				+ "--Encrypted Boundary\r\n"
+				+ "\tContent-Type: application/octet-stream\r\n";
+		final byte[] expected = ByteArrayUtils.concat(
+				header.getBytes(StandardCharsets.US_ASCII),
+				ByteArrayUtils.getLittleEndianUnsignedInt(SIGNATURE_LENGTH),
+				rotated,
+				"--Encrypted Boundary--\r\n".getBytes(StandardCharsets.US_ASCII));
+		assertArrayEquals(expected, payload);
+
+		// the server response in the same framing is unwrapped from the token only
+		doAnswer(invocation -> {
+			final byte[] buffer = invocation.getArgument(0);
+			final int offset = invocation.getArgument(1);
+			final int length = invocation.getArgument(2);
+			assertArrayEquals(rotated, Arrays.copyOfRange(buffer, offset, offset + length));
+			((MessageProp) invocation.getArgument(3)).setPrivacy(true);
+			return BODY;
+		}).when(gssContext).unwrap(any(byte[].class), anyInt(), anyInt(), any(MessageProp.class));
+		assertArrayEquals(BODY, IOUtils.readBytesFromStream(encryption.decrypt(new ByteArrayInputStream(payload))));
+
+		// a response which is only signed is rejected
+		doAnswer(invocation -> {
+			((MessageProp) invocation.getArgument(3)).setPrivacy(false);
+			return BODY;
+		}).when(gssContext).unwrap(any(byte[].class), anyInt(), anyInt(), any(MessageProp.class));
+		assertThrows(IOException.class, () -> encryption.decrypt(new ByteArrayInputStream(payload)));
+
+		// nothing is sent before the mutual authentication
+		doReturn(false).when(gssContext).isEstablished();
+		assertThrows(IllegalStateException.class, () -> encryption.encryptAndSign(message, BODY, 0, BODY.length));
+	}
+
+	@Test
+	void testGssContextDisposed() throws Exception {
+		final KerberosCredentialsWithEncryption credentials = new KerberosCredentialsWithEncryption(null);
+
+		// the context replaced by a new handshake is disposed
+		final GSSContext first = mock(GSSContext.class);
+		final GSSContext second = mock(GSSContext.class);
+		credentials.setContext(first);
+		credentials.setContext(second);
+		verify(first).dispose();
+		credentials.setContext(second);
+		verify(second, never()).dispose();
+
+		// so is the context whose mutual authentication is rejected
+		doAnswer(invocation -> {
+			throw new GSSException(GSSException.DEFECTIVE_TOKEN);
+		}).when(second).initSecContext(any(byte[].class), anyInt(), anyInt());
+		assertThrows(GSSException.class, () -> credentials.completeAuthentication(new byte[10]));
+		verify(second).dispose();
+		assertFalse(credentials.isAuthenticated());
+
+		// and the last one when the credentials are destroyed
+		final GSSContext third = mock(GSSContext.class);
+		credentials.setContext(third);
+		credentials.destroy();
+		verify(third).dispose();
+	}
+
+	private static byte[] createCfxToken() {
+		final byte[] token = new byte[SIGNATURE_LENGTH + BODY.length];
+		for (int i = 0; i < token.length; i++) {
+			token[i] = (byte) i;
+		}
+		token[0] = 0x05;
+		token[1] = 0x04;
+		token[6] = 0;
+		token[7] = 0;
+		return token;
+	}
+}
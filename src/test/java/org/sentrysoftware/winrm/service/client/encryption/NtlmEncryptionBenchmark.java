@@ -0,0 +1,74 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTLMEngineUtils;
+
+/**
+ * Seal-and-sign throughput by message size, up to the maximum envelope size.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.sentrysoftware.winrm.service.client.encryption.NtlmEncryptionBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NtlmEncryptionBenchmark {
+
+	@Param({"1024", "16384", "65536", "153600"})
+	private int messageSize;
+
+	private byte[] messageBody;
+	private NtlmEncryptionUtils ntlmEncryptionUtils;
+	private Message message;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		final Random random = new Random(messageSize);
+
+		messageBody = new byte[messageSize];
+		random.nextBytes(messageBody);
+
+		final NTCredentialsWithEncryption credentials = NtlmTestCredentials.createCredentials(
+				NTLMEngineUtils.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY |
+				NTLMEngineUtils.NTLMSSP_NEGOTIATE_KEY_EXCH);
+
+		ntlmEncryptionUtils = NtlmEncryptionUtils.of(credentials);
+		message = new MessageImpl();
+	}
+
+	@Benchmark
+	public byte[] encryptAndSign() {
+		return ntlmEncryptionUtils.encryptAndSign(message, messageBody);
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(NtlmEncryptionBenchmark.class.getSimpleName())
+				.build())
+			.run();
+	}
+}
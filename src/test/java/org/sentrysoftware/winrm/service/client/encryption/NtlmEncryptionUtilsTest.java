@@ -0,0 +1,130 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.sentrysoftware.winrm.service.client.encryption.NtlmTestCredentials.createCredentials;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import javax.crypto.Cipher;
+
+import org.apache.cxf.message.MessageImpl;
+import org.junit.jupiter.api.Test;
+
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTLMEngineUtils;
+
+class NtlmEncryptionUtilsTest {
+
+	/**
+	 * Empty body, then sizes around the changes of the number of digits of the length header,
+	 * up to the maximum envelope size.
+	 */
+	private static final int[] SIZES = { 0, 1, 9, 10, 99, 100, 9999, 10000, 99999, 100000, 153600 };
+
+	@Test
+	void testEncryptAndSignExtendedSessionSecurityKeyExchange() throws Exception {
+		checkSameAsSealThenSign(
+				NTLMEngineUtils.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY | NTLMEngineUtils.NTLMSSP_NEGOTIATE_KEY_EXCH);
+	}
+
+	@Test
+	void testEncryptAndSignExtendedSessionSecurity() throws Exception {
+		checkSameAsSealThenSign(NTLMEngineUtils.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY);
+	}
+
+	@Test
+	void testEncryptAndSignWithoutExtendedSessionSecurity() throws Exception {
+		checkSameAsSealThenSign(0);
+	}
+
+	/**
+	 * The single buffer encoding is the same as the previous one, which sealed the body and the signature
+	 * into separate streams, for successive messages of the same security context (sequence numbers and
+	 * RC4 state), and for a body at an offset of a larger buffer.
+	 */
+	private static void checkSameAsSealThenSign(final long negotiateFlags) throws Exception {
+		final NTCredentialsWithEncryption credentials = createCredentials(negotiateFlags);
+		final NTCredentialsWithEncryption reference = createCredentials(negotiateFlags);
+		final Random random = new Random(negotiateFlags);
+
+		for (final int size : SIZES) {
+			final byte[] body = new byte[size];
+			random.nextBytes(body);
+
+			assertArrayEquals(
+					sealThenSign(reference, body),
+					NtlmEncryptionUtils.of(credentials).encryptAndSign(new MessageImpl(), body),
+					"Size " + size);
+
+			final byte[] buffer = new byte[size + 20];
+			System.arraycopy(body, 0, buffer, 7, size);
+			assertArrayEquals(
+					sealThenSign(reference, body),
+					NtlmEncryptionUtils.of(credentials).encryptAndSign(new MessageImpl(), buffer, 7, size),
+					"Size " + size + " at offset");
+		}
+	}
+
+	/**
+	 * The previous implementation of NtlmEncryptionUtils.encryptAndSign.
+	 */
+	private static byte[] sealThenSign(final NTCredentialsWithEncryption credentials, final byte[] messageBody)
+			throws IOException {
+		final Cipher encryptor = credentials.getStatefulEncryptor();
+
+		try (final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				final ByteArrayOutputStream signature = new ByteArrayOutputStream()) {
+
+			out.write(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_CR.getBytes());
+			out.write(("\tContent-Type: application/HTTP-SPNEGO-session-encrypted\r\n").getBytes());
+			out.write(String.format(
+					"\tOriginalContent: type=application/soap+xml;charset=UTF-8;Length=%d\r\n", messageBody.length)
+					.getBytes());
+			out.write(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_CR.getBytes());
+			out.write("\tContent-Type: application/octet-stream\r\n".getBytes());
+
+			final long seqNum = credentials.getSequenceNumberOutgoing().incrementAndGet();
+
+			// seal first, even though appended afterwards, because encryptor is stateful
+			final byte[] sealed = seal(encryptor, messageBody);
+
+			if (credentials.hasNegotiateFlag(NTLMEngineUtils.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY)) {
+				byte[] checksum = EncryptionUtils.hmacMd5(
+						credentials.getClientSigningKey(),
+						ByteArrayUtils.concat(ByteArrayUtils.getLittleEndianUnsignedInt(seqNum), messageBody));
+				checksum = Arrays.copyOfRange(checksum, 0, 8);
+				if (credentials.hasNegotiateFlag(NTLMEngineUtils.NTLMSSP_NEGOTIATE_KEY_EXCH)) {
+					checksum = seal(encryptor, checksum);
+				}
+				signature.write(new byte[] { 1, 0, 0, 0 });
+				signature.write(checksum);
+				signature.write(ByteArrayUtils.getLittleEndianUnsignedInt(seqNum));
+
+			} else {
+				final CRC32 crc = new CRC32();
+				crc.update(messageBody);
+				signature.write(new byte[] { 1, 0, 0, 0 });
+				signature.write(seal(encryptor, ByteArrayUtils.getLittleEndianUnsignedInt(0)));
+				signature.write(seal(encryptor, ByteArrayUtils.getLittleEndianUnsignedInt(crc.getValue())));
+				signature.write(seal(encryptor, ByteArrayUtils.getLittleEndianUnsignedInt(seqNum)));
+			}
+
+			out.write(ByteArrayUtils.getLittleEndianUnsignedInt(signature.size()));
+			out.write(signature.toByteArray());
+			out.write(sealed);
+			out.write(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END.getBytes());
+
+			return out.toByteArray();
+		}
+	}
+
+	private static byte[] seal(final Cipher encryptor, final byte[] in) {
+		// Cipher.update returns null for an empty input
+		final byte[] sealed = encryptor.update(in);
+		return sealed != null ? sealed : new byte[0];
+	}
+}
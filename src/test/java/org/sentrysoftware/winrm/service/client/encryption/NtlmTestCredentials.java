@@ -0,0 +1,55 @@
+package org.sentrysoftware.winrm.service.client.encryption;
+
+import java.util.Random;
+
+import org.sentrysoftware.winrm.service.client.auth.ntlm.NTCredentialsWithEncryption;
+
+/**
+ * NTLM credentials with random session keys, as set at the end of the handshake, for the encryption tests.
+ */
+final class NtlmTestCredentials {
+
+	private NtlmTestCredentials() { }
+
+	/**
+	 * @return Authenticated credentials, whose keys only depend on the negotiate flags
+	 */
+	static NTCredentialsWithEncryption createCredentials(final long negotiateFlags) {
+		final NTCredentialsWithEncryption credentials =
+				new NTCredentialsWithEncryption("user", "pwd", null, "domain");
+		authenticate(credentials, negotiateFlags);
+		return credentials;
+	}
+
+	/**
+	 * Credentials of the server side, whose client keys are the server keys of the specified credentials.
+	 */
+	static NTCredentialsWithEncryption createServerCredentials(final NTCredentialsWithEncryption client) {
+		final NTCredentialsWithEncryption server =
+				new NTCredentialsWithEncryption("server", "pwd", null, "domain");
+		server.setNegotiateFlags(client.getNegotiateFlags());
+		server.setClientSigningKey(client.getServerSigningKey());
+		server.setClientSealingKey(client.getServerSealingKey());
+		server.setIsAuthenticated(true);
+		return server;
+	}
+
+	/**
+	 * Simulate the end of the NTLM handshake, which sets the session keys.
+	 */
+	static void authenticate(final NTCredentialsWithEncryption credentials, final long negotiateFlags) {
+		final Random random = new Random(negotiateFlags + 1);
+		credentials.setNegotiateFlags(negotiateFlags);
+		credentials.setClientSigningKey(randomBytes(random, 16));
+		credentials.setClientSealingKey(randomBytes(random, 16));
+		credentials.setServerSigningKey(randomBytes(random, 16));
+		credentials.setServerSealingKey(randomBytes(random, 16));
+		credentials.setIsAuthenticated(true);
+	}
+
+	static byte[] randomBytes(final Random random, final int size) {
+		final byte[] bytes = new byte[size];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+}
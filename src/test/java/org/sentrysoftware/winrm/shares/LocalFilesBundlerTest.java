@@ -0,0 +1,160 @@
+package org.sentrysoftware.winrm.shares;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.sentrysoftware.winrm.LocalFilesCopy;
+import org.sentrysoftware.winrm.WindowsRemoteCommandResult;
+import org.sentrysoftware.winrm.WindowsRemoteExecutor;
+
+class LocalFilesBundlerTest {
+
+	@Test
+	void testCopyLocalFiles(@TempDir final Path tempDir) throws Exception {
+		final Path tool = tempDir.resolve("tool.exe");
+		final Path script = tempDir.resolve("script.vbs");
+		Files.write(tool, "tool".getBytes(StandardCharsets.US_ASCII));
+		Files.write(script, "script".getBytes(StandardCharsets.US_ASCII));
+
+		final WindowsRemoteExecutor windowsRemoteExecutor = mock(WindowsRemoteExecutor.class);
+		doReturn("HOST").when(windowsRemoteExecutor).getHostname();
+		final List<String> scripts = new ArrayList<>();
+		doAnswer(invocation -> {
+			scripts.add(decode(invocation.getArgument(0)));
+			return new WindowsRemoteCommandResult("", "", 0.1f, 0);
+		}).when(windowsRemoteExecutor).executeCommand(
+				anyString(),
+				isNull(),
+				eq(StandardCharsets.UTF_8),
+				anyLong());
+
+		final List<Path> copied = new ArrayList<>();
+		final LocalFilesBundler bundler = new LocalFilesBundler();
+
+		System.setProperty(LocalFilesBundler.DIRECTORY_PROPERTY, tempDir.resolve("bundles").toString());
+		try {
+			final LocalFilesCopy copy = bundler.copyLocalFiles(
+					"cscript " + script + " " + tool,
+					Arrays.asList(script.toString(), tool.toString(), script.toString()),
+					localFile -> {
+						copied.add(localFile);
+						return "C:\\Temp\\" + localFile.getFileName();
+					},
+					windowsRemoteExecutor,
+					1000L);
+
+			// a single archive is copied, named after the bundle
+			assertEquals(1, copied.size());
+			final Path archive = copied.get(0);
+			final String bundle = archive.getFileName().toString().replace(LocalFilesBundler.ARCHIVE_EXTENSION, "");
+			assertEquals(
+					String.format("cscript C:\\Temp\\%s\\script.vbs C:\\Temp\\%s\\tool.exe", bundle, bundle),
+					copy.getCommand());
+			assertEquals(2, copy.getRemotePaths().size());
+
+			final List<String> entries = new ArrayList<>();
+			try (final ZipInputStream zip = new ZipInputStream(Files.newInputStream(archive))) {
+				ZipEntry entry;
+				while ((entry = zip.getNextEntry()) != null) {
+					entries.add(entry.getName());
+				}
+			}
+			assertEquals(Arrays.asList("script.vbs", "tool.exe"), entries);
+
+			// the expected entries are checked, not only the directory
+			assertEquals(1, scripts.size());
+			assertTrue(scripts.get(0).contains("@(@('script.vbs','tool.exe') | Where-Object"));
+
+			// the archive is built once
+			assertEquals(archive, bundler.getArchive(Arrays.asList(tool, script)));
+			assertEquals(1, bundler.getArchiveMisses());
+			assertEquals(1, bundler.getArchiveHits());
+
+			// the bundle expanded on the host is neither copied nor expanded again
+			assertEquals(
+					copy.getCommand(),
+					bundler.copyLocalFiles(
+							"cscript " + script + " " + tool,
+							Arrays.asList(tool.toString(), script.toString()),
+							localFile -> {
+								throw new IOException("Copied again");
+							},
+							windowsRemoteExecutor,
+							1000L).getCommand());
+			assertEquals(1, scripts.size());
+			assertEquals(1, bundler.getExpansionHits());
+			assertEquals(1, bundler.getExpansionMisses());
+
+			// the expansion failed, after the bundles of the host were forgotten
+			bundler.forget("host");
+			doReturn(new WindowsRemoteCommandResult("", "Access denied", 0.1f, 1)).when(windowsRemoteExecutor)
+			.executeCommand(anyString(), isNull(), eq(StandardCharsets.UTF_8), anyLong());
+			assertThrows(
+					IOException.class,
+					() -> bundler.copyLocalFiles(
+							"cscript",
+							Arrays.asList(script.toString(), tool.toString()),
+							localFile -> "C:\\Temp\\" + localFile.getFileName(),
+							windowsRemoteExecutor,
+							1000L));
+		} finally {
+			System.clearProperty(LocalFilesBundler.DIRECTORY_PROPERTY);
+		}
+	}
+
+	@Test
+	void testCopyLocalFilesWithoutBundle(@TempDir final Path tempDir) throws Exception {
+		final Path tool = tempDir.resolve("tool.exe");
+		final Path otherTool = Files.createDirectory(tempDir.resolve("other")).resolve("TOOL.EXE");
+		Files.write(tool, "tool".getBytes(StandardCharsets.US_ASCII));
+		Files.write(otherTool, "other tool".getBytes(StandardCharsets.US_ASCII));
+
+		final WindowsRemoteExecutor windowsRemoteExecutor = mock(WindowsRemoteExecutor.class);
+		final List<Path> copied = new ArrayList<>();
+
+		// same file names: copied one by one
+		new LocalFilesBundler().copyLocalFiles(
+				"launch",
+				Arrays.asList(tool.toString(), otherTool.toString()),
+				localFile -> {
+					synchronized (copied) {
+						copied.add(localFile);
+					}
+					return "C:\\Temp\\" + localFile.getFileName();
+				},
+				windowsRemoteExecutor,
+				1000L);
+
+		assertEquals(2, copied.size());
+		verify(windowsRemoteExecutor, never()).executeCommand(anyString(), isNull(), eq(StandardCharsets.UTF_8), anyLong());
+	}
+
+	private static String decode(final String command) {
+		final String encoded = command.substring(command.lastIndexOf(' ') + 1);
+		return new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_16LE);
+	}
+}
@@ -0,0 +1,64 @@
+package org.sentrysoftware.winrm.shares;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ShareStoreTest {
+
+	@Test
+	void testDisabled() throws Exception {
+		final ShareStore shareStore = ShareStore.getInstance();
+		assertFalse(shareStore.isEnabled());
+
+		shareStore.put("host", "\\\\host\\SEN_ShareFor_PC$", "C:\\Windows\\Temp\\SEN_ShareFor_PC$");
+		assertNull(shareStore.get("host"));
+	}
+
+	@Test
+	void testPersistence(@TempDir final Path tempDir) throws Exception {
+		final Path file = tempDir.resolve("shares.bin");
+
+		final ShareStore shareStore = new ShareStore(file);
+		assertTrue(shareStore.isEnabled());
+		assertNull(shareStore.get("host1"));
+
+		shareStore.put("HOST1", "\\\\host1\\SEN_ShareFor_PC$", "C:\\Windows\\Temp\\SEN_ShareFor_PC$");
+		shareStore.put("host2", "\\\\cluster\\D$\\Temp\\SEN_TempFor_PC", "D:\\Temp\\SEN_TempFor_PC");
+		shareStore.put("host3", "\\\\host3\\SEN_ShareFor_PC$", "C:\\Windows\\Temp\\SEN_ShareFor_PC$");
+		shareStore.remove("host3");
+
+		// as read by a restarted JVM
+		final ShareStore reloaded = new ShareStore(file);
+		assertEquals(2, reloaded.size());
+		assertEquals("\\\\host1\\SEN_ShareFor_PC$", reloaded.get("host1").getUncSharePath());
+		assertEquals("\\\\cluster\\D$\\Temp\\SEN_TempFor_PC", reloaded.get("Host2").getUncSharePath());
+		assertEquals("D:\\Temp\\SEN_TempFor_PC", reloaded.get("Host2").getRemotePath());
+		assertNull(reloaded.get("host3"));
+
+		// a record truncated by a crash is ignored: the removal of host3 is lost
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+		final ShareStore truncated = new ShareStore(file);
+		assertEquals(3, truncated.size());
+		assertEquals("\\\\host3\\SEN_ShareFor_PC$", truncated.get("host3").getUncSharePath());
+
+		// the next change rewrites the file
+		truncated.put("host4", "\\\\host4\\SEN_ShareFor_PC$", "C:\\Windows\\Temp\\SEN_ShareFor_PC$");
+		assertEquals(4, new ShareStore(file).size());
+
+		truncated.clear();
+		assertFalse(Files.exists(file));
+		assertEquals(0, new ShareStore(file).size());
+	}
+}
@@ -0,0 +1,249 @@
+package org.sentrysoftware.winrm.shares;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.sentrysoftware.winrm.TimeoutProfile;
+import org.sentrysoftware.winrm.service.WinRMEndpoint;
+
+import com.hierynomus.mssmb2.SMB2Dialect;
+import com.hierynomus.smbj.SMBClient;
+import com.hierynomus.smbj.SmbConfig;
+import com.hierynomus.smbj.auth.AuthenticationContext;
+import com.hierynomus.smbj.connection.Connection;
+import com.hierynomus.smbj.connection.NegotiatedProtocol;
+import com.hierynomus.smbj.session.Session;
+
+class SmbSessionPoolTest {
+
+	private static final WinRMEndpoint ENDPOINT =
+			new WinRMEndpoint(null, "host", null, "domain\\user", "pwd".toCharArray(), null);
+
+	@Test
+	void testAcquireAndRelease() throws Exception {
+		final Connection connection = mock(Connection.class);
+		doReturn(true).when(connection).isConnected();
+
+		final Session session = mock(Session.class);
+		doReturn(connection).when(session).getConnection();
+		doReturn(session).when(connection).authenticate(any(AuthenticationContext.class));
+
+		final SMBClient smbClient = mock(SMBClient.class);
+		doReturn(connection).when(smbClient).connect("host");
+
+		final AtomicInteger clients = new AtomicInteger();
+		final SmbSessionPool pool = new SmbSessionPool(config -> {
+			clients.incrementAndGet();
+			return smbClient;
+		});
+		final SmbSettings smbSettings = SmbSettings.of(TimeoutProfile.of(30_000L));
+
+		assertSame(session, pool.acquire(ENDPOINT, smbSettings));
+		assertSame(session, pool.acquire(ENDPOINT, smbSettings));
+		assertEquals(1, pool.getMisses());
+		assertEquals(1, pool.getHits());
+
+		// another host, same settings: same client
+		final WinRMEndpoint otherEndpoint =
+				new WinRMEndpoint(null, "other", null, "domain\\user", "pwd".toCharArray(), null);
+		final Session otherSession = mock(Session.class);
+		doReturn(connection).when(otherSession).getConnection();
+		doReturn(otherSession).when(connection).authenticate(any(AuthenticationContext.class));
+		doReturn(connection).when(smbClient).connect("other");
+		assertSame(otherSession, pool.acquire(otherEndpoint, smbSettings));
+		assertEquals(1, clients.get());
+		assertEquals(2, pool.size());
+
+		// in use: not evicted
+		System.setProperty(SmbSessionPool.IDLE_TIME_PROPERTY, "0");
+		try {
+			pool.evictIdle();
+			assertEquals(2, pool.size());
+
+			pool.release(session);
+			pool.release(session);
+			pool.evictIdle();
+			assertEquals(1, pool.size());
+			verify(session).close();
+			// still used by the session of the other host
+			verify(connection, never()).close();
+			assertEquals(1, pool.getClientCount());
+			verify(smbClient, never()).close();
+		} finally {
+			System.clearProperty(SmbSessionPool.IDLE_TIME_PROPERTY);
+		}
+
+		// lost connection: a new session is opened
+		doReturn(false).when(connection).isConnected();
+		final Session newSession = mock(Session.class);
+		final Connection newConnection = mock(Connection.class);
+		doReturn(newConnection).when(smbClient).connect("other");
+		doReturn(newSession).when(newConnection).authenticate(any(AuthenticationContext.class));
+		doReturn(newConnection).when(newSession).getConnection();
+		doReturn(true).when(newConnection).isConnected();
+
+		assertSame(newSession, pool.acquire(otherEndpoint, smbSettings));
+		assertNotSame(otherSession, newSession);
+		verify(otherSession).close();
+		verify(connection).close();
+
+		pool.clear();
+		assertEquals(0, pool.size());
+		verify(smbClient).close();
+	}
+
+	@Test
+	void testAcquireConcurrently() throws Exception {
+		final Connection connection = mock(Connection.class);
+		doReturn(true).when(connection).isConnected();
+
+		final Session session = mock(Session.class);
+		final Session otherSession = mock(Session.class);
+		doReturn(connection).when(session).getConnection();
+		doReturn(connection).when(otherSession).getConnection();
+		doReturn(otherSession, session).when(connection).authenticate(any(AuthenticationContext.class));
+
+		final SMBClient smbClient = mock(SMBClient.class);
+		final SmbSessionPool pool = new SmbSessionPool(config -> smbClient);
+		final SmbSettings smbSettings = SmbSettings.of(TimeoutProfile.of(30_000L));
+
+		// another thread opens and publishes a session while this one is connecting, outside of the map
+		final AtomicInteger connects = new AtomicInteger();
+		doAnswer(invocation -> {
+			if (connects.incrementAndGet() == 1) {
+				assertSame(otherSession, pool.acquire(ENDPOINT, smbSettings));
+			}
+			return connection;
+		}).when(smbClient).connect("host");
+
+		// the session published first is used, the other one is closed
+		assertSame(otherSession, pool.acquire(ENDPOINT, smbSettings));
+		assertEquals(1, pool.size());
+		verify(session).close();
+		verify(otherSession, never()).close();
+		verify(connection, never()).close();
+
+		// the password is not kept by reference: the caller may clear it
+		final char[] password = "pwd".toCharArray();
+		final WinRMEndpoint endpoint = new WinRMEndpoint(null, "host", null, "domain\\user", password, null);
+		pool.release(pool.acquire(endpoint, smbSettings));
+		Arrays.fill(password, '\0');
+		assertSame(otherSession, pool.acquire(ENDPOINT, smbSettings));
+		assertEquals(2, pool.getMisses());
+		assertEquals(2, pool.getHits());
+
+		// the idle sessions are closed in the background until the pool is empty
+		assertTrue(pool.isSweepScheduled());
+		System.setProperty(SmbSessionPool.IDLE_TIME_PROPERTY, "0");
+		try {
+			pool.sweep();
+			assertTrue(pool.isSweepScheduled());
+
+			for (int i = 0; i < 3; i++) {
+				pool.release(otherSession);
+			}
+			pool.sweep();
+			assertEquals(0, pool.size());
+			assertFalse(pool.isSweepScheduled());
+			verify(otherSession).close();
+
+			// no session left: the client is closed too
+			assertEquals(0, pool.getClientCount());
+			verify(smbClient).close();
+		} finally {
+			System.clearProperty(SmbSessionPool.IDLE_TIME_PROPERTY);
+		}
+	}
+
+	@Test
+	void testCloseUnusedClients() throws Exception {
+		final Connection connection = mock(Connection.class);
+		doReturn(true).when(connection).isConnected();
+
+		final Session session = mock(Session.class);
+		final Session otherSession = mock(Session.class);
+		doReturn(connection).when(session).getConnection();
+		doReturn(connection).when(otherSession).getConnection();
+		doReturn(session, otherSession).when(connection).authenticate(any(AuthenticationContext.class));
+
+		final SMBClient smbClient = mock(SMBClient.class);
+		final SMBClient otherClient = mock(SMBClient.class);
+		doReturn(connection).when(smbClient).connect("host");
+		doReturn(connection).when(otherClient).connect("host");
+
+		final AtomicInteger clients = new AtomicInteger();
+		final SmbSessionPool pool = new SmbSessionPool(config -> clients.incrementAndGet() == 1 ? smbClient : otherClient);
+
+		// other timeouts: other settings, other client
+		pool.release(pool.acquire(ENDPOINT, SmbSettings.of(TimeoutProfile.of(30_000L))));
+		assertSame(otherSession, pool.acquire(ENDPOINT, SmbSettings.of(TimeoutProfile.of(60_000L))));
+		assertEquals(2, pool.size());
+		assertEquals(2, pool.getClientCount());
+
+		System.setProperty(SmbSessionPool.IDLE_TIME_PROPERTY, "0");
+		try {
+			pool.evictIdle();
+			assertEquals(1, pool.size());
+			assertEquals(1, pool.getClientCount());
+			verify(smbClient).close();
+			verify(otherClient, never()).close();
+		} finally {
+			System.clearProperty(SmbSessionPool.IDLE_TIME_PROPERTY);
+		}
+
+		pool.clear();
+		assertEquals(0, pool.getClientCount());
+		verify(otherClient).close();
+	}
+
+	@Test
+	void testSettings() {
+		System.setProperty(SmbSettings.DIALECTS_PROPERTY, "smb_3_1_1, SMB_2_1");
+		System.setProperty(SmbSettings.SIGNING_REQUIRED_PROPERTY, "true");
+		System.setProperty(SmbSettings.READ_BUFFER_SIZE_PROPERTY, "65536");
+		try {
+			final SmbSettings smbSettings = SmbSettings.of(new TimeoutProfile(5_000L, 30_000L, 60_000L, 120_000L));
+			assertEquals(Arrays.asList(SMB2Dialect.SMB_3_1_1, SMB2Dialect.SMB_2_1), smbSettings.getDialects());
+			assertEquals(65536, smbSettings.getReadBufferSize());
+			assertEquals(SmbSettings.DEFAULT_BUFFER_SIZE, smbSettings.getWriteBufferSize());
+			assertEquals(smbSettings, SmbSettings.of(new TimeoutProfile(5_000L, 10_000L, 60_000L, 90_000L)));
+
+			final SmbConfig smbConfig = smbSettings.toSmbConfig();
+			assertEquals(65536, smbConfig.getReadBufferSize());
+			assertEquals(60_000L, smbConfig.getTransactTimeout());
+			assertEquals(true, smbConfig.isSigningRequired());
+
+			// the requests are not larger than the sizes negotiated with the server
+			final Connection connection = mock(Connection.class);
+			doReturn(new NegotiatedProtocol(SMB2Dialect.SMB_3_1_1, 65536, 8_388_608, 262_144, true))
+			.when(connection).getNegotiatedProtocol();
+			assertEquals(65536, smbSettings.getReadSize(connection));
+			assertEquals(262_144, smbSettings.getWriteSize(connection));
+		} finally {
+			System.clearProperty(SmbSettings.DIALECTS_PROPERTY);
+			System.clearProperty(SmbSettings.SIGNING_REQUIRED_PROPERTY);
+			System.clearProperty(SmbSettings.READ_BUFFER_SIZE_PROPERTY);
+		}
+
+		System.setProperty(SmbSettings.DIALECTS_PROPERTY, "SMB_4");
+		try {
+			assertThrows(IllegalArgumentException.class, () -> SmbSettings.of(TimeoutProfile.of(30_000L)));
+		} finally {
+			System.clearProperty(SmbSettings.DIALECTS_PROPERTY);
+		}
+	}
+}
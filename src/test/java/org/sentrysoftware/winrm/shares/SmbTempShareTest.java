@@ -2,43 +2,63 @@ package org.sentrysoftware.winrm.shares;
 
 import static org.sentrysoftware.winrm.WindowsTempShare.getOrCreateShare;
 import static java.nio.file.Paths.get;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.singletonList;
-import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.sentrysoftware.winrm.service.client.auth.AuthenticationEnum.NTLM;
 import static org.sentrysoftware.winrm.shares.SmbTempShare.createInstance;
-import static org.sentrysoftware.winrm.shares.SmbTempShare.createSmbClient;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.MockedStatic;
 import org.sentrysoftware.winrm.service.WinRMEndpoint;
 import org.sentrysoftware.winrm.service.WinRMService;
 import org.sentrysoftware.winrm.service.client.auth.AuthenticationEnum;
 
-import com.hierynomus.security.bc.BCSecurityProvider;
-import com.hierynomus.smbj.SMBClient;
-import com.hierynomus.smbj.SmbConfig;
-import com.hierynomus.smbj.SmbConfig.Builder;
-import com.hierynomus.smbj.auth.AuthenticationContext;
-import com.hierynomus.smbj.connection.Connection;
+import com.hierynomus.mserref.NtStatus;
+import com.hierynomus.msdtyp.FileTime;
+import com.hierynomus.msfscc.FileAttributes;
+import com.hierynomus.msfscc.fileinformation.FileAllInformation;
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import com.hierynomus.mssmb2.SMB2CreateDisposition;
+import com.hierynomus.mssmb2.SMB2MessageCommandCode;
+import com.hierynomus.mssmb2.SMBApiException;
 import com.hierynomus.smbj.session.Session;
+import com.hierynomus.smbj.share.Directory;
 import com.hierynomus.smbj.share.DiskShare;
+import com.hierynomus.smbj.share.File;
 import org.sentrysoftware.winrm.ShareRemoteDirectoryConsumer;
+import org.sentrysoftware.winrm.TimeoutProfile;
 import org.sentrysoftware.winrm.WindowsTempShare;
 
 class SmbTempShareTest {
@@ -71,10 +91,10 @@ class SmbTempShareTest {
 				final MockedStatic<SmbTempShare> mockedSmbTempShare = mockStatic(SmbTempShare.class);
 				final MockedStatic<WindowsTempShare> mockedWindowsTempShare =
 						mockStatic(WindowsTempShare.class);
-				final MockedStatic<SmbConfig> mockedSmbConfig = mockStatic(SmbConfig.class)) {
+				final MockedStatic<SmbSessionPool> mockedSmbSessionPool = mockStatic(SmbSessionPool.class)) {
 
 			final WinRMService winRMService = mock(WinRMService.class);
-			mockedWinRMService.when(() -> WinRMService.createInstance(winRMEndpoint, timeout, null, null))
+			mockedWinRMService.when(() -> WinRMService.createInstance(winRMEndpoint, TimeoutProfile.of(timeout), null, null))
 			.thenReturn(winRMService);
 
 			final WindowsTempShare windowsTempShare = mock(WindowsTempShare.class);
@@ -88,24 +108,11 @@ class SmbTempShareTest {
 			doReturn("Windows\\Temp\\SEN_ShareFor_TEST$").when(windowsTempShare).getRemotePath();
 			doReturn("SEN_ShareFor_PC-TEST$").when(windowsTempShare).getShareName();
 
-			final Builder smbConfigBuilder = mock(Builder.class);
-			mockedSmbConfig.when(SmbConfig::builder).thenReturn(smbConfigBuilder);
-
-			doReturn(smbConfigBuilder).when(smbConfigBuilder).withSecurityProvider(any(BCSecurityProvider.class));
-
-			doReturn(smbConfigBuilder).when(smbConfigBuilder).withTimeout(anyLong(), eq(SECONDS));
-
-			final SmbConfig smbConfig = mock(SmbConfig.class);
-			doReturn(smbConfig).when(smbConfigBuilder).build();
-
-			final SMBClient smbClient = mock(SMBClient.class);
-			mockedSmbTempShare.when(() -> createSmbClient(smbConfig)).thenReturn(smbClient);
-
-			final Connection connection = mock(Connection.class);
-			doReturn(connection).when(smbClient).connect(anyString());
+			final SmbSessionPool smbSessionPool = mock(SmbSessionPool.class);
+			mockedSmbSessionPool.when(SmbSessionPool::getInstance).thenReturn(smbSessionPool);
 
 			final Session session = mock(Session.class);
-			doReturn(session).when(connection).authenticate(any(AuthenticationContext.class));
+			doReturn(session).when(smbSessionPool).acquire(eq(winRMEndpoint), any(SmbSettings.class));
 
 			final DiskShare diskShare = mock(DiskShare.class);
 			doReturn(diskShare).when(session).connectShare(anyString());
@@ -117,8 +124,20 @@ class SmbTempShareTest {
 					isNull()))
 			.thenCallRealMethod();
 
+			mockedSmbTempShare.when(() -> createInstance(
+					any(WinRMEndpoint.class),
+					any(TimeoutProfile.class),
+					isNull(),
+					isNull()))
+			.thenCallRealMethod();
+
+			// the files uploaded to a share before it was discovered again are forgotten
+			final UploadCache uploadCache = UploadCache.getInstance();
+			uploadCache.setPresent(windowsTempShare.getUncSharePath(), "tool.exe", "ba7816bf");
+
 			final SmbTempShare smbTempShare1 = createInstance(winRMEndpoint, timeout, null, null);
 			assertNotNull(smbTempShare1);
+			assertFalse(uploadCache.isPresent(windowsTempShare.getUncSharePath(), "tool.exe", "ba7816bf"));
 			assertEquals(1, smbTempShare1.getUseCount());
 			assertEquals(winRMService, smbTempShare1.getWindowsRemoteExecutor());
 			assertTrue(smbTempShare1.isConnected());
@@ -137,11 +156,238 @@ class SmbTempShareTest {
 			assertEquals(1, smbTempShare1.getUseCount());
 			assertEquals(1, smbTempShare2.getUseCount());
 
+			verify(smbSessionPool, never()).release(session);
+
 			smbTempShare2.close();
 			assertFalse(smbTempShare1.isConnected());
 			assertFalse(smbTempShare2.isConnected());
 			assertEquals(0, smbTempShare1.getUseCount());
 			assertEquals(0, smbTempShare2.getUseCount());
+
+			// the session goes back to the pool
+			verify(smbSessionPool).release(session);
+		}
+	}
+
+	@Test
+	void testWriteAndRead(@TempDir final Path tempDir) throws Exception {
+
+		final byte[] content = new byte[10_000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 31);
+		}
+		final Path localFile = tempDir.resolve("tool.exe");
+		Files.write(localFile, content);
+
+		// each write lands at its offset in the "remote" file
+		final byte[] remote = new byte[content.length];
+		final File file = mock(File.class);
+		doAnswer(invocation -> {
+			final byte[] buffer = invocation.getArgument(0);
+			final long offset = invocation.getArgument(1);
+			final int length = invocation.getArgument(3);
+			System.arraycopy(buffer, 0, remote, (int) offset, length);
+			return CompletableFuture.completedFuture((long) length);
+		}).when(file).writeAsync(any(byte[].class), anyLong(), anyInt(), anyInt());
+
+		try (final FileChannel channel = FileChannel.open(localFile, StandardOpenOption.READ)) {
+			assertEquals(content.length, SmbTempShare.write(channel, file, 4096, 2));
+		}
+		assertTrue(Arrays.equals(content, remote));
+
+		doAnswer(invocation -> {
+			final byte[] buffer = invocation.getArgument(0);
+			final long offset = invocation.getArgument(1);
+			final int length = (int) Math.min(invocation.<Integer>getArgument(3), remote.length - offset);
+			System.arraycopy(remote, (int) offset, buffer, 0, Math.max(length, 0));
+			return Math.max(length, -1);
+		}).when(file).read(any(byte[].class), anyLong(), anyInt(), anyInt());
+
+		final Path downloaded = tempDir.resolve("downloaded.exe");
+		try (final FileChannel channel = FileChannel.open(
+				downloaded,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE)) {
+			assertEquals(content.length, SmbTempShare.read(file, channel, 3000));
+		}
+		assertTrue(Arrays.equals(content, Files.readAllBytes(downloaded)));
+	}
+
+	@Test
+	void testWriteShortCounts(@TempDir final Path tempDir) throws Exception {
+
+		final byte[] content = new byte[10_000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 17);
+		}
+		final Path localFile = tempDir.resolve("tool.exe");
+		Files.write(localFile, content);
+
+		// each write request writes at most 1000 bytes of its chunk, like a server with a small write size
+		final byte[] remote = new byte[content.length];
+		final File file = mock(File.class);
+		doAnswer(invocation -> {
+			final byte[] buffer = invocation.getArgument(0);
+			final long offset = invocation.getArgument(1);
+			final int bufferOffset = invocation.getArgument(2);
+			final int length = Math.min(invocation.<Integer>getArgument(3), 1000);
+			System.arraycopy(buffer, bufferOffset, remote, (int) offset, length);
+			return CompletableFuture.completedFuture((long) length);
+		}).when(file).writeAsync(any(byte[].class), anyLong(), anyInt(), anyInt());
+
+		try (final FileChannel channel = FileChannel.open(localFile, StandardOpenOption.READ)) {
+			assertEquals(content.length, SmbTempShare.write(channel, file, 4096, 2));
 		}
+		assertTrue(Arrays.equals(content, remote));
+
+		// a write request which writes nothing fails the upload instead of leaving a hole
+		doReturn(CompletableFuture.completedFuture(0L)).when(file).writeAsync(any(byte[].class), anyLong(), anyInt(), anyInt());
+		try (final FileChannel channel = FileChannel.open(localFile, StandardOpenOption.READ)) {
+			assertThrows(IOException.class, () -> SmbTempShare.write(channel, file, 4096, 2));
+		}
+	}
+
+	@Test
+	void testListAndStat() throws Exception {
+
+		final DiskShare diskShare = mock(DiskShare.class);
+		final Directory directory = mock(Directory.class);
+		doReturn(directory).when(diskShare).openDirectory(
+				eq("logs"),
+				any(),
+				isNull(),
+				any(),
+				eq(SMB2CreateDisposition.FILE_OPEN),
+				any());
+
+		final List<FileIdBothDirectoryInformation> entries = Arrays.asList(
+				directoryEntry(".", FileAttributes.FILE_ATTRIBUTE_DIRECTORY.getValue(), 0),
+				directoryEntry("..", FileAttributes.FILE_ATTRIBUTE_DIRECTORY.getValue(), 0),
+				directoryEntry("app.log", FileAttributes.FILE_ATTRIBUTE_ARCHIVE.getValue(), 1234),
+				directoryEntry("old", FileAttributes.FILE_ATTRIBUTE_DIRECTORY.getValue(), 0));
+		doReturn(entries.iterator()).when(directory).iterator(FileIdBothDirectoryInformation.class, "*");
+
+		final List<RemoteFile> files = new ArrayList<>();
+		SmbTempShare.list(diskShare, "logs", null, files::add);
+
+		assertEquals(2, files.size());
+		assertEquals("logs\\app.log", files.get(0).getPath());
+		assertEquals(1234, files.get(0).getSize());
+		assertFalse(files.get(0).isDirectory());
+		assertTrue(files.get(1).isDirectory());
+
+		doThrow(new SMBApiException(NtStatus.STATUS_OBJECT_NAME_NOT_FOUND.getValue(), SMB2MessageCommandCode.SMB2_CREATE, null))
+		.when(diskShare).getFileInformation("missing.log");
+		assertNull(SmbTempShare.stat(diskShare, "missing.log"));
+
+		doThrow(new SMBApiException(NtStatus.STATUS_ACCESS_DENIED.getValue(), SMB2MessageCommandCode.SMB2_CREATE, null))
+		.when(diskShare).getFileInformation("denied.log");
+		assertThrows(IOException.class, () -> SmbTempShare.stat(diskShare, "denied.log"));
+	}
+
+	@Test
+	void testIsUpToDate(@TempDir final Path tempDir) throws Exception {
+		final Path localFile = Files.write(tempDir.resolve("tool.exe"), "tool".getBytes(UTF_8));
+		Files.setLastModifiedTime(localFile, java.nio.file.attribute.FileTime.fromMillis(10_000L));
+
+		final DiskShare diskShare = mock(DiskShare.class);
+		doThrow(new SMBApiException(NtStatus.STATUS_OBJECT_NAME_NOT_FOUND.getValue(), SMB2MessageCommandCode.SMB2_CREATE, null))
+		.when(diskShare).getFileInformation("tool.exe");
+		assertFalse(SmbTempShare.isUpToDate(diskShare, localFile, "tool.exe"));
+
+		// the same size, uploaded with the last-modified time of the local file
+		final FileAllInformation information = mock(FileAllInformation.class, RETURNS_DEEP_STUBS);
+		when(information.getStandardInformation().getEndOfFile()).thenReturn(4L);
+		when(information.getBasicInformation().getCreationTime()).thenReturn(FileTime.ofEpochMillis(0L));
+		when(information.getBasicInformation().getLastWriteTime()).thenReturn(FileTime.ofEpochMillis(10_000L));
+		doReturn(information).when(diskShare).getFileInformation("tool.exe");
+		assertTrue(SmbTempShare.isUpToDate(diskShare, localFile, "tool.exe"));
+
+		// the local file was modified since
+		Files.setLastModifiedTime(localFile, java.nio.file.attribute.FileTime.fromMillis(20_000L));
+		assertFalse(SmbTempShare.isUpToDate(diskShare, localFile, "tool.exe"));
+
+		// another size
+		when(information.getBasicInformation().getLastWriteTime()).thenReturn(FileTime.ofEpochMillis(20_000L));
+		assertTrue(SmbTempShare.isUpToDate(diskShare, localFile, "tool.exe"));
+		when(information.getStandardInformation().getEndOfFile()).thenReturn(5L);
+		assertFalse(SmbTempShare.isUpToDate(diskShare, localFile, "tool.exe"));
+	}
+
+	@Test
+	void testTail() throws Exception {
+
+		final DiskShare diskShare = mock(DiskShare.class);
+		final File file = mock(File.class);
+		doReturn(file).when(diskShare).openFile(
+				eq("app.log"),
+				any(),
+				isNull(),
+				any(),
+				eq(SMB2CreateDisposition.FILE_OPEN),
+				any());
+
+		final byte[][] content = { "abc".getBytes(UTF_8) };
+		doReturn(fileInformation(3, 1L)).when(file).getFileInformation();
+		doAnswer(invocation -> {
+			final byte[] buffer = invocation.getArgument(0);
+			final long offset = invocation.getArgument(1);
+			final int bufferOffset = invocation.getArgument(2);
+			final int length = invocation.getArgument(3);
+			System.arraycopy(content[0], (int) offset, buffer, bufferOffset, length);
+			return length;
+		}).when(file).read(any(byte[].class), anyLong(), anyInt(), anyInt());
+
+		final RemoteFileTail tail = new RemoteFileTail(null, "app.log", false);
+		assertEquals("abc", new String(SmbTempShare.tail(diskShare, tail, 1024, 1024), UTF_8));
+		assertEquals(0, SmbTempShare.tail(diskShare, tail, 1024, 1024).length);
+
+		// appended, read in 2 calls
+		content[0] = "abcdef".getBytes(UTF_8);
+		doReturn(fileInformation(6, 1L)).when(file).getFileInformation();
+		assertEquals("de", new String(SmbTempShare.tail(diskShare, tail, 2, 1024), UTF_8));
+		assertEquals("f", new String(SmbTempShare.tail(diskShare, tail, 2, 1024), UTF_8));
+
+		// renamed and recreated, read with requests of the read size
+		content[0] = "ghijkl".getBytes(UTF_8);
+		doReturn(fileInformation(6, 2L)).when(file).getFileInformation();
+		assertEquals("ghijkl", new String(SmbTempShare.tail(diskShare, tail, 1024, 4), UTF_8));
+		verify(file).read(any(byte[].class), eq(0L), eq(0), eq(4));
+		verify(file).read(any(byte[].class), eq(4L), eq(4), eq(2));
+		assertEquals(1, tail.getRotations());
+
+		// truncated
+		content[0] = "m".getBytes(UTF_8);
+		doReturn(fileInformation(1, 2L)).when(file).getFileInformation();
+		assertEquals("m", new String(SmbTempShare.tail(diskShare, tail, 1024, 1024), UTF_8));
+		assertEquals(2, tail.getRotations());
+		assertEquals(1, tail.getOffset());
+
+		// from the end: only the next bytes
+		final RemoteFileTail tailFromEnd = new RemoteFileTail(null, "app.log", true);
+		assertEquals(0, SmbTempShare.tail(diskShare, tailFromEnd, 1024, 1024).length);
+		content[0] = "mn".getBytes(UTF_8);
+		doReturn(fileInformation(2, 2L)).when(file).getFileInformation();
+		assertEquals("n", new String(SmbTempShare.tail(diskShare, tailFromEnd, 1024, 1024), UTF_8));
+	}
+
+	private static FileAllInformation fileInformation(final long size, final long fileId) {
+		final FileAllInformation information = mock(FileAllInformation.class, RETURNS_DEEP_STUBS);
+		when(information.getStandardInformation().getEndOfFile()).thenReturn(size);
+		when(information.getInternalInformation().getIndexNumber()).thenReturn(fileId);
+		return information;
+	}
+
+	private static FileIdBothDirectoryInformation directoryEntry(
+			final String name,
+			final long attributes,
+			final long size) {
+		final FileIdBothDirectoryInformation information = mock(FileIdBothDirectoryInformation.class);
+		doReturn(name).when(information).getFileName();
+		doReturn(attributes).when(information).getFileAttributes();
+		doReturn(size).when(information).getEndOfFile();
+		doReturn(FileTime.ofEpochMillis(0L)).when(information).getCreationTime();
+		doReturn(FileTime.ofEpochMillis(1000L)).when(information).getLastWriteTime();
+		return information;
 	}
 }
@@ -0,0 +1,122 @@
+package org.sentrysoftware.winrm.shares;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.sentrysoftware.winrm.service.WinRMEndpoint;
+
+/**
+ * Upload and download time of multi-MB tool binaries through the SMB session, by buffer size
+ * and number of outstanding writes. Needs a reachable Windows host:
+ * -Dbenchmark.hostname=... -Dbenchmark.username=DOMAIN\\user, with the password in the BENCHMARK_PASSWORD
+ * environment variable (inherited by the forked JVM, so that it does not show in its command line)
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.sentrysoftware.winrm.shares.SmbTransferBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SmbTransferBenchmark {
+
+	private static final long TIMEOUT = 120 * 1000L;
+	private static final String PASSWORD_VARIABLE = "BENCHMARK_PASSWORD";
+
+	@Param({"1048576", "8388608", "33554432"})
+	private int fileSize;
+
+	@Param({"65536", "1048576"})
+	private int bufferSize;
+
+	@Param({"1", "4"})
+	private int outstandingWrites;
+
+	private Path localFile;
+	private Path downloadedFile;
+	private String remoteFileName;
+	private SmbTempShare smbTempShare;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		System.setProperty(SmbSettings.READ_BUFFER_SIZE_PROPERTY, String.valueOf(bufferSize));
+		System.setProperty(SmbSettings.WRITE_BUFFER_SIZE_PROPERTY, String.valueOf(bufferSize));
+		System.setProperty(SmbTempShare.OUTSTANDING_WRITES_PROPERTY, String.valueOf(outstandingWrites));
+
+		final byte[] content = new byte[fileSize];
+		new Random(fileSize).nextBytes(content);
+		localFile = Files.createTempFile("SmbTransferBenchmark", ".bin");
+		Files.write(localFile, content);
+		downloadedFile = Files.createTempFile("SmbTransferBenchmark", ".download");
+		remoteFileName = localFile.getFileName().toString();
+
+		final WinRMEndpoint winRMEndpoint = new WinRMEndpoint(
+				null,
+				System.getProperty("benchmark.hostname"),
+				null,
+				System.getProperty("benchmark.username"),
+				getPassword(),
+				null);
+
+		smbTempShare = SmbTempShare.createInstance(winRMEndpoint, TIMEOUT, null, null);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		try {
+			smbTempShare.removeQuietly(remoteFileName);
+			smbTempShare.close();
+		} finally {
+			Files.deleteIfExists(localFile);
+			Files.deleteIfExists(downloadedFile);
+		}
+	}
+
+	@Benchmark
+	public long upload() throws IOException {
+		return smbTempShare.upload(localFile, remoteFileName);
+	}
+
+	@Benchmark
+	public long uploadThenDownload() throws IOException {
+		smbTempShare.upload(localFile, remoteFileName);
+		return smbTempShare.download(remoteFileName, downloadedFile);
+	}
+
+	private static char[] getPassword() {
+		final String password = System.getenv(PASSWORD_VARIABLE);
+		return password != null ? password.toCharArray() : new char[0];
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(SmbTransferBenchmark.class.getSimpleName())
+				.jvmArgsAppend(
+						"-Dbenchmark.hostname=" + System.getProperty("benchmark.hostname", ""),
+						"-Dbenchmark.username=" + System.getProperty("benchmark.username", ""))
+				.build())
+			.run();
+	}
+}
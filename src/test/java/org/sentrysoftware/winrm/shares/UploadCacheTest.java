@@ -0,0 +1,65 @@
+package org.sentrysoftware.winrm.shares;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UploadCacheTest {
+
+	private static final String SHARE = "\\\\host\\SEN_ShareFor_PC$";
+
+	@Test
+	void testGetHash(@TempDir final Path tempDir) throws Exception {
+		final UploadCache uploadCache = new UploadCache();
+		final Path localFile = tempDir.resolve("tool.exe");
+		Files.write(localFile, "abc".getBytes(StandardCharsets.US_ASCII));
+
+		final String hash = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+		assertEquals(hash, uploadCache.getHash(localFile));
+		assertEquals(hash, uploadCache.getHash(localFile));
+		assertEquals(1, uploadCache.getHashMisses());
+		assertEquals(1, uploadCache.getHashHits());
+
+		// modified: hashed again
+		Files.write(localFile, "abcd".getBytes(StandardCharsets.US_ASCII));
+		Files.setLastModifiedTime(localFile, FileTime.fromMillis(1_000_000L));
+		assertNotEquals(hash, uploadCache.getHash(localFile));
+		assertEquals(2, uploadCache.getHashMisses());
+	}
+
+	@Test
+	void testPresence() {
+		final UploadCache uploadCache = new UploadCache();
+		final String remoteFileName = "tool.exe";
+		final String hash = "ba7816bf";
+
+		assertFalse(uploadCache.isPresent(SHARE, remoteFileName, hash));
+
+		uploadCache.setPresent(SHARE, remoteFileName, hash);
+		assertTrue(uploadCache.isPresent(SHARE.toUpperCase(), "TOOL.EXE", hash));
+		assertEquals(1, uploadCache.getPresenceHits());
+		assertEquals(1, uploadCache.getPresenceMisses());
+
+		// another content with the same name
+		assertFalse(uploadCache.isPresent(SHARE, remoteFileName, "88d4266f"));
+
+		System.setProperty(UploadCache.PRESENCE_TIME_PROPERTY, "0");
+		try {
+			assertFalse(uploadCache.isPresent(SHARE, remoteFileName, hash));
+		} finally {
+			System.clearProperty(UploadCache.PRESENCE_TIME_PROPERTY);
+		}
+
+		uploadCache.forget(SHARE);
+		assertFalse(uploadCache.isPresent(SHARE, remoteFileName, hash));
+	}
+}